@@ -11,51 +11,26 @@ public class PageRankInvertedIndex extends InvertedIndex{
 
     double pageWeight = 0.0;
 
+    /**
+     * The PageRank of each document, keyed by file name, read from
+     * page_ranks.txt in the indexed directory the first time it is needed.
+     */
+    Map<String, Double> pageRanks = null;
+
     public PageRankInvertedIndex(File dirFile, short docType, boolean stem, boolean feedback, double weight) {
         super(dirFile, docType, stem, feedback);
         pageWeight = weight;
-        tokenHash = new HashMap<String, TokenInfo>();
-        docRefs = new ArrayList<DocumentReference>();
-        indexDocuments();
+        setScorer(new PageRankScorer());
       }
 
       public PageRankInvertedIndex(List<Example> examples) {
         super(examples);
-        tokenHash = new HashMap<String, TokenInfo>();
-        docRefs = new ArrayList<DocumentReference>();
-        indexDocuments(examples);
       }
 
-      public Retrieval[] retrieve(HashMapVector vector) {
-        // Create a hashtable to store the retrieved documents.  Keys
-        // are docRefs and values are DoubleValues which indicate the
-        // partial score accumulated for this document so far.
-        // As each token in the query is processed, each document
-        // it indexes is added to this hashtable and its retrieval
-        // score (similarity to the query) is appropriately updated.
-        Map<DocumentReference, DoubleValue> retrievalHash =
-            new HashMap<DocumentReference, DoubleValue>();
-        // Initialize a variable to store the length of the query vector
-        double queryLength = 0.0;
-        // Iterate through each token in the query input Document
-        for (Map.Entry<String, Weight> entry : vector.entrySet()) {
-          String token = entry.getKey();
-          double count = entry.getValue().getValue();
-          // Determine the score added to the similarity of each document
-          // indexed under this token and update the length of the
-          // query vector with the square of the weight for this token.
-          queryLength = queryLength + incorporateToken(token, count, retrievalHash);
-        }
-
-        // Finalize the length of the query vector by taking the square-root of the
-        // final sum of squares of its token weights.
-        queryLength = Math.sqrt(queryLength);
-        // Make an array to store the final ranked Retrievals.
-        Retrieval[] retrievals = new Retrieval[retrievalHash.size()];
-        // Iterate through each of the retrieved documents stored in
-        // the final retrievalHash.
-        int retrievalCount = 0;
-        Map<String, Double> pageRanks = new HashMap<String, Double>();
+      protected synchronized void loadPageRanks() {
+        if (pageRanks != null)
+            return;
+        pageRanks = new HashMap<String, Double>();
         try {
 
             File rankFile = new File(dirFile.toString() + "/page_ranks.txt");
@@ -76,24 +51,30 @@ public class PageRankInvertedIndex extends InvertedIndex{
         } catch (IOException e) {
             e.printStackTrace();
         }
-        for (Map.Entry<DocumentReference, DoubleValue> entry : retrievalHash.entrySet()) {
-          DocumentReference docRef = entry.getKey();
-          double score = entry.getValue().value;
-          double pageRank = pageRanks.get(docRef.toString());
-          double modifier = pageWeight * pageRank;
-          retrievals[retrievalCount++] = getRetrieval(queryLength, docRef, score, modifier);
-        }
-        // Sort the retrievals to produce a final ranked list using the
-        // Comparator for retrievals that produces a best to worst ordering.
-        Arrays.sort(retrievals);
-        return retrievals;
+      }
+
+      /**
+       * Adds the weighted PageRank of each document to its cosine
+       * similarity, looking the PageRanks up by document id in an array
+       * filled whenever the statistics of the index are recomputed.  A
+       * document with no PageRank gets none added.
+       */
+      protected class PageRankScorer extends CosineScorer {
+        protected double[] ranks = new double[0];
+
+        public void init(InvertedIndex index) {
+          super.init(index);
+          loadPageRanks();
+          ranks = new double[docRefs.size()];
+          for (int docId = 0; docId < ranks.length; docId++) {
+            Double pageRank = pageRanks.get(docRefs.get(docId).toString());
+            ranks[docId] = pageRank == null ? 0.0 : pageRank;
           }
+        }
 
-      protected Retrieval getRetrieval(double queryLength, DocumentReference docRef, double score, double modifier) {
-        // Normalize score for the lengths of the two document vectors
-        score = score / (queryLength * docRef.length) + modifier;
-        // Add a Retrieval for this document to the result array
-        return new Retrieval(docRef, score);
+        public double finalScore(int docId, double score, double queryLength, int matches, int querySize) {
+          return super.finalScore(docId, score, queryLength, matches, querySize) + pageWeight * ranks[docId];
+        }
       }
     
     public static void main(String[] args) {
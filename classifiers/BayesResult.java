@@ -2,6 +2,8 @@ package ir.classifiers;
 
 import java.util.*;
 
+import ir.vsr.*;
+
 /**
  * An object to hold the result of training a NaiveBayes classifier.
  * Stores the class priors and the counts of features in each class.
@@ -17,10 +19,17 @@ public class BayesResult {
 
   /**
    * Stores the counts for each feature: an entry in the hashTable stores
-   * the array of class counts for a feature
+   * the array of class counts for a feature.  Made from featureProbs when
+   * first asked for.
    */
   protected Hashtable<String, double[]> featureTable;
 
+  /**
+   * Stores the array of class counts for each feature by the id of its
+   * token in the shared Lexicon, null for tokens never seen in training
+   */
+  protected double[][] featureProbs;
+
   /**
    * Sets the class priors
    */
@@ -40,12 +49,42 @@ public class BayesResult {
    */
   public void setFeatureTable(Hashtable<String, double[]> table) {
     featureTable = table;
+    // Index the same arrays by token id
+    featureProbs = new double[0][];
+    for (Map.Entry<String, double[]> entry : table.entrySet()) {
+      int id = Lexicon.SHARED.id(entry.getKey());
+      if (id >= featureProbs.length)
+        featureProbs = Arrays.copyOf(featureProbs, Math.max(id + 1, 2 * featureProbs.length));
+      featureProbs[id] = entry.getValue();
+    }
   }
 
   /**
    * Returns the feature hash
    */
-  public Hashtable<String, double[]> getFeatureTable() {
+  public synchronized Hashtable<String, double[]> getFeatureTable() {
+    if (featureTable == null && featureProbs != null) {
+      featureTable = new Hashtable<String, double[]>();
+      for (int id = 0; id < featureProbs.length; id++) {
+        if (featureProbs[id] != null)
+          featureTable.put(Lexicon.SHARED.term(id), featureProbs[id]);
+      }
+    }
     return (featureTable);
   }
+
+  /**
+   * Sets the class counts of each feature by token id in the shared Lexicon
+   */
+  public void setFeatureProbs(double[][] probs) {
+    featureProbs = probs;
+    featureTable = null;
+  }
+
+  /**
+   * Returns the class counts of each feature by token id in the shared Lexicon
+   */
+  public double[][] getFeatureProbs() {
+    return featureProbs;
+  }
 }
@@ -256,13 +256,8 @@ public class CVLearningCurve {
     trainTime += timeTaken;
 
     // Test on test data and measure time and accuracy
-    int testCorrect = 0;
     startTime = System.currentTimeMillis();
-    for (Example example : test) {
-      // classify the test example
-      if (classifier.test(example))
-        testCorrect++;
-    }
+    int testCorrect = classifier.numCorrect(test);
     timeTaken = System.currentTimeMillis() - startTime;
     testTime += timeTaken;
     testTimeNum += test.size();
@@ -272,12 +267,7 @@ public class CVLearningCurve {
     testPointResults.addResult(fold, testAccuracy);
 
     // Test on training data and measure accuracy
-    int trainCorrect = 0;
-    for (Example example : train) {
-      // classify the test example
-      if (classifier.test(example))
-        trainCorrect++;
-    }
+    int trainCorrect = classifier.numCorrect(train);
     trainPointResults.setPoint(train.size());
     double trainAccuracy = 1.0 * trainCorrect / train.size();
     if (train.size() == 0) trainAccuracy = 1.0;
@@ -57,6 +57,20 @@ public abstract class Classifier {
    */
   public abstract boolean test(Example testExample);
 
+  /**
+   * Returns the number of test examples whose predicted category matches
+   * the correct category.  Classifiers that can test a batch of examples
+   * faster than one at a time should override this.
+   */
+  public int numCorrect(List<Example> testExamples) {
+    int correct = 0;
+    for (Example example : testExamples) {
+      if (test(example))
+        correct++;
+    }
+    return correct;
+  }
+
   /**
    * Returns the array index with the maximum value
    *
@@ -29,6 +29,12 @@ public class Example {
    */
   protected HashMapVector hashVector;
 
+  /**
+   * The hashVector with its tokens resolved to ids in the shared Lexicon,
+   * made when first needed
+   */
+  protected TermVector termVector = null;
+
   /**
    * fileDocument object for the example
    */
@@ -74,6 +80,7 @@ public class Example {
    */
   public void setHashMapVector(HashMapVector v) {
     hashVector = v;
+    termVector = null;
   }
 
   /**
@@ -83,6 +90,18 @@ public class Example {
     return hashVector;
   }
 
+  /**
+   * Returns the hashVector of the example keyed by the ids of its tokens
+   * in the shared Lexicon.  Tokens are only resolved the first time, so
+   * classifiers trained and tested on the same examples many times, as in
+   * cross validation, do not hash them again.
+   */
+  public synchronized TermVector getTermVector() {
+    if (termVector == null)
+      termVector = new TermVector(hashVector, Lexicon.SHARED);
+    return termVector;
+  }
+
   /**
    * Sets the document of the example
    */
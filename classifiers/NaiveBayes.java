@@ -126,7 +126,7 @@ public class NaiveBayes extends Classifier {
     //calculate class priors
     trainResult.setClassPriors(calculatePriors(trainExamples));
     //calculate counts of feature for each class
-    trainResult.setFeatureTable(conditionalProbs(trainExamples));
+    trainResult.setFeatureProbs(conditionalProbs(trainExamples));
     if (debug) {
       displayProbs(trainResult.getClassPriors(), trainResult.getFeatureTable());
     }
@@ -187,39 +187,39 @@ public class NaiveBayes extends Classifier {
   }
 
   /**
-   * Calculates the conditional probs of each feature in the different categories
+   * Calculates the conditional probs of each feature in the different categories.
+   * Features are indexed by the ids of their tokens in the shared Lexicon,
+   * so counting never hashes a token string.
    *
    * @param trainExamples The training examples from which counts will be estimated
+   * @return The log probs of each feature in each category by token id,
+   * null for tokens that do not occur in the training examples.
    */
-  protected Hashtable<String, double[]> conditionalProbs(List<Example> trainExamples) {
-    // Initialize hashtable giving conditional prob of each class given a feature
-    Hashtable<String, double[]> featureHash = new Hashtable<String, double[]>();
+  protected double[][] conditionalProbs(List<Example> trainExamples) {
+    // Array giving the counts of each feature in each class by token id
+    double[][] featureProbs = new double[Lexicon.SHARED.size()][];
     double[] totalCounts = new double[numCategories]; // stores total count of all features in each category
-
-    for (int i = 0; i < numCategories; i++)
-      totalCounts[i] = 0;
+    numFeatures = 0;
 
     for (Example currentExample : trainExamples) {
+      TermVector vector = currentExample.getTermVector();
       if (debug) {
         System.out.println("\nExample: " + currentExample);
-        System.out.println("Number of tokens: " + currentExample.getHashMapVector().hashMap.size());
+        System.out.println("Number of tokens: " + vector.size());
       }
-      for (Map.Entry<String, Weight> entry : currentExample.getHashMapVector().entrySet()) {
-        // An entry in the HashMap maps a token to a Weight
-        String token = entry.getKey();
-        // The count for the token is in the value of the Weight value
-        int count = (int) entry.getValue().getValue();
-        double[] countArray; // stores counts for current feature
+      for (int i = 0; i < vector.size(); i++) {
+        int id = vector.id(i);
+        // The count for the token is its weight
+        int count = (int) vector.weight(i);
         if (debug)
-          System.out.println("Counts of token: " + token);
-        if (!featureHash.containsKey(token)) {
-          countArray = new double[numCategories]; //create a new array
-          for (int m = 0; m < numCategories; m++)
-            countArray[m] = 0.0; //init to 0
-          featureHash.put(token, countArray); //add to hashtable
-        } else {
-          // retrieve existing array from hashtable
-          countArray = featureHash.get(token);
+          System.out.println("Counts of token: " + Lexicon.SHARED.term(id));
+        if (id >= featureProbs.length) // tokens added to the lexicon since we started
+          featureProbs = Arrays.copyOf(featureProbs, Math.max(id + 1, 2 * featureProbs.length));
+        double[] countArray = featureProbs[id]; // stores counts for current feature
+        if (countArray == null) {
+          countArray = new double[numCategories]; //create a new array, all 0
+          featureProbs[id] = countArray;
+          numFeatures++;
         }
         countArray[currentExample.getCategory()] += count;
         totalCounts[currentExample.getCategory()] += count;
@@ -230,14 +230,14 @@ public class NaiveBayes extends Classifier {
         }
       }
     }
-    numFeatures = featureHash.size();
     //We can now compute the log probabilities
     if (debug) {
       System.out.println("\nLog Probs before multiplying priors...\n");
     }
-    for (Map.Entry<String, double[]> entry : featureHash.entrySet()) {
-      String token = entry.getKey();
-      double[] countArray = entry.getValue();
+    for (int id = 0; id < featureProbs.length; id++) {
+      double[] countArray = featureProbs[id];
+      if (countArray == null)
+        continue;
       for (int j = 0; j < numCategories; j++) {
         if (isLaplace) //Laplace smoothing
           countArray[j] = (countArray[j] + 1) / (totalCounts[j] + numFeatures);
@@ -250,13 +250,13 @@ public class NaiveBayes extends Classifier {
         countArray[j] = Math.log(countArray[j]); //take log of probability
       }
       if (debug) {
-        System.out.println("Log probs of " + token);
+        System.out.println("Log probs of " + Lexicon.SHARED.term(id));
         for (int k = 0; k < countArray.length; k++)
           System.out.print(countArray[k] + " ");
         System.out.println();
       }
     }
-    return (featureHash);
+    return (featureProbs);
   }
 
   /**
@@ -268,14 +268,14 @@ public class NaiveBayes extends Classifier {
   protected double[] calculateProbs(Example testExample) {
     //set initial probabilities to the prior probs
     double[] probs = trainResult.getClassPriors().clone();
-    Hashtable<String, double[]> hashTable = trainResult.getFeatureTable();
-    for (Map.Entry<String, Weight> entry : testExample.getHashMapVector().entrySet()) {
-      // An entry in the HashMap maps a token to a Weight
-      String token = entry.getKey();
-      // The count for the token is in the value of the Weight
-      int count = (int) entry.getValue().getValue();
-      if (hashTable.containsKey(token)) {//ignore unknowns
-        double[] countArray = hashTable.get(token); // stores the category array for one token
+    double[][] featureProbs = trainResult.getFeatureProbs();
+    TermVector vector = testExample.getTermVector();
+    for (int i = 0; i < vector.size(); i++) {
+      int id = vector.id(i);
+      // The count for the token is its weight
+      int count = (int) vector.weight(i);
+      if (id < featureProbs.length && featureProbs[id] != null) {//ignore unknowns
+        double[] countArray = featureProbs[id]; // stores the category array for one token
         for (int k = 0; k < numCategories; k++)
           probs[k] += count * countArray[k];//multiplying the probs == adding the logs
       }
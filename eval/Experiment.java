@@ -123,47 +123,68 @@ public class Experiment {
 
   /**
    * Process each query in the queryFile and store evaluated results
-   * in rpResults
+   * in rpResults.  All the queries are retrieved as one batch, in
+   * parallel, before any are evaluated.
    */
   void processQueries() throws IOException {
+    List<TestQuery> queries = readQueries();
+    List<Retrieval[]> retrievals = retrieveQueries(queries);
+    for (int i = 0; i < queries.size(); i++)
+      processQuery(queries.get(i), retrievals.get(i));
+    // System.out.println("\n" + rpResults);
+  }
+
+  /**
+   * Read every query in the queryFile, with the line of relevant docs that
+   * follows it, checking for the blank line after each.
+   */
+  List<TestQuery> readQueries() throws IOException {
+    List<TestQuery> queries = new ArrayList<TestQuery>();
     BufferedReader in = new BufferedReader(new FileReader(queryFile));
-    while (processQuery(in)) ;
+    String text;
+    while ((text = in.readLine()) != null) {
+      // Read the known relevant docs for the query, and then the blank
+      // line delimiter between queries in the query file
+      String relevant = in.readLine();
+      String line = in.readLine();
+      if (!(line == null || line.trim().equals(""))) {
+        System.out.println("\nCould not find blank line after query, bad queryFile format");
+        System.exit(1);
+      }
+      queries.add(new TestQuery(text, new TextStringDocument(text, index.stem, index.stopWords).hashMapVector(),
+          relevant));
+    }
     in.close();
-    // System.out.println("\n" + rpResults);
+    return queries;
   }
 
   /**
-   * Process the next query read from the query file reader and evaluate
-   * results compared to known relevant docs also read from the query file.
-   *
-   * @return true if query successfully read, else false if no more queries
-   * in query file
+   * Retrieve the documents for all the queries as one batch, running them
+   * in parallel, and return the ranked retrievals of each in order.  Every
+   * query retrieves all matching documents.
    */
-  boolean processQuery(BufferedReader in) throws IOException {
-    String query = in.readLine();   // get the query
-    if (query == null) return false;  // return false if end of file
-    System.out.println("\nQuery " + (rpResults.size() + 1) + ": " + query);
+  List<Retrieval[]> retrieveQueries(List<TestQuery> queries) {
+    List<HashMapVector> vectors = new ArrayList<HashMapVector>(queries.size());
+    for (TestQuery query : queries)
+      vectors.add(query.vector);
+    return index.retrieveAll(vectors, index.docRefs.size());
+  }
 
-    // Process the query and get the ranked retrievals
-    Retrieval[] retrievals = index.retrieve(query);
+  /**
+   * Evaluate the ranked retrievals for a query compared to its known
+   * relevant docs.
+   */
+  void processQuery(TestQuery query, Retrieval[] retrievals) {
+    System.out.println("\nQuery " + (rpResults.size() + 1) + ": " + query.text);
     System.out.println("Returned " + retrievals.length + " documents.");
 
-    // Read the known relevant docs from query file and parse them
-    // into an ArrayList of String's of relevant file names.
-    String line = in.readLine();
-    ArrayList<String> correctRetrievals = MoreString.segment(line, ' ');
+    // Parse the known relevant docs into an ArrayList of String's of
+    // relevant file names.
+    ArrayList<String> correctRetrievals = MoreString.segment(query.relevant, ' ');
     System.out.println(correctRetrievals.size() + " truly relevant documents.");
 
     // Generate Recall/Precision points and save in rpResults
     rpResults.add(evalRetrievals(retrievals, correctRetrievals));
-
-    // Read the blank line delimiter between queries in the query file
-    line = in.readLine();
-    if (!(line == null || line.trim().equals(""))) {
-      System.out.println("\nCould not find blank line after query, bad queryFile format");
-      System.exit(1);
-    }
-    return true;
   }
 
   /**
@@ -275,8 +296,10 @@ public class Experiment {
    * data for the recall precision curve is stored in this file and a
    * gnuplot file for the graph is the same name with a ".gplot" extension.
    * OPTIONs can be
-   * "-html" to specify HTML files whose HTML tags should be removed, and
-   * "-stem" to specify tokens should be stemmed with Porter stemmer.
+   * "-html" to specify HTML files whose HTML tags should be removed,
+   * "-stem" to specify tokens should be stemmed with Porter stemmer, and
+   * "-index FILE" to open the index saved in FILE, or if there is no such
+   * file to index DIR and save the index there for later runs.
    */
   public static void main(String[] args) throws IOException {
     // Parse the arguments into a directory name and optional flag
@@ -285,6 +308,7 @@ public class Experiment {
     String outFile = args[args.length - 1];
     short docType = DocumentIterator.TYPE_TEXT;
     boolean stem = false;
+    String indexName = null;
     for (int i = 0; i < args.length - 3; i++) {
       String flag = args[i];
       if (flag.equals("-html"))
@@ -293,13 +317,55 @@ public class Experiment {
       else if (flag.equals("-stem"))
         // Stem tokens with Porter stemmer
         stem = true;
+      else if (flag.equals("-index"))
+        // Reuse a saved index across runs
+        indexName = args[++i];
       else {
         throw new IllegalArgumentException("Unknown flag: " + flag);
       }
     }
-    Experiment exper = new Experiment(new File(corpusDir), new File(queryFile),
-        new File(outFile), docType, stem);
+    Experiment exper;
+    if (indexName == null)
+      exper = new Experiment(new File(corpusDir), new File(queryFile),
+          new File(outFile), docType, stem);
+    else {
+      File indexFile = new File(indexName);
+      InvertedIndex index;
+      if (indexFile.exists())
+        index = InvertedIndex.open(indexFile.toPath());
+      else {
+        index = new InvertedIndex(new File(corpusDir), docType, stem, false);
+        index.save(indexFile.toPath());
+      }
+      exper = new Experiment(index, new File(queryFile), new File(outFile));
+    }
     exper.makeRpCurve();
   }
-}
 
+  /**
+   * A query read from the queryFile, parsed once for both retrieval and
+   * evaluation
+   */
+  static class TestQuery {
+    /**
+     * The text of the query
+     */
+    final String text;
+
+    /**
+     * The vector of the query, tokenized as the index tokenizes documents
+     */
+    final HashMapVector vector;
+
+    /**
+     * The line of relevant docs that follows the query
+     */
+    final String relevant;
+
+    TestQuery(String text, HashMapVector vector, String relevant) {
+      this.text = text;
+      this.vector = vector;
+      this.relevant = relevant;
+    }
+  }
+}
@@ -47,49 +47,32 @@ public class ExperimentRated extends Experiment {
   }
 
   /**
-   * Process the next query read from the query file reader and evaluate
-   * results compared to known relevant docs also read from the query file.
+   * Evaluate the ranked retrievals for a query compared to its known
+   * relevant docs.
    * This version computes NDCG results for each query, storing summed 
    * results in NDCGvalues
-   *
-   * @return true if query successfully read, else false if no more queries
-   * in query file
    */
-  boolean processQuery(BufferedReader in) throws IOException {
-    String query = in.readLine();   // get the query
-    if (query == null) return false;  // return false if end of file
-    System.out.println("\nQuery " + (rpResults.size() + 1) + ": " + query);
-
-    // Process the query and get the ranked retrievals
-    Retrieval[] retrievals = index.retrieve(query);
+  void processQuery(TestQuery query, Retrieval[] retrievals) {
+    System.out.println("\nQuery " + (rpResults.size() + 1) + ": " + query.text);
     System.out.println("Returned " + retrievals.length + " documents.");
 
     // Get the correct retrievals
     ArrayList<String> correctRetrievals = new ArrayList<String>();
-    getCorrectRatedRetrievals(in, correctRetrievals);
+    getCorrectRatedRetrievals(query.relevant, correctRetrievals);
 
     // Generate Recall/Precision points and save in rpResults
     rpResults.add(evalRetrievals(retrievals, correctRetrievals));
 
     // Update the NDCG values for this query
-    UpdateNDCG(retrievals, correctRetrievals);    
-
-    // Read the blank line delimiter between queries in the query file
-    String line = in.readLine();
-    if (!(line == null || line.trim().equals(""))) {
-      System.out.println("\nCould not find blank line after query, bad queryFile format");
-      System.exit(1);
-    }
-    return true;
+    UpdateNDCG(retrievals, correctRetrievals);
   }
 
     /**
-     *  Read the known relevant docs with gold-standard relevance scores from query file and parse them
+     *  Parse the known relevant docs with gold-standard relevance scores from their line in the query file
      *  into an ArrayList of String's of relevant file names which ratingsMap maps to these relevance scores
      *  Assume the format is a list of pairs of document names followed by a relevance score between 0 and 1
      */
-    void getCorrectRatedRetrievals(BufferedReader in, ArrayList<String> correctRetrievals) throws IOException {
-	String line = in.readLine();
+    void getCorrectRatedRetrievals(String line, ArrayList<String> correctRetrievals) {
 	ArrayList<String> ratedRetrievals = MoreString.segment(line, ' ');
 	// Process input 2 items at a time (filename followed by score)
 	for (int i = 0; i < ratedRetrievals.size(); i=i+2) {    
@@ -76,7 +76,33 @@ public class KNN extends Classifier {
       
     HashMapVector queryVector = testExample.getHashMapVector();      
       
-    Retrieval[] retrievals = index.retrieve(queryVector);
+    // only the k nearest neighbors are needed, so avoid ranking every match
+    return test(testExample, index.retrieve(queryVector, k));
+  }
+
+ /**
+   * Returns the number of test examples whose predicted category matches the
+   * correct category, finding the nearest neighbors of all of them as one
+   * batch of queries run in parallel.
+   */
+  public int numCorrect(List<Example> testExamples){
+    List<HashMapVector> queryVectors = new ArrayList<HashMapVector>(testExamples.size());
+    for (Example example : testExamples)
+      queryVectors.add(example.getHashMapVector());
+    List<Retrieval[]> allRetrievals = index.retrieveAll(queryVectors, k);
+    int correct = 0;
+    for (int i = 0; i < testExamples.size(); i++){
+      if (test(testExamples.get(i), allRetrievals.get(i)))
+        correct++;
+    }
+    return correct;
+  }
+
+ /**
+   * Returns true if the category predicted from the given nearest neighbors
+   * of the test example matches the correct category, false otherwise
+   */
+  protected boolean test(Example testExample, Retrieval[] retrievals){
    
      Retrieval[] kRetrievals= new Retrieval[k];
 
@@ -19,11 +19,11 @@ public class Rocchio extends Classifier {
   // the flag for running neg
   boolean neg;
 
-  // Map that keeps tract of vprototypes
-  Map<Integer, HashMapVector> vectorPrototypes;
+  // prototype vector of each category, keyed by token ids in the shared Lexicon
+  TermVector[] vectorPrototypes;
 
-  //global hashMapVector to keep tract of the copied
-  HashMapVector documentHMV;
+  // the length of each prototype vector, computed once after training
+  double[] prototypeLengths;
 
    public static final String name = "Rocchio";
 
@@ -56,71 +56,63 @@ public class Rocchio extends Classifier {
 
   public void train(List<Example> trainingExamples){
     
-    vectorPrototypes = new HashMap<Integer, HashMapVector>();
+    vectorPrototypes = new TermVector[numCategories];
     
     for (int i=0; i< numCategories; i++){
-      vectorPrototypes.put(i,new HashMapVector());
+      vectorPrototypes[i] = new TermVector();
     }
     
-    //tokenOcc has the token and number of documents the token occurs in
-    // calculate the document frequency of each token and sotre that in tokenOcc
-    Map<String, Integer> tokenOcc= new HashMap<String, Integer>();
+    //tokenOcc has the number of documents each token occurs in, by token id
+    // calculate the document frequency of each token and store that in tokenOcc
+    int[] tokenOcc = new int[Lexicon.SHARED.size()];
     for (int i= 0; i< trainingExamples.size(); i++){
-      Example e = trainingExamples.get(i);
-      HashMapVector documentHMV= e.getHashMapVector();
-      
-      Map<String, Weight> tokenToWeightHashMap = documentHMV.hashMap;
-      
-      for(Map.Entry<String,Weight> entry: tokenToWeightHashMap.entrySet()){
-        String token = entry.getKey();
-        // we found a token thats in the document but hasn't been accounted for
-        if(!tokenOcc.containsKey(token))
-          tokenOcc.put(token,1);
-        // found a instance of token in a document and it has already been accounted for so just increment count
-        else{
-          int counter= tokenOcc.get(token);
-          counter++;
-          tokenOcc.put(token,counter);
-        }
+      TermVector documentVector = trainingExamples.get(i).getTermVector();
+      for (int j = 0; j < documentVector.size(); j++){
+        int id = documentVector.id(j);
+        // tokens added to the lexicon since we started
+        if (id >= tokenOcc.length)
+          tokenOcc = Arrays.copyOf(tokenOcc, Math.max(id + 1, 2 * tokenOcc.length));
+        tokenOcc[id]++;
       }
     }
       
     for (int i= 0; i< trainingExamples.size(); i++){
         Example e = trainingExamples.get(i);
-        //get a copy of the hashmap vector so the original doesn't get changed
-        documentHMV = e.getHashMapVector().copy();
-
-      Map<String, Weight> tokenToWeightHashMap = documentHMV.hashMap;
+        TermVector documentVector = e.getTermVector();
+        //build the tf-idf vector in a new vector so the original doesn't get changed
+        TermVector weighted = new TermVector(documentVector.size());
       
-      for(String token: tokenToWeightHashMap.keySet()){
+      for (int j = 0; j < documentVector.size(); j++){
+        int id = documentVector.id(j);
         //the termfrequency
-        double tf= documentHMV.getWeight(token);
+        double tf= documentVector.weight(j);
         //the documentfrequency
-        int df= tokenOcc.get(token);
+        int df= tokenOcc[id];
 
         double idf= Math.log(trainingExamples.size()/ df);
 
-        Weight weight= new Weight();
-        weight.setValue(tf* idf);
-        tokenToWeightHashMap.put(token, weight);
+        weighted.increment(id, tf* idf);
         
       }
-      double d = documentHMV.maxWeight();
+      double d = weighted.maxWeight();
       // normalize document vector by the max weight before adding
       int category= e.getCategory();
       double scale = 1.0/d;
       // add the scaled tf-idf to prototype
-      vectorPrototypes.get(category).addScaled(documentHMV, scale);
+      vectorPrototypes[category].addScaled(weighted, scale);
       if(neg){
         //subtract all of the documents in all other categories
         for (int x=0; x< numCategories; x++){
           if(x != category){
             scale= 1.0/ numCategories-1;
-            vectorPrototypes.get(x).addScaled(documentHMV,  scale *-1.0);
+            vectorPrototypes[x].addScaled(weighted,  scale *-1.0);
           }
         }
       } 
     }
+    prototypeLengths = new double[numCategories];
+    for (int i = 0; i < numCategories; i++)
+      prototypeLengths[i] = vectorPrototypes[i].length();
   }   
  /**
    * Returns true if the predicted category of the test example matches the correct category,
@@ -128,11 +120,12 @@ public class Rocchio extends Classifier {
    */
  //followed the pseudocode on the TextCategorization slide from class
   public boolean test(Example testExample){
-   HashMapVector d= testExample.getHashMapVector().copy();
+   TermVector d= testExample.getTermVector();
+   double length = d.length();
    int r = 0;
    double m = -2.0;
    for (int i= 0; i< numCategories; i++){
-      double s= d.cosineTo(vectorPrototypes.get(i));
+      double s= d.dot(vectorPrototypes[i]) / (length * prototypeLengths[i]);
       if(s>m){
         m=s;
         r=i; 
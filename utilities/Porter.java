@@ -12,59 +12,115 @@ import java.io.*;
 
 */
 
-class NewString {
-  public String str;
-
-  NewString() {
-    str = "";
-  }
-}
-
 /**
  * The Porter stemmer for reducing words to their base stem form.
+ * <p>
+ * Works on a word in a char array, changing it in place, so stemming a
+ * word already in a buffer allocates nothing; stripAffixes(String) copies
+ * the String into an array.  A stem is never longer than its word.  Keeps
+ * no state between calls, so one instance may be used by any number of
+ * threads at once.
  *
  * @author Fotis Lazarinis
  */
 
 public class Porter {
 
-  private String Clean(String str) {
-    int last = str.length();
+  /**
+   * The suffixes of step 2 and their replacements
+   */
+  private static final char[][][] STEP2 = suffixes(new String[][]{{"ational", "ate"},
+      {"tional", "tion"},
+      {"enci", "ence"},
+      {"anci", "ance"},
+      {"izer", "ize"},
+      {"iser", "ize"},
+      {"abli", "able"},
+      {"alli", "al"},
+      {"entli", "ent"},
+      {"eli", "e"},
+      {"ousli", "ous"},
+      {"ization", "ize"},
+      {"isation", "ize"},
+      {"ation", "ate"},
+      {"ator", "ate"},
+      {"alism", "al"},
+      {"iveness", "ive"},
+      {"fulness", "ful"},
+      {"ousness", "ous"},
+      {"aliti", "al"},
+      {"iviti", "ive"},
+      {"biliti", "ble"}});
 
-    Character ch = new Character(str.charAt(0));
-    String temp = "";
+  /**
+   * The suffixes of step 3 and their replacements
+   */
+  private static final char[][][] STEP3 = suffixes(new String[][]{{"icate", "ic"},
+      {"ative", ""},
+      {"alize", "al"},
+      {"alise", "al"},
+      {"iciti", "ic"},
+      {"ical", "ic"},
+      {"ful", ""},
+      {"ness", ""}});
 
-    for (int i = 0; i < last; i++) {
-      if (ch.isLetterOrDigit(str.charAt(i)))
-        temp += str.charAt(i);
-    }
+  /**
+   * The suffixes removed by step 4
+   */
+  private static final char[][] STEP4 = chars(new String[]{"al", "ance", "ence", "er", "ic", "able", "ible",
+      "ant", "ement", "ment", "ent", "sion", "tion", "ou", "ism", "ate", "iti", "ous", "ive", "ize", "ise"});
 
-    return temp;
-  } //clean
+  /**
+   * The prefixes removed before the suffixes
+   */
+  private static final char[][] PREFIXES = chars(new String[]{"kilo", "micro", "milli", "intra", "ultra",
+      "mega", "nano", "pico", "pseudo"});
+
+  private static final char[] SSES = "sses".toCharArray(), IES = "ies".toCharArray(),
+      EED = "eed".toCharArray(), ED = "ed".toCharArray(), ING = "ing".toCharArray(),
+      AT = "at".toCharArray(), BL = "bl".toCharArray(), IZ = "iz".toCharArray(), Y = "y".toCharArray();
+
+  private static char[][] chars(String[] strings) {
+    char[][] result = new char[strings.length][];
+    for (int i = 0; i < strings.length; i++)
+      result[i] = strings[i].toCharArray();
+    return result;
+  }
 
-  private boolean hasSuffix(String word, String suffix, NewString stem) {
+  private static char[][][] suffixes(String[][] pairs) {
+    char[][][] result = new char[pairs.length][][];
+    for (int i = 0; i < pairs.length; i++)
+      result[i] = chars(pairs[i]);
+    return result;
+  }
 
-    String tmp = "";
+  /**
+   * Lowercase the word and remove everything but letters and digits,
+   * returning the new length.
+   */
+  private int clean(char[] word, int length) {
+    int last = 0;
+    for (int i = 0; i < length; i++) {
+      char c = Character.toLowerCase(word[i]);
+      if (Character.isLetterOrDigit(c))
+        word[last++] = c;
+    }
+    return last;
+  }
 
-    if (word.length() <= suffix.length())
+  /**
+   * Return whether the word is longer than the suffix and ends with it, in
+   * which case the stem is the first length - suffix.length characters.
+   */
+  private boolean hasSuffix(char[] word, int length, char[] suffix) {
+    int stem = length - suffix.length;
+    if (stem <= 0)
       return false;
-    if (suffix.length() > 1)
-      if (word.charAt(word.length() - 2) != suffix.charAt(suffix.length() - 2))
+    for (int i = suffix.length - 1; i >= 0; i--) {
+      if (word[stem + i] != suffix[i])
         return false;
-
-    stem.str = "";
-
-    for (int i = 0; i < word.length() - suffix.length(); i++)
-      stem.str += word.charAt(i);
-    tmp = stem.str;
-
-    for (int i = 0; i < suffix.length(); i++)
-      tmp += suffix.charAt(i);
-
-    if (tmp.compareTo(word) == 0)
-      return true;
-    else
-      return false;
+    }
+    return true;
   }
 
   private boolean vowel(char ch, char prev) {
@@ -95,28 +151,30 @@ public class Porter {
     }
   }
 
-  private int measure(String stem) {
+  /**
+   * Return the measure of the first length characters of the word.
+   */
+  private int measure(char[] stem, int length) {
 
     int i = 0, count = 0;
-    int length = stem.length();
 
     while (i < length) {
       for (; i < length; i++) {
         if (i > 0) {
-          if (vowel(stem.charAt(i), stem.charAt(i - 1)))
+          if (vowel(stem[i], stem[i - 1]))
             break;
         } else {
-          if (vowel(stem.charAt(i), 'a'))
+          if (vowel(stem[i], 'a'))
             break;
         }
       }
 
       for (i++; i < length; i++) {
         if (i > 0) {
-          if (!vowel(stem.charAt(i), stem.charAt(i - 1)))
+          if (!vowel(stem[i], stem[i - 1]))
             break;
         } else {
-          if (!vowel(stem.charAt(i), '?'))
+          if (!vowel(stem[i], '?'))
             break;
         }
       }
@@ -129,37 +187,36 @@ public class Porter {
     return (count);
   }
 
-  private boolean containsVowel(String word) {
+  private boolean containsVowel(char[] word, int length) {
 
-    for (int i = 0; i < word.length(); i++)
+    for (int i = 0; i < length; i++)
       if (i > 0) {
-        if (vowel(word.charAt(i), word.charAt(i - 1)))
+        if (vowel(word[i], word[i - 1]))
           return true;
       } else {
-        if (vowel(word.charAt(0), 'a'))
+        if (vowel(word[0], 'a'))
           return true;
       }
 
     return false;
   }
 
-  private boolean cvc(String str) {
-    int length = str.length();
+  private boolean cvc(char[] str, int length) {
 
     if (length < 3)
       return false;
 
-    if ((!vowel(str.charAt(length - 1), str.charAt(length - 2)))
-        && (str.charAt(length - 1) != 'w') && (str.charAt(length - 1) != 'x') && (str.charAt(length - 1) != 'y')
-        && (vowel(str.charAt(length - 2), str.charAt(length - 3)))) {
+    if ((!vowel(str[length - 1], str[length - 2]))
+        && (str[length - 1] != 'w') && (str[length - 1] != 'x') && (str[length - 1] != 'y')
+        && (vowel(str[length - 2], str[length - 3]))) {
 
       if (length == 3) {
-        if (!vowel(str.charAt(0), '?'))
+        if (!vowel(str[0], '?'))
           return true;
         else
           return false;
       } else {
-        if (!vowel(str.charAt(length - 3), str.charAt(length - 4)))
+        if (!vowel(str[length - 3], str[length - 4]))
           return true;
         else
           return false;
@@ -169,239 +226,176 @@ public class Porter {
     return false;
   }
 
-  private String step1(String str) {
+  /**
+   * Replace the last suffixLength characters of the word with the
+   * replacement, which is no longer, returning the new length.
+   */
+  private int replace(char[] word, int length, int suffixLength, char[] replacement) {
+    int stem = length - suffixLength;
+    System.arraycopy(replacement, 0, word, stem, replacement.length);
+    return stem + replacement.length;
+  }
 
-    NewString stem = new NewString();
+  private int step1(char[] str, int length) {
 
-    if (str.charAt(str.length() - 1) == 's') {
-      if ((hasSuffix(str, "sses", stem)) || (hasSuffix(str, "ies", stem))) {
-        String tmp = "";
-        for (int i = 0; i < str.length() - 2; i++)
-          tmp += str.charAt(i);
-        str = tmp;
+    if (str[length - 1] == 's') {
+      if (hasSuffix(str, length, SSES) || hasSuffix(str, length, IES)) {
+        length -= 2;
       } else {
-        if ((str.length() == 1) && (str.charAt(str.length() - 1) == 's')) {
-          str = "";
-          return str;
-        }
-        if (str.charAt(str.length() - 2) != 's') {
-          String tmp = "";
-          for (int i = 0; i < str.length() - 1; i++)
-            tmp += str.charAt(i);
-          str = tmp;
-        }
+        if (length == 1)
+          return 0;
+        if (str[length - 2] != 's')
+          length--;
       }
     }
 
-    if (hasSuffix(str, "eed", stem)) {
-      if (measure(stem.str) > 0) {
-        String tmp = "";
-        for (int i = 0; i < str.length() - 1; i++)
-          tmp += str.charAt(i);
-        str = tmp;
-      }
+    if (hasSuffix(str, length, EED)) {
+      if (measure(str, length - EED.length) > 0)
+        length--;
     } else {
-      if ((hasSuffix(str, "ed", stem)) || (hasSuffix(str, "ing", stem))) {
-        if (containsVowel(stem.str)) {
-
-          String tmp = "";
-          for (int i = 0; i < stem.str.length(); i++)
-            tmp += str.charAt(i);
-          str = tmp;
-          if (str.length() == 1)
-            return str;
-
-          if ((hasSuffix(str, "at", stem)) || (hasSuffix(str, "bl", stem)) || (hasSuffix(str, "iz", stem))) {
-            str += "e";
-
-          } else {
-            int length = str.length();
-            if ((str.charAt(length - 1) == str.charAt(length - 2))
-                && (str.charAt(length - 1) != 'l') && (str.charAt(length - 1) != 's') && (str.charAt(length - 1) != 'z')) {
-
-              tmp = "";
-              for (int i = 0; i < str.length() - 1; i++)
-                tmp += str.charAt(i);
-              str = tmp;
-            } else if (measure(str) == 1) {
-              if (cvc(str))
-                str += "e";
-            }
+      int stem = -1;
+      if (hasSuffix(str, length, ED))
+        stem = length - ED.length;
+      else if (hasSuffix(str, length, ING))
+        stem = length - ING.length;
+      if (stem >= 0 && containsVowel(str, stem)) {
+        length = stem;
+        if (length == 1)
+          return length;
+
+        if (hasSuffix(str, length, AT) || hasSuffix(str, length, BL) || hasSuffix(str, length, IZ)) {
+          str[length++] = 'e';
+
+        } else {
+          if ((str[length - 1] == str[length - 2])
+              && (str[length - 1] != 'l') && (str[length - 1] != 's') && (str[length - 1] != 'z')) {
+            length--;
+          } else if (measure(str, length) == 1) {
+            if (cvc(str, length))
+              str[length++] = 'e';
           }
         }
       }
     }
 
-    if (hasSuffix(str, "y", stem))
-      if (containsVowel(stem.str)) {
-        String tmp = "";
-        for (int i = 0; i < str.length() - 1; i++)
-          tmp += str.charAt(i);
-        str = tmp + "i";
-      }
-    return str;
+    if (hasSuffix(str, length, Y))
+      if (containsVowel(str, length - 1))
+        str[length - 1] = 'i';
+    return length;
   }
 
-  private String step2(String str) {
-
-    String[][] suffixes = {{"ational", "ate"},
-        {"tional", "tion"},
-        {"enci", "ence"},
-        {"anci", "ance"},
-        {"izer", "ize"},
-        {"iser", "ize"},
-        {"abli", "able"},
-        {"alli", "al"},
-        {"entli", "ent"},
-        {"eli", "e"},
-        {"ousli", "ous"},
-        {"ization", "ize"},
-        {"isation", "ize"},
-        {"ation", "ate"},
-        {"ator", "ate"},
-        {"alism", "al"},
-        {"iveness", "ive"},
-        {"fulness", "ful"},
-        {"ousness", "ous"},
-        {"aliti", "al"},
-        {"iviti", "ive"},
-        {"biliti", "ble"}};
-    NewString stem = new NewString();
-
-
+  /**
+   * Replace the first of the suffixes the word has with a stem of measure
+   * above 0 with its replacement, returning the new length.
+   */
+  private int replaceSuffix(char[] str, int length, char[][][] suffixes) {
     for (int index = 0; index < suffixes.length; index++) {
-      if (hasSuffix(str, suffixes[index][0], stem)) {
-        if (measure(stem.str) > 0) {
-          str = stem.str + suffixes[index][1];
-          return str;
-        }
-      }
+      char[] suffix = suffixes[index][0];
+      if (hasSuffix(str, length, suffix) && measure(str, length - suffix.length) > 0)
+        return replace(str, length, suffix.length, suffixes[index][1]);
     }
-
-    return str;
+    return length;
   }
 
-  private String step3(String str) {
-
-    String[][] suffixes = {{"icate", "ic"},
-        {"ative", ""},
-        {"alize", "al"},
-        {"alise", "al"},
-        {"iciti", "ic"},
-        {"ical", "ic"},
-        {"ful", ""},
-        {"ness", ""}};
-    NewString stem = new NewString();
-
-    for (int index = 0; index < suffixes.length; index++) {
-      if (hasSuffix(str, suffixes[index][0], stem))
-        if (measure(stem.str) > 0) {
-          str = stem.str + suffixes[index][1];
-          return str;
-        }
-    }
-    return str;
+  private int step2(char[] str, int length) {
+    return replaceSuffix(str, length, STEP2);
   }
 
-  private String step4(String str) {
-
-    String[] suffixes = {"al", "ance", "ence", "er", "ic", "able", "ible", "ant", "ement", "ment", "ent", "sion", "tion",
-        "ou", "ism", "ate", "iti", "ous", "ive", "ize", "ise"};
-
-    NewString stem = new NewString();
-
-    for (int index = 0; index < suffixes.length; index++) {
-      if (hasSuffix(str, suffixes[index], stem)) {
+  private int step3(char[] str, int length) {
+    return replaceSuffix(str, length, STEP3);
+  }
 
-        if (measure(stem.str) > 1) {
-          str = stem.str;
-          return str;
-        }
-      }
+  private int step4(char[] str, int length) {
+    for (int index = 0; index < STEP4.length; index++) {
+      char[] suffix = STEP4[index];
+      if (hasSuffix(str, length, suffix) && measure(str, length - suffix.length) > 1)
+        return length - suffix.length;
     }
-    return str;
+    return length;
   }
 
-  private String step5(String str) {
-
-    if (str.charAt(str.length() - 1) == 'e') {
-      if (measure(str) > 1) {/* measure(str)==measure(stem) if ends in vowel */
-        String tmp = "";
-        for (int i = 0; i < str.length() - 1; i++)
-          tmp += str.charAt(i);
-        str = tmp;
-      } else if (measure(str) == 1) {
-        String stem = "";
-        for (int i = 0; i < str.length() - 1; i++)
-          stem += str.charAt(i);
-
-        if (!cvc(stem))
-          str = stem;
+  private int step5(char[] str, int length) {
+
+    if (str[length - 1] == 'e') {
+      if (measure(str, length) > 1) {/* measure(str)==measure(stem) if ends in vowel */
+        length--;
+      } else if (measure(str, length) == 1) {
+        if (!cvc(str, length - 1))
+          length--;
       }
     }
 
-    if (str.length() == 1)
-      return str;
-    if ((str.charAt(str.length() - 1) == 'l') && (str.charAt(str.length() - 2) == 'l') && (measure(str) > 1))
-      if (measure(str) > 1) {/* measure(str)==measure(stem) if ends in vowel */
-        String tmp = "";
-        for (int i = 0; i < str.length() - 1; i++)
-          tmp += str.charAt(i);
-        str = tmp;
-      }
-    return str;
+    if (length == 1)
+      return length;
+    if ((str[length - 1] == 'l') && (str[length - 2] == 'l') && (measure(str, length) > 1))
+      length--;
+    return length;
   }
 
-  private String stripPrefixes(String str) {
-
-    String[] prefixes = {"kilo", "micro", "milli", "intra", "ultra", "mega", "nano", "pico", "pseudo"};
+  private int stripPrefixes(char[] str, int length) {
 
-    int last = prefixes.length;
-    for (int i = 0; i < last; i++) {
-      if (str.startsWith(prefixes[i])) {
-        String temp = "";
-        for (int j = 0; j < str.length() - prefixes[i].length(); j++)
-          temp += str.charAt(j + prefixes[i].length());
-        return temp;
+    for (char[] prefix : PREFIXES) {
+      if (length >= prefix.length && hasPrefix(str, prefix)) {
+        System.arraycopy(str, prefix.length, str, 0, length - prefix.length);
+        return length - prefix.length;
       }
     }
 
-    return str;
+    return length;
   }
 
+  private boolean hasPrefix(char[] str, char[] prefix) {
+    for (int i = 0; i < prefix.length; i++) {
+      if (str[i] != prefix[i])
+        return false;
+    }
+    return true;
+  }
 
-  private String stripSuffixes(String str) {
+  private int stripSuffixes(char[] str, int length) {
 
-    str = step1(str);
-    if (str.length() >= 1)
-      str = step2(str);
-    if (str.length() >= 1)
-      str = step3(str);
-    if (str.length() >= 1)
-      str = step4(str);
-    if (str.length() >= 1)
-      str = step5(str);
+    length = step1(str, length);
+    if (length >= 1)
+      length = step2(str, length);
+    if (length >= 1)
+      length = step3(str, length);
+    if (length >= 1)
+      length = step4(str, length);
+    if (length >= 1)
+      length = step5(str, length);
 
-    return str;
+    return length;
   }
 
   /**
-   * Takes a String as input and returns its stem as a String.
+   * Stem the word in the first length characters of the array in place,
+   * returning the length of the stem.  The word is lowercased and anything
+   * but letters and digits removed first.
    */
-  public String stripAffixes(String str) {
+  public int stripAffixes(char[] word, int length) {
 
-    str = str.toLowerCase();
-    str = Clean(str);
+    length = clean(word, length);
 
-    if ((str != "") && (str.length() > 2)) {
-      str = stripPrefixes(str);
+    if (length > 2) {
+      length = stripPrefixes(word, length);
 
-      if (str != "")
-        str = stripSuffixes(str);
+      if (length > 0)
+        length = stripSuffixes(word, length);
 
     }
 
-    return str;
+    return length;
+  } //stripAffixes
+
+  /**
+   * Takes a String as input and returns its stem as a String.
+   */
+  public String stripAffixes(String str) {
+
+    // Lowercase the whole String first, as String and Character lowercase
+    // a few characters differently
+    char[] word = str.toLowerCase().toCharArray();
+    return new String(word, 0, stripAffixes(word, word.length));
   } //stripAffixes
 
   /**
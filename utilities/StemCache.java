@@ -0,0 +1,170 @@
+package ir.utilities;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A bounded cache of the stems the Porter stemmer gives words, for the
+ * words of a natural-language collection where a few thousand words make
+ * up most tokens and would otherwise be stemmed again every time.
+ * <p>
+ * The cache is a direct-mapped table: each word hashes to one slot, which
+ * holds the last word stemmed there and its stem, so the cache never grows
+ * and a frequent word quickly wins its slot back from a rare one.  Entries
+ * are immutable and are replaced with a single array store, so any number
+ * of threads may use the cache at once without locking; at worst two
+ * threads stem the same word.  A word given as a char array is looked up
+ * without making a String, so a hit allocates nothing.
+ */
+public class StemCache {
+
+  /**
+   * The default number of slots
+   */
+  public static final int DEFAULT_SIZE = 1 << 15;
+
+  /**
+   * The stemmer used on a miss
+   */
+  protected final Porter stemmer;
+
+  /**
+   * The entry in each slot, or null
+   */
+  protected final Entry[] entries;
+
+  /**
+   * The number of lookups that found their word
+   */
+  protected final LongAdder hits = new LongAdder();
+
+  /**
+   * The number of lookups that had to stem their word
+   */
+  protected final LongAdder misses = new LongAdder();
+
+  /**
+   * Create a cache with the default number of slots.
+   */
+  public StemCache(Porter stemmer) {
+    this(stemmer, DEFAULT_SIZE);
+  }
+
+  /**
+   * Create a cache with at least the given number of slots.
+   */
+  public StemCache(Porter stemmer, int size) {
+    this.stemmer = stemmer;
+    entries = new Entry[Integer.highestOneBit(Math.max(size - 1, 1)) << 1];
+  }
+
+  /**
+   * Return the stem of the word, as Porter.stripAffixes would.
+   */
+  public String stripAffixes(String word) {
+    int length = word.length();
+    int h = 0;
+    for (int i = 0; i < length; i++)
+      h = 31 * h + word.charAt(i);
+    int slot = spread(h) & (entries.length - 1);
+    Entry entry = entries[slot];
+    if (entry != null && entry.word.length == length) {
+      int i = 0;
+      while (i < length && entry.word[i] == word.charAt(i))
+        i++;
+      if (i == length) {
+        hits.increment();
+        return entry.stem;
+      }
+    }
+    misses.increment();
+    String stem = stemmer.stripAffixes(word);
+    entries[slot] = new Entry(word.toCharArray(), stem);
+    return stem;
+  }
+
+  /**
+   * Return the stem of the word in the first length characters of the
+   * array, as Porter.stripAffixes would, leaving the array unchanged.
+   */
+  public String stripAffixes(char[] word, int length) {
+    int h = 0;
+    for (int i = 0; i < length; i++)
+      h = 31 * h + word[i];
+    int slot = spread(h) & (entries.length - 1);
+    Entry entry = entries[slot];
+    if (entry != null && entry.word.length == length) {
+      int i = 0;
+      while (i < length && entry.word[i] == word[i])
+        i++;
+      if (i == length) {
+        hits.increment();
+        return entry.stem;
+      }
+    }
+    misses.increment();
+    char[] key = Arrays.copyOf(word, length);
+    char[] buffer = key.clone();
+    String stem = new String(buffer, 0, stemmer.stripAffixes(buffer, length));
+    entries[slot] = new Entry(key, stem);
+    return stem;
+  }
+
+  /**
+   * Mix the high bits of a hash code into the low bits used for a slot.
+   */
+  protected static int spread(int h) {
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Return the number of lookups that found their word
+   */
+  public long hits() {
+    return hits.sum();
+  }
+
+  /**
+   * Return the number of lookups that had to stem their word
+   */
+  public long misses() {
+    return misses.sum();
+  }
+
+  /**
+   * Return the fraction of lookups that found their word
+   */
+  public double hitRate() {
+    long hits = hits(), lookups = hits + misses();
+    return lookups == 0 ? 0.0 : (double) hits / lookups;
+  }
+
+  /**
+   * Empty the cache and reset its statistics.
+   */
+  public void clear() {
+    Arrays.fill(entries, null);
+    hits.reset();
+    misses.reset();
+  }
+
+  public String toString() {
+    return "StemCache: " + entries.length + " slots, " + hits() + " hits, " + misses() +
+        " misses (hit rate " + MoreMath.roundTo(hitRate(), 3) + ")";
+  }
+
+  /**
+   * A word and its stem.  The fields are final, so a thread that sees an
+   * entry in the table also sees its contents.
+   */
+  protected static final class Entry {
+    final char[] word;
+    final String stem;
+
+    Entry(char[] word, String stem) {
+      this.word = word;
+      this.stem = stem;
+    }
+  }
+}
@@ -0,0 +1,339 @@
+package ir.utilities;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * An immutable set of stopwords that tests a token given as a range of a
+ * char array, so a tokenizer can drop a stopword before making a String
+ * of it.
+ * <p>
+ * The words are kept in a perfect hash table built by
+ * hash-and-displace: each word's hash code picks one of a small number of
+ * buckets, and each bucket has a seed, found when the table is built, that
+ * sends all the words of the bucket to slots no other word uses.  A lookup
+ * is therefore one hash of the token, one seed and one slot, and at most
+ * one comparison with the single word in that slot; there is no probing
+ * and no chain.  Tokens longer than the longest stopword are rejected
+ * without hashing at all.
+ * <p>
+ * The default list is read from the resource stopwords.txt next to this
+ * class, so it is found wherever the classes are, inside a jar or not.
+ */
+public class StopWordFilter {
+
+  /**
+   * The name of the resource with the default stopwords, 1 per line,
+   * relative to this class
+   */
+  public static final String DEFAULT_RESOURCE = "stopwords.txt";
+
+  /**
+   * The number of seeds to try for a bucket before making the table larger
+   */
+  protected static final int MAX_SEED_TRIES = 1 << 16;
+
+  /**
+   * The filter for the default list, or null until it is first needed
+   */
+  protected static volatile StopWordFilter defaultFilter = null;
+
+  /**
+   * The multiplier of the polynomial hash of a word, chosen so that no two
+   * words have the same hash code
+   */
+  protected final int multiplier;
+
+  /**
+   * The shift that takes the bucket of a hash code from its top bits
+   */
+  protected final int bucketShift;
+
+  /**
+   * The seed of each bucket, mixed into the hash code of its words to
+   * spread them over the table
+   */
+  protected final int[] seeds;
+
+  /**
+   * The word in each slot of the table, or null.  The length is a power of 2.
+   */
+  protected final char[][] table;
+
+  /**
+   * The number of words
+   */
+  protected final int size;
+
+  /**
+   * The length of the longest word, or -1 if there are none
+   */
+  protected final int maxLength;
+
+  /**
+   * Build a filter for the given words.  Words are matched exactly, so
+   * they should be given in the lower case tokens are normalized to.
+   */
+  public StopWordFilter(Collection<String> words) {
+    String[] list = new LinkedHashSet<String>(words).toArray(new String[0]);
+    size = list.length;
+    int longest = -1;
+    for (String word : list)
+      longest = Math.max(longest, word.length());
+    maxLength = longest;
+    // Find a multiplier that gives every word its own hash code
+    int m = 31;
+    int[] hashes = new int[size];
+    while (true) {
+      for (int i = 0; i < size; i++)
+        hashes[i] = hash(list[i], m);
+      int[] sorted = hashes.clone();
+      Arrays.sort(sorted);
+      int i = 1;
+      while (i < size && sorted[i] != sorted[i - 1])
+        i++;
+      if (i >= size)
+        break;
+      m += 2;
+    }
+    multiplier = m;
+    // About 4 words to a bucket, and at least 2 buckets so the shift is
+    // less than 32
+    int numBuckets = Math.max(Integer.highestOneBit(Math.max(size / 4, 1)) << 1, 2);
+    bucketShift = 32 - Integer.numberOfTrailingZeros(numBuckets);
+    seeds = new int[numBuckets];
+    // Group the words by bucket, largest buckets first since they are the
+    // hardest to place
+    List<List<Integer>> buckets = new ArrayList<List<Integer>>(numBuckets);
+    for (int b = 0; b < numBuckets; b++)
+      buckets.add(new ArrayList<Integer>());
+    for (int i = 0; i < size; i++)
+      buckets.get(bucket(hashes[i])).add(i);
+    Integer[] order = new Integer[numBuckets];
+    for (int b = 0; b < numBuckets; b++)
+      order[b] = b;
+    final List<List<Integer>> grouped = buckets;
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return grouped.get(b).size() - grouped.get(a).size();
+      }
+    });
+    // Start with the smallest power of 2 that holds the words, doubling it
+    // whenever some bucket cannot be placed
+    int tableSize = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+    char[][] slots;
+    while ((slots = place(list, hashes, buckets, order, tableSize)) == null)
+      tableSize <<= 1;
+    table = slots;
+  }
+
+  /**
+   * Try to place every bucket in a table of the given size, setting seeds.
+   * Return the table, or null if some bucket has no seed that fits.
+   */
+  protected char[][] place(String[] list, int[] hashes, List<List<Integer>> buckets,
+                           Integer[] order, int tableSize) {
+    char[][] slots = new char[tableSize][];
+    int mask = tableSize - 1;
+    int[] bucketSlots = new int[0];
+    for (int b : order) {
+      List<Integer> bucket = buckets.get(b);
+      if (bucket.isEmpty())
+        break;
+      if (bucketSlots.length < bucket.size())
+        bucketSlots = new int[bucket.size()];
+      boolean placed = false;
+      for (int s = 0; s < MAX_SEED_TRIES && !placed; s++) {
+        int seed = s * 0x9E3779B9;
+        placed = true;
+        for (int j = 0; j < bucket.size() && placed; j++) {
+          int slot = mix(hashes[bucket.get(j)] ^ seed) & mask;
+          // The slot must be free and not taken by an earlier word of this bucket
+          placed = slots[slot] == null;
+          for (int k = 0; k < j && placed; k++)
+            placed = bucketSlots[k] != slot;
+          bucketSlots[j] = slot;
+        }
+        if (placed) {
+          seeds[b] = seed;
+          for (int j = 0; j < bucket.size(); j++)
+            slots[bucketSlots[j]] = list[bucket.get(j)].toCharArray();
+        }
+      }
+      if (!placed)
+        return null;
+    }
+    return slots;
+  }
+
+  /**
+   * Return whether the length characters of chars from start are a stopword.
+   */
+  public boolean contains(char[] chars, int start, int length) {
+    if (length > maxLength)
+      return false;
+    int h = 0;
+    for (int i = start; i < start + length; i++)
+      h = multiplier * h + chars[i];
+    char[] word = table[slot(h)];
+    if (word == null || word.length != length)
+      return false;
+    for (int i = 0; i < length; i++) {
+      if (word[i] != chars[start + i])
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Return whether the given token is a stopword.
+   */
+  public boolean contains(String token) {
+    int length = token.length();
+    if (length > maxLength)
+      return false;
+    char[] word = table[slot(hash(token, multiplier))];
+    if (word == null || word.length != length)
+      return false;
+    for (int i = 0; i < length; i++) {
+      if (word[i] != token.charAt(i))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Return the number of stopwords
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Return the stopwords, in no particular order
+   */
+  public List<String> words() {
+    List<String> words = new ArrayList<String>(size);
+    for (char[] word : table) {
+      if (word != null)
+        words.add(new String(word));
+    }
+    return words;
+  }
+
+  /**
+   * Return the only slot where a word with the given hash code can be.
+   */
+  protected int slot(int h) {
+    return mix(h ^ seeds[bucket(h)]) & (table.length - 1);
+  }
+
+  /**
+   * Return the bucket of a hash code, from the top bits of a multiplicative
+   * hash so it is independent of the low bits mix gives the slot.
+   */
+  protected int bucket(int h) {
+    return (h * 0x9E3779B9) >>> bucketShift;
+  }
+
+  /**
+   * Return the polynomial hash code of a word with the given multiplier.
+   */
+  protected static int hash(String word, int multiplier) {
+    int h = 0;
+    for (int i = 0; i < word.length(); i++)
+      h = multiplier * h + word.charAt(i);
+    return h;
+  }
+
+  /**
+   * Scramble all the bits of a hash code into all the others (the
+   * finalizer of MurmurHash3).
+   */
+  protected static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Read a filter from a list of stopwords, 1 per line.  Blank lines are
+   * skipped.
+   */
+  public static StopWordFilter load(Reader reader) throws IOException {
+    List<String> words = new ArrayList<String>();
+    BufferedReader in = new BufferedReader(reader);
+    String line;
+    while ((line = in.readLine()) != null) {
+      if (!line.isEmpty())
+        words.add(line);
+    }
+    return new StopWordFilter(words);
+  }
+
+  /**
+   * Read a filter from a file of stopwords, 1 per line.
+   */
+  public static StopWordFilter load(File file) throws IOException {
+    Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+    try {
+      return load(reader);
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Return the filter for the default list of stopwords, reading it from
+   * the class path the first time.
+   */
+  public static StopWordFilter defaultFilter() {
+    StopWordFilter filter = defaultFilter;
+    return filter != null ? filter : loadDefault();
+  }
+
+  /**
+   * Read the default stopwords.  Synchronized so that documents created
+   * concurrently read the resource only once.
+   */
+  protected static synchronized StopWordFilter loadDefault() {
+    if (defaultFilter != null)
+      return defaultFilter;
+    InputStream in = StopWordFilter.class.getResourceAsStream(DEFAULT_RESOURCE);
+    if (in == null)
+      throw new IllegalStateException("Stopword list " + DEFAULT_RESOURCE +
+          " not found on the class path in package " + StopWordFilter.class.getPackage().getName());
+    try {
+      Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+      try {
+        defaultFilter = load(reader);
+      }
+      finally {
+        reader.close();
+      }
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException("Could not read stopword list " + DEFAULT_RESOURCE, e);
+    }
+    return defaultFilter;
+  }
+
+  public String toString() {
+    return "StopWordFilter: " + size + " words in " + table.length + " slots, " +
+        seeds.length + " buckets";
+  }
+
+  /**
+   * For testing, report whether each argument is a default stopword
+   */
+  public static void main(String[] args) {
+    StopWordFilter filter = defaultFilter();
+    System.out.println(filter);
+    for (String arg : args)
+      System.out.println(arg + ": " + filter.contains(arg));
+  }
+}
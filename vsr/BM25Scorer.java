@@ -0,0 +1,120 @@
+package ir.vsr;
+
+/**
+ * Scores documents with Okapi BM25, which saturates the contribution of
+ * a token as its count in a document grows and normalizes counts by the
+ * length of the document (in tokens) relative to the average length,
+ * rather than by the length of a TF-IDF vector.  The term that depends on
+ * the length of each document is precomputed for every document, so
+ * scoring a posting takes a multiply, an add and a divide.
+ */
+public class BM25Scorer extends Scorer {
+
+  /**
+   * The default saturation parameter k1
+   */
+  public static final double DEFAULT_K1 = 1.2;
+
+  /**
+   * The default length normalization parameter b
+   */
+  public static final double DEFAULT_B = 0.75;
+
+  /**
+   * How quickly the contribution of a token saturates with its count
+   */
+  protected final double k1;
+
+  /**
+   * How much counts are normalized by document length, from 0 to 1
+   */
+  protected final double b;
+
+  /**
+   * The number of undeleted documents
+   */
+  protected double numDocs = 0;
+
+  /**
+   * The average number of tokens in an undeleted document
+   */
+  protected double averageSize = 0;
+
+  /**
+   * k1 * (1 - b + b * size / averageSize) for each document, indexed by
+   * document id
+   */
+  protected double[] norms = new double[0];
+
+  /**
+   * Create a scorer with the default parameters.
+   */
+  public BM25Scorer() {
+    this(DEFAULT_K1, DEFAULT_B);
+  }
+
+  /**
+   * Create a scorer with the given parameters.
+   */
+  public BM25Scorer(double k1, double b) {
+    this.k1 = k1;
+    this.b = b;
+  }
+
+  public void init(InvertedIndex index) {
+    int[] sizes = index.docSizes;
+    numDocs = index.numDocuments();
+    long total = 0;
+    for (int docId = 0; docId < sizes.length; docId++) {
+      if (!index.deletedDocs.get(docId))
+        total += sizes[docId];
+    }
+    averageSize = numDocs == 0 ? 0 : total / numDocs;
+    norms = new double[sizes.length];
+    for (int docId = 0; docId < sizes.length; docId++)
+      norms[docId] = k1 * (1 - b + (averageSize == 0 ? 0 : b * sizes[docId] / averageSize));
+  }
+
+  /**
+   * The count of the token in the query
+   */
+  public double queryWeight(TokenInfo tokenInfo, double count) {
+    return count;
+  }
+
+  /**
+   * The query weight times the BM25 IDF of the token and k1 + 1, from the
+   * number of undeleted documents the token occurs in, which the index
+   * counts whenever it computes its statistics.
+   */
+  public double scale(TokenInfo tokenInfo, double weight) {
+    double n = tokenInfo.liveDocs;
+    double idf = Math.log(1 + (numDocs - n + 0.5) / (n + 0.5));
+    return weight * idf * (k1 + 1);
+  }
+
+  public double score(double scale, int docId, int count) {
+    return scale * count / (count + norms[docId]);
+  }
+
+  /**
+   * BM25 is not normalized, so the sum is the score.
+   */
+  public double finalScore(int docId, double score, double queryLength, int matches, int querySize) {
+    return score;
+  }
+
+  /**
+   * Return a new BM25Scorer with the same k1 and b.  A subclass must
+   * override this to be copied.
+   */
+  public Scorer copy() {
+    if (getClass() != BM25Scorer.class)
+      return super.copy();
+    return new BM25Scorer(k1, b);
+  }
+
+  public String toString() {
+    return "BM25Scorer: k1=" + k1 + ", b=" + b;
+  }
+}
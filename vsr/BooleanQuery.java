@@ -0,0 +1,616 @@
+package ir.vsr;
+
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * A Boolean query of AND, OR and NOT over the tokens of an InvertedIndex,
+ * with parentheses for grouping.  The operators must be in upper case; a
+ * word in lower case is a term to match.  Terms next to one another
+ * without an operator are ANDed, and AND binds more tightly than OR, so
+ * "a b OR c NOT d" means "(a AND b) OR (c AND NOT d)".  Each word is
+ * tokenized like a document, so a stopword adds no condition and a word
+ * that splits into several tokens needs all of them.
+ * <p>
+ * A query is evaluated document-at-a-time over cursors on the postings
+ * rather than by scoring every posting of every term.  A conjunction
+ * moves the cursor of its rarest part through its postings and makes each
+ * other part gallop ahead to the document it is on, taking whole blocks of
+ * compressed postings at a time, so AND over common terms reads little
+ * more than the postings of the rarest one.  A NOT in a conjunction only
+ * advances its cursor to the candidate to veto it.  The matching documents
+ * are then ranked by the index's scorer on the terms that are not under a
+ * NOT, taken as a bag of words.
+ */
+public class BooleanQuery {
+
+  /**
+   * The root of the parsed query, or null if no word of it is indexed
+   * (all are stopwords)
+   */
+  protected final Clause root;
+
+  /**
+   * The words and operators of the query string, while it is parsed
+   */
+  protected List<String> words;
+
+  /**
+   * The position in words of the next one to parse
+   */
+  protected int next = 0;
+
+  /**
+   * Whether to stem the words of the query, as the index does
+   */
+  protected boolean stem;
+
+  /**
+   * The stopwords dropped from the query, as by the index
+   */
+  protected StopWordFilter stopWords;
+
+  /**
+   * Parse a Boolean query.
+   *
+   * @param query     The query string.
+   * @param stem      Whether to stem its words, as the index does.
+   * @param stopWords The stopwords dropped by the index, or null for the default list.
+   * @throws IllegalArgumentException If the query is not well formed.
+   */
+  public BooleanQuery(String query, boolean stem, StopWordFilter stopWords) {
+    this.stem = stem;
+    this.stopWords = stopWords;
+    words = split(query);
+    Clause clause = parseOr();
+    if (next < words.size())
+      throw new IllegalArgumentException("Unexpected " + words.get(next) + " in query: " + query);
+    root = clause;
+    // The words are only needed while parsing
+    words = null;
+  }
+
+  /**
+   * Return whether a query string uses any Boolean operator or parenthesis.
+   */
+  public static boolean isBoolean(String query) {
+    for (String word : split(query)) {
+      if (isOperator(word))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Split a query string into words and operators at white space and
+   * around parentheses.
+   */
+  protected static List<String> split(String query) {
+    List<String> words = new ArrayList<String>();
+    StringBuilder word = new StringBuilder();
+    for (int i = 0; i <= query.length(); i++) {
+      char c = i < query.length() ? query.charAt(i) : ' ';
+      if (Character.isWhitespace(c) || c == '(' || c == ')') {
+        if (word.length() > 0) {
+          words.add(word.toString());
+          word.setLength(0);
+        }
+        if (c == '(' || c == ')')
+          words.add(String.valueOf(c));
+      } else
+        word.append(c);
+    }
+    return words;
+  }
+
+  /**
+   * Return whether a word of the query is an operator or parenthesis.
+   */
+  protected static boolean isOperator(String word) {
+    return word.equals("AND") || word.equals("OR") || word.equals("NOT") ||
+        word.equals("(") || word.equals(")");
+  }
+
+  /**
+   * Return the next word of the query without consuming it, or null at the end.
+   */
+  protected String peek() {
+    return next < words.size() ? words.get(next) : null;
+  }
+
+  /**
+   * Parse a disjunction of conjunctions.
+   */
+  protected Clause parseOr() {
+    List<Clause> clauses = new ArrayList<Clause>();
+    add(clauses, parseAnd());
+    while ("OR".equals(peek())) {
+      next++;
+      add(clauses, parseAnd());
+    }
+    if (clauses.isEmpty())
+      return null;
+    return clauses.size() == 1 ? clauses.get(0) : new Or(clauses);
+  }
+
+  /**
+   * Parse a conjunction of unary clauses, whose ANDs may be left out.
+   */
+  protected Clause parseAnd() {
+    List<Clause> clauses = new ArrayList<Clause>();
+    add(clauses, parseUnary());
+    while (peek() != null && !peek().equals("OR") && !peek().equals(")")) {
+      if (peek().equals("AND"))
+        next++;
+      add(clauses, parseUnary());
+    }
+    if (clauses.isEmpty())
+      return null;
+    return clauses.size() == 1 ? clauses.get(0) : new And(clauses);
+  }
+
+  /**
+   * Parse a negation, a group in parentheses or a word.
+   */
+  protected Clause parseUnary() {
+    String word = peek();
+    if (word == null || word.equals(")") || word.equals("AND") || word.equals("OR"))
+      throw new IllegalArgumentException("Expected a word, NOT or ( but found " +
+          (word == null ? "the end of the query" : word));
+    next++;
+    if (word.equals("NOT")) {
+      Clause clause = parseUnary();
+      return clause == null ? null : new Not(clause);
+    }
+    if (word.equals("(")) {
+      Clause clause = parseOr();
+      if (!")".equals(peek()))
+        throw new IllegalArgumentException("Missing ) in query");
+      next++;
+      return clause;
+    }
+    return parseWord(word);
+  }
+
+  /**
+   * Return the clause for a word: a term for each of its tokens, ANDed, or
+   * null if it has none.
+   */
+  protected Clause parseWord(String word) {
+    List<Clause> terms = new ArrayList<Clause>();
+    Document doc = new TextStringDocument(word, stem, stopWords);
+    while (doc.hasMoreTokens())
+      terms.add(new Term(doc.nextToken()));
+    if (terms.isEmpty())
+      return null;
+    return terms.size() == 1 ? terms.get(0) : new And(terms);
+  }
+
+  /**
+   * Add a clause to a list unless it is null.
+   */
+  protected static void add(List<Clause> clauses, Clause clause) {
+    if (clause != null)
+      clauses.add(clause);
+  }
+
+  /**
+   * Return the terms not under a NOT as a bag of words, as used for ranking.
+   */
+  public HashMapVector vector() {
+    HashMapVector vector = new HashMapVector();
+    if (root != null)
+      root.addTerms(vector);
+    return vector;
+  }
+
+  /**
+   * Return the undeleted documents of the index that match the query in
+   * ranked order.  The caller must hold the index's read lock.
+   */
+  protected Retrieval[] retrieve(InvertedIndex index) {
+    List<Retrieval> retrievals = new ArrayList<Retrieval>();
+    addMatches(index, index.tokenHash, 0, index.docRefs.size(), retrievals);
+    return rank(retrievals);
+  }
+
+  /**
+   * Add the undeleted documents with ids from start up to end that match
+   * the query in the given postings to a list of retrievals, in order of
+   * id, scored with the statistics of the index.  The postings are those
+   * of the index itself or, for a SegmentedIndex, those of one of its
+   * segments.  The caller must hold the index's read lock.
+   */
+  protected void addMatches(InvertedIndex index, Map<String, TokenInfo> postings, int start, int end,
+                            List<Retrieval> retrievals) {
+    if (root == null)
+      return;
+    Matcher matcher = root.matcher(postings, start, end);
+    // A cursor over each term to rank by, moved to each match in turn
+    HashMapVector vector = vector();
+    PostingsCursor[] cursors = new PostingsCursor[vector.size()];
+    Scorer scorer = index.scorer;
+    double[] scales = new double[vector.size()];
+    double queryLength = 0.0;
+    for (int i = 0; i < vector.size(); i++) {
+      TokenInfo tokenInfo = index.tokenHash.get(vector.token(i));
+      if (tokenInfo == null)
+        continue;
+      double weight = scorer.queryWeight(tokenInfo, vector.weight(i));
+      if (weight == 0.0)
+        continue;
+      scales[i] = scorer.scale(tokenInfo, weight);
+      queryLength += weight * weight;
+      // The term still counts towards the length of the query where
+      // these postings do not have it
+      TokenInfo termPostings = postings.get(vector.token(i));
+      if (termPostings != null)
+        cursors[i] = termPostings.cursor();
+    }
+    queryLength = Math.sqrt(queryLength);
+    for (int doc = matcher.nextDoc(); doc != PostingsCursor.NO_MORE_DOCS; doc = matcher.nextDoc()) {
+      if (index.deletedDocs.get(doc))
+        continue;
+      double score = 0.0;
+      int matches = 0;
+      for (int i = 0; i < cursors.length; i++) {
+        if (cursors[i] != null && cursors[i].advance(doc) == doc) {
+          score += scorer.score(scales[i], doc, cursors[i].count());
+          matches++;
+        }
+      }
+      DocumentReference docRef = index.docRefs.get(doc);
+      if (score != 0.0)
+        score = scorer.finalScore(doc, score, queryLength, matches, vector.size());
+      retrievals.add(new Retrieval(docRef, score));
+    }
+  }
+
+  /**
+   * Return the retrievals, added in order of id, in ranked order.
+   */
+  protected static Retrieval[] rank(List<Retrieval> retrievals) {
+    Retrieval[] ranked = retrievals.toArray(new Retrieval[0]);
+    Arrays.sort(ranked);
+    return ranked;
+  }
+
+  public String toString() {
+    return root == null ? "()" : root.toString();
+  }
+
+  /**
+   * A node of a parsed query
+   */
+  protected static abstract class Clause {
+    /**
+     * Return a matcher over the documents with ids from start up to end
+     * that match this clause in the given postings.
+     */
+    abstract Matcher matcher(Map<String, TokenInfo> postings, int start, int end);
+
+    /**
+     * Add the terms of this clause that are not under a NOT to the vector.
+     */
+    abstract void addTerms(HashMapVector vector);
+  }
+
+  /**
+   * A clause matching the documents that contain a token
+   */
+  protected static class Term extends Clause {
+    final String token;
+
+    Term(String token) {
+      this.token = token;
+    }
+
+    Matcher matcher(Map<String, TokenInfo> postings, int start, int end) {
+      TokenInfo tokenInfo = postings.get(token);
+      if (tokenInfo == null)
+        return new Matcher();
+      return new TermMatcher(tokenInfo.cursor(), tokenInfo.numDocs);
+    }
+
+    void addTerms(HashMapVector vector) {
+      vector.increment(token);
+    }
+
+    public String toString() {
+      return token;
+    }
+  }
+
+  /**
+   * A clause matching the documents that match all its clauses
+   */
+  protected static class And extends Clause {
+    final List<Clause> clauses;
+
+    And(List<Clause> clauses) {
+      this.clauses = clauses;
+    }
+
+    Matcher matcher(Map<String, TokenInfo> postings, int start, int end) {
+      // A negated clause only vetoes the documents the others match
+      List<Matcher> required = new ArrayList<Matcher>();
+      List<Matcher> excluded = new ArrayList<Matcher>();
+      for (Clause clause : clauses) {
+        if (clause instanceof Not)
+          excluded.add(((Not) clause).clause.matcher(postings, start, end));
+        else
+          required.add(clause.matcher(postings, start, end));
+      }
+      if (required.isEmpty())
+        required.add(new AllMatcher(start, end));
+      return new AndMatcher(required, excluded);
+    }
+
+    void addTerms(HashMapVector vector) {
+      for (Clause clause : clauses)
+        clause.addTerms(vector);
+    }
+
+    public String toString() {
+      return join(clauses, " AND ");
+    }
+  }
+
+  /**
+   * A clause matching the documents that match any of its clauses
+   */
+  protected static class Or extends Clause {
+    final List<Clause> clauses;
+
+    Or(List<Clause> clauses) {
+      this.clauses = clauses;
+    }
+
+    Matcher matcher(Map<String, TokenInfo> postings, int start, int end) {
+      Matcher[] matchers = new Matcher[clauses.size()];
+      for (int i = 0; i < matchers.length; i++)
+        matchers[i] = clauses.get(i).matcher(postings, start, end);
+      return new OrMatcher(matchers);
+    }
+
+    void addTerms(HashMapVector vector) {
+      for (Clause clause : clauses)
+        clause.addTerms(vector);
+    }
+
+    public String toString() {
+      return join(clauses, " OR ");
+    }
+  }
+
+  /**
+   * A clause matching the documents that do not match its clause
+   */
+  protected static class Not extends Clause {
+    final Clause clause;
+
+    Not(Clause clause) {
+      this.clause = clause;
+    }
+
+    Matcher matcher(Map<String, TokenInfo> postings, int start, int end) {
+      // On its own a negation has to go through every document
+      return new AndMatcher(Collections.<Matcher>singletonList(new AllMatcher(start, end)),
+          Collections.singletonList(clause.matcher(postings, start, end)));
+    }
+
+    void addTerms(HashMapVector vector) {
+    }
+
+    public String toString() {
+      return "NOT " + clause;
+    }
+  }
+
+  /**
+   * Return the clauses joined by an operator, in parentheses.
+   */
+  protected static String join(List<Clause> clauses, String operator) {
+    StringBuilder string = new StringBuilder("(");
+    for (int i = 0; i < clauses.size(); i++) {
+      if (i > 0)
+        string.append(operator);
+      string.append(clauses.get(i));
+    }
+    return string.append(')').toString();
+  }
+
+  /**
+   * Iterates through the ids of the documents matching a clause in
+   * increasing order, like a PostingsCursor.  This base class matches no
+   * document.
+   */
+  protected static class Matcher {
+    /**
+     * The current document id, -1 before the first and NO_MORE_DOCS after the last
+     */
+    int doc = -1;
+
+    /**
+     * Move to the next matching document and return its id, or
+     * NO_MORE_DOCS if there is none.
+     */
+    int nextDoc() {
+      return doc = PostingsCursor.NO_MORE_DOCS;
+    }
+
+    /**
+     * Move to the first matching document whose id is at least target and
+     * return its id, or NO_MORE_DOCS.  Does not move if already on one.
+     */
+    int advance(int target) {
+      return doc = PostingsCursor.NO_MORE_DOCS;
+    }
+
+    /**
+     * Return an estimate of the number of documents matched, to order
+     * the parts of a conjunction
+     */
+    long cost() {
+      return 0;
+    }
+  }
+
+  /**
+   * Matches the documents in the postings of a token
+   */
+  protected static class TermMatcher extends Matcher {
+    final PostingsCursor cursor;
+    final int numDocs;
+
+    TermMatcher(PostingsCursor cursor, int numDocs) {
+      this.cursor = cursor;
+      this.numDocs = numDocs;
+    }
+
+    int nextDoc() {
+      return doc = cursor.nextDoc();
+    }
+
+    int advance(int target) {
+      return doc = cursor.advance(target);
+    }
+
+    long cost() {
+      return numDocs;
+    }
+  }
+
+  /**
+   * Matches every document id from start up to end
+   */
+  protected static class AllMatcher extends Matcher {
+    final int start, end;
+
+    AllMatcher(int start, int end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    int nextDoc() {
+      return advance(doc + 1);
+    }
+
+    int advance(int target) {
+      if (doc >= target)
+        return doc;
+      target = Math.max(target, start);
+      return doc = target < end ? target : PostingsCursor.NO_MORE_DOCS;
+    }
+
+    long cost() {
+      return end - start;
+    }
+  }
+
+  /**
+   * Matches the documents matched by all its required matchers and none of
+   * its excluded ones.  The rarest required matcher leads and the others
+   * gallop after it.
+   */
+  protected static class AndMatcher extends Matcher {
+    final Matcher lead;
+    final Matcher[] others;
+    final Matcher[] excluded;
+
+    AndMatcher(List<Matcher> required, List<Matcher> excluded) {
+      Matcher[] sorted = required.toArray(new Matcher[0]);
+      Arrays.sort(sorted, new Comparator<Matcher>() {
+        public int compare(Matcher a, Matcher b) {
+          return Long.compare(a.cost(), b.cost());
+        }
+      });
+      lead = sorted[0];
+      others = Arrays.copyOfRange(sorted, 1, sorted.length);
+      this.excluded = excluded.toArray(new Matcher[0]);
+    }
+
+    int nextDoc() {
+      return doc = align(lead.nextDoc());
+    }
+
+    int advance(int target) {
+      if (doc >= target)
+        return doc;
+      return doc = align(lead.advance(target));
+    }
+
+    /**
+     * Return the first document at or after the one the lead is on that
+     * every required matcher matches and no excluded one does.
+     */
+    int align(int candidate) {
+      while (candidate != PostingsCursor.NO_MORE_DOCS) {
+        boolean matched = true;
+        for (Matcher other : others) {
+          int otherDoc = other.advance(candidate);
+          if (otherDoc > candidate) {
+            // Missing here, so the lead catches up to this matcher
+            candidate = lead.advance(otherDoc);
+            matched = false;
+            break;
+          }
+        }
+        if (!matched)
+          continue;
+        for (Matcher veto : excluded) {
+          if (veto.advance(candidate) == candidate) {
+            candidate = lead.nextDoc();
+            matched = false;
+            break;
+          }
+        }
+        if (matched)
+          return candidate;
+      }
+      return candidate;
+    }
+
+    long cost() {
+      return lead.cost();
+    }
+  }
+
+  /**
+   * Matches the documents matched by any of its matchers, every one of
+   * which is always on or after the current document.
+   */
+  protected static class OrMatcher extends Matcher {
+    final Matcher[] matchers;
+
+    OrMatcher(Matcher[] matchers) {
+      this.matchers = matchers;
+    }
+
+    int nextDoc() {
+      int min = PostingsCursor.NO_MORE_DOCS;
+      for (Matcher matcher : matchers) {
+        int matcherDoc = matcher.doc <= doc ? matcher.nextDoc() : matcher.doc;
+        min = Math.min(min, matcherDoc);
+      }
+      return doc = min;
+    }
+
+    int advance(int target) {
+      if (doc >= target)
+        return doc;
+      int min = PostingsCursor.NO_MORE_DOCS;
+      for (Matcher matcher : matchers)
+        min = Math.min(min, matcher.advance(target));
+      return doc = min;
+    }
+
+    long cost() {
+      long cost = 0;
+      for (Matcher matcher : matchers)
+        cost += matcher.cost();
+      return cost;
+    }
+  }
+}
@@ -0,0 +1,192 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A scanner that splits a stream of characters into candidate tokens the
+ * way a StringTokenizer with the DELIMITERS of a text Document does, but
+ * without making a String, a line or a tokenizer along the way.  Characters
+ * are read in large blocks into a buffer and classified with a lookup table,
+ * and each candidate token is copied into a reusable char array, lowercased
+ * in place if it is all ASCII.  A Document only makes a String for the
+ * candidates that survive its letter and stopword filters.
+ */
+public class CharTokenizer {
+
+  /**
+   * The characters that separate tokens
+   */
+  public static final String DELIMITERS = " \t\n\r\f\'\"\\1234567890!@#$%^&*()_+-={}|[]:;<,>.?/`~";
+
+  /**
+   * Class of an ASCII character that separates tokens
+   */
+  protected static final byte DELIMITER = 0;
+
+  /**
+   * Class of a lower case ASCII letter
+   */
+  protected static final byte LOWER = 1;
+
+  /**
+   * Class of an upper case ASCII letter
+   */
+  protected static final byte UPPER = 2;
+
+  /**
+   * Class of any other ASCII character, which is part of a token but not a letter
+   */
+  protected static final byte OTHER = 3;
+
+  /**
+   * The class of each ASCII character
+   */
+  protected static final byte[] CLASSES = new byte[128];
+
+  static {
+    Arrays.fill(CLASSES, OTHER);
+    for (char c = 'a'; c <= 'z'; c++)
+      CLASSES[c] = LOWER;
+    for (char c = 'A'; c <= 'Z'; c++)
+      CLASSES[c] = UPPER;
+    for (int i = 0; i < DELIMITERS.length(); i++)
+      CLASSES[DELIMITERS.charAt(i)] = DELIMITER;
+  }
+
+  /**
+   * The number of characters read from the reader at a time
+   */
+  public static final int BUFFER_SIZE = 8192;
+
+  /**
+   * The source of characters, or null if all of them are already in buffer
+   */
+  protected Reader reader;
+
+  /**
+   * The characters read but not yet scanned are from position up to limit
+   */
+  protected char[] buffer;
+
+  /**
+   * The position in buffer of the next character to scan
+   */
+  protected int position = 0;
+
+  /**
+   * The number of characters in buffer
+   */
+  protected int limit = 0;
+
+  /**
+   * The characters of the current token; only the first length are used
+   */
+  public char[] token = new char[32];
+
+  /**
+   * The number of characters in the current token
+   */
+  public int length = 0;
+
+  /**
+   * Whether the current token is all ASCII, in which case it has already
+   * been lowercased
+   */
+  public boolean ascii = true;
+
+  /**
+   * Whether the current token is all ASCII letters
+   */
+  public boolean letters = true;
+
+  /**
+   * Create a scanner for the characters from a reader.
+   */
+  public CharTokenizer(Reader reader) {
+    this.reader = reader;
+    buffer = new char[BUFFER_SIZE];
+  }
+
+  /**
+   * Create a scanner for the characters of a string.
+   */
+  public CharTokenizer(String string) {
+    this(string.toCharArray(), string.length());
+  }
+
+  /**
+   * Create a scanner for the first length characters of an array, which
+   * are scanned in place.
+   */
+  public CharTokenizer(char[] chars, int length) {
+    buffer = chars;
+    limit = length;
+  }
+
+  /**
+   * Scan the next candidate token into token, returning false if there
+   * are no more.
+   */
+  public boolean next() throws IOException {
+    // Skip delimiters
+    while (true) {
+      if (position == limit && !fill())
+        return false;
+      char c = buffer[position];
+      if (c >= 128 || CLASSES[c] != DELIMITER)
+        break;
+      position++;
+    }
+    length = 0;
+    ascii = true;
+    letters = true;
+    // Copy characters up to the next delimiter or the end
+    while (position < limit || fill()) {
+      char c = buffer[position];
+      if (c < 128) {
+        byte type = CLASSES[c];
+        if (type == DELIMITER)
+          break;
+        if (type == UPPER)
+          c += 'a' - 'A';
+        else if (type == OTHER)
+          letters = false;
+      } else {
+        ascii = false;
+        letters = false;
+      }
+      if (length == token.length)
+        token = Arrays.copyOf(token, 2 * length);
+      token[length++] = c;
+      position++;
+    }
+    return true;
+  }
+
+  /**
+   * Return the current token as a String.  Only the ASCII characters of a
+   * token that is not all ASCII have been lowercased.
+   */
+  public String tokenString() {
+    return new String(token, 0, length);
+  }
+
+  /**
+   * Read the next block of characters into the buffer, returning false at
+   * the end.
+   */
+  protected boolean fill() throws IOException {
+    if (reader == null)
+      return false;
+    int read;
+    do {
+      read = reader.read(buffer, 0, buffer.length);
+    } while (read == 0);
+    if (read < 0)
+      return false;
+    position = 0;
+    limit = read;
+    return true;
+  }
+}
@@ -0,0 +1,387 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * A read-only replacement for the HashMap from tokens to TokenInfo's of an
+ * InvertedIndex that takes far less memory once indexing is done.  Tokens
+ * are kept in a front-coded TermDictionary that maps each to a term id.
+ * Instead of a String, a HashMap entry and a TokenInfo per token, the IDF
+ * factors, pruning bounds and document frequencies are kept in parallel
+ * primitive arrays indexed by term id, and uncompressed postings are
+ * concatenated into two arrays shared by all tokens, with the offset where
+ * each token's postings start.  Tokens whose postings were compressed keep
+ * their CompressedPostings.  In a positional index each token also keeps
+ * its encoded positions, trimmed to size.
+ * <p>
+ * get builds a lightweight TokenInfo view of a token's entry on each call.
+ * Views cannot be changed, and changing their idf or maxScore has no effect
+ * on the map, so an InvertedIndex turns the map back into a HashMap with
+ * toHashMap before adding or deleting documents.  Iteration is in sorted
+ * order of the tokens' UTF-8 bytes.
+ */
+public class CompactTokenMap extends AbstractMap<String, TokenInfo> {
+
+  /**
+   * The tokens, mapped to term ids
+   */
+  public final TermDictionary dictionary;
+
+  /**
+   * The IDF factor of each token, by term id
+   */
+  protected final double[] idf;
+
+  /**
+   * The pruning bound (TokenInfo.maxScore) of each token, by term id
+   */
+  protected final double[] maxScore;
+
+  /**
+   * The number of documents each token occurs in, by term id
+   */
+  protected final int[] numDocs;
+
+  /**
+   * The number of undeleted documents each token occurs in (TokenInfo.liveDocs), by term id
+   */
+  protected final int[] liveDocs;
+
+  /**
+   * The position in docIds and counts where the postings of each token
+   * start, by term id, followed by the total number of postings
+   */
+  protected final int[] offsets;
+
+  /**
+   * The document ids of the uncompressed postings of all tokens
+   */
+  protected final int[] docIds;
+
+  /**
+   * The occurrence counts of the uncompressed postings of all tokens
+   */
+  protected final int[] counts;
+
+  /**
+   * The compressed postings of each token by term id, or null if none of
+   * the tokens had compressed postings
+   */
+  protected final CompressedPostings[] compressed;
+
+  /**
+   * The encoded positions of each token by term id (TokenInfo.positions,
+   * trimmed), or null if none of the tokens had positions
+   */
+  protected final byte[][] positions;
+
+  /**
+   * Where the positions of each posting start, for each token by term id,
+   * or null if none of the tokens had positions
+   */
+  protected final int[][] positionOffsets;
+
+  /**
+   * Build a compact copy of a map from tokens to TokenInfo's.
+   */
+  public CompactTokenMap(Map<String, TokenInfo> tokenHash) {
+    List<byte[]> terms = TermDictionary.sortedBytes(tokenHash.keySet());
+    dictionary = new TermDictionary(terms);
+    int size = terms.size();
+    idf = new double[size];
+    maxScore = new double[size];
+    numDocs = new int[size];
+    liveDocs = new int[size];
+    offsets = new int[size + 1];
+    // Collect the token infos in term id order and count the postings to copy
+    TokenInfo[] tokenInfos = new TokenInfo[size];
+    long numPostings = 0;
+    boolean anyCompressed = false, anyPositions = false;
+    int id = 0;
+    for (String token : dictionary) {
+      TokenInfo tokenInfo = tokenHash.get(token);
+      tokenInfos[id++] = tokenInfo;
+      if (tokenInfo.compressed == null)
+        numPostings += tokenInfo.numDocs;
+      else
+        anyCompressed = true;
+      anyPositions |= tokenInfo.positions != null;
+    }
+    if (numPostings > Integer.MAX_VALUE)
+      throw new IllegalStateException("Too many postings to compact: " + numPostings);
+    docIds = new int[(int) numPostings];
+    counts = new int[(int) numPostings];
+    compressed = anyCompressed ? new CompressedPostings[size] : null;
+    positions = anyPositions ? new byte[size][] : null;
+    positionOffsets = anyPositions ? new int[size][] : null;
+    int offset = 0;
+    for (id = 0; id < size; id++) {
+      TokenInfo tokenInfo = tokenInfos[id];
+      idf[id] = tokenInfo.idf;
+      maxScore[id] = tokenInfo.maxScore;
+      numDocs[id] = tokenInfo.numDocs;
+      liveDocs[id] = tokenInfo.liveDocs;
+      offsets[id] = offset;
+      if (tokenInfo.compressed != null)
+        compressed[id] = tokenInfo.compressed;
+      else {
+        System.arraycopy(tokenInfo.docIds, 0, docIds, offset, tokenInfo.numDocs);
+        System.arraycopy(tokenInfo.counts, 0, counts, offset, tokenInfo.numDocs);
+        offset += tokenInfo.numDocs;
+      }
+      if (tokenInfo.positions != null) {
+        positions[id] = Arrays.copyOf(tokenInfo.positions, tokenInfo.positionsLength);
+        positionOffsets[id] = Arrays.copyOf(tokenInfo.positionOffsets, tokenInfo.numDocs);
+      }
+    }
+    offsets[size] = offset;
+  }
+
+  public int size() {
+    return dictionary.size();
+  }
+
+  public boolean containsKey(Object key) {
+    return key instanceof String && dictionary.id((String) key) >= 0;
+  }
+
+  /**
+   * Return a view of the entry for a token, or null if it is not in the map.
+   */
+  public TokenInfo get(Object key) {
+    if (!(key instanceof String))
+      return null;
+    int id = dictionary.id((String) key);
+    return id < 0 ? null : new View(id);
+  }
+
+  /**
+   * Return the entries in sorted order of their tokens.
+   */
+  public Set<Map.Entry<String, TokenInfo>> entrySet() {
+    return new AbstractSet<Map.Entry<String, TokenInfo>>() {
+      public int size() {
+        return dictionary.size();
+      }
+
+      public Iterator<Map.Entry<String, TokenInfo>> iterator() {
+        return new Iterator<Map.Entry<String, TokenInfo>>() {
+          Iterator<String> tokens = dictionary.iterator();
+          int id = 0;
+
+          public boolean hasNext() {
+            return tokens.hasNext();
+          }
+
+          public Map.Entry<String, TokenInfo> next() {
+            String token = tokens.next();
+            return new AbstractMap.SimpleImmutableEntry<String, TokenInfo>(token, new View(id++));
+          }
+
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * Return a view of the entry of the token with the given term id.
+   */
+  public TokenInfo get(int id) {
+    return new View(id);
+  }
+
+  /**
+   * Return the tokens beginning with the given prefix, in sorted order.
+   */
+  public Iterator<String> tokensWithPrefix(String prefix) {
+    int[] range = dictionary.prefixRange(prefix);
+    return dictionary.iterator(range[0], range[1]);
+  }
+
+  /**
+   * Return a HashMap holding a separate, changeable TokenInfo for every token.
+   */
+  public HashMap<String, TokenInfo> toHashMap() {
+    HashMap<String, TokenInfo> tokenHash = new HashMap<String, TokenInfo>(size() * 4 / 3 + 1);
+    int id = 0;
+    for (String token : dictionary) {
+      TokenInfo tokenInfo = new TokenInfo();
+      tokenInfo.idf = idf[id];
+      tokenInfo.maxScore = maxScore[id];
+      tokenInfo.numDocs = numDocs[id];
+      tokenInfo.liveDocs = liveDocs[id];
+      if (compressed != null && compressed[id] != null) {
+        tokenInfo.compressed = compressed[id];
+        tokenInfo.docIds = null;
+        tokenInfo.counts = null;
+      } else {
+        tokenInfo.docIds = Arrays.copyOfRange(docIds, offsets[id], offsets[id + 1]);
+        tokenInfo.counts = Arrays.copyOfRange(counts, offsets[id], offsets[id + 1]);
+      }
+      if (positions != null && positions[id] != null) {
+        tokenInfo.positions = positions[id].clone();
+        tokenInfo.positionOffsets = positionOffsets[id].clone();
+        tokenInfo.positionsLength = positions[id].length;
+      }
+      tokenHash.put(token, tokenInfo);
+      id++;
+    }
+    return tokenHash;
+  }
+
+  /**
+   * Return the approximate number of bytes of memory used, counting
+   * compressed postings.
+   */
+  public long sizeInBytes() {
+    long bytes = dictionary.sizeInBytes() + 24L * size() + 8L * docIds.length;
+    if (compressed != null) {
+      bytes += 4L * compressed.length;
+      for (CompressedPostings postings : compressed) {
+        if (postings != null)
+          bytes += postings.sizeInBytes();
+      }
+    }
+    if (positions != null) {
+      for (int id = 0; id < positions.length; id++) {
+        if (positions[id] != null)
+          bytes += 16 + positions[id].length + 16 + 4L * positionOffsets[id].length;
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * A read-only TokenInfo for one token of the map whose postings are read
+   * through a cursor over the shared arrays.
+   */
+  protected class View extends TokenInfo {
+    /**
+     * The term id of the token
+     */
+    final int id;
+
+    View(int id) {
+      // The posting arrays of a view are null, as for compressed postings
+      super(null, null, CompactTokenMap.this.numDocs[id]);
+      this.id = id;
+      idf = CompactTokenMap.this.idf[id];
+      maxScore = CompactTokenMap.this.maxScore[id];
+      liveDocs = CompactTokenMap.this.liveDocs[id];
+      if (CompactTokenMap.this.compressed != null)
+        compressed = CompactTokenMap.this.compressed[id];
+      if (CompactTokenMap.this.positions != null && CompactTokenMap.this.positions[id] != null) {
+        positions = CompactTokenMap.this.positions[id];
+        positionOffsets = CompactTokenMap.this.positionOffsets[id];
+        positionsLength = positions.length;
+      }
+    }
+
+    public PostingsCursor cursor() {
+      if (compressed != null)
+        return compressed.cursor();
+      return new PostingsCursor(CompactTokenMap.this.docIds, CompactTokenMap.this.counts,
+          offsets[id], offsets[id + 1]);
+    }
+
+    public TokenOccurrence getOccurrence(int i, List<DocumentReference> docRefs) {
+      PostingsCursor cursor = cursor();
+      for (int j = 0; j <= i; j++)
+        cursor.nextDoc();
+      return new TokenOccurrence(docRefs.get(cursor.docId()), cursor.count());
+    }
+
+    public void addOccurrence(int docId, int count) {
+      throw new UnsupportedOperationException("Cannot add to the postings of a CompactTokenMap");
+    }
+
+    public void addOccurrence(int docId, int[] docPositions, int count) {
+      throw new UnsupportedOperationException("Cannot add to the postings of a CompactTokenMap");
+    }
+
+    public void append(TokenInfo other, int offset) {
+      throw new UnsupportedOperationException("Cannot add to the postings of a CompactTokenMap");
+    }
+
+    public void trimToSize() {
+    }
+
+    public void compress(PostingsCodec codec) {
+      throw new UnsupportedOperationException("Cannot compress the postings of a CompactTokenMap");
+    }
+
+    public void decompress() {
+      throw new UnsupportedOperationException("Cannot decompress the postings of a CompactTokenMap");
+    }
+  }
+
+  /**
+   * Print the memory used by the token table of an index as a HashMap and
+   * as a CompactTokenMap, after checking that every token is found.
+   * Command format: "CompactTokenMap [-html] [-stem] [-load FILE] [DIR]"
+   */
+  public static void main(String[] args) throws IOException {
+    String dirName = null, loadName = null;
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    for (int i = 0; i < args.length; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-load"))
+        loadName = args[++i];
+      else if (i == args.length - 1 && !flag.startsWith("-"))
+        dirName = flag;
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    InvertedIndex index;
+    if (loadName != null)
+      index = InvertedIndex.open(new File(loadName).toPath());
+    else if (dirName != null)
+      index = new InvertedIndex(new File(dirName), docType, stem, false);
+    else
+      throw new IllegalArgumentException("No directory or saved index given");
+    // Estimate the HashMap: a table slot, a node, a String with its byte
+    // array, and a TokenInfo with its two posting arrays, or its compressed
+    // postings, per token
+    long hashBytes = 0, dictionaryBytes = 0;
+    for (Map.Entry<String, TokenInfo> entry : index.tokenHash.entrySet()) {
+      TokenInfo tokenInfo = entry.getValue();
+      dictionaryBytes += 8 + 32 + 24 + 16 + ((entry.getKey().length() + 7) / 8) * 8;
+      if (tokenInfo.compressed == null)
+        hashBytes += 40 + 2 * (16 + 4L * tokenInfo.docIds.length);
+      else
+        hashBytes += 40 + tokenInfo.compressed.sizeInBytes();
+    }
+    hashBytes += dictionaryBytes;
+    long start = System.nanoTime();
+    CompactTokenMap compact = new CompactTokenMap(index.tokenHash);
+    long built = System.nanoTime();
+    // Look up every token a few times so the time is not dominated by compilation
+    long lookupStart = 0, looked = 0;
+    for (int round = 0; round < 5; round++) {
+      lookupStart = System.nanoTime();
+      for (Map.Entry<String, TokenInfo> entry : index.tokenHash.entrySet()) {
+        TokenInfo view = compact.get(entry.getKey());
+        if (view == null || view.numDocs != entry.getValue().numDocs)
+          throw new IllegalStateException("Token " + entry.getKey() + " not found");
+      }
+      looked = System.nanoTime();
+    }
+    System.out.println(index.tokenHash.size() + " tokens");
+    System.out.println("HashMap: " + hashBytes + " bytes, of which tokens " + dictionaryBytes);
+    System.out.println("CompactTokenMap: " + compact.sizeInBytes() + " bytes, of which tokens " +
+        compact.dictionary.sizeInBytes());
+    System.out.println("Built in " + MoreMath.roundTo((built - start) / 1e6, 1) + " ms, " +
+        MoreMath.roundTo((looked - lookupStart) / 1e3 / index.tokenHash.size(), 3) + " us/lookup");
+  }
+}
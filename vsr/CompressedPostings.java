@@ -0,0 +1,204 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * The postings of a token compressed with a PostingsCodec.  Postings are
+ * split into blocks of BLOCK_SIZE; within a block, document ids are stored
+ * as d-gaps (the difference from the previous id, minus 1) followed by the
+ * occurrence counts minus 1, each encoded with the codec.  The last document
+ * id and byte offset of every block are kept uncompressed as skip entries,
+ * so a PostingsCursor can jump over whole blocks without decoding them.
+ */
+public class CompressedPostings {
+
+  /**
+   * The number of postings in a block
+   */
+  public static final int BLOCK_SIZE = 128;
+
+  /**
+   * The codec the blocks are encoded with
+   */
+  public PostingsCodec codec;
+
+  /**
+   * The encoded blocks
+   */
+  public byte[] data;
+
+  /**
+   * The number of postings
+   */
+  public int numDocs;
+
+  /**
+   * The id of the last document in each block
+   */
+  public int[] lastDocIds;
+
+  /**
+   * The offset in data where each block starts
+   */
+  public int[] offsets;
+
+  /**
+   * Compress postings given as parallel arrays of increasing document ids
+   * and occurrence counts.
+   *
+   * @param codec   The codec to encode with.
+   * @param docIds  The document ids, in increasing order.
+   * @param counts  The occurrence count in each document.
+   * @param numDocs The number of postings in the arrays.
+   */
+  public CompressedPostings(PostingsCodec codec, int[] docIds, int[] counts, int numDocs) {
+    this.codec = codec;
+    this.numDocs = numDocs;
+    int numBlocks = (numDocs + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    lastDocIds = new int[numBlocks];
+    offsets = new int[numBlocks];
+    ByteArrayOutputStream out = new ByteArrayOutputStream(numDocs * 2 + 2);
+    int[] values = new int[BLOCK_SIZE];
+    int previous = -1;
+    for (int block = 0; block < numBlocks; block++) {
+      int start = block * BLOCK_SIZE;
+      int n = Math.min(BLOCK_SIZE, numDocs - start);
+      offsets[block] = out.size();
+      for (int i = 0; i < n; i++) {
+        values[i] = docIds[start + i] - previous - 1;
+        previous = docIds[start + i];
+      }
+      lastDocIds[block] = previous;
+      codec.encode(values, n, out);
+      for (int i = 0; i < n; i++)
+        values[i] = counts[start + i] - 1;
+      codec.encode(values, n, out);
+    }
+    data = out.toByteArray();
+  }
+
+  /**
+   * Return the number of blocks
+   */
+  public int numBlocks() {
+    return offsets.length;
+  }
+
+  /**
+   * Return the number of postings in a block
+   */
+  public int blockSize(int block) {
+    return Math.min(BLOCK_SIZE, numDocs - block * BLOCK_SIZE);
+  }
+
+  /**
+   * Decode a block into arrays of document ids and counts.
+   *
+   * @return The number of postings in the block.
+   */
+  public int decodeBlock(int block, int[] docIds, int[] counts) {
+    int n = blockSize(block);
+    int offset = codec.decode(data, offsets[block], docIds, n);
+    codec.decode(data, offset, counts, n);
+    // Undo the d-gaps, starting from the last id of the previous block
+    int previous = block == 0 ? -1 : lastDocIds[block - 1];
+    for (int i = 0; i < n; i++) {
+      previous = previous + docIds[i] + 1;
+      docIds[i] = previous;
+      counts[i]++;
+    }
+    return n;
+  }
+
+  /**
+   * Return a cursor over these postings
+   */
+  public PostingsCursor cursor() {
+    return new PostingsCursor(this);
+  }
+
+  /**
+   * Return the approximate number of bytes of memory used, counting the
+   * encoded data and the skip entries.
+   */
+  public long sizeInBytes() {
+    return data.length + 8L * offsets.length;
+  }
+
+  /**
+   * Print the memory used by the postings of an index when stored as int
+   * arrays and when compressed with each codec, after checking that the
+   * compressed postings decode back to the original ones.
+   * Command format: "CompressedPostings [-html] [-stem] [-load FILE] [DIR]"
+   * where DIR is a directory of documents to index and FILE an index saved
+   * with InvertedIndex.save.
+   */
+  public static void main(String[] args) throws IOException {
+    String dirName = null, loadName = null;
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    for (int i = 0; i < args.length; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-load"))
+        loadName = args[++i];
+      else if (i == args.length - 1 && !flag.startsWith("-"))
+        dirName = flag;
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    InvertedIndex index;
+    if (loadName != null)
+      index = InvertedIndex.open(new File(loadName).toPath());
+    else if (dirName != null)
+      index = new InvertedIndex(new File(dirName), docType, stem, false);
+    else
+      throw new IllegalArgumentException("No directory or saved index given");
+    long numPostings = 0;
+    for (TokenInfo tokenInfo : index.tokenHash.values())
+      numPostings += tokenInfo.numDocs;
+    System.out.println(index.tokenHash.size() + " tokens, " + numPostings + " postings");
+    System.out.println(MoreString.padTo("Encoding", 12) + MoreString.padTo("Bytes", 14) +
+        MoreString.padTo("Bits/posting", 14) + "Encode ms  Decode ms");
+    // Two ints per posting, ignoring array headers
+    report("int arrays", 8 * numPostings, numPostings, 0, 0);
+    for (PostingsCodec codec : new PostingsCodec[]{PostingsCodec.VBYTE, PostingsCodec.PFOR}) {
+      long bytes = 0;
+      long start = System.nanoTime();
+      List<CompressedPostings> compressed = new ArrayList<CompressedPostings>(index.tokenHash.size());
+      for (TokenInfo tokenInfo : index.tokenHash.values()) {
+        CompressedPostings postings = new CompressedPostings(codec, tokenInfo.docIds, tokenInfo.counts, tokenInfo.numDocs);
+        bytes += postings.sizeInBytes();
+        compressed.add(postings);
+      }
+      long encoded = System.nanoTime();
+      // Decode everything, checking it against the original postings
+      int t = 0;
+      for (TokenInfo tokenInfo : index.tokenHash.values()) {
+        PostingsCursor cursor = compressed.get(t++).cursor();
+        for (int i = 0; i < tokenInfo.numDocs; i++) {
+          if (cursor.nextDoc() != tokenInfo.docIds[i] || cursor.count() != tokenInfo.counts[i])
+            throw new IllegalStateException(codec + " postings do not decode correctly");
+        }
+      }
+      long decoded = System.nanoTime();
+      report(codec.name(), bytes, numPostings, (encoded - start) / 1e6, (decoded - encoded) / 1e6);
+    }
+  }
+
+  /**
+   * Print one line of the size report.
+   */
+  protected static void report(String name, long bytes, long numPostings, double encodeMillis, double decodeMillis) {
+    System.out.println(MoreString.padTo(name, 12) + MoreString.padTo(Long.toString(bytes), 14) +
+        MoreString.padTo(Double.toString(MoreMath.roundTo(8.0 * bytes / Math.max(1, numPostings), 2)), 14) +
+        MoreString.padTo(Double.toString(MoreMath.roundTo(encodeMillis, 1)), 11) +
+        MoreMath.roundTo(decodeMillis, 1));
+  }
+}
@@ -0,0 +1,52 @@
+package ir.vsr;
+
+/**
+ * Adds to the score given by another scorer the fraction of the distinct
+ * query tokens that a document contains, so that documents matching more
+ * of the query rank first.
+ */
+public class CoordinationScorer extends Scorer {
+
+  /**
+   * The scorer whose scores are added to
+   */
+  protected final Scorer scorer;
+
+  /**
+   * Add coordination to the given scorer.
+   */
+  public CoordinationScorer(Scorer scorer) {
+    this.scorer = scorer;
+  }
+
+  public void init(InvertedIndex index) {
+    scorer.init(index);
+  }
+
+  /**
+   * Return a new CoordinationScorer adding coordination to a copy of the
+   * scorer this one adds to.  A subclass must override this to be copied.
+   */
+  public Scorer copy() {
+    if (getClass() != CoordinationScorer.class)
+      return super.copy();
+    return new CoordinationScorer(scorer.copy());
+  }
+
+  public double queryWeight(TokenInfo tokenInfo, double count) {
+    return scorer.queryWeight(tokenInfo, count);
+  }
+
+  public double scale(TokenInfo tokenInfo, double weight) {
+    return scorer.scale(tokenInfo, weight);
+  }
+
+  public double score(double scale, int docId, int count) {
+    return scorer.score(scale, docId, count);
+  }
+
+  public double finalScore(int docId, double score, double queryLength, int matches, int querySize) {
+    double coordination = querySize == 0 ? 0.0 : (double) matches / querySize;
+    return scorer.finalScore(docId, score, queryLength, matches, querySize) + coordination;
+  }
+}
@@ -0,0 +1,62 @@
+package ir.vsr;
+
+/**
+ * Scores documents by the cosine similarity of their TF-IDF vectors to
+ * the query vector, the original ranking of InvertedIndex.  Tokens and
+ * documents are weighted by IDF times count, and the dot product is
+ * normalized by the lengths of both vectors.
+ */
+public class CosineScorer extends Scorer {
+
+  /**
+   * The length of each document vector, indexed by document id
+   */
+  protected double[] docLengths = new double[0];
+
+  public void init(InvertedIndex index) {
+    docLengths = index.docLengths;
+  }
+
+  /**
+   * The IDF factor times the count, which is 0 for a token in every
+   * document, so it is skipped
+   */
+  public double queryWeight(TokenInfo tokenInfo, double count) {
+    return tokenInfo.idf * count;
+  }
+
+  /**
+   * Each document is weighted by IDF * occurrence count, so factor the IDF
+   * into the query weight once for all postings.
+   */
+  public double scale(TokenInfo tokenInfo, double weight) {
+    return weight * tokenInfo.idf;
+  }
+
+  public double score(double scale, int docId, int count) {
+    return scale * count;
+  }
+
+  /**
+   * Return a new CosineScorer.  A subclass must override this to be copied.
+   */
+  public Scorer copy() {
+    if (getClass() != CosineScorer.class)
+      return super.copy();
+    return new CosineScorer();
+  }
+
+  /**
+   * Dividing by the query length cancels any common factor of the query weights.
+   */
+  public boolean isScaleInvariant() {
+    return true;
+  }
+
+  /**
+   * Normalize the score for the lengths of the two vectors.
+   */
+  public double finalScore(int docId, double score, double queryLength, int matches, int querySize) {
+    return score / (queryLength * docLengths[docId]);
+  }
+}
@@ -18,46 +18,65 @@ import ir.utilities.*;
 
 public abstract class Document {
   /**
-   * The file where a list of stopwords, 1 per line, are stored
+   * The Porter stemmer, behind a cache of the stems of recent words.
+   * Both keep no locks, so this one instance may be shared by documents
+   * tokenized concurrently.
    */
-  protected static final String stopWordsFile = "/u/mooney/ir-code/ir/utilities/stopwords.txt";
+  protected static StemCache stemmer = new StemCache(new Porter());
+
   /**
-   * The number of stopwords in this file
+   * The next token in the document
    */
-  protected static final int numStopWords = 514;
+  protected String nextToken = null;
   /**
-   * The hashtable where stopwords are indexed
+   * The number of tokens currently read from document
    */
-  protected static HashSet<String> stopWords = null;
+  protected int numTokens = 0;
   /**
-   * The Porter stemmer
+   * The number of candidate tokens produced so far, including those
+   * removed as stopwords or for not being all letters
    */
-  protected static Porter stemmer = new Porter();
-
+  protected int numCandidates = 0;
   /**
-   * The next token in the document
+   * The position of nextToken: the number of candidate tokens before it
    */
-  protected String nextToken = null;
+  protected int nextPosition = -1;
   /**
-   * The number of tokens currently read from document
+   * The position of the token last returned by nextToken, or -1
    */
-  protected int numTokens = 0;
+  protected int tokenPosition = -1;
   /**
    * Whether to stem tokens with the Porter stemmer
    */
   protected boolean stem = false;
+  /**
+   * The stopwords removed from the tokens
+   */
+  protected StopWordFilter stopWords = null;
+  /**
+   * The scanner producing candidate tokens as characters, for subclasses
+   * that use one, or null for those that produce them with
+   * getNextCandidateToken
+   */
+  protected CharTokenizer scanner = null;
 
   /**
-   * Creates a new Document making sure that the stopwords
-   * are loaded, indexed, and ready for use.  Subclasses
+   * Creates a new Document that removes the default stopwords.  Subclasses
    * that create concrete instances MUST call prepareNextToken
    * before finishing to ensure that the first token is precomputed
    * and available.
    */
   public Document(boolean stem) {
+    this(stem, null);
+  }
+
+  /**
+   * Creates a new Document that removes the given stopwords, or the
+   * default ones if stopWords is null.
+   */
+  public Document(boolean stem, StopWordFilter stopWords) {
     this.stem = stem;
-    if (stopWords == null)
-      loadStopWords();
+    this.stopWords = stopWords != null ? stopWords : StopWordFilter.defaultFilter();
   }
 
   /**
@@ -76,6 +95,7 @@ public abstract class Document {
   public String nextToken() {
     String token = nextToken;
     if (token == null) return null;
+    tokenPosition = nextPosition;
     prepareNextToken();
     numTokens++;
     return token;
@@ -86,14 +106,18 @@ public abstract class Document {
    * Performs stop-word removal of candidate tokens.
    */
   protected void prepareNextToken() {
+    if (scanner != null) {
+      prepareNextScannedToken();
+      return;
+    }
     // Loop until a non-stopword token is found
     do {
       nextToken = getNextCandidateToken();
       if (nextToken == null) return; // reached end of document
+      nextPosition = numCandidates++;
       // Normalize token string case to lower case.
       nextToken = nextToken.toLowerCase();
-      // Do not include a token found in the stopword list as
-      // indexed in the stopwords hashtable.
+      // Do not include a token found in the stopword list.
       // Also do not include tokens that are not all Unicode letters
       if (stopWords.contains(nextToken) || !allLetters(nextToken))
         nextToken = null;
@@ -106,6 +130,69 @@ public abstract class Document {
     while (nextToken == null);
   }
 
+  /**
+   * Precompute the nextToken slot from the candidates of the scanner.  An
+   * all-ASCII candidate is lowercased, checked for letters and looked up in
+   * the stopwords while still in the scanner's buffer, so a String is only
+   * made for a token that is kept.  Others are filtered as Strings the same
+   * way as by prepareNextToken.
+   */
+  protected void prepareNextScannedToken() {
+    nextToken = null;
+    while (nextCandidate()) {
+      nextPosition = numCandidates++;
+      String token;
+      if (scanner.ascii) {
+        if (!scanner.letters || stopWords.contains(scanner.token, 0, scanner.length))
+          continue;
+        // Stem straight from the buffer, so only the stem is made a String
+        token = stem ? stemmer.stripAffixes(scanner.token, scanner.length) : scanner.tokenString();
+      } else {
+        token = scanner.tokenString().toLowerCase();
+        if (stopWords.contains(token) || !allLetters(token))
+          continue;
+        if (stem)
+          token = stemmer.stripAffixes(token);
+      }
+      if (stem && stopWords.contains(token))
+        continue;
+      nextToken = token;
+      return;
+    }
+  }
+
+  /**
+   * Advance the scanner to the next candidate token, returning false if
+   * there are none left.  Subclasses that read from a file override this
+   * to report read errors and close the file at the end.
+   */
+  protected boolean nextCandidate() {
+    try {
+      return scanner.next();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Return the position in the document of the token last returned by
+   * nextToken, or -1 if none has been.  Positions count every candidate
+   * token, so the tokens on either side of a removed stopword are 2 apart
+   * rather than adjacent, and a phrase only matches where the stopwords
+   * in it were.
+   */
+  public int position() {
+    return tokenPosition;
+  }
+
+  /**
+   * Return the cache of stems shared by all documents, for its statistics.
+   */
+  public static StemCache stemCache() {
+    return stemmer;
+  }
+
   /**
    * Check if this token consists of all Unicode letters to eliminate
    * other bizarre tokens
@@ -135,33 +222,6 @@ public abstract class Document {
       return -1;
   }
 
-  /**
-   * Load the stopwords from file to the hashtable where they are indexed.
-   */
-  protected static void loadStopWords() {
-    // Initialize hashtable to proper size given known number of
-    // stopwords in the file and a default 75% load factor with
-    // 10 extra slots for spare room.
-    int HashMapSize = (int) (numStopWords / 0.75 + 10);
-    stopWords = new HashSet<String>(HashMapSize);
-    String line;
-    try {
-      // Open stopword file for reading
-      BufferedReader in = new BufferedReader(new FileReader(stopWordsFile));
-      // Read in stopwords, one per line, until file is empty
-      while ((line = in.readLine()) != null) {
-        // Index word into the hashtable with
-        // the default empty string as a "dummy" value.
-        stopWords.add(line);
-      }
-      in.close();
-    }
-    catch (IOException e) {
-      System.out.println("\nCould not load stopwords file: " + stopWordsFile);
-      System.exit(1);
-    }
-  }
-
   /**
    * Returns a hashmap version of the term-vector (bag of words) for this
    * document, where each token is a key whose value is the number of times
@@ -181,6 +241,47 @@ public abstract class Document {
     return vector;
   }
 
+  /**
+   * Returns the hashmap version of the term-vector for this document
+   * together with the positions where each of its tokens occurs, for
+   * indexing positions.
+   */
+  public PositionalVector positionalVector() {
+    if (numTokens != 0)
+      return null;
+    PositionalVector vector = new PositionalVector();
+    // Process each token in the document and add it to the vector at its position
+    while (hasMoreTokens()) {
+      String token = nextToken();
+      vector.addOccurrence(token, position());
+    }
+    return vector;
+  }
+
+  /**
+   * Returns the term-vector (bag of words) for this document keyed by the
+   * ids the given lexicon assigns to its tokens, each resolved as soon as
+   * it is tokenized, where the weight of each id is the number of times
+   * its token occurs in the document.
+   */
+  public TermVector termVector(Lexicon lexicon) {
+    if (numTokens != 0)
+      return null;
+    TermVector vector = new TermVector();
+    // Process each token in the document and add its id to the vector
+    while (hasMoreTokens())
+      vector.increment(lexicon.id(nextToken()));
+    return vector;
+  }
+
+  /**
+   * Returns the term-vector for this document keyed by the ids of the
+   * shared lexicon.
+   */
+  public TermVector termVector() {
+    return termVector(Lexicon.SHARED);
+  }
+
   /**
    * Compute and print out (one line per term) the term-vector (bag of words)
    * for this document
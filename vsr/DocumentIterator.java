@@ -4,6 +4,8 @@ import java.io.*;
 import java.util.*;
 import java.lang.*;
 
+import ir.utilities.*;
+
 /**
  * An object for iterating over a set of documents in a directory.
  * Produces DocumentFile objects that are either TextFileDocuments
@@ -40,6 +42,10 @@ public class DocumentIterator {
    * Whether tokens should be stemmed with Porter stemmer
    */
   protected boolean stem = false;
+  /**
+   * The stopwords the documents remove, or null for the default ones
+   */
+  protected StopWordFilter stopWords = null;
 
   /**
    * Create an iterator with these attributes
@@ -50,6 +56,20 @@ public class DocumentIterator {
    * @param filter  A filter to select a subset of the docs in the directory
    */
   public DocumentIterator(File dirFile, short docType, boolean stem, FilenameFilter filter) {
+    this(dirFile, docType, stem, filter, null);
+  }
+
+  /**
+   * Create an iterator with these attributes
+   *
+   * @param dirFile   The directory to use as a source of documents.
+   * @param docType   The type of Document to create. e.g. TYPE_TEXT or TYPE_HTML
+   * @param stem      Whether tokens should be stemmed with Porter stemmer.
+   * @param filter    A filter to select a subset of the docs in the directory
+   * @param stopWords The stopwords to remove, or null for the default ones.
+   */
+  public DocumentIterator(File dirFile, short docType, boolean stem, FilenameFilter filter,
+                          StopWordFilter stopWords) {
     // Get the files in this directory
     if (filter != null)
       files = dirFile.listFiles(filter);
@@ -59,6 +79,7 @@ public class DocumentIterator {
     position = 0;
     this.docType = docType;
     this.stem = stem;
+    this.stopWords = stopWords;
   }
 
   /**
@@ -87,21 +108,41 @@ public class DocumentIterator {
   public FileDocument nextDocument() {
     if (position >= files.length)
       return null;
+    FileDocument doc = getDocument(position);
+    // Reset position to the next file
+    position++;
+    return doc;
+  }
+
+  /**
+   * Create the document for the file at the given position, independent of
+   * the current position of the iterator.  Since it does not change the
+   * iterator, several threads can call this at once.
+   */
+  public FileDocument getDocument(int i) {
     FileDocument doc = null;
     // Create the correct type of FileDocument based on docType
     switch (docType) {
       case TYPE_TEXT:
-        doc = new TextFileDocument(files[position], stem);
+        doc = new TextFileDocument(files[i], stem, stopWords);
         break;
       case TYPE_HTML:
-        doc = new HTMLFileDocument(files[position], stem);
+        doc = new HTMLFileDocument(files[i], stem, stopWords);
         break;
     }
-    // Reset position to the next file
-    position++;
     return doc;
   }
 
+  /**
+   * Returns the total number of documents in this directory
+   */
+  public int numberOfDocuments() {
+    if (files == null)
+      return 0;
+    else
+      return files.length;
+  }
+
   /**
    * Returns true iff there are more documents in this directory
    */
@@ -2,6 +2,8 @@ package ir.vsr;
 
 import java.io.*;
 
+import ir.utilities.*;
+
 /**
  * A simple data structure for storing a reference to a document file
  * that includes information on the length of its document vector.
@@ -37,18 +39,42 @@ public class DocumentReference {
     return file.getName();
   }
 
+  /**
+   * References are equal if they are to the same file, since a
+   * DocumentTable makes a new reference each time one is asked for.
+   */
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (!(obj instanceof DocumentReference))
+      return false;
+    return file.equals(((DocumentReference) obj).file);
+  }
+
+  public int hashCode() {
+    return file.hashCode();
+  }
+
   /**
    * Get the full Document for this Document reference by recreating it
    * with the given docType and stemming
    */
   public Document getDocument(short docType, boolean stem) {
+    return getDocument(docType, stem, null);
+  }
+
+  /**
+   * Get the full Document for this Document reference by recreating it
+   * with the given docType, stemming and stopwords (null for the default ones)
+   */
+  public Document getDocument(short docType, boolean stem, StopWordFilter stopWords) {
     Document doc = null;
     switch (docType) {
       case DocumentIterator.TYPE_TEXT:
-        doc = new TextFileDocument(file, stem);
+        doc = new TextFileDocument(file, stem, stopWords);
         break;
       case DocumentIterator.TYPE_HTML:
-        doc = new HTMLFileDocument(file, stem);
+        doc = new HTMLFileDocument(file, stem, stopWords);
         break;
     }
     return doc;
@@ -0,0 +1,372 @@
+package ir.vsr;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A compact replacement for the list of DocumentReference's of an
+ * InvertedIndex, for large collections.  Instead of a DocumentReference,
+ * a File and its path String per document, the names of the files are
+ * concatenated as UTF-8 bytes into one arena, each with the offset where
+ * it starts and the id of its directory, and the directories, which most
+ * documents share, are each kept once.  The lengths of the document
+ * vectors are kept in a primitive array, either exactly as doubles, as
+ * floats, or as 8-bit norms on a logarithmic scale that are decoded with
+ * a table and are within 3% of the true length.
+ * <p>
+ * get builds a DocumentReference and its File on each call, so they are
+ * only made for the documents an index actually retrieves.  References
+ * made for the same document are equal but not the same object, and
+ * changing their length has no effect on the table, so an index sets
+ * lengths with setLength.  Documents can be added to the end of the table
+ * but not removed, except by clearing it.
+ */
+public class DocumentTable extends AbstractList<DocumentReference> {
+
+  /**
+   * Keep the lengths as doubles, exactly
+   */
+  public static final short DOUBLE_LENGTHS = 0;
+
+  /**
+   * Keep the lengths as floats
+   */
+  public static final short FLOAT_LENGTHS = 1;
+
+  /**
+   * Keep the lengths as 8-bit quantized norms
+   */
+  public static final short BYTE_NORMS = 2;
+
+  /**
+   * The number of norms per doubling of the length
+   */
+  public static final int NORMS_PER_OCTAVE = 12;
+
+  /**
+   * The log base 2 of the length of norm 1, the smallest nonzero norm.
+   * Norm 255, the largest, is 2^(254 / NORMS_PER_OCTAVE) times as long,
+   * so the norms cover lengths from 1/32 to about 73,000.
+   */
+  public static final int MIN_NORM_EXPONENT = -5;
+
+  /**
+   * The length each norm decodes to, indexed by the norm as an unsigned
+   * byte.  Norm 0 is a length of 0.
+   */
+  public static final double[] NORM_TABLE = new double[256];
+
+  static {
+    for (int norm = 1; norm < 256; norm++)
+      NORM_TABLE[norm] = Math.pow(2, MIN_NORM_EXPONENT + (norm - 1) / (double) NORMS_PER_OCTAVE);
+  }
+
+  /**
+   * How the lengths are kept: DOUBLE_LENGTHS, FLOAT_LENGTHS or BYTE_NORMS
+   */
+  public final short lengthType;
+
+  /**
+   * The number of documents in the table
+   */
+  protected int size = 0;
+
+  /**
+   * The UTF-8 bytes of the file names of all documents
+   */
+  protected byte[] names = new byte[1024];
+
+  /**
+   * The number of bytes used in names
+   */
+  protected int namesLength = 0;
+
+  /**
+   * The position in names where the name of each document starts, by
+   * document id
+   */
+  protected int[] nameOffsets = new int[16];
+
+  /**
+   * The id of the directory of each document in directories, by document
+   * id, or -1 for a file with no directory in its path
+   */
+  protected int[] directoryIds = new int[16];
+
+  /**
+   * The distinct directories of the documents, by directory id
+   */
+  protected List<String> directories = new ArrayList<String>();
+
+  /**
+   * The id of each directory in directories
+   */
+  protected Map<String, Integer> directoryIndex = new HashMap<String, Integer>();
+
+  /**
+   * The lengths of the documents if they are kept as doubles, else null
+   */
+  protected double[] doubleLengths = null;
+
+  /**
+   * The lengths of the documents if they are kept as floats, else null
+   */
+  protected float[] floatLengths = null;
+
+  /**
+   * The norms of the documents if their lengths are kept as norms, else null
+   */
+  protected byte[] norms = null;
+
+  /**
+   * Create an empty table keeping lengths in the given way.
+   */
+  public DocumentTable(short lengthType) {
+    this.lengthType = lengthType;
+    switch (lengthType) {
+      case DOUBLE_LENGTHS:
+        doubleLengths = new double[16];
+        break;
+      case FLOAT_LENGTHS:
+        floatLengths = new float[16];
+        break;
+      case BYTE_NORMS:
+        norms = new byte[16];
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown length type: " + lengthType);
+    }
+  }
+
+  /**
+   * Create a table of the given documents keeping lengths in the given way.
+   */
+  public DocumentTable(List<DocumentReference> docRefs, short lengthType) {
+    this(lengthType);
+    if (docRefs instanceof DocumentTable) {
+      // Copy the names straight from the other table's arena
+      DocumentTable other = (DocumentTable) docRefs;
+      for (int docId = 0; docId < other.size; docId++) {
+        int start = other.nameOffsets[docId];
+        addName(other.names, start, other.nameOffsets(docId + 1) - start,
+            other.directoryIds[docId] < 0 ? null : other.directories.get(other.directoryIds[docId]));
+        setLength(docId, other.length(docId));
+      }
+    } else {
+      for (DocumentReference docRef : docRefs)
+        add(docRef);
+    }
+    trimToSize();
+  }
+
+  /**
+   * Return the way lengths are kept named by the given string: "double",
+   * "float" or "byte".
+   */
+  public static short lengthTypeForName(String name) {
+    if (name.equalsIgnoreCase("double"))
+      return DOUBLE_LENGTHS;
+    if (name.equalsIgnoreCase("float"))
+      return FLOAT_LENGTHS;
+    if (name.equalsIgnoreCase("byte"))
+      return BYTE_NORMS;
+    throw new IllegalArgumentException("Unknown document lengths: " + name);
+  }
+
+  /**
+   * Return the norm closest to the given length on the logarithmic scale
+   * of NORM_TABLE, clamped to the smallest and largest nonzero norms.
+   */
+  public static byte encodeNorm(double length) {
+    if (!(length > 0))
+      return 0;
+    long norm = Math.round((Math.log(length) / Math.log(2) - MIN_NORM_EXPONENT) * NORMS_PER_OCTAVE) + 1;
+    return (byte) Math.max(1, Math.min(255, norm));
+  }
+
+  /**
+   * Return the length the given norm stands for.
+   */
+  public static double decodeNorm(byte norm) {
+    return NORM_TABLE[norm & 0xFF];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Return a new reference to the document with the given id, with its
+   * file and its length as kept in the table.
+   */
+  public DocumentReference get(int docId) {
+    return new DocumentReference(file(docId), length(docId));
+  }
+
+  /**
+   * Return the file of the document with the given id.
+   */
+  public File file(int docId) {
+    checkIndex(docId);
+    int directoryId = directoryIds[docId];
+    String name = name(docId);
+    return directoryId < 0 ? new File(name) : new File(directories.get(directoryId), name);
+  }
+
+  /**
+   * Return the name of the file of the document with the given id, as
+   * DocumentReference.toString does, without making the File.
+   */
+  public String name(int docId) {
+    checkIndex(docId);
+    int start = nameOffsets[docId];
+    return new String(names, start, nameOffsets(docId + 1) - start, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Return the length of the document with the given id as kept in the
+   * table.
+   */
+  public double length(int docId) {
+    checkIndex(docId);
+    switch (lengthType) {
+      case DOUBLE_LENGTHS:
+        return doubleLengths[docId];
+      case FLOAT_LENGTHS:
+        return floatLengths[docId];
+      default:
+        return NORM_TABLE[norms[docId] & 0xFF];
+    }
+  }
+
+  /**
+   * Set the length of the document with the given id, rounded to the
+   * precision of the table.
+   */
+  public void setLength(int docId, double length) {
+    checkIndex(docId);
+    switch (lengthType) {
+      case DOUBLE_LENGTHS:
+        doubleLengths[docId] = length;
+        break;
+      case FLOAT_LENGTHS:
+        floatLengths[docId] = (float) length;
+        break;
+      default:
+        norms[docId] = encodeNorm(length);
+    }
+  }
+
+  /**
+   * Add a document to the end of the table, the only place one can be
+   * added.
+   */
+  public void add(int docId, DocumentReference docRef) {
+    if (docId != size)
+      throw new UnsupportedOperationException("Documents can only be added at the end of a DocumentTable");
+    byte[] name = docRef.file.getName().getBytes(StandardCharsets.UTF_8);
+    addName(name, 0, name.length, docRef.file.getParent());
+    setLength(docId, docRef.length);
+  }
+
+  /**
+   * Remove all documents from the table.
+   */
+  public void clear() {
+    size = 0;
+    namesLength = 0;
+    directories.clear();
+    directoryIndex.clear();
+    modCount++;
+  }
+
+  /**
+   * Append a document with the given name, in the given range of bytes,
+   * and directory, or null if it has none, growing the arrays as needed.
+   * Its length is left 0.
+   */
+  protected void addName(byte[] name, int start, int length, String directory) {
+    if (size == nameOffsets.length) {
+      int capacity = size * 3 / 2 + 1;
+      nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+      directoryIds = Arrays.copyOf(directoryIds, capacity);
+      if (doubleLengths != null)
+        doubleLengths = Arrays.copyOf(doubleLengths, capacity);
+      if (floatLengths != null)
+        floatLengths = Arrays.copyOf(floatLengths, capacity);
+      if (norms != null)
+        norms = Arrays.copyOf(norms, capacity);
+    }
+    if (namesLength + length > names.length)
+      names = Arrays.copyOf(names, Math.max(names.length * 3 / 2, namesLength + length));
+    System.arraycopy(name, start, names, namesLength, length);
+    nameOffsets[size] = namesLength;
+    namesLength += length;
+    int directoryId = -1;
+    if (directory != null) {
+      Integer id = directoryIndex.get(directory);
+      if (id == null) {
+        id = directories.size();
+        directories.add(directory);
+        directoryIndex.put(directory, id);
+      }
+      directoryId = id;
+    }
+    directoryIds[size] = directoryId;
+    if (doubleLengths != null)
+      doubleLengths[size] = 0.0;
+    if (floatLengths != null)
+      floatLengths[size] = 0.0f;
+    if (norms != null)
+      norms[size] = 0;
+    size++;
+    modCount++;
+  }
+
+  /**
+   * Return where the name of the document with the given id starts, or
+   * the end of the names for the id one past the last document.
+   */
+  protected int nameOffsets(int docId) {
+    return docId == size ? namesLength : nameOffsets[docId];
+  }
+
+  /**
+   * Throw an IndexOutOfBoundsException unless a document has the given id.
+   */
+  protected void checkIndex(int docId) {
+    if (docId < 0 || docId >= size)
+      throw new IndexOutOfBoundsException("Document id: " + docId + ", size: " + size);
+  }
+
+  /**
+   * Drop any spare capacity in the arrays once the documents are added.
+   */
+  public void trimToSize() {
+    names = Arrays.copyOf(names, namesLength);
+    nameOffsets = Arrays.copyOf(nameOffsets, size);
+    directoryIds = Arrays.copyOf(directoryIds, size);
+    if (doubleLengths != null)
+      doubleLengths = Arrays.copyOf(doubleLengths, size);
+    if (floatLengths != null)
+      floatLengths = Arrays.copyOf(floatLengths, size);
+    if (norms != null)
+      norms = Arrays.copyOf(norms, size);
+  }
+
+  /**
+   * Return the approximate number of bytes taken by the arrays of the
+   * table, not counting its directories.
+   */
+  public long memoryBytes() {
+    int lengthBytes = lengthType == DOUBLE_LENGTHS ? 8 : lengthType == FLOAT_LENGTHS ? 4 : 1;
+    return names.length + 4L * nameOffsets.length + 4L * directoryIds.length +
+        (long) lengthBytes * nameOffsets.length;
+  }
+
+  public String toString() {
+    return "DocumentTable: " + size + " documents in " + directories.size() + " directories, " +
+        memoryBytes() + " bytes";
+  }
+}
@@ -117,33 +117,32 @@ public class Feedback {
    * @return The revised query vector.
    */
   public HashMapVector newQuery() {
+    // Build the query on token ids and only turn it back into tokens at the
+    // end, with a lexicon of its own that is dropped along with it
+    Lexicon lexicon = new Lexicon();
     // Start the query as a copy of the original
-    HashMapVector newQuery = queryVector.copy();
+    TermVector newQuery = new TermVector(queryVector, lexicon);
     // Normalize query by maximum token frequency and multiply by alpha
     newQuery.multiply(ALPHA / newQuery.maxWeight());
     
     // Add in the vector for each of the positively rated documents
     for (DocumentReference docRef : goodDocRefs) {
       // Get the document vector for this positive document
-      Document doc = docRef.getDocument(invertedIndex.docType, invertedIndex.stem);
-      HashMapVector vector = doc.hashMapVector();
-      // Multiply positive docs by beta and normalize by max token frequency
-      vector.multiply(BETA / vector.maxWeight());
-      // Add it to the new query vector
-      newQuery.add(vector);
+      Document doc = docRef.getDocument(invertedIndex.docType, invertedIndex.stem, invertedIndex.stopWords);
+      TermVector vector = doc.termVector(lexicon);
+      // Add it to the new query vector, multiplied by beta and normalized by max token frequency
+      newQuery.addScaled(vector, BETA / vector.maxWeight());
     }
     
     // Subtract the vector for each of the negatively rated documents
     for (DocumentReference docRef : badDocRefs) {
       // Get the document vector for this negative document
-      Document doc = docRef.getDocument(invertedIndex.docType, invertedIndex.stem);
-      HashMapVector vector = doc.hashMapVector();
-      // Multiply negative docs by beta and normalize by max token frequency
-      vector.multiply(GAMMA / vector.maxWeight());
-      // Subtract it from the new query vector
-      newQuery.subtract(vector);
+      Document doc = docRef.getDocument(invertedIndex.docType, invertedIndex.stem, invertedIndex.stopWords);
+      TermVector vector = doc.termVector(lexicon);
+      // Subtract it from the new query vector, multiplied by gamma and normalized by max token frequency
+      newQuery.addScaled(vector, -GAMMA / vector.maxWeight());
     }
-    return newQuery;
+    return newQuery.toHashMapVector(lexicon);
   }
 
 
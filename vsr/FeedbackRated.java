@@ -84,7 +84,7 @@ public class FeedbackRated extends Feedback {
     // Add in the vector for each of the positively rated documents
     for (DocumentReference docRef : goodDocRefs.keySet()) {
       // Get the document vector for this positive document
-      Document doc = docRef.getDocument(invertedIndex.docType, invertedIndex.stem);
+      Document doc = docRef.getDocument(invertedIndex.docType, invertedIndex.stem, invertedIndex.stopWords);
       HashMapVector vector = doc.hashMapVector();
       // Multiply positive docs by beta and normalize by max token frequency
       vector.multiply(BETA / vector.maxWeight());
@@ -97,7 +97,7 @@ public class FeedbackRated extends Feedback {
     // Subtract the vector for each of the negatively rated documents
     for (DocumentReference docRef : badDocRefs.keySet()) {
       // Get the document vector for this negative document
-      Document doc = docRef.getDocument(invertedIndex.docType, invertedIndex.stem);
+      Document doc = docRef.getDocument(invertedIndex.docType, invertedIndex.stem, invertedIndex.stopWords);
       HashMapVector vector = doc.hashMapVector();
       // Multiply negative docs by beta and normalize by max token frequency
       vector.multiply(GAMMA / vector.maxWeight());
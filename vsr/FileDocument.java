@@ -1,31 +1,94 @@
 package ir.vsr;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.StandardOpenOption;
+
+import ir.utilities.*;
 
 /**
  * A Document stored as a file.
+ * <p>
+ * A file is read with NIO rather than a FileReader.  A file of up to
+ * MAX_WHOLE_FILE bytes, like most web pages, is read whole with one read
+ * into a byte buffer that the thread reuses for every file, and decoded at
+ * once into an array of chars that the subclass scans directly.  A larger
+ * file is decoded as it is scanned, a block at a time, so it is never all
+ * in memory.  Unless charset is set, the charset of each file is sniffed:
+ * a byte order mark decides it, then (for subclasses that look) a
+ * declaration in the file, then UTF-8 if the bytes are valid UTF-8, and
+ * otherwise FALLBACK_CHARSET.
  *
  * @author Ray Mooney
  */
 public abstract class FileDocument extends Document {
 
+  /**
+   * Files of up to this many bytes are read and decoded whole
+   */
+  public static final int MAX_WHOLE_FILE = 1 << 20;
+
+  /**
+   * The number of bytes at the start of a larger file that its charset is
+   * sniffed from
+   */
+  public static final int SNIFF_LENGTH = 1 << 16;
+
+  /**
+   * The charset of a file that is not valid UTF-8 and declares no other,
+   * which decodes any byte
+   */
+  public static final Charset FALLBACK_CHARSET = StandardCharsets.ISO_8859_1;
+
+  /**
+   * The charset all files are decoded with, or null to sniff the charset
+   * of each file
+   */
+  public static volatile Charset charset = null;
+
+  /**
+   * The buffer each thread reads whole files into, grown as needed
+   */
+  protected static final ThreadLocal<ByteBuffer> byteBuffers = new ThreadLocal<ByteBuffer>();
+
   /**
    * The name of the file
    */
   public File file = null;
   /**
-   * The I/O reader for accessing the file
+   * The I/O reader for accessing a file that is decoded as it is read, or
+   * null if the file was read whole into text
    */
-  protected BufferedReader reader = null;
+  protected Reader reader = null;
+  /**
+   * The decoded characters of a file that was read whole, or null
+   */
+  protected char[] text = null;
+  /**
+   * The number of characters in text
+   */
+  protected int textLength = 0;
 
   /**
    * Creates a FileDocument and initializes its name and reader.
    */
   public FileDocument(File file, boolean stem) {
-    super(stem);
+    this(file, stem, null);
+  }
+
+  /**
+   * Creates a FileDocument that removes the given stopwords, or the
+   * default ones if stopWords is null.
+   */
+  public FileDocument(File file, boolean stem, StopWordFilter stopWords) {
+    super(stem, stopWords);
     this.file = file;
     try {
-      this.reader = new BufferedReader(new FileReader(file));
+      open();
     }
     catch (IOException e) {
       System.out.println("\nCould not open FileDocument: " + file);
@@ -33,5 +96,137 @@ public abstract class FileDocument extends Document {
     }
   }
 
-}
+  /**
+   * Read the file whole into text if it is small, and otherwise open
+   * reader to decode it as it is read.
+   */
+  protected void open() throws IOException {
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    long size = channel.size();
+    if (size > MAX_WHOLE_FILE) {
+      try {
+        // Sniff the charset from the start of the file, then stream the
+        // rest of it through a decoder
+        ByteBuffer head = ByteBuffer.allocate(SNIFF_LENGTH);
+        while (head.hasRemaining() && channel.read(head) >= 0)
+          ;
+        head.flip();
+        Charset fileCharset = charset != null ? charset : sniffCharset(head);
+        if (fileCharset == null)
+          fileCharset = isUTF8(head, false) ? StandardCharsets.UTF_8 : FALLBACK_CHARSET;
+        // Start after any byte order mark
+        channel.position(head.position());
+        reader = Channels.newReader(channel, newDecoder(fileCharset), CharTokenizer.BUFFER_SIZE);
+      }
+      catch (IOException e) {
+        channel.close();
+        throw e;
+      }
+      return;
+    }
+    ByteBuffer bytes;
+    try {
+      bytes = byteBuffer((int) size);
+      while (bytes.hasRemaining() && channel.read(bytes) >= 0)
+        ;
+    }
+    finally {
+      channel.close();
+    }
+    bytes.flip();
+    Charset fileCharset = charset != null ? charset : sniffCharset(bytes);
+    CharBuffer chars;
+    if (fileCharset != null)
+      chars = newDecoder(fileCharset).decode(bytes);
+    else {
+      // Decoding as UTF-8 is the check that the file is UTF-8
+      int start = bytes.position();
+      try {
+        chars = StandardCharsets.UTF_8.newDecoder().decode(bytes);
+      }
+      catch (CharacterCodingException e) {
+        bytes.position(start);
+        chars = newDecoder(FALLBACK_CHARSET).decode(bytes);
+      }
+    }
+    text = chars.array();
+    textLength = chars.limit();
+  }
+
+  /**
+   * Return the charset of a file given its first bytes, or null if it
+   * cannot be told from them.  Skips over a byte order mark but leaves
+   * the rest of the bytes unread.  Subclasses may also look for a charset
+   * declared in the file.
+   */
+  protected Charset sniffCharset(ByteBuffer bytes) {
+    int start = bytes.position(), length = bytes.remaining();
+    int b0 = length > 0 ? bytes.get(start) & 0xFF : -1;
+    int b1 = length > 1 ? bytes.get(start + 1) & 0xFF : -1;
+    int b2 = length > 2 ? bytes.get(start + 2) & 0xFF : -1;
+    if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) {
+      bytes.position(start + 3);
+      return StandardCharsets.UTF_8;
+    }
+    if (b0 == 0xFE && b1 == 0xFF) {
+      bytes.position(start + 2);
+      return StandardCharsets.UTF_16BE;
+    }
+    if (b0 == 0xFF && b1 == 0xFE) {
+      bytes.position(start + 2);
+      return StandardCharsets.UTF_16LE;
+    }
+    return null;
+  }
+
+  /**
+   * Return whether the bytes are valid UTF-8, where a character cut off at
+   * the end is valid unless they are the end of the file.  Leaves the
+   * bytes unread.
+   */
+  protected static boolean isUTF8(ByteBuffer bytes, boolean endOfInput) {
+    CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+    CharBuffer chars = CharBuffer.allocate(bytes.remaining());
+    return !decoder.decode(bytes.duplicate(), chars, endOfInput).isError();
+  }
 
+  /**
+   * Return a decoder for the charset that replaces bad input rather than
+   * failing, as a FileReader does.
+   */
+  protected static CharsetDecoder newDecoder(Charset charset) {
+    return charset.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  }
+
+  /**
+   * Return this thread's byte buffer, cleared and limited to the given size.
+   */
+  protected static ByteBuffer byteBuffer(int size) {
+    ByteBuffer buffer = byteBuffers.get();
+    if (buffer == null || buffer.capacity() < size) {
+      buffer = ByteBuffer.allocate(Math.max(size, CharTokenizer.BUFFER_SIZE));
+      byteBuffers.set(buffer);
+    }
+    buffer.clear();
+    buffer.limit(size);
+    return buffer;
+  }
+
+  /**
+   * Return a scanner for the characters of the file
+   */
+  protected CharTokenizer newScanner() {
+    return text != null ? new CharTokenizer(text, textLength) : new CharTokenizer(reader);
+  }
+
+  /**
+   * Close the file if it is still open.
+   */
+  protected void close() throws IOException {
+    if (reader != null)
+      reader.close();
+  }
+
+}
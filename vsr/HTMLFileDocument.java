@@ -1,70 +1,10 @@
 package ir.vsr;
 
 import java.io.*;
-import java.util.*;
-import javax.swing.text.html.*;
-import javax.swing.text.html.parser.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
-/**
- * A thread that parses an HTML file document and extracts plain text
- * from the title and the document body.  It feeds the
- * HTMLFileDocument reader with a stream of text free of HTML
- * commands.  It makes use of the Swing HTML parser which converts
- * HTML character entities into Java characters automatically.
- *
- * @author Yuk Wah Wong
- */
-class HTMLFileParserThread extends Thread {
-
-  /**
-   * The name of the HTML file
-   */
-  protected File file;
-  /**
-   * The I/O reader for accessing the HTML file
-   */
-  protected BufferedReader reader;
-  /**
-   * The I/O writer to which extracted plain text is written
-   */
-  protected PrintWriter writer;
-
-  /**
-   * Create an HTMLFileParserThread and initialize its reader and writer.
-   */
-  public HTMLFileParserThread(File file, BufferedReader reader, Writer writer) {
-    this.file = file;
-    this.reader = reader;
-    this.writer = new PrintWriter(writer);
-  }
-
-  /**
-   * Read the HTML file and parse it.  Extract plain text from the
-   * document and print it to the I/O writer.
-   */
-  public void run() {
-    try {
-      // the HTML parser callback ignores everything but the
-      // content of the document
-      HTMLEditorKit.ParserCallback callback =
-          new HTMLEditorKit.ParserCallback() {
-            public void handleText(char[] data, int pos) {
-              // print the text to the I/O writer
-              writer.println(data);
-            }
-          };
-      // entry point into the Swing HTML parser
-      new ParserDelegator().parse(reader, callback, true);
-      // close the I/O reader and writer when parsing is finished
-      reader.close();
-      writer.close();
-    } catch (IOException e) {
-      System.out.println("\nCould not read HTMLFileDocument: " + file);
-      System.exit(1);
-    }
-  }
-
-}
+import ir.utilities.*;
 
 /**
  * An HTML file document where HTML commands are removed
@@ -77,47 +17,33 @@ class HTMLFileParserThread extends Thread {
 public class HTMLFileDocument extends FileDocument {
 
   /**
-   * StringTokenizer delim for tokenizing only alphabetic strings.
+   * Delimiters for tokenizing only alphabetic strings.
    */
-  public static final String tokenizerDelim = " \t\n\r\f\'\"\\1234567890!@#$%^&*()_+-={}|[]:;<,>.?/`~";
+  public static final String tokenizerDelim = CharTokenizer.DELIMITERS;
 
   /**
-   * The tokenizer for lines read from this document.
+   * The number of bytes at the start of a page searched for its charset
    */
-  protected StringTokenizer tokenizer = null;
+  public static final int META_LENGTH = 1024;
 
   /**
-   * The I/O reader for accessing the output of the HTML parser.
+   * Create a new text document for the given file.
    */
-  protected BufferedReader textReader = null;
+  public HTMLFileDocument(File file, boolean stem) {
+    this(file, stem, null);
+  }
 
   /**
-   * Create a new text document for the given file.
+   * Create a new text document for the given file that removes the given
+   * stopwords, or the default ones if stopWords is null.
    */
-  public HTMLFileDocument(File file, boolean stem) {
-    super(file, stem);  // Create a FileDocument
-    try {
-      // Create a new thread for parsing the HTML file.  The
-      // output stream of the thread is connected to textReader.
-      PipedWriter textWriter = new PipedWriter();
-      textReader = new BufferedReader(new PipedReader(textWriter));
-      HTMLFileParserThread thread = new HTMLFileParserThread(file, reader, textWriter);
-      // The thread parses the HTML file at the same time when
-      // its plain text output is read
-      thread.start();
-
-      // create a StringTokenizer for the first line of the
-      // plain text
-      String line = textReader.readLine();
-      if (line != null) {
-        this.tokenizer = new StringTokenizer(line, tokenizerDelim);
-      }
-      prepareNextToken();  // Prepare the first token
-    }
-    catch (IOException e) {
-      System.out.println("\nCould not read HTMLFileDocument: " + file);
-      System.exit(1);
-    }
+  public HTMLFileDocument(File file, boolean stem, StopWordFilter stopWords) {
+    super(file, stem, stopWords);  // Create a FileDocument
+    // Extract the plain text of the HTML as the tokenizer reads it, in
+    // place if the file was read whole
+    HTMLTextReader html = text != null ? new HTMLTextReader(text, textLength) : new HTMLTextReader(reader);
+    scanner = new CharTokenizer(html);
+    prepareNextToken();  // Prepare the first token
   }
 
   /**
@@ -127,34 +53,74 @@ public class HTMLFileDocument extends FileDocument {
     this(new File(fileName), stem);
   }
 
+  /**
+   * Return the charset of the page from its byte order mark or, failing
+   * that, from a charset given in its first META_LENGTH bytes, as in
+   * &lt;meta charset="..."&gt; or a Content-Type meta tag.
+   */
+  protected Charset sniffCharset(ByteBuffer bytes) {
+    Charset fileCharset = super.sniffCharset(bytes);
+    if (fileCharset != null)
+      return fileCharset;
+    // The declaration must be in ASCII, so look at the bytes as chars
+    int start = bytes.position(), end = start + Math.min(bytes.remaining(), META_LENGTH);
+    StringBuilder head = new StringBuilder(end - start);
+    for (int i = start; i < end; i++)
+      head.append(Character.toLowerCase((char) (bytes.get(i) & 0xFF)));
+    int at = head.indexOf("charset=");
+    if (at < 0)
+      return null;
+    int nameStart = at + "charset=".length();
+    while (nameStart < head.length() && (head.charAt(nameStart) == '"' || head.charAt(nameStart) == '\''))
+      nameStart++;
+    int nameEnd = nameStart;
+    while (nameEnd < head.length() && isCharsetNameChar(head.charAt(nameEnd)))
+      nameEnd++;
+    try {
+      return Charset.forName(head.substring(nameStart, nameEnd));
+    }
+    catch (IllegalArgumentException e) {
+      // Not a charset this JVM supports, so sniff as if none were given
+      return null;
+    }
+  }
+
+  /**
+   * Return whether a character may be part of the name of a charset.
+   */
+  protected static boolean isCharsetNameChar(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '.' || c == ':';
+  }
+
   /**
    * Return the next purely alpha-character token in the document, or null if none left.
    */
   protected String getNextCandidateToken() {
-    if (tokenizer == null)
-      return null;
-    String candidateToken = null;
+    return nextCandidate() ? scanner.tokenString() : null;
+  }
+
+  /**
+   * Scan the next candidate token from the text of the file, closing it at
+   * the end.  A file that cannot be read is reported and ends there, so
+   * one bad page does not stop the indexing of the rest.
+   */
+  protected boolean nextCandidate() {
     try {
-      // Loop until you find a line in the file with a token
-      while (!tokenizer.hasMoreTokens()) {
-        // Read another line of plain text
-        String line = textReader.readLine();
-        if (line == null) {
-          // End of file, no more tokens, return null
-          textReader.close();
-          return null;
-        } else
-          // Create a tokenizer for this file line
-          tokenizer = new StringTokenizer(line, tokenizerDelim);
-      }
-      // Get the next token in the current line
-      candidateToken = tokenizer.nextToken();
+      if (scanner.next())
+        return true;
+      // End of file, no more tokens
+      close();
     }
     catch (IOException e) {
-      System.out.println("\nCould not read from HTMLFileDocument: " + file);
-      System.exit(1);
+      System.err.println("\nCould not read from HTMLFileDocument: " + file + ": " + e);
+      try {
+        close();
+      }
+      catch (IOException closeError) {
+        // Already reported
+      }
     }
-    return candidateToken;
+    return false;
   }
 
   /**
@@ -0,0 +1,401 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A Reader that extracts the plain text of an HTML document as it is read,
+ * in the same thread, for tokenizing HTML without an HTML parser.  Tags,
+ * comments and declarations are dropped, as is everything inside a script
+ * or style element, and character entities are decoded.  Every tag or
+ * comment is replaced by a newline, so it separates the words on either
+ * side as the Swing parser's separate chunks of text did.
+ * <p>
+ * Entities are decoded the way the Swing HTML parser decodes them: the
+ * named entities of HTML 4 (whose name may be in the wrong case), and
+ * decimal and hexadecimal character references, all with or without the
+ * closing semicolon.  An unknown entity is left as it is.
+ */
+public class HTMLTextReader extends Reader {
+
+  /**
+   * The named character entities of HTML 4 and the code of each character
+   */
+  protected static final String ENTITY_CODES =
+      "quot 34 amp 38 lt 60 gt 62 nbsp 160 iexcl 161 cent 162 pound 163 curren 164 yen 165 " +
+      "brvbar 166 sect 167 uml 168 copy 169 ordf 170 laquo 171 not 172 shy 173 reg 174 " +
+      "macr 175 deg 176 plusmn 177 sup2 178 sup3 179 acute 180 micro 181 para 182 " +
+      "middot 183 cedil 184 sup1 185 ordm 186 raquo 187 frac14 188 frac12 189 frac34 190 " +
+      "iquest 191 Agrave 192 Aacute 193 Acirc 194 Atilde 195 Auml 196 Aring 197 AElig 198 " +
+      "Ccedil 199 Egrave 200 Eacute 201 Ecirc 202 Euml 203 Igrave 204 Iacute 205 Icirc 206 " +
+      "Iuml 207 ETH 208 Ntilde 209 Ograve 210 Oacute 211 Ocirc 212 Otilde 213 Ouml 214 " +
+      "times 215 Oslash 216 Ugrave 217 Uacute 218 Ucirc 219 Uuml 220 Yacute 221 THORN 222 " +
+      "szlig 223 agrave 224 aacute 225 acirc 226 atilde 227 auml 228 aring 229 aelig 230 " +
+      "ccedil 231 egrave 232 eacute 233 ecirc 234 euml 235 igrave 236 iacute 237 icirc 238 " +
+      "iuml 239 eth 240 ntilde 241 ograve 242 oacute 243 ocirc 244 otilde 245 ouml 246 " +
+      "divide 247 oslash 248 ugrave 249 uacute 250 ucirc 251 uuml 252 yacute 253 thorn 254 " +
+      "yuml 255 OElig 338 oelig 339 Scaron 352 scaron 353 Yuml 376 fnof 402 circ 710 " +
+      "tilde 732 Alpha 913 Beta 914 Gamma 915 Delta 916 Epsilon 917 Zeta 918 Eta 919 " +
+      "Theta 920 Iota 921 Kappa 922 Lambda 923 Mu 924 Nu 925 Xi 926 Omicron 927 Pi 928 " +
+      "Rho 929 Sigma 931 Tau 932 Upsilon 933 Phi 934 Chi 935 Psi 936 Omega 937 alpha 945 " +
+      "beta 946 gamma 947 delta 948 epsilon 949 zeta 950 eta 951 theta 952 iota 953 " +
+      "kappa 954 lambda 955 mu 956 nu 957 xi 958 omicron 959 pi 960 rho 961 sigmaf 962 " +
+      "sigma 963 tau 964 upsilon 965 phi 966 chi 967 psi 968 omega 969 thetasym 977 " +
+      "upsih 978 piv 982 ensp 8194 emsp 8195 thinsp 8201 zwnj 8204 zwj 8205 lrm 8206 " +
+      "rlm 8207 ndash 8211 mdash 8212 lsquo 8216 rsquo 8217 sbquo 8218 ldquo 8220 " +
+      "rdquo 8221 bdquo 8222 dagger 8224 Dagger 8225 bull 8226 hellip 8230 permil 8240 " +
+      "prime 8242 Prime 8243 lsaquo 8249 rsaquo 8250 oline 8254 frasl 8260 euro 8364 " +
+      "image 8465 weierp 8472 real 8476 trade 8482 alefsym 8501 larr 8592 uarr 8593 " +
+      "rarr 8594 darr 8595 harr 8596 crarr 8629 lArr 8656 uArr 8657 rArr 8658 dArr 8659 " +
+      "hArr 8660 forall 8704 part 8706 exist 8707 empty 8709 nabla 8711 isin 8712 " +
+      "notin 8713 ni 8715 prod 8719 sum 8721 minus 8722 lowast 8727 radic 8730 prop 8733 " +
+      "infin 8734 ang 8736 and 8743 or 8744 cap 8745 cup 8746 int 8747 there4 8756 sim 8764 " +
+      "cong 8773 asymp 8776 ne 8800 equiv 8801 le 8804 ge 8805 sub 8834 sup 8835 nsub 8836 " +
+      "sube 8838 supe 8839 oplus 8853 otimes 8855 perp 8869 sdot 8901 lceil 8968 rceil 8969 " +
+      "lfloor 8970 rfloor 8971 lang 9001 rang 9002 loz 9674 spades 9824 clubs 9827 " +
+      "hearts 9829 diams 9830";
+
+  /**
+   * The character of each named entity
+   */
+  protected static final HashMap<String, Character> entities = new HashMap<String, Character>();
+
+  static {
+    StringTokenizer tokenizer = new StringTokenizer(ENTITY_CODES);
+    while (tokenizer.hasMoreTokens()) {
+      String name = tokenizer.nextToken();
+      entities.put(name, (char) Integer.parseInt(tokenizer.nextToken()));
+    }
+  }
+
+  /**
+   * The number of characters read from the HTML at a time
+   */
+  public static final int BUFFER_SIZE = 8192;
+
+  /**
+   * The number of characters an entity reference may need to be looked at
+   * before deciding how to decode it
+   */
+  protected static final int MAX_ENTITY_LENGTH = 32;
+
+  /**
+   * Returned by entity when a '&amp;' does not start an entity
+   */
+  protected static final int NOT_ENTITY = -1;
+
+  /**
+   * The reader of the HTML, or null if all of it is already in buffer
+   */
+  protected Reader in;
+
+  /**
+   * The HTML read but not yet extracted is from position up to limit
+   */
+  protected char[] buffer = new char[BUFFER_SIZE];
+
+  /**
+   * The position in buffer of the next character of HTML
+   */
+  protected int position = 0;
+
+  /**
+   * The number of characters in buffer
+   */
+  protected int limit = 0;
+
+  /**
+   * Whether the end of the HTML has been read
+   */
+  protected boolean atEnd = false;
+
+  /**
+   * The second half of a decoded supplementary character that did not fit
+   * in the last read, or 0 if none
+   */
+  protected char pending = 0;
+
+  /**
+   * Create a reader of the text of the HTML read from the given reader.
+   */
+  public HTMLTextReader(Reader in) {
+    this.in = in;
+  }
+
+  /**
+   * Create a reader of the text of the HTML in the first length characters
+   * of an array, which are extracted in place.
+   */
+  public HTMLTextReader(char[] html, int length) {
+    buffer = html;
+    limit = length;
+    atEnd = true;
+  }
+
+  /**
+   * Read up to len characters of text into cbuf, returning the number
+   * read, or -1 at the end of the HTML.
+   */
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    int n = 0;
+    if (pending != 0 && len > 0) {
+      cbuf[off + n++] = pending;
+      pending = 0;
+    }
+    while (n < len) {
+      if (position == limit && !fill())
+        break;
+      char c = buffer[position];
+      if (c == '<') {
+        position++;
+        if (skipMarkup())
+          cbuf[off + n++] = '\n';
+        // The Swing parser drops a '<' that does not start a tag
+      } else if (c == '&') {
+        position++;
+        int code = entity();
+        if (code == NOT_ENTITY)
+          cbuf[off + n++] = '&';
+        else if (Character.isBmpCodePoint(code))
+          cbuf[off + n++] = (char) code;
+        else if (Character.isValidCodePoint(code)) {
+          cbuf[off + n++] = Character.highSurrogate(code);
+          if (n < len)
+            cbuf[off + n++] = Character.lowSurrogate(code);
+          else
+            pending = Character.lowSurrogate(code);
+        }
+        // A reference to a character that does not exist decodes to nothing
+      } else {
+        // Copy plain text up to the next tag or entity
+        int end = Math.min(limit, position + len - n);
+        int start = position;
+        while (position < end && buffer[position] != '<' && buffer[position] != '&')
+          position++;
+        System.arraycopy(buffer, start, cbuf, off + n, position - start);
+        n += position - start;
+      }
+    }
+    return n == 0 && len > 0 ? -1 : n;
+  }
+
+  /**
+   * Skip the tag, comment or declaration after a '&lt;' just read,
+   * including the contents of a script or style element.  Return false,
+   * skipping nothing, if the '&lt;' does not start one.
+   */
+  protected boolean skipMarkup() throws IOException {
+    int c = peek();
+    if (c == '!') {
+      position++;
+      if (lookingAt("--")) {
+        position += 2;
+        skipComment();
+      } else
+        skipTag();
+      return true;
+    }
+    if (c == '/') {
+      position++;
+      skipTag();
+      return true;
+    }
+    if (c < 0 || !isLetter((char) c))
+      return false;
+    // Read the name of a start tag
+    StringBuilder name = new StringBuilder();
+    while ((c = peek()) >= 0 && (isLetter((char) c) || Character.isDigit((char) c))) {
+      name.append(Character.toLowerCase((char) c));
+      position++;
+    }
+    skipTag();
+    String tagName = name.toString();
+    if (tagName.equals("script") || tagName.equals("style"))
+      skipElement(tagName);
+    return true;
+  }
+
+  /**
+   * Skip the rest of a tag up to and including its closing '&gt;', skipping
+   * quoted attribute values.
+   */
+  protected void skipTag() throws IOException {
+    int c;
+    boolean afterEquals = false;
+    while ((c = next()) >= 0 && c != '>') {
+      if ((c == '"' || c == '\'') && afterEquals) {
+        int quote = c;
+        while ((c = next()) >= 0 && c != quote)
+          ;
+      }
+      if (c == '=')
+        afterEquals = true;
+      else if (!Character.isWhitespace((char) c))
+        afterEquals = false;
+    }
+  }
+
+  /**
+   * Skip the rest of a comment up to and including its closing "--&gt;".
+   */
+  protected void skipComment() throws IOException {
+    int c, dashes = 0;
+    while ((c = next()) >= 0) {
+      if (c == '>' && dashes >= 2)
+        return;
+      dashes = c == '-' ? dashes + 1 : 0;
+    }
+  }
+
+  /**
+   * Skip the contents of a script or style element and its end tag.
+   */
+  protected void skipElement(String tagName) throws IOException {
+    int c;
+    while ((c = next()) >= 0) {
+      if (c == '<' && peek() == '/') {
+        position++;
+        if (lookingAtIgnoreCase(tagName)) {
+          position += tagName.length();
+          skipTag();
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Decode the entity after a '&amp;' just read and return the code of its
+   * character, which is not a valid code point for a numeric reference to
+   * a character that does not exist, or NOT_ENTITY, skipping nothing, if
+   * there is no entity.
+   */
+  protected int entity() throws IOException {
+    ensure(MAX_ENTITY_LENGTH);
+    int i = position;
+    if (i < limit && buffer[i] == '#') {
+      i++;
+      int radix = 10;
+      if (i < limit && (buffer[i] == 'x' || buffer[i] == 'X')) {
+        radix = 16;
+        i++;
+      }
+      int start = i;
+      long code = 0;
+      while (i < limit && Character.digit(buffer[i], radix) >= 0 && i - start < 10)
+        code = code * radix + Character.digit(buffer[i++], radix);
+      if (i == start)
+        return NOT_ENTITY;
+      if (i < limit && buffer[i] == ';')
+        i++;
+      position = i;
+      return (int) Math.min(code, Integer.MAX_VALUE);
+    }
+    int start = i;
+    while (i < limit && i - start < MAX_ENTITY_LENGTH - 1 &&
+        (isLetter(buffer[i]) || Character.isDigit(buffer[i])))
+      i++;
+    if (i == start)
+      return NOT_ENTITY;
+    String name = new String(buffer, start, i - start);
+    Character character = entities.get(name);
+    if (character == null)
+      character = entities.get(name.toLowerCase());
+    if (character == null)
+      return NOT_ENTITY;
+    if (i < limit && buffer[i] == ';')
+      i++;
+    position = i;
+    return character;
+  }
+
+  /**
+   * Return whether the next characters are the given string.
+   */
+  protected boolean lookingAt(String string) throws IOException {
+    ensure(string.length());
+    if (limit - position < string.length())
+      return false;
+    for (int i = 0; i < string.length(); i++) {
+      if (buffer[position + i] != string.charAt(i))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Return whether the next characters are the given lower case string,
+   * ignoring case, followed by the end of a tag name.
+   */
+  protected boolean lookingAtIgnoreCase(String string) throws IOException {
+    ensure(string.length() + 1);
+    if (limit - position < string.length())
+      return false;
+    for (int i = 0; i < string.length(); i++) {
+      if (Character.toLowerCase(buffer[position + i]) != string.charAt(i))
+        return false;
+    }
+    int after = position + string.length();
+    return after == limit || !(isLetter(buffer[after]) || Character.isDigit(buffer[after]));
+  }
+
+  /**
+   * Return whether a character may start a tag name.
+   */
+  protected static boolean isLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  /**
+   * Return the next character of HTML without reading it, or -1 at the end.
+   */
+  protected int peek() throws IOException {
+    if (position == limit && !fill())
+      return -1;
+    return buffer[position];
+  }
+
+  /**
+   * Read the next character of HTML, or -1 at the end.
+   */
+  protected int next() throws IOException {
+    if (position == limit && !fill())
+      return -1;
+    return buffer[position++];
+  }
+
+  /**
+   * Read more HTML into an empty buffer, returning false at the end.
+   */
+  protected boolean fill() throws IOException {
+    position = limit = 0;
+    ensure(1);
+    return limit > 0;
+  }
+
+  /**
+   * Make sure that at least the given number of characters are in the
+   * buffer after position, unless the end of the HTML comes first.
+   */
+  protected void ensure(int count) throws IOException {
+    if (limit - position >= count || atEnd)
+      return;
+    // Move what is left to the front of the buffer and read more after it
+    System.arraycopy(buffer, position, buffer, 0, limit - position);
+    limit -= position;
+    position = 0;
+    while (limit < count) {
+      int read = in.read(buffer, limit, buffer.length - limit);
+      if (read < 0) {
+        atEnd = true;
+        return;
+      }
+      limit += read;
+    }
+  }
+
+  public void close() throws IOException {
+    if (in != null)
+      in.close();
+  }
+}
@@ -0,0 +1,522 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * An impact-ordered copy of the postings of an InvertedIndex for
+ * score-at-a-time retrieval (Anh and Moffat).  Instead of a count, each
+ * posting holds the impact of the token on the document, its weight in the
+ * length-normalized document vector (IDF * count / |D|), quantized to one of
+ * a small number of levels.  The postings of each token are grouped into
+ * segments of equal impact, from highest to lowest, so a query can be
+ * evaluated by processing the segments of all its tokens in decreasing
+ * order of their contribution to the score, which puts most of the mass of
+ * the final scores into the accumulators first.  Evaluation stops as soon as
+ * the remaining segments can no longer change which documents are in the
+ * top k, or once a budget of postings has been processed, which bounds the
+ * time taken by long queries such as those produced by relevance feedback.
+ *
+ * Scores are computed from quantized impacts, so they (and occasionally
+ * the ranking of nearly tied documents) differ slightly from those of
+ * InvertedIndex.retrieve.  The impact index is a snapshot: it must be
+ * rebuilt after documents are added to or deleted from the InvertedIndex.
+ */
+public class ImpactIndex {
+
+  /**
+   * The default number of bits a quantized impact takes
+   */
+  public static final int DEFAULT_BITS = 8;
+
+  /**
+   * The impact-ordered postings of a token
+   */
+  public static class ImpactPostings {
+    /**
+     * The IDF factor of the token, for weighting it in queries
+     */
+    public double idf;
+    /**
+     * The quantized impact of each segment, in decreasing order
+     */
+    public int[] levels;
+    /**
+     * The position in docIds where each segment starts, followed by the
+     * total number of postings
+     */
+    public int[] starts;
+    /**
+     * The ids of the documents of every segment in turn, each segment in
+     * increasing order of id
+     */
+    public int[] docIds;
+
+    /**
+     * Return the number of impact segments
+     */
+    public int numSegments() {
+      return levels.length;
+    }
+  }
+
+  /**
+   * The index whose postings were reordered
+   */
+  public InvertedIndex index;
+
+  /**
+   * The impact-ordered postings of every token with a non-zero IDF
+   */
+  public Map<String, ImpactPostings> tokenHash;
+
+  /**
+   * The highest quantized impact level
+   */
+  public int maxLevel;
+
+  /**
+   * The impact represented by each quantized level
+   */
+  public double scale;
+
+  /**
+   * The maximum number of postings processed for a query by retrieve(vector, k)
+   */
+  public long postingBudget = Long.MAX_VALUE;
+
+  /**
+   * The ScoreAccumulator reused by each thread that retrieves from this index
+   */
+  protected ThreadLocal<ScoreAccumulator> accumulators = new ThreadLocal<ScoreAccumulator>();
+
+  /**
+   * Build an impact-ordered copy of the postings of an index with impacts
+   * quantized to the default number of bits.
+   */
+  public ImpactIndex(InvertedIndex index) {
+    this(index, DEFAULT_BITS);
+  }
+
+  /**
+   * Build an impact-ordered copy of the postings of an index.  Impacts are
+   * divided into 2^bits - 1 equal steps up to the largest impact of any
+   * token, and rounded up so that no posting gets an impact of 0.
+   *
+   * @param index The index to copy the postings of.
+   * @param bits  The number of bits per quantized impact, from 1 to 16.
+   */
+  public ImpactIndex(InvertedIndex index, int bits) {
+    if (bits < 1 || bits > 16)
+      throw new IllegalArgumentException("Impacts must take from 1 to 16 bits: " + bits);
+    // The postings of a segmented index are in its segments
+    if (index instanceof SegmentedIndex)
+      index = ((SegmentedIndex) index).toInvertedIndex();
+    this.index = index;
+    maxLevel = (1 << bits) - 1;
+    // Hold off changes to the index while copying it
+    index.beginRetrieval();
+    try {
+      reorderAll();
+    }
+    finally {
+      index.endRetrieval();
+    }
+  }
+
+  /**
+   * Quantize and reorder the postings of every token with a non-zero IDF.
+   */
+  protected void reorderAll() {
+    // The largest impact is the largest maxScore of any token
+    double maxImpact = 0.0;
+    for (TokenInfo tokenInfo : index.tokenHash.values())
+      maxImpact = Math.max(maxImpact, tokenInfo.maxScore);
+    scale = maxImpact == 0.0 ? 1.0 : maxImpact / maxLevel;
+    tokenHash = new HashMap<String, ImpactPostings>();
+    for (Map.Entry<String, TokenInfo> entry : index.tokenHash.entrySet()) {
+      TokenInfo tokenInfo = entry.getValue();
+      if (tokenInfo.idf == 0.0)
+        continue;
+      ImpactPostings postings = reorder(tokenInfo);
+      if (postings.docIds.length > 0)
+        tokenHash.put(entry.getKey(), postings);
+    }
+  }
+
+  /**
+   * Quantize the impacts of the undeleted postings of a token and sort them
+   * by decreasing impact and then increasing document id.
+   */
+  protected ImpactPostings reorder(TokenInfo tokenInfo) {
+    // Sort keys with the inverted level in the high half and id in the low half
+    long[] keys = new long[tokenInfo.numDocs];
+    int n = 0;
+    PostingsCursor cursor = tokenInfo.cursor();
+    for (int docId = cursor.nextDoc(); docId != PostingsCursor.NO_MORE_DOCS; docId = cursor.nextDoc()) {
+      if (index.deletedDocs.get(docId))
+        continue;
+      double impact = tokenInfo.idf * cursor.count() / index.docLengths[docId];
+      int level = (int) Math.ceil(impact / scale);
+      level = Math.max(1, Math.min(maxLevel, level));
+      keys[n++] = ((long) (maxLevel - level) << 32) | docId;
+    }
+    Arrays.sort(keys, 0, n);
+    ImpactPostings postings = new ImpactPostings();
+    postings.idf = tokenInfo.idf;
+    postings.docIds = new int[n];
+    int numSegments = 0;
+    for (int i = 0; i < n; i++) {
+      postings.docIds[i] = (int) keys[i];
+      if (i == 0 || (keys[i] >>> 32) != (keys[i - 1] >>> 32))
+        numSegments++;
+    }
+    postings.levels = new int[numSegments];
+    postings.starts = new int[numSegments + 1];
+    int segment = 0;
+    for (int i = 0; i < n; i++) {
+      if (i == 0 || (keys[i] >>> 32) != (keys[i - 1] >>> 32)) {
+        postings.levels[segment] = maxLevel - (int) (keys[i] >>> 32);
+        postings.starts[segment++] = i;
+      }
+    }
+    postings.starts[numSegments] = n;
+    return postings;
+  }
+
+  /**
+   * Return the best k documents for a query vector, processing at most
+   * postingBudget postings.
+   */
+  public Retrieval[] retrieve(HashMapVector vector, int k) {
+    return retrieve(vector, k, postingBudget);
+  }
+
+  /**
+   * Return the best k documents for a query vector evaluated score-at-a-time.
+   * Segments of the query tokens are processed in decreasing order of the
+   * absolute value of their contribution, query weight times impact.  After
+   * enough postings have been processed to pay for it, the current top k is
+   * found and evaluation stops if the k-th best score, less everything
+   * negative weights could still subtract from it, beats the best score
+   * outside the top k plus everything the remaining segments could add.
+   *
+   * @param vector The query vector.
+   * @param k      The maximum number of documents to retrieve.
+   * @param budget The maximum number of postings to process.  If it runs
+   *               out, the top k by the partial scores so far are returned.
+   */
+  public Retrieval[] retrieve(HashMapVector vector, int k, long budget) {
+    // Collect the query tokens in the index and their query weights
+    int size = vector.size();
+    final ImpactPostings[] postings = new ImpactPostings[size];
+    final double[] weights = new double[size];
+    final int[] nextSegment = new int[size];
+    int numTerms = 0;
+    double queryLength = 0.0;
+    for (int i = 0; i < vector.size(); i++) {
+      ImpactPostings tokenPostings = tokenHash.get(vector.token(i));
+      if (tokenPostings == null)
+        continue;
+      double weight = tokenPostings.idf * vector.weight(i);
+      queryLength = queryLength + weight * weight;
+      if (weight == 0.0)
+        continue;
+      postings[numTerms] = tokenPostings;
+      weights[numTerms] = weight;
+      numTerms++;
+    }
+    queryLength = Math.sqrt(queryLength);
+    ScoreAccumulator accumulator = getAccumulator();
+    try {
+      // Order the tokens by the contribution of their next segment
+      SegmentQueue queue = new SegmentQueue(numTerms);
+      // The most the unprocessed segments can add to or subtract from a score
+      double maxGain = 0.0, maxLoss = 0.0;
+      for (int t = 0; t < numTerms; t++) {
+        double contribution = weights[t] * postings[t].levels[0];
+        queue.add(t, Math.abs(contribution));
+        if (contribution > 0)
+          maxGain += contribution;
+        else
+          maxLoss -= contribution;
+      }
+      // The highest partial score of any document so far
+      double maxScore = 0.0;
+      double[] scores = accumulator.scores;
+      long processed = 0;
+      long sinceCheck = 0;
+      while (!queue.isEmpty() && processed < budget) {
+        int t = queue.poll();
+        ImpactPostings tokenPostings = postings[t];
+        int segment = nextSegment[t];
+        double contribution = weights[t] * tokenPostings.levels[segment];
+        int start = tokenPostings.starts[segment];
+        int end = (int) Math.min(tokenPostings.starts[segment + 1], start + (budget - processed));
+        int[] docIds = tokenPostings.docIds;
+        for (int i = start; i < end; i++) {
+          int docId = docIds[i];
+          accumulator.add(docId, contribution);
+          if (scores[docId] > maxScore)
+            maxScore = scores[docId];
+        }
+        processed += end - start;
+        sinceCheck += end - start;
+        // Replace the bound of this segment with that of the next one
+        if (contribution > 0)
+          maxGain -= contribution;
+        else
+          maxLoss += contribution;
+        if (++nextSegment[t] < tokenPostings.numSegments()) {
+          contribution = weights[t] * tokenPostings.levels[nextSegment[t]];
+          queue.add(t, Math.abs(contribution));
+          if (contribution > 0)
+            maxGain += contribution;
+          else
+            maxLoss -= contribution;
+        }
+        // The k-th best score must beat maxGain (plus maxLoss) to stop, so
+        // there is no use checking until the best score does.  Checking takes
+        // time in the number of documents touched, so only check once at
+        // least as many postings have been processed since the last check.
+        if (sinceCheck >= accumulator.numTouched && !queue.isEmpty() &&
+            (maxScore - maxLoss > maxGain || accumulator.numTouched == index.docRefs.size())) {
+          sinceCheck = 0;
+          if (topKFixed(accumulator, k, postings, weights, nextSegment, numTerms))
+            break;
+        }
+      }
+      // Rank the documents by their scores so far
+      RetrievalHeap heap = new RetrievalHeap(Math.min(k, accumulator.numTouched));
+      double normalizer = queryLength == 0.0 ? 1.0 : scale / queryLength;
+      for (int i = 0; i < accumulator.numTouched; i++) {
+        int docId = accumulator.touched[i];
+        heap.offer(docId, accumulator.scores[docId] * normalizer);
+      }
+      return heap.retrievals(index.docRefs);
+    }
+    finally {
+      accumulator.reset();
+    }
+  }
+
+  /**
+   * Return true if processing the remaining segments cannot change which
+   * documents have the k best scores.
+   */
+  protected boolean topKFixed(ScoreAccumulator accumulator, int k, ImpactPostings[] postings,
+                              double[] weights, int[] nextSegment, int numTerms) {
+    if (accumulator.numTouched < k)
+      return false;
+    // The most the remaining segments can add to or subtract from a score
+    double maxGain = 0.0, maxLoss = 0.0;
+    for (int t = 0; t < numTerms; t++) {
+      if (nextSegment[t] < postings[t].numSegments()) {
+        double contribution = weights[t] * postings[t].levels[nextSegment[t]];
+        if (contribution > 0)
+          maxGain += contribution;
+        else
+          maxLoss -= contribution;
+      }
+    }
+    boolean allTouched = accumulator.numTouched == index.docRefs.size();
+    if (!allTouched) {
+      // An untouched document has score 0, so stopping needs k documents
+      // scoring over maxGain + maxLoss.  Counting them is much cheaper than
+      // finding the top k, and usually shows there is no point going on.
+      double needed = maxGain + maxLoss;
+      int numAbove = 0;
+      for (int i = 0; i < accumulator.numTouched && numAbove < k; i++) {
+        if (accumulator.scores[accumulator.touched[i]] > needed)
+          numAbove++;
+      }
+      if (numAbove < k)
+        return false;
+    }
+    // Find the current top k and the best score of any document outside it,
+    // which is at least 0 if some document has not been touched yet
+    RetrievalHeap heap = new RetrievalHeap(k);
+    double outside = allTouched ? Double.NEGATIVE_INFINITY : 0.0;
+    for (int i = 0; i < accumulator.numTouched; i++) {
+      int docId = accumulator.touched[i];
+      double score = accumulator.scores[docId];
+      if (!heap.isFull())
+        heap.offer(docId, score);
+      else {
+        double minScore = heap.minScore();
+        if (heap.offer(docId, score))
+          outside = Math.max(outside, minScore);
+        else
+          outside = Math.max(outside, score);
+      }
+    }
+    return heap.minScore() - maxLoss > outside + maxGain;
+  }
+
+  /**
+   * A priority queue of query tokens ordered by the absolute contribution
+   * of their next segment, highest first, kept as a binary heap of token
+   * numbers so no Integer's are boxed.
+   */
+  protected static class SegmentQueue {
+    /**
+     * The tokens in the queue, in heap order
+     */
+    int[] tokens;
+    /**
+     * The key of each token in the queue, indexed by token number
+     */
+    double[] keys;
+    /**
+     * The number of tokens in the queue
+     */
+    int size = 0;
+
+    SegmentQueue(int numTerms) {
+      tokens = new int[numTerms];
+      keys = new double[numTerms];
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    /**
+     * Add a token that is not in the queue with the given key.
+     */
+    void add(int t, double key) {
+      keys[t] = key;
+      int i = size++;
+      // Sift up
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (keys[tokens[parent]] >= key)
+          break;
+        tokens[i] = tokens[parent];
+        i = parent;
+      }
+      tokens[i] = t;
+    }
+
+    /**
+     * Remove and return the token with the highest key.
+     */
+    int poll() {
+      int top = tokens[0];
+      int last = tokens[--size];
+      double key = keys[last];
+      int i = 0;
+      // Sift down
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size)
+          break;
+        if (child + 1 < size && keys[tokens[child + 1]] > keys[tokens[child]])
+          child++;
+        if (keys[tokens[child]] <= key)
+          break;
+        tokens[i] = tokens[child];
+        i = child;
+      }
+      tokens[i] = last;
+      return top;
+    }
+  }
+
+  /**
+   * Return the score accumulator for the current thread, emptied and large
+   * enough for every document in the index.
+   */
+  protected ScoreAccumulator getAccumulator() {
+    ScoreAccumulator accumulator = accumulators.get();
+    if (accumulator == null) {
+      accumulator = new ScoreAccumulator(index.docRefs.size());
+      accumulators.set(accumulator);
+    } else
+      accumulator.ensureCapacity(index.docRefs.size());
+    return accumulator;
+  }
+
+  /**
+   * Compare score-at-a-time retrieval to exhaustive retrieval on long
+   * queries like those built by relevance feedback, each the sum of the
+   * vectors of a few random documents.  Prints the average overlap of the
+   * top 10 documents and the time taken by each.
+   * Command format: "ImpactIndex [-html] [-stem] [-load FILE] [-bits B] [-budget N] [DIR]"
+   */
+  public static void main(String[] args) throws IOException {
+    String dirName = null, loadName = null;
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    int bits = DEFAULT_BITS;
+    long budget = Long.MAX_VALUE;
+    for (int i = 0; i < args.length; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-load"))
+        loadName = args[++i];
+      else if (flag.equals("-bits"))
+        bits = Integer.parseInt(args[++i]);
+      else if (flag.equals("-budget"))
+        budget = Long.parseLong(args[++i]);
+      else if (i == args.length - 1 && !flag.startsWith("-"))
+        dirName = flag;
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    InvertedIndex index;
+    if (loadName != null)
+      index = InvertedIndex.open(new File(loadName).toPath());
+    else if (dirName != null)
+      index = new InvertedIndex(new File(dirName), docType, stem, false);
+    else
+      throw new IllegalArgumentException("No directory or saved index given");
+    ImpactIndex impactIndex = new ImpactIndex(index, bits);
+    // Make the queries
+    Random random = new Random(1);
+    List<HashMapVector> queries = new ArrayList<HashMapVector>();
+    for (int q = 0; q < 50; q++) {
+      HashMapVector query = new HashMapVector();
+      for (int d = 0; d < 3; d++) {
+        DocumentReference docRef = index.docRefs.get(random.nextInt(index.docRefs.size()));
+        HashMapVector vector = docRef.getDocument(index.docType, index.stem, index.stopWords).hashMapVector();
+        vector.multiply(1.0 / vector.maxWeight());
+        query.add(vector);
+      }
+      queries.add(query);
+    }
+    int k = InvertedIndex.MAX_RETRIEVALS;
+    double overlap = 0.0;
+    long exhaustiveTime = 0, impactTime = 0;
+    // Run the queries a few times so the timings are not dominated by
+    // class loading and compilation, and only report the last run
+    for (int round = 0; round < 3; round++) {
+      overlap = 0.0;
+      exhaustiveTime = 0;
+      impactTime = 0;
+      for (HashMapVector query : queries) {
+        long start = System.nanoTime();
+        Retrieval[] exhaustive = index.retrieve(query, k);
+        long middle = System.nanoTime();
+        Retrieval[] impact = impactIndex.retrieve(query, k, budget);
+        impactTime += System.nanoTime() - middle;
+        exhaustiveTime += middle - start;
+        Set<DocumentReference> best = new HashSet<DocumentReference>();
+        for (Retrieval retrieval : exhaustive)
+          best.add(retrieval.docRef);
+        for (Retrieval retrieval : impact) {
+          if (best.contains(retrieval.docRef))
+            overlap++;
+        }
+      }
+    }
+    System.out.println("Average overlap of top " + k + ": " + MoreMath.roundTo(overlap / queries.size(), 2));
+    System.out.println("Exhaustive: " + MoreMath.roundTo(exhaustiveTime / 1e6 / queries.size(), 3) + " ms/query");
+    System.out.println("Score-at-a-time: " + MoreMath.roundTo(impactTime / 1e6 / queries.size(), 3) + " ms/query");
+  }
+}
@@ -0,0 +1,132 @@
+package ir.vsr;
+
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * A segment of a SegmentedIndex: the postings of a contiguous range of
+ * document ids, with its own dictionary from tokens to TokenInfo's.
+ * Document ids are those of the whole index, so postings from consecutive
+ * segments can be concatenated without renumbering.  Only the occurrence
+ * counts in a segment's TokenInfo's are used; IDF factors are collection-wide
+ * and kept by the SegmentedIndex.  A segment is filled while it is the
+ * in-memory buffer of the index and never changes once it has been flushed,
+ * so it can be read and merged without locking.
+ */
+public class IndexSegment {
+
+  /**
+   * The tokens occurring in the documents of this segment, each mapped to
+   * its postings in this segment
+   */
+  public Map<String, TokenInfo> tokenHash;
+
+  /**
+   * The id of the first document in this segment
+   */
+  public int firstDocId;
+
+  /**
+   * One past the id of the last document in this segment
+   */
+  public int endDocId;
+
+  /**
+   * The number of documents in this segment, which is less than
+   * endDocId - firstDocId once deleted documents are merged away
+   */
+  public int numDocs = 0;
+
+  /**
+   * Create an empty segment for the documents from firstDocId on.
+   */
+  public IndexSegment(int firstDocId) {
+    this.firstDocId = firstDocId;
+    this.endDocId = firstDocId;
+    tokenHash = new HashMap<String, TokenInfo>();
+  }
+
+  /**
+   * Add the tokens of a document to this segment.  Documents must be
+   * added in increasing order of id.
+   *
+   * @param docId  The id of the document in the whole index.
+   * @param vector The vector of token counts of the document.
+   */
+  public void addDocument(int docId, HashMapVector vector) {
+    for (int i = 0; i < vector.size(); i++) {
+      TokenInfo tokenInfo = tokenHash.get(vector.token(i));
+      if (tokenInfo == null) {
+        tokenInfo = new TokenInfo();
+        tokenHash.put(vector.token(i), tokenInfo);
+      }
+      tokenInfo.addOccurrence(docId, (int) vector.weight(i));
+    }
+    endDocId = docId + 1;
+    numDocs++;
+  }
+
+  /**
+   * Release any spare posting capacity when this segment stops growing.
+   */
+  public void trimToSize() {
+    for (TokenInfo tokenInfo : tokenHash.values())
+      tokenInfo.trimToSize();
+  }
+
+  /**
+   * Compress the postings of every token in this segment.  Only done before
+   * the segment is added to a SegmentedIndex, since flushed segments never change.
+   */
+  public void compress(PostingsCodec codec) {
+    for (TokenInfo tokenInfo : tokenHash.values())
+      tokenInfo.compress(codec);
+  }
+
+  /**
+   * Return the number of documents in this segment
+   */
+  public int size() {
+    return numDocs;
+  }
+
+  /**
+   * Merge consecutive segments into one, dropping the postings of deleted
+   * documents.  Since the segments cover consecutive ranges of document
+   * ids, the postings of each token are simply concatenated in order.
+   *
+   * @param segments    The segments to merge, in order of document id.
+   * @param deletedDocs The ids of the deleted documents.
+   */
+  public static IndexSegment merge(List<IndexSegment> segments, BitSet deletedDocs) {
+    IndexSegment merged = new IndexSegment(segments.get(0).firstDocId);
+    for (IndexSegment segment : segments) {
+      for (Map.Entry<String, TokenInfo> entry : segment.tokenHash.entrySet()) {
+        TokenInfo from = entry.getValue();
+        TokenInfo to = null;
+        PostingsCursor cursor = from.cursor();
+        for (int docId = cursor.nextDoc(); docId != PostingsCursor.NO_MORE_DOCS; docId = cursor.nextDoc()) {
+          if (deletedDocs.get(docId))
+            continue;
+          if (to == null) {
+            to = merged.tokenHash.get(entry.getKey());
+            if (to == null) {
+              to = new TokenInfo();
+              merged.tokenHash.put(entry.getKey(), to);
+            }
+          }
+          to.addOccurrence(docId, cursor.count());
+        }
+      }
+      merged.endDocId = segment.endDocId;
+      // Count the documents that survive the merge
+      for (int docId = segment.firstDocId; docId < segment.endDocId; docId++) {
+        if (!deletedDocs.get(docId))
+          merged.numDocs++;
+      }
+    }
+    merged.trimToSize();
+    return merged;
+  }
+}
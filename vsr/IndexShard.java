@@ -0,0 +1,101 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * One shard of a ShardedIndex: an index of some of the documents of a
+ * collection, which the coordinating ShardedIndex drives through the steps
+ * of building it and then queries.  Documents are identified to and by a
+ * shard by their global ids, their positions in the document table of the
+ * ShardedIndex.
+ * <p>
+ * A shard is built in three steps: index its documents, report the
+ * statistics of its tokens, and install the IDF factors of the whole
+ * collection, from which it computes the lengths of its documents.  It
+ * then answers queries with its best k documents, scored as a single index
+ * of the whole collection would score them.  A LocalShard keeps its index
+ * in this JVM; a RemoteShard keeps it in a separate process.
+ */
+public abstract class IndexShard {
+
+  /**
+   * The statistics of the tokens of a shard that the collection-wide IDF
+   * factors are computed from
+   */
+  public static class TermStatistics {
+    /**
+     * The tokens occurring in the shard
+     */
+    public final String[] tokens;
+
+    /**
+     * The number of documents of the shard each token occurs in
+     */
+    public final int[] numDocs;
+
+    /**
+     * Where each token first occurs in the shard: the global id of the
+     * first document it occurs in, in the high 32 bits, and its position in
+     * that document's vector in the low 32 bits
+     */
+    public final long[] firstOccurrences;
+
+    public TermStatistics(String[] tokens, int[] numDocs, long[] firstOccurrences) {
+      this.tokens = tokens;
+      this.numDocs = numDocs;
+      this.firstOccurrences = firstOccurrences;
+    }
+  }
+
+  /**
+   * The best documents of a shard for a query, ranked from best to worst
+   */
+  public static class Hits {
+    /**
+     * The global ids of the documents
+     */
+    public final int[] docIds;
+
+    /**
+     * The score of each document
+     */
+    public final double[] scores;
+
+    public Hits(int[] docIds, double[] scores) {
+      this.docIds = docIds;
+      this.scores = scores;
+    }
+  }
+
+  /**
+   * Index the given files as documents with the given global ids, which
+   * increase.  May be called more than once, with ids above those already
+   * indexed, before the collection statistics are installed.
+   */
+  public abstract void index(List<File> files, int[] docIds) throws IOException;
+
+  /**
+   * Return the statistics of the tokens indexed.
+   */
+  public abstract TermStatistics termStatistics() throws IOException;
+
+  /**
+   * Install the IDF factors of all the tokens of the collection, given in
+   * the order of their first occurrence in the collection, and compute the
+   * lengths of the documents of the shard from them.
+   *
+   * @return The length of each document of the shard, in order of id.
+   */
+  public abstract double[] setCollectionStatistics(String[] tokens, double[] idf) throws IOException;
+
+  /**
+   * Return the best k documents of the shard for a query vector.
+   */
+  public abstract Hits search(HashMapVector vector, int k) throws IOException;
+
+  /**
+   * Release the resources of the shard.
+   */
+  public abstract void close() throws IOException;
+}
@@ -0,0 +1,161 @@
+package ir.vsr;
+
+import java.util.*;
+
+import ir.classifiers.*;
+
+/**
+ * An immutable, read-only copy of an InvertedIndex taken at one point in
+ * time.  Any number of threads may call retrieve, retrievePruned and
+ * retrieveAll on a snapshot concurrently with each other and with changes
+ * to the index it was taken from, which it never sees.  Since nothing can
+ * change, retrievals skip the read lock that a live index takes for every
+ * query, so they do not contend with each other on it.  The token table and
+ * document list are unmodifiable, and every method that would change the
+ * index throws UnsupportedOperationException, as does setScorer.
+ * <p>
+ * A scorer belongs to one index, so a snapshot ranks with a copy of the
+ * scorer of the index, made by Scorer.copy and initialized on the
+ * snapshot's own statistics.  Subclasses of InvertedIndex that change
+ * getScore should not be snapshotted.
+ */
+public class IndexSnapshot extends InvertedIndex {
+
+  /**
+   * Take a snapshot of an index.  Waits for any change in progress to
+   * finish, and brings the IDF factors and document lengths up to date.
+   * A SegmentedIndex is first merged into a single set of postings.
+   * Throws UnsupportedOperationException if the scorer of the index cannot
+   * be copied.
+   *
+   * @param index The index to copy.
+   */
+  public IndexSnapshot(InvertedIndex index) {
+    // Copy the scorer first, since the merged copy of a SegmentedIndex has
+    // a plain cosine scorer of its own
+    scorer = index.getScorer().copy();
+    if (index instanceof SegmentedIndex)
+      index = ((SegmentedIndex) index).toInvertedIndex();
+    index.beginRetrieval();
+    try {
+      dirFile = index.dirFile;
+      docType = index.docType;
+      stem = index.stem;
+      stopWords = index.stopWords;
+      positional = index.positional;
+      feedback = index.feedback;
+      if (index.tokenHash instanceof CompactTokenMap) {
+        // A compact token table is never changed, only replaced, so share it
+        tokenHash = index.tokenHash;
+      } else {
+        // Copy the postings so later additions to the index cannot show through
+        Map<String, TokenInfo> tokens = new HashMap<String, TokenInfo>(index.tokenHash.size() * 4 / 3 + 1);
+        for (Map.Entry<String, TokenInfo> entry : index.tokenHash.entrySet())
+          tokens.put(entry.getKey(), new TokenInfo(entry.getValue()));
+        tokenHash = Collections.unmodifiableMap(tokens);
+      }
+      // The index updates the lengths in its document references when
+      // documents are added or deleted, so they are copied too, a compact
+      // table into another one
+      List<DocumentReference> refs;
+      if (index.docRefs instanceof DocumentTable) {
+        DocumentTable table = (DocumentTable) index.docRefs;
+        refs = new DocumentTable(table, table.lengthType);
+      } else {
+        refs = new ArrayList<DocumentReference>(index.docRefs.size());
+        for (DocumentReference docRef : index.docRefs)
+          refs.add(new DocumentReference(docRef.file, docRef.length));
+      }
+      docRefs = Collections.unmodifiableList(refs);
+      deletedDocs = (BitSet) index.deletedDocs.clone();
+      docLengths = index.docLengths == null ? null : index.docLengths.clone();
+      docSizes = index.docSizes == null ? null : index.docSizes.clone();
+      if (docLengths != null)
+        scorer.init(this);
+    }
+    finally {
+      index.endRetrieval();
+    }
+  }
+
+  /**
+   * A snapshot is already a snapshot, so return it.
+   */
+  public IndexSnapshot snapshot() {
+    return this;
+  }
+
+  /**
+   * Nothing can change, so a retrieval needs no lock.
+   */
+  protected void beginRetrieval() {
+  }
+
+  /**
+   * Nothing can change, so a retrieval needs no lock.
+   */
+  protected void endRetrieval() {
+  }
+
+  /**
+   * Statistics are computed when the snapshot is taken and never go stale.
+   */
+  public void refreshStatistics() {
+  }
+
+  /**
+   * A snapshot cannot change, so throw UnsupportedOperationException.
+   */
+  public int addDocument(FileDocument doc) {
+    throw new UnsupportedOperationException("Cannot add documents to an IndexSnapshot");
+  }
+
+  /**
+   * A snapshot cannot change, so throw UnsupportedOperationException.
+   */
+  public boolean deleteDocument(int docId) {
+    throw new UnsupportedOperationException("Cannot delete documents from an IndexSnapshot");
+  }
+
+  /**
+   * A snapshot cannot change, so throw UnsupportedOperationException.
+   */
+  public void indexDocuments(List<Example> examples) {
+    throw new UnsupportedOperationException("Cannot index documents in an IndexSnapshot");
+  }
+
+  /**
+   * A snapshot cannot change, so throw UnsupportedOperationException.
+   */
+  public void compress(PostingsCodec codec) {
+    throw new UnsupportedOperationException("Cannot compress an IndexSnapshot");
+  }
+
+  /**
+   * A snapshot cannot change, so throw UnsupportedOperationException.
+   */
+  public void clear() {
+    throw new UnsupportedOperationException("Cannot clear an IndexSnapshot");
+  }
+
+  /**
+   * A snapshot cannot change, so throw UnsupportedOperationException.
+   */
+  public void compactDocuments(short lengthType) {
+    throw new UnsupportedOperationException("Cannot compact the documents of an IndexSnapshot");
+  }
+
+  /**
+   * A snapshot cannot change, so throw UnsupportedOperationException.
+   */
+  public void compactDictionary() {
+    throw new UnsupportedOperationException("Cannot compact the dictionary of an IndexSnapshot");
+  }
+
+  /**
+   * A snapshot cannot change how it ranks, so throw UnsupportedOperationException.
+   */
+  public void setScorer(Scorer scorer) {
+    throw new UnsupportedOperationException("Cannot change the scorer of an IndexSnapshot");
+  }
+}
@@ -3,6 +3,15 @@ package ir.vsr;
 import java.io.*;
 import java.util.*;
 import java.lang.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import ir.utilities.*;
 import ir.classifiers.*;
@@ -12,6 +21,12 @@ import ir.classifiers.*;
  * methods for creating an inverted index from a set of documents
  * and retrieving ranked matches to queries using standard TF/IDF
  * weighting and cosine similarity.
+ * <p>
+ * Retrievals may run on any number of threads at once, and documents may
+ * be added or deleted while they do: each retrieval holds a read lock and
+ * each change the write lock.  The tokenHash and docRefs fields must not be
+ * changed directly while other threads use the index.  For heavy query
+ * loads, take a snapshot(), which needs no locking at all.
  *
  * @author Ray Mooney
  */
@@ -23,6 +38,40 @@ public class InvertedIndex {
    */
   public static final int MAX_RETRIEVALS = 10;
 
+  /**
+   * The magic number identifying a saved index file ("IRVX")
+   */
+  public static final int INDEX_FILE_MAGIC = 0x49525658;
+
+  /**
+   * The version of the saved index file format written by save
+   */
+  public static final int INDEX_FILE_VERSION = 4;
+
+  /**
+   * The default refreshDelay, in milliseconds
+   */
+  public static final long DEFAULT_REFRESH_DELAY = 100;
+
+  /**
+   * The single background thread, shared by all indexes, that refreshes
+   * their statistics after documents are added or deleted
+   */
+  protected static final ScheduledExecutorService refresher =
+      Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "InvertedIndex refresher");
+          // Do not keep the JVM alive just to refresh statistics
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  /**
+   * The most ints of a posting array that load decodes at a time
+   */
+  protected static final int READ_CHUNK = 1 << 14;
+
   /**
    * A HashMap where tokens are indexed. Each indexed token maps
    * to a TokenInfo.
@@ -31,6 +80,9 @@ public class InvertedIndex {
 
   /**
    * A list of all indexed documents.  Elements are DocumentReference's.
+   * This is the document table for the index: the id of a document in
+   * the postings of a TokenInfo is its position in this list.  It is a
+   * DocumentTable once compactDocuments has been called.
    */
   public List<DocumentReference> docRefs = null;
 
@@ -49,11 +101,97 @@ public class InvertedIndex {
    */
   public boolean stem = false;
 
+  /**
+   * The stopwords removed from documents and queries, or null for the
+   * default list
+   */
+  public StopWordFilter stopWords = null;
+
+  /**
+   * Whether the positions of tokens in documents are indexed as well, so
+   * that phrase and proximity queries can be answered
+   */
+  public boolean positional = false;
+
   /**
    * Whether relevance feedback using the Ide_regular algorithm is used
    */
   public boolean feedback = false;
 
+  /**
+   * The number of threads used to index the documents in dirFile.
+   * With more than 1 the documents are read and tokenized in parallel.
+   */
+  public int numThreads = 1;
+
+  /**
+   * The length of each document vector, indexed by document id.  A copy of
+   * the lengths in docRefs packed together for document-at-a-time scoring.
+   */
+  protected double[] docLengths = null;
+
+  /**
+   * The number of tokens in each document, counting repeats, indexed by
+   * document id
+   */
+  protected int[] docSizes = null;
+
+  /**
+   * The ranking function, cosine similarity unless set with setScorer
+   */
+  protected Scorer scorer = new CosineScorer();
+
+  /**
+   * The ids of the documents that have been deleted.  Their postings stay in
+   * the index and are skipped when collecting retrievals, so deleting a
+   * document never renumbers the others.
+   */
+  public BitSet deletedDocs = new BitSet();
+
+  /**
+   * Whether documents have been added or deleted since the IDF factors and
+   * document lengths were last computed.  They are recomputed, all at once,
+   * by refreshStatistics, in the background refreshDelay milliseconds after
+   * the first change or before the next retrieval, whichever comes first.
+   */
+  protected volatile boolean statsStale = false;
+
+  /**
+   * How many milliseconds after the first of a run of additions and
+   * deletions the statistics are refreshed in the background, so that the
+   * changes made meanwhile cost one refresh and retrievals that come later
+   * do not wait for it.  Negative to leave the refresh to the next retrieval.
+   */
+  public long refreshDelay = DEFAULT_REFRESH_DELAY;
+
+  /**
+   * Whether a background refresh has been scheduled and has not started yet
+   */
+  protected final AtomicBoolean refreshScheduled = new AtomicBoolean();
+
+  /**
+   * Lets any number of retrievals run at once but makes adding and deleting
+   * documents and refreshing statistics wait for them, and vice versa.
+   */
+  protected final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * The cache of results for recent queries, or null to evaluate every
+   * query.  Cleared whenever a document is added or deleted.
+   */
+  public RetrievalCache cache = null;
+
+  /**
+   * The executor that retrieveAll runs queries on, or null to use the
+   * common ForkJoinPool, which has a thread per available processor.
+   */
+  public ExecutorService queryExecutor = null;
+
+  /**
+   * The ScoreAccumulator reused by each thread that retrieves from this index
+   */
+  protected ThreadLocal<ScoreAccumulator> accumulators = new ThreadLocal<ScoreAccumulator>();
+
   /**
    * Create an inverted index of the documents in a directory.
    *
@@ -63,10 +201,60 @@ public class InvertedIndex {
    * @param feedback Whether relevance feedback should be used.
    */
   public InvertedIndex(File dirFile, short docType, boolean stem, boolean feedback) {
+    this(dirFile, docType, stem, feedback, 1);
+  }
+
+  /**
+   * Create an inverted index of the documents in a directory using several
+   * threads.  The resulting index is the same as one built with a single thread.
+   *
+   * @param dirFile    The directory of files to index.
+   * @param docType    The type of documents to index (See docType in DocumentIterator)
+   * @param stem       Whether tokens should be stemmed with Porter stemmer.
+   * @param feedback   Whether relevance feedback should be used.
+   * @param numThreads The number of threads to index with.
+   */
+  public InvertedIndex(File dirFile, short docType, boolean stem, boolean feedback, int numThreads) {
+    this(dirFile, docType, stem, feedback, numThreads, null);
+  }
+
+  /**
+   * Create an inverted index of the documents in a directory using several
+   * threads and removing its own list of stopwords.
+   *
+   * @param dirFile    The directory of files to index.
+   * @param docType    The type of documents to index (See docType in DocumentIterator)
+   * @param stem       Whether tokens should be stemmed with Porter stemmer.
+   * @param feedback   Whether relevance feedback should be used.
+   * @param numThreads The number of threads to index with.
+   * @param stopWords  The stopwords to remove, or null for the default list.
+   */
+  public InvertedIndex(File dirFile, short docType, boolean stem, boolean feedback, int numThreads,
+                       StopWordFilter stopWords) {
+    this(dirFile, docType, stem, feedback, numThreads, stopWords, false);
+  }
+
+  /**
+   * Create an inverted index of the documents in a directory using several
+   * threads, optionally indexing the positions of tokens for phrase queries.
+   *
+   * @param dirFile    The directory of files to index.
+   * @param docType    The type of documents to index (See docType in DocumentIterator)
+   * @param stem       Whether tokens should be stemmed with Porter stemmer.
+   * @param feedback   Whether relevance feedback should be used.
+   * @param numThreads The number of threads to index with.
+   * @param stopWords  The stopwords to remove, or null for the default list.
+   * @param positional Whether to index the positions of tokens.
+   */
+  public InvertedIndex(File dirFile, short docType, boolean stem, boolean feedback, int numThreads,
+                       StopWordFilter stopWords, boolean positional) {
     this.dirFile = dirFile;
     this.docType = docType;
     this.stem = stem;
+    this.stopWords = stopWords;
+    this.positional = positional;
     this.feedback = feedback;
+    this.numThreads = numThreads;
     tokenHash = new HashMap<String, TokenInfo>();
     docRefs = new ArrayList<DocumentReference>();
     indexDocuments();
@@ -84,6 +272,15 @@ public class InvertedIndex {
     indexDocuments(examples);
   }
 
+  /**
+   * Create an empty inverted index to be filled in by a subclass or when
+   * opening a saved index.
+   */
+  protected InvertedIndex() {
+    tokenHash = new HashMap<String, TokenInfo>();
+    docRefs = new ArrayList<DocumentReference>();
+  }
+
 
   /**
    * Index the documents in dirFile.
@@ -94,7 +291,14 @@ public class InvertedIndex {
       throw new IllegalStateException("Cannot indexDocuments more than once in the same InvertedIndex");
     }
     // Get an iterator for the documents
-    DocumentIterator docIter = new DocumentIterator(dirFile, docType, stem);
+    DocumentIterator docIter = new DocumentIterator(dirFile, docType, stem, null, stopWords);
+    if (numThreads > 1) {
+      // Split the documents across a pool of threads
+      System.out.println("Indexing documents in " + dirFile + " with " + numThreads + " threads");
+      new ParallelIndexBuilder(this, docIter, numThreads).build();
+      System.out.println("Indexed " + docRefs.size() + " documents with " + size() + " unique terms.");
+      return;
+    }
     System.out.println("Indexing documents in " + dirFile);
     // Loop, processing each of the documents
 
@@ -102,12 +306,13 @@ public class InvertedIndex {
       FileDocument doc = docIter.nextDocument();
       // Create a document vector for this document
       System.out.print(doc.file.getName() + ",");
-      HashMapVector vector = doc.hashMapVector();
+      HashMapVector vector = positional ? doc.positionalVector() : doc.hashMapVector();
       indexDocument(doc, vector);
     }
     // Now that all documents have been processed, we can calculate the IDF weights for
     // all tokens and the resulting lengths of all weighted document vectors.
     computeIDFandDocumentLengths();
+    computeMaxScores();
     System.out.println("\nIndexed " + docRefs.size() + " documents with " + size() + " unique terms.");
   }
 
@@ -130,36 +335,43 @@ public class InvertedIndex {
     // Now that all documents have been processed, we can calculate the IDF weights for
     // all tokens and the resulting lengths of all weighted document vectors.
     computeIDFandDocumentLengths();
+    computeMaxScores();
     System.out.println("Indexed " + docRefs.size() + " documents with " + size() + " unique terms.");
   }
 
   /**
-   * Index the given document using its corresponding vector
+   * Index the given document using its corresponding vector, along with the
+   * positions of its tokens if it is a PositionalVector
    */
   protected void indexDocument(FileDocument doc, HashMapVector vector) {
     // Create a reference to this document
     DocumentReference docRef = new DocumentReference(doc);
+    // The id of this document is its position in the list of documents indexed
+    int docId = docRefs.size();
     // Add this document to the list of documents indexed
     docRefs.add(docRef);
+    PositionalVector positions = vector instanceof PositionalVector ? (PositionalVector) vector : null;
     // Iterate through each of the tokens in the document
-    for (Map.Entry<String, Weight> entry : vector.entrySet()) {
-      // An entry in the HashMap maps a token to a Weight
-      String token = entry.getKey();
-      // The count for the token is in the value of the Weight
-      int count = (int) entry.getValue().getValue();
+    for (int i = 0; i < vector.size(); i++) {
+      String token = vector.token(i);
+      // The count for the token is its weight in the vector
+      int count = (int) vector.weight(i);
       // Add an occurrence of this token to the inverted index pointing to this document
-      indexToken(token, count, docRef);
+      if (positions != null)
+        indexToken(token, positions.positions(i), count, docId);
+      else
+        indexToken(token, count, docId);
     }
   }
 
   /**
    * Add a token occurrence to the index.
    *
-   * @param token  The token to index.
-   * @param count  The number of times it occurs in the document.
-   * @param docRef A reference to the Document it occurs in.
+   * @param token The token to index.
+   * @param count The number of times it occurs in the document.
+   * @param docId The id of the Document it occurs in (its position in docRefs).
    */
-  protected void indexToken(String token, int count, DocumentReference docRef) {
+  protected void indexToken(String token, int count, int docId) {
     // Find this token in the index
     TokenInfo tokenInfo = tokenHash.get(token);
     if (tokenInfo == null) {
@@ -167,17 +379,40 @@ public class InvertedIndex {
       tokenInfo = new TokenInfo();
       tokenHash.put(token, tokenInfo);
     }
-    // Add a new occurrence for this token to its info
-    tokenInfo.occList.add(new TokenOccurrence(docRef, count));
+    // Add a new posting for this token to its info
+    tokenInfo.addOccurrence(docId, count);
+  }
+
+  /**
+   * Add a token occurrence to the index along with its positions.
+   *
+   * @param token     The token to index.
+   * @param positions The positions where it occurs in the document, in order.
+   * @param count     The number of times it occurs in the document.
+   * @param docId     The id of the Document it occurs in (its position in docRefs).
+   */
+  protected void indexToken(String token, int[] positions, int count, int docId) {
+    TokenInfo tokenInfo = tokenHash.get(token);
+    if (tokenInfo == null) {
+      tokenInfo = new TokenInfo();
+      tokenHash.put(token, tokenInfo);
+    }
+    tokenInfo.addOccurrence(docId, positions, count);
   }
 
   /**
    * Compute the IDF factor for every token in the index and the length
    * of the document vector for every document referenced in the index.
+   * Deleted documents count neither towards the number of documents nor
+   * towards the number of documents a token occurs in.  Tokens that occur
+   * in every document get an IDF of 0 and are skipped at retrieval, but are
+   * kept in the index since documents added later may change that.
    */
   protected void computeIDFandDocumentLengths() {
-    // Let N be the total number of documents indexed
-    double N = docRefs.size();
+    // Let N be the total number of (undeleted) documents indexed
+    double N = docRefs.size() - deletedDocs.cardinality();
+    // Sum of the squares of the token weights of each document, indexed by document id
+    double[] lengths = new double[docRefs.size()];
     // Iterate through each of the tokens in the index
     Iterator<Map.Entry<String, TokenInfo>> mapEntries = tokenHash.entrySet().iterator();
     while (mapEntries.hasNext()) {
@@ -185,32 +420,364 @@ public class InvertedIndex {
       Map.Entry<String, TokenInfo> entry = mapEntries.next();
 
       TokenInfo tokenInfo = entry.getValue();
-      // Get the total number of documents in which this token occurs
-      double numDocRefs = tokenInfo.occList.size();
       // Calculate the IDF factor for this token
-      double idf = Math.log(N / numDocRefs);
-      //  System.out.println(token + " occurs in " + Math.round(numDocRefs) + " docs so IDF=" + idf);
-      if (idf == 0.0)
-        // If IDF is 0, then just remove this inconsequential token from the index
-        mapEntries.remove();
-      else {
-        tokenInfo.idf = idf;
+      double idf = computeIDF(tokenInfo, N);
+      //  System.out.println(token + " occurs in " + tokenInfo.numDocs + " docs so IDF=" + idf);
+      tokenInfo.idf = idf;
+      // If IDF is 0, then this token is inconsequential for now
+      if (idf != 0.0) {
+        // Indexing is finished for this token so drop any spare posting capacity
+        tokenInfo.trimToSize();
         // In order to compute document vector lengths,  sum the
         // square of the weights (IDF * occurrence count) across
-        // every token occurrence for each document and store sum in docRef.length.
-        for (TokenOccurrence occ : tokenInfo.occList) {
-          occ.docRef.length = occ.docRef.length + Math.pow(idf * occ.count, 2);
+        // every posting for each document.
+        PostingsCursor cursor = tokenInfo.cursor();
+        for (int docId = cursor.nextDoc(); docId != PostingsCursor.NO_MORE_DOCS; docId = cursor.nextDoc()) {
+          double weight = idf * cursor.count();
+          lengths[docId] += weight * weight;
         }
       }
     }
     // At this point, every document length should be the sum of the squares of
     // its token weights.  In order to calculate final lengths, just need to
     // set the length of every document reference to the square-root of this sum.
-    for (DocumentReference docRef : docRefs) {
-      docRef.length = Math.sqrt(docRef.length);
+    for (int docId = 0; docId < lengths.length; docId++) {
+      setDocumentLength(docId, Math.sqrt(lengths[docId]));
+    }
+  }
+
+  /**
+   * Return the IDF factor of a token given the number N of undeleted
+   * documents, which is 0 if all the documents it occurs in have been
+   * deleted.  A shard of a larger collection uses the IDF of the whole
+   * collection instead.
+   */
+  protected double computeIDF(TokenInfo tokenInfo, double N) {
+    // Get the total number of documents in which this token occurs
+    double numDocRefs = documentFrequency(tokenInfo);
+    return numDocRefs == 0 ? 0.0 : Math.log(N / numDocRefs);
+  }
+
+  /**
+   * Return the number of undeleted documents in which a token occurs,
+   * counting them only if some documents have been deleted.
+   */
+  protected int documentFrequency(TokenInfo tokenInfo) {
+    return deletedDocs.isEmpty() ? tokenInfo.numDocs : numLiveDocs(tokenInfo);
+  }
+
+  /**
+   * Return the length of the vector of the document with the given id, as
+   * kept in the document table.
+   */
+  protected double documentLength(int docId) {
+    if (docRefs instanceof DocumentTable)
+      return ((DocumentTable) docRefs).length(docId);
+    return docRefs.get(docId).length;
+  }
+
+  /**
+   * Set the length of the vector of the document with the given id in the
+   * document table, which a DocumentTable may round.
+   */
+  protected void setDocumentLength(int docId, double length) {
+    if (docRefs instanceof DocumentTable)
+      ((DocumentTable) docRefs).setLength(docId, length);
+    else
+      docRefs.get(docId).length = length;
+  }
+
+  /**
+   * Return the number of undeleted documents in which a token occurs.
+   */
+  protected int numLiveDocs(TokenInfo tokenInfo) {
+    int numLive = 0;
+    PostingsCursor cursor = tokenInfo.cursor();
+    for (int docId = cursor.nextDoc(); docId != PostingsCursor.NO_MORE_DOCS; docId = cursor.nextDoc()) {
+      if (!deletedDocs.get(docId))
+        numLive++;
+    }
+    return numLive;
+  }
+
+  /**
+   * Compute the maxScore upper bound of every token in the index from its IDF,
+   * its counts and the final document vector lengths, which are also copied
+   * into docLengths as the document table keeps them.  The number of tokens in each document is summed into
+   * docSizes, and the undeleted documents of each token are counted into
+   * its liveDocs, on the same pass, and then the scorer is given the new
+   * statistics.
+   */
+  protected void computeMaxScores() {
+    // Copy the final lengths into a primitive array for cache-friendly scoring
+    docLengths = new double[docRefs.size()];
+    for (int docId = 0; docId < docLengths.length; docId++)
+      docLengths[docId] = documentLength(docId);
+    docSizes = new int[docRefs.size()];
+    for (TokenInfo tokenInfo : tokenHash.values()) {
+      double maxScore = 0.0;
+      int liveDocs = 0;
+      PostingsCursor cursor = tokenInfo.cursor();
+      for (int docId = cursor.nextDoc(); docId != PostingsCursor.NO_MORE_DOCS; docId = cursor.nextDoc()) {
+        docSizes[docId] += cursor.count();
+        if (!deletedDocs.get(docId))
+          liveDocs++;
+        double score = tokenInfo.idf * cursor.count() / docLengths[docId];
+        if (score > maxScore)
+          maxScore = score;
+      }
+      tokenInfo.maxScore = maxScore;
+      tokenInfo.liveDocs = liveDocs;
+    }
+    scorer.init(this);
+  }
+
+  /**
+   * Return the ranking function of this index.
+   */
+  public Scorer getScorer() {
+    return scorer;
+  }
+
+  /**
+   * Rank documents with the given scorer from now on.  A scorer may only
+   * be used by one index.
+   */
+  public void setScorer(Scorer scorer) {
+    lock.writeLock().lock();
+    try {
+      this.scorer = scorer;
+      if (docLengths != null)
+        scorer.init(this);
+      invalidateCache();
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Add a document to the index without reindexing the others.  The
+   * document is tokenized before taking the index lock, so retrievals are
+   * only held up while its postings are appended.  IDF factors and document
+   * lengths are recomputed in the background refreshDelay milliseconds
+   * later, or by the next retrieval or an explicit refreshStatistics if
+   * sooner, so adding a batch of documents costs one refresh.
+   *
+   * @param doc The document to add.
+   * @return The id of the document in the index.
+   */
+  public int addDocument(FileDocument doc) {
+    HashMapVector vector = positional ? doc.positionalVector() : doc.hashMapVector();
+    lock.writeLock().lock();
+    try {
+      expandDictionary();
+      int docId = docRefs.size();
+      indexDocument(doc, vector);
+      statsStale = true;
+      scheduleRefresh();
+      invalidateCache();
+      return docId;
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Delete a document from the index by marking it in deletedDocs.  It is
+   * no longer retrieved, but its postings remain and the ids of other
+   * documents do not change.  IDF factors and document lengths are
+   * refreshed as in addDocument.
+   *
+   * @param docId The id of the document (its position in docRefs).
+   * @return true if the document was in the index and not already deleted.
+   */
+  public boolean deleteDocument(int docId) {
+    lock.writeLock().lock();
+    try {
+      if (docId < 0 || docId >= docRefs.size() || deletedDocs.get(docId))
+        return false;
+      expandDictionary();
+      deletedDocs.set(docId);
+      statsStale = true;
+      scheduleRefresh();
+      invalidateCache();
+      return true;
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Return true if the document with the given id has been deleted.
+   */
+  public boolean isDeleted(int docId) {
+    return deletedDocs.get(docId);
+  }
+
+  /**
+   * Return the number of documents in the index that have not been deleted.
+   */
+  public int numDocuments() {
+    return docRefs.size() - deletedDocs.cardinality();
+  }
+
+  /**
+   * Compress the postings of every token with the given codec to save
+   * memory.  Retrieval reads them through PostingsCursor's, decoding a
+   * block at a time.  Tokens that occur in documents added later are
+   * decompressed again, so call this again after a batch of additions.
+   *
+   * @param codec The codec to compress with, such as PostingsCodec.PFOR.
+   */
+  public void compress(PostingsCodec codec) {
+    lock.writeLock().lock();
+    try {
+      expandDictionary();
+      for (TokenInfo tokenInfo : tokenHash.values())
+        tokenInfo.compress(codec);
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Replace the HashMap of tokens with a CompactTokenMap, which keeps the
+   * tokens in a front-coded sorted dictionary and their statistics and
+   * postings in shared primitive arrays, to save memory once indexing is
+   * done.  Adding or deleting documents, or compressing the postings, turns
+   * it back into a HashMap first, so compact again after a batch of changes.
+   * Compress the postings first if both are wanted.
+   */
+  public void compactDictionary() {
+    lock.writeLock().lock();
+    try {
+      if (!(tokenHash instanceof CompactTokenMap)) {
+        // The statistics must be current, since views cannot update them
+        if (statsStale) {
+          computeIDFandDocumentLengths();
+          computeMaxScores();
+          statsStale = false;
+        }
+        tokenHash = new CompactTokenMap(tokenHash);
+      }
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Replace the list of document references with a DocumentTable, which
+   * keeps the names of the files in one array and their directories once,
+   * to save memory on a large collection.  DocumentReference's are then
+   * only made for retrieved documents.  The lengths of the documents are
+   * kept as given by lengthType: exactly (DocumentTable.DOUBLE_LENGTHS), as
+   * floats (FLOAT_LENGTHS) or as 8-bit norms (BYTE_NORMS).  The last two
+   * round the lengths, and so slightly change the scores of a cosine
+   * ranking, so the pruning bounds are recomputed from the rounded lengths,
+   * which turns a CompactTokenMap back into a HashMap: compact the
+   * documents before the dictionary.  Documents can still be added and
+   * deleted afterwards.
+   */
+  public void compactDocuments(short lengthType) {
+    lock.writeLock().lock();
+    try {
+      docRefs = new DocumentTable(docRefs, lengthType);
+      // Stale statistics are computed from the rounded lengths anyway
+      if (lengthType != DocumentTable.DOUBLE_LENGTHS && !statsStale) {
+        expandDictionary();
+        computeMaxScores();
+      }
+      invalidateCache();
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Turn a CompactTokenMap back into a HashMap that can be changed.
+   * Called with the write lock held.
+   */
+  protected void expandDictionary() {
+    if (tokenHash instanceof CompactTokenMap)
+      tokenHash = ((CompactTokenMap) tokenHash).toHashMap();
+  }
+
+  /**
+   * Recompute the IDF factors, document lengths and pruning bounds if any
+   * documents have been added or deleted since they were last computed.
+   * Called in the background after changes and before each retrieval, but
+   * can also be called by the thread adding documents after a batch so that
+   * the statistics are current at once.
+   */
+  public void refreshStatistics() {
+    lock.writeLock().lock();
+    try {
+      if (statsStale) {
+        computeIDFandDocumentLengths();
+        computeMaxScores();
+        statsStale = false;
+      }
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Refresh the statistics on the background thread in refreshDelay
+   * milliseconds, unless a refresh is already scheduled or refreshDelay is
+   * negative.  Called after marking the statistics stale.
+   */
+  protected void scheduleRefresh() {
+    if (refreshDelay >= 0 && refreshScheduled.compareAndSet(false, true)) {
+      refresher.schedule(new Runnable() {
+        public void run() {
+          // Changes from now on need a refresh of their own
+          refreshScheduled.set(false);
+          refreshStatistics();
+        }
+      }, refreshDelay, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Empty the query cache, if any, after a change to the index.  Called
+   * with the write lock held, so no retrieval can cache a result computed
+   * before the change after the cache is emptied.
+   */
+  protected void invalidateCache() {
+    if (cache != null)
+      cache.invalidate();
+  }
+
+  /**
+   * Start a retrieval by taking the read lock, first bringing statistics up
+   * to date if documents were added or deleted and the background refresh
+   * has not done so yet.  Must be paired with endRetrieval.
+   */
+  protected void beginRetrieval() {
+    lock.readLock().lock();
+    while (statsStale) {
+      // The read lock cannot be upgraded, so drop it to refresh
+      lock.readLock().unlock();
+      refreshStatistics();
+      lock.readLock().lock();
     }
   }
 
+  /**
+   * End a retrieval started by beginRetrieval.
+   */
+  protected void endRetrieval() {
+    lock.readLock().unlock();
+  }
+
   /**
    * Print out an inverted index by listing each token and the documents it occurs in.
    * Include info on IDF factors, occurrence counts, and document vector lengths.
@@ -223,9 +790,14 @@ public class InvertedIndex {
       System.out.println(token + " (IDF=" + entry.getValue().idf + ") occurs in:");
       // For each document referenced, print its name, occurrence count for this token, and
       // document vector length (|D|).
-      for (TokenOccurrence occ : entry.getValue().occList) {
-        System.out.println("   " + occ.docRef.file.getName() + " " + occ.count +
-            " times; |D|=" + occ.docRef.length);
+      TokenInfo tokenInfo = entry.getValue();
+      PostingsCursor cursor = tokenInfo.cursor();
+      for (int docId = cursor.nextDoc(); docId != PostingsCursor.NO_MORE_DOCS; docId = cursor.nextDoc()) {
+        if (deletedDocs.get(docId))
+          continue;
+        DocumentReference docRef = docRefs.get(docId);
+        System.out.println("   " + docRef.file.getName() + " " + cursor.count() +
+            " times; |D|=" + docRef.length);
       }
     }
   }
@@ -237,19 +809,245 @@ public class InvertedIndex {
     return tokenHash.size();
   }
 
+  /**
+   * Save this index to a binary file so it can later be reopened with open
+   * without re-tokenizing the documents.  The file holds a header (magic
+   * number, format version, docType, stemming, source directory, any
+   * stopwords other than the default list and whether positions are
+   * indexed), the document table (file path and vector length of each
+   * document), the deleted documents as the words of a bit set, and the
+   * term dictionary, where each term is followed by its IDF, its doc-id
+   * and count posting arrays and, in a positional index, the byte length
+   * and bytes of its encoded positions.  All numbers are big-endian and strings are
+   * a length followed by UTF-8 bytes.
+   *
+   * @param path The file to write the index to.
+   */
+  public void save(Path path) throws IOException {
+    beginRetrieval();
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+      // Header
+      out.writeInt(INDEX_FILE_MAGIC);
+      out.writeInt(INDEX_FILE_VERSION);
+      out.writeShort(docType);
+      out.writeBoolean(stem);
+      writeString(out, dirFile == null ? "" : dirFile.getPath());
+      // Stopwords, if not the default list
+      out.writeInt(stopWords == null ? -1 : stopWords.size());
+      if (stopWords != null) {
+        for (String word : stopWords.words())
+          writeString(out, word);
+      }
+      out.writeBoolean(positional);
+      // Document table
+      out.writeInt(docRefs.size());
+      for (DocumentReference docRef : docRefs) {
+        writeString(out, docRef.file.getPath());
+        out.writeDouble(docRef.length);
+      }
+      long[] deletedWords = deletedDocs.toLongArray();
+      out.writeInt(deletedWords.length);
+      for (long word : deletedWords)
+        out.writeLong(word);
+      // Term dictionary and postings
+      out.writeInt(tokenHash.size());
+      for (Map.Entry<String, TokenInfo> entry : tokenHash.entrySet()) {
+        TokenInfo tokenInfo = entry.getValue();
+        writeString(out, entry.getKey());
+        out.writeDouble(tokenInfo.idf);
+        out.writeInt(tokenInfo.numDocs);
+        // Compressed postings are saved decoded, in two passes
+        PostingsCursor cursor = tokenInfo.cursor();
+        for (int docId = cursor.nextDoc(); docId != PostingsCursor.NO_MORE_DOCS; docId = cursor.nextDoc())
+          out.writeInt(docId);
+        cursor = tokenInfo.cursor();
+        while (cursor.nextDoc() != PostingsCursor.NO_MORE_DOCS)
+          out.writeInt(cursor.count());
+        // Positions are saved as encoded
+        if (positional) {
+          out.writeInt(tokenInfo.positions == null ? 0 : tokenInfo.positionsLength);
+          if (tokenInfo.positions != null)
+            out.write(tokenInfo.positions, 0, tokenInfo.positionsLength);
+        }
+      }
+    }
+    finally {
+      if (out != null)
+        out.close();
+      endRetrieval();
+    }
+  }
+
+  /**
+   * Open an index previously written by save.  The whole index is loaded
+   * into the heap with one buffered pass over the file, decoding posting
+   * arrays a chunk at a time, so no documents need to be read or tokenized
+   * and files of any size can be opened.
+   *
+   * @param path The saved index file.
+   * @return The reopened index, with relevance feedback turned off.
+   */
+  public static InvertedIndex open(Path path) throws IOException {
+    InvertedIndex index = new InvertedIndex();
+    index.load(path);
+    return index;
+  }
+
+  /**
+   * Fill this empty index with the contents of a file written by save.
+   */
+  protected void load(Path path) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+    try {
+      // Check the header
+      if (in.readInt() != INDEX_FILE_MAGIC)
+        throw new IOException("Not a saved InvertedIndex: " + path);
+      int version = in.readInt();
+      // Version 1 files are the same but without deleted documents,
+      // version 2 files without stopwords, and version 3 files without positions
+      if (version < 1 || version > INDEX_FILE_VERSION)
+        throw new IOException("Unsupported index file version " + version + " in " + path);
+      docType = in.readShort();
+      stem = in.readBoolean();
+      String dirName = readString(in);
+      dirFile = dirName.isEmpty() ? null : new File(dirName);
+      if (version >= 3) {
+        int numStopWords = in.readInt();
+        if (numStopWords >= 0) {
+          List<String> words = new ArrayList<String>(numStopWords);
+          for (int i = 0; i < numStopWords; i++)
+            words.add(readString(in));
+          stopWords = new StopWordFilter(words);
+        }
+      }
+      if (version >= 4)
+        positional = in.readBoolean();
+      // Read the document table
+      int numDocs = in.readInt();
+      docRefs = new ArrayList<DocumentReference>(numDocs);
+      for (int i = 0; i < numDocs; i++) {
+        File file = new File(readString(in));
+        docRefs.add(new DocumentReference(file, in.readDouble()));
+      }
+      if (version >= 2) {
+        long[] deletedWords = new long[in.readInt()];
+        for (int i = 0; i < deletedWords.length; i++)
+          deletedWords[i] = in.readLong();
+        deletedDocs = BitSet.valueOf(deletedWords);
+      }
+      // Read the term dictionary, bulk decoding each posting array
+      int numTokens = in.readInt();
+      tokenHash = new HashMap<String, TokenInfo>((int) (numTokens / 0.75) + 1);
+      for (int t = 0; t < numTokens; t++) {
+        String token = readString(in);
+        TokenInfo tokenInfo = new TokenInfo();
+        tokenInfo.idf = in.readDouble();
+        tokenInfo.numDocs = in.readInt();
+        tokenInfo.docIds = readInts(in, tokenInfo.numDocs);
+        tokenInfo.counts = readInts(in, tokenInfo.numDocs);
+        if (positional)
+          readPositions(in, tokenInfo);
+        tokenHash.put(token, tokenInfo);
+      }
+    }
+    catch (EOFException e) {
+      throw new IOException("Truncated index file: " + path, e);
+    }
+    finally {
+      in.close();
+    }
+    // The pruning bounds are cheap to derive so they are not saved
+    computeMaxScores();
+  }
+
+  /**
+   * Read the encoded positions of a token from the stream and find where
+   * those of each posting start by skipping over the variable-byte gaps,
+   * count of them per posting.
+   */
+  protected static void readPositions(DataInput in, TokenInfo tokenInfo) throws IOException {
+    byte[] positions = new byte[in.readInt()];
+    in.readFully(positions);
+    if (positions.length == 0 && tokenInfo.numDocs == 0)
+      return;
+    int[] positionOffsets = new int[tokenInfo.numDocs];
+    int offset = 0;
+    for (int i = 0; i < tokenInfo.numDocs; i++) {
+      positionOffsets[i] = offset;
+      for (int j = 0; j < tokenInfo.counts[i]; j++) {
+        // Skip the continuation bytes and then the final byte of a gap
+        while (positions[offset] < 0)
+          offset++;
+        offset++;
+      }
+    }
+    tokenInfo.positions = positions;
+    tokenInfo.positionOffsets = positionOffsets;
+    tokenInfo.positionsLength = positions.length;
+  }
+
+  /**
+   * Write a string as its UTF-8 byte length followed by the bytes.
+   */
+  protected static void writeString(DataOutput out, String string) throws IOException {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Read a string written by writeString from the stream.
+   */
+  protected static String readString(DataInput in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Read n big-endian ints from the stream, decoding the bytes of up to
+   * READ_CHUNK ints at a time in bulk rather than one readInt at a time.
+   */
+  protected static int[] readInts(DataInput in, int n) throws IOException {
+    int[] ints = new int[n];
+    byte[] bytes = new byte[4 * Math.min(n, READ_CHUNK)];
+    IntBuffer intBuffer = ByteBuffer.wrap(bytes).asIntBuffer();
+    for (int i = 0; i < n; i += READ_CHUNK) {
+      int count = Math.min(n - i, READ_CHUNK);
+      in.readFully(bytes, 0, 4 * count);
+      intBuffer.clear();
+      intBuffer.get(ints, i, count);
+    }
+    return ints;
+  }
+
   /**
    * Clear all documents from the inverted index
    */
   public void clear() {
-    docRefs.clear();
-    tokenHash.clear();
+    lock.writeLock().lock();
+    try {
+      docRefs.clear();
+      tokenHash = new HashMap<String, TokenInfo>();
+      deletedDocs.clear();
+      docLengths = new double[0];
+      docSizes = new int[0];
+      scorer.init(this);
+      statsStale = false;
+      invalidateCache();
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
   }
 
   /**
    * Perform ranked retrieval on this input query.
    */
   public Retrieval[] retrieve(String input) {
-    return retrieve(new TextStringDocument(input, stem));
+    return retrieve(new TextStringDocument(input, stem, stopWords));
   }
 
   /**
@@ -263,42 +1061,281 @@ public class InvertedIndex {
    * Perform ranked retrieval on this input query Document vector.
    */
   public Retrieval[] retrieve(HashMapVector vector) {
-    // Create a hashtable to store the retrieved documents.  Keys
-    // are docRefs and values are DoubleValues which indicate the
-    // partial score accumulated for this document so far.
-    // As each token in the query is processed, each document
-    // it indexes is added to this hashtable and its retrieval
-    // score (similarity to the query) is appropriately updated.
-    Map<DocumentReference, DoubleValue> retrievalHash =
-        new HashMap<DocumentReference, DoubleValue>();
+    // Get this thread's accumulator for storing the partial score of
+    // each retrieved document by document id.  As each token in the query
+    // is processed, the score (similarity to the query) of each document
+    // it indexes is appropriately updated.
+    beginRetrieval();
+    ScoreAccumulator accumulator = getAccumulator();
+    try {
+      // A full ranking is cached as the top Integer.MAX_VALUE documents
+      RetrievalCache.Key key = null;
+      if (cache != null) {
+        key = cache.key(vector, Integer.MAX_VALUE, scorer);
+        Retrieval[] cached = cache.get(key);
+        if (cached != null)
+          return cached;
+      }
+      double queryLength = incorporateQuery(vector, accumulator);
+      // Visit the retrieved documents in order of id so that documents with
+      // equal scores are always ranked the same way.
+      accumulator.sortTouched();
+      // Make an array to store the final ranked Retrievals, skipping any
+      // deleted documents.
+      Retrieval[] retrievals = new Retrieval[accumulator.numTouched];
+      int numRetrievals = 0;
+      for (int i = 0; i < accumulator.numTouched; i++) {
+        int docId = accumulator.touched[i];
+        if (deletedDocs.get(docId))
+          continue;
+        retrievals[numRetrievals++] = new Retrieval(docRefs.get(docId), getScore(queryLength, docId, accumulator));
+      }
+      if (numRetrievals < retrievals.length)
+        retrievals = Arrays.copyOf(retrievals, numRetrievals);
+      // Sort the retrievals to produce a final ranked list using the
+      // Comparator for retrievals that produces a best to worst ordering.
+      Arrays.sort(retrievals);
+      if (key != null)
+        cache.put(key, retrievals);
+      return retrievals;
+    }
+    finally {
+      accumulator.reset();
+      endRetrieval();
+    }
+  }
+
+  /**
+   * Perform ranked retrieval on this input query Document vector, returning
+   * only the best k documents in ranked order.  Rather than creating and sorting
+   * a Retrieval for every matching document, keeps the best k seen so far
+   * in a bounded heap, which takes O(n log k) time for n matching documents
+   * and creates only k Retrievals.
+   *
+   * @param vector The query vector.
+   * @param k      The maximum number of documents to retrieve.
+   */
+  public Retrieval[] retrieve(HashMapVector vector, int k) {
+    beginRetrieval();
+    ScoreAccumulator accumulator = getAccumulator();
+    try {
+      RetrievalCache.Key key = null;
+      if (cache != null) {
+        key = cache.key(vector, k, scorer);
+        Retrieval[] cached = cache.get(key);
+        if (cached != null)
+          return cached;
+      }
+      double queryLength = incorporateQuery(vector, accumulator);
+      // Offer each undeleted retrieved document to a heap holding the best k so far.
+      RetrievalHeap heap = new RetrievalHeap(Math.min(k, accumulator.numTouched));
+      for (int i = 0; i < accumulator.numTouched; i++) {
+        int docId = accumulator.touched[i];
+        if (!deletedDocs.get(docId))
+          heap.offer(docId, getScore(queryLength, docId, accumulator));
+      }
+      Retrieval[] retrievals = heap.retrievals(docRefs);
+      if (key != null)
+        cache.put(key, retrievals);
+      return retrievals;
+    }
+    finally {
+      accumulator.reset();
+      endRetrieval();
+    }
+  }
+
+  /**
+   * Perform ranked retrieval on this input query, returning only the best k documents.
+   */
+  public Retrieval[] retrieve(String input, int k) {
+    return retrieve(new TextStringDocument(input, stem, stopWords).hashMapVector(), k);
+  }
+
+  /**
+   * Retrieve the best k documents for each of a batch of query vectors,
+   * running the queries in parallel on queryExecutor.  Retrieval is safe
+   * to run concurrently, but a query waits while documents are being added
+   * or deleted, so a batch is best run against a snapshot().
+   *
+   * @param queries The query vectors.
+   * @param k       The maximum number of documents to retrieve per query.
+   * @return The ranked retrievals for each query, in the order of queries.
+   */
+  public List<Retrieval[]> retrieveAll(List<HashMapVector> queries, int k) {
+    return retrieveAll(queries, k, queryExecutor == null ? ForkJoinPool.commonPool() : queryExecutor);
+  }
+
+  /**
+   * Retrieve the best k documents for each of a batch of query vectors,
+   * running the queries in parallel on the given executor.
+   *
+   * @param queries  The query vectors.
+   * @param k        The maximum number of documents to retrieve per query.
+   * @param executor The executor to run the queries on.
+   * @return The ranked retrievals for each query, in the order of queries.
+   */
+  public List<Retrieval[]> retrieveAll(List<HashMapVector> queries, final int k, ExecutorService executor) {
+    List<Callable<Retrieval[]>> tasks = new ArrayList<Callable<Retrieval[]>>(queries.size());
+    for (final HashMapVector query : queries) {
+      tasks.add(new Callable<Retrieval[]>() {
+        public Retrieval[] call() {
+          return retrieve(query, k);
+        }
+      });
+    }
+    List<Retrieval[]> results = new ArrayList<Retrieval[]>(queries.size());
+    try {
+      // invokeAll returns the futures in the order of the tasks, once all are done
+      for (Future<Retrieval[]> future : executor.invokeAll(tasks))
+        results.add(future.get());
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while retrieving a batch of queries", e);
+    }
+    catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+    return results;
+  }
+
+  /**
+   * Retrieve the documents that contain the tokens of a phrase in order
+   * and next to one another, ranked by the cosine similarity of the
+   * phrase's tokens.  Requires an index built with positions.
+   */
+  public Retrieval[] retrievePhrase(String phrase) {
+    return retrievePhrase(phrase, 0);
+  }
+
+  /**
+   * Retrieve the documents that contain the tokens of a phrase in order
+   * with at most slop other tokens between each one and the next, ranked
+   * by the cosine similarity of the phrase's tokens.  Requires an index
+   * built with positions.
+   */
+  public Retrieval[] retrievePhrase(String phrase, int slop) {
+    return retrieve(new PhraseQuery(new TextStringDocument(phrase, stem, stopWords), slop));
+  }
+
+  /**
+   * Retrieve the documents that match a phrase query.  Documents are
+   * first intersected on their ids alone, so positions are only decoded
+   * for documents that contain every token of the phrase.
+   */
+  public Retrieval[] retrieve(PhraseQuery query) {
+    if (!positional)
+      throw new IllegalStateException("Phrase queries need an index built with positions");
+    beginRetrieval();
+    try {
+      return query.retrieve(this);
+    }
+    finally {
+      endRetrieval();
+    }
+  }
+
+  /**
+   * Retrieve the documents that match a Boolean query of AND, OR and NOT
+   * with parentheses, ranked by the cosine similarity of its terms.
+   *
+   * @throws IllegalArgumentException If the query is not well formed.
+   */
+  public Retrieval[] retrieveBoolean(String query) {
+    return retrieve(new BooleanQuery(query, stem, stopWords));
+  }
+
+  /**
+   * Retrieve the documents that match a Boolean query.  Conjunctions are
+   * evaluated by galloping through postings rather than by scoring every
+   * posting of every term.
+   */
+  public Retrieval[] retrieve(BooleanQuery query) {
+    beginRetrieval();
+    try {
+      return query.retrieve(this);
+    }
+    finally {
+      endRetrieval();
+    }
+  }
+
+  /**
+   * Return an immutable copy of this index as it is now, on which any
+   * number of threads can run retrievals without taking locks, unaffected
+   * by later changes to this index.
+   */
+  public IndexSnapshot snapshot() {
+    return new IndexSnapshot(this);
+  }
+
+  /**
+   * Retrieve the best k documents for this query vector document-at-a-time,
+   * using MaxScore dynamic pruning to skip documents whose upper bound score
+   * cannot beat the current k-th best.  Returns exactly the same ranking as
+   * retrieve(vector, k).  The bounds are for plain cosine similarity, so
+   * with any other scorer, and for queries with negative token weights,
+   * such as those from negative relevance feedback, this falls back to
+   * exhaustive retrieval.
+   *
+   * @param vector The query vector.
+   * @param k      The maximum number of documents to retrieve.
+   */
+  public Retrieval[] retrievePruned(HashMapVector vector, int k) {
+    if (k <= 0)
+      return new Retrieval[0];
+    beginRetrieval();
+    try {
+      // The heap needs no more room than there are documents
+      k = Math.min(k, docRefs.size());
+      MaxScoreEvaluator evaluator = new MaxScoreEvaluator();
+      if (!evaluator.init(this, vector))
+        return retrieve(vector, k);
+      return evaluator.retrieve(k);
+    }
+    finally {
+      endRetrieval();
+    }
+  }
+
+  /**
+   * Return the score accumulator for the current thread, emptied and large
+   * enough for every document in the index.  Accumulators are pooled per
+   * thread so the arrays are not reallocated for every query.
+   */
+  protected ScoreAccumulator getAccumulator() {
+    ScoreAccumulator accumulator = accumulators.get();
+    if (accumulator == null) {
+      accumulator = new ScoreAccumulator(docRefs.size());
+      accumulators.set(accumulator);
+    } else
+      accumulator.ensureCapacity(docRefs.size());
+    return accumulator;
+  }
+
+  /**
+   * Add the partial score of every document indexed by a token of the query
+   * vector to the accumulator.
+   *
+   * @return The length of the query vector.
+   */
+  protected double incorporateQuery(HashMapVector vector, ScoreAccumulator accumulator) {
+    accumulator.querySize = vector.size();
     // Initialize a variable to store the length of the query vector
     double queryLength = 0.0;
     // Iterate through each token in the query input Document
-    for (Map.Entry<String, Weight> entry : vector.entrySet()) {
-      String token = entry.getKey();
-      double count = entry.getValue().getValue();
+    for (int i = 0; i < vector.size(); i++) {
+      String token = vector.token(i);
+      double count = vector.weight(i);
       // Determine the score added to the similarity of each document
       // indexed under this token and update the length of the
       // query vector with the square of the weight for this token.
-      queryLength = queryLength + incorporateToken(token, count, retrievalHash);
+      queryLength = queryLength + incorporateToken(token, count, accumulator);
     }
     // Finalize the length of the query vector by taking the square-root of the
     // final sum of squares of its token weights.
-    queryLength = Math.sqrt(queryLength);
-    // Make an array to store the final ranked Retrievals.
-    Retrieval[] retrievals = new Retrieval[retrievalHash.size()];
-    // Iterate through each of the retrieved documents stored in
-    // the final retrievalHash.
-    int retrievalCount = 0;
-    for (Map.Entry<DocumentReference, DoubleValue> entry : retrievalHash.entrySet()) {
-      DocumentReference docRef = entry.getKey();
-      double score = entry.getValue().value;
-      retrievals[retrievalCount++] = getRetrieval(queryLength, docRef, score);
-    }
-    // Sort the retrievals to produce a final ranked list using the
-    // Comparator for retrievals that produces a best to worst ordering.
-    Arrays.sort(retrievals);
-    return retrievals;
+    return Math.sqrt(queryLength);
   }
 
   /**
@@ -312,10 +1349,36 @@ public class InvertedIndex {
    *     and score under the query with length queryLength
    */
   protected Retrieval getRetrieval(double queryLength, DocumentReference docRef, double score) {
-    // Normalize score for the lengths of the two document vectors
-    score = score / (queryLength * docRef.length);
     // Add a Retrieval for this document to the result array
-    return new Retrieval(docRef, score);
+    return new Retrieval(docRef, getScore(queryLength, docRef, score));
+  }
+
+  /**
+   * Calculate the final score for a retrieved document from its partially computed score.
+   *
+   * @param queryLength The length of the query vector, incorporated into the final score
+   * @param docRef The document reference for the document concerned
+   * @param score The partially computed score
+   * @return The final score of the document
+   */
+  protected double getScore(double queryLength, DocumentReference docRef, double score) {
+    // Normalize score for the lengths of the two document vectors
+    return score / (queryLength * docRef.length);
+  }
+
+  /**
+   * Calculate the final score for a retrieved document from the partial score
+   * in the accumulator with the scorer, which may also use other information
+   * gathered in the accumulator, such as the number of query tokens matched.
+   *
+   * @param queryLength The length of the query vector, incorporated into the final score
+   * @param docId The id of the document concerned
+   * @param accumulator The accumulator holding the partially computed scores
+   * @return The final score of the document
+   */
+  protected double getScore(double queryLength, int docId, ScoreAccumulator accumulator) {
+    return scorer.finalScore(docId, accumulator.scores[docId], queryLength,
+        accumulator.matches[docId], accumulator.querySize);
   }
 
 
@@ -333,31 +1396,65 @@ public class InvertedIndex {
   public double incorporateToken(String token, double count,
                                  Map<DocumentReference, DoubleValue> retrievalHash) {
     TokenInfo tokenInfo = tokenHash.get(token);
-    // If token is not in the index, it adds nothing and its squared weight is 0
+    // If token is not in the index it adds nothing and its squared weight is 0
     if (tokenInfo == null) return 0.0;
-    // The weight of a token in the query is is IDF factor times the number
-    // of times it occurs in the query.
-    double weight = tokenInfo.idf * count;
-    // For each document occurrence indexed for this token...
-    for (TokenOccurrence occ : tokenInfo.occList) {
+    // The weight of a token in the query, which for cosine similarity is
+    // its IDF factor times the number of times it occurs in the query.
+    // Cosine skips a token that occurs in every document with a weight of 0.
+    double weight = scorer.queryWeight(tokenInfo, count);
+    if (weight == 0.0) return 0.0;
+    double scale = scorer.scale(tokenInfo, weight);
+    // For each document posting indexed for this token...
+    PostingsCursor cursor = tokenInfo.cursor();
+    for (int docId = cursor.nextDoc(); docId != PostingsCursor.NO_MORE_DOCS; docId = cursor.nextDoc()) {
+      if (deletedDocs.get(docId))
+        continue;
+      DocumentReference docRef = docRefs.get(docId);
       // Get the current score for this document in the retrievalHash.
-      DoubleValue val = retrievalHash.get(occ.docRef);
+      DoubleValue val = retrievalHash.get(docRef);
       if (val == null) {
         // If this is a new retrieved document, create an initial score
         // for it and store in the retrievalHash
         val = new DoubleValue(0.0);
-        retrievalHash.put(occ.docRef, val);
+        retrievalHash.put(docRef, val);
       }
       // Update the score for this document by adding the product
       // of the weight of this token in the query and its weight
-      // in the retrieved document (IDF * occurrence count)
-      val.value = val.value + weight * tokenInfo.idf * occ.count;
+      // in the retrieved document (for cosine, IDF * occurrence count)
+      val.value = val.value + scorer.score(scale, docId, cursor.count());
     }
     // Return the square of the weight of this token in the query
     return weight * weight;
   }
 
 
+  /**
+   * Retrieve the documents indexed by this token in the inverted index and
+   * add its contribution to their scores in the accumulator.
+   *
+   * @param token       The token in the query to incorporate.
+   * @param count       The count of this token in the query.
+   * @param accumulator The accumulator of document scores, indexed by document id.
+   * @return The square of the weight of this token in the query vector for use
+   *         in calculating the length of the query vector.
+   */
+  public double incorporateToken(String token, double count, ScoreAccumulator accumulator) {
+    TokenInfo tokenInfo = tokenHash.get(token);
+    // If token is not in the index it adds nothing and its squared weight is 0
+    if (tokenInfo == null) return 0.0;
+    // The scorer weights the token in the query, 0 to skip it, and folds
+    // everything about the token into one scale for all its postings
+    double weight = scorer.queryWeight(tokenInfo, count);
+    if (weight == 0.0) return 0.0;
+    double scale = scorer.scale(tokenInfo, weight);
+    PostingsCursor cursor = tokenInfo.cursor();
+    for (int docId = cursor.nextDoc(); docId != PostingsCursor.NO_MORE_DOCS; docId = cursor.nextDoc()) {
+      accumulator.add(docId, scorer.score(scale, docId, cursor.count()));
+    }
+    // Return the square of the weight of this token in the query
+    return weight * weight;
+  }
+
   /**
    * Enter an interactive user-query loop, accepting queries and showing the retrieved
    * documents in ranked order.
@@ -372,8 +1469,29 @@ public class InvertedIndex {
       // If query is empty then exit the interactive loop
       if (query.equals(""))
         break;
+      // A query in double quotes is a phrase
+      PhraseQuery phraseQuery = positional ? PhraseQuery.parse(query, stem, stopWords) : null;
+      if (phraseQuery != null) {
+        presentRetrievals(phraseQuery.vector(), retrieve(phraseQuery));
+        continue;
+      }
+      // A query with AND, OR, NOT or parentheses is Boolean
+      if (BooleanQuery.isBoolean(query)) {
+        BooleanQuery booleanQuery;
+        Retrieval[] retrievals;
+        try {
+          booleanQuery = new BooleanQuery(query, stem, stopWords);
+          retrievals = retrieve(booleanQuery);
+        }
+        catch (IllegalArgumentException | UnsupportedOperationException e) {
+          System.out.println(e.getMessage());
+          continue;
+        }
+        presentRetrievals(booleanQuery.vector(), retrievals);
+        continue;
+      }
       // Get the ranked retrievals for this query string and present them
-      HashMapVector queryVector = (new TextStringDocument(query, stem)).hashMapVector();
+      HashMapVector queryVector = (new TextStringDocument(query, stem, stopWords)).hashMapVector();
       Retrieval[] retrievals = retrieve(queryVector);
       presentRetrievals(queryVector, retrievals);
     }
@@ -491,19 +1609,43 @@ public class InvertedIndex {
 
   /**
    * Index a directory of files and then interactively accept retrieval queries.
+   * A query with AND, OR, NOT or parentheses is run as a Boolean query.
    * Command format: "InvertedIndex [OPTION]* [DIR]" where DIR is the name of
    * the directory whose files should be indexed, and OPTIONs can be
    * "-html" to specify HTML files whose HTML tags should be removed.
    * "-stem" to specify tokens should be stemmed with Porter stemmer.
    * "-feedback" to allow relevance feedback from the user.
+   * "-save FILE" to save the index built from DIR to FILE.
+   * "-load FILE" to open an index saved in FILE instead of indexing a DIR.
+   * "-threads N" to index DIR with N threads.
+   * "-segments N" to index DIR into a SegmentedIndex flushing every N
+   * documents, which cannot be combined with -compact or -compactdocs.
+   * "-shards N" to index DIR into a ShardedIndex of N shards in this JVM.
+   * "-processes" with -shards to keep each shard in a separate process.
+   * "-compress CODEC" to compress the postings with CODEC ("vbyte" or "pfor").
+   * "-cache N" to cache the results of the last N distinct queries.
+   * "-compact" to keep the tokens in a compact sorted dictionary.
+   * "-compactdocs LENGTHS" to keep the documents in a compact table with
+   * their lengths as LENGTHS ("double", "float" or "byte").
+   * "-stopwords FILE" to remove the stopwords listed in FILE instead of the default ones.
+   * "-charset NAME" to decode the files with charset NAME instead of sniffing each one's.
+   * "-scorer NAME" to rank with NAME ("cosine", "bm25" or "coordination").
+   * "-positions" to index token positions, so a query in double quotes is a
+   * phrase, optionally followed by ~N to allow N tokens between its words.
    */
-  public static void main(String[] args) {
+  public static void main(String[] args) throws IOException {
     // Parse the arguments into a directory name and optional flag
 
-    String dirName = args[args.length - 1];
+    String dirName = null, saveName = null, loadName = null;
     short docType = DocumentIterator.TYPE_TEXT;
     boolean stem = false, feedback = false;
-    for (int i = 0; i < args.length - 1; i++) {
+    int numThreads = 1, maxBufferedDocs = 0, cacheEntries = 0, numShards = 0;
+    PostingsCodec codec = null;
+    boolean compact = false, positional = false, processes = false;
+    short lengthType = -1;
+    StopWordFilter stopWords = null;
+    Scorer scorer = null;
+    for (int i = 0; i < args.length; i++) {
       String flag = args[i];
       if (flag.equals("-html"))
         // Create HTMLFileDocuments to filter HTML tags
@@ -514,20 +1656,102 @@ public class InvertedIndex {
       else if (flag.equals("-feedback"))
         // Use relevance feedback
         feedback = true;
+      else if (flag.equals("-save"))
+        // Save the index after building it
+        saveName = args[++i];
+      else if (flag.equals("-load"))
+        // Serve queries from a previously saved index
+        loadName = args[++i];
+      else if (flag.equals("-threads"))
+        // Index the documents in parallel
+        numThreads = Integer.parseInt(args[++i]);
+      else if (flag.equals("-segments"))
+        // Index the documents into segments of this many documents
+        maxBufferedDocs = Integer.parseInt(args[++i]);
+      else if (flag.equals("-shards"))
+        // Split the documents across shards
+        numShards = Integer.parseInt(args[++i]);
+      else if (flag.equals("-processes"))
+        // Run each shard in a process of its own
+        processes = true;
+      else if (flag.equals("-compress"))
+        // Compress the postings to save memory
+        codec = PostingsCodec.forName(args[++i]);
+      else if (flag.equals("-compact"))
+        // Save memory on the token table
+        compact = true;
+      else if (flag.equals("-compactdocs"))
+        // Save memory on the document table
+        lengthType = DocumentTable.lengthTypeForName(args[++i]);
+      else if (flag.equals("-cache"))
+        // Cache the results of repeated queries
+        cacheEntries = Integer.parseInt(args[++i]);
+      else if (flag.equals("-stopwords"))
+        // Remove this list of stopwords
+        stopWords = StopWordFilter.load(new File(args[++i]));
+      else if (flag.equals("-scorer"))
+        // Rank with another scoring function
+        scorer = Scorer.forName(args[++i]);
+      else if (flag.equals("-positions"))
+        // Index token positions for phrase queries
+        positional = true;
+      else if (flag.equals("-charset"))
+        // Decode all the files with this charset
+        FileDocument.charset = Charset.forName(args[++i]);
+      else if (i == args.length - 1 && !flag.startsWith("-"))
+        dirName = flag;
       else {
         throw new IllegalArgumentException("Unknown flag: "+ flag);
       }
     }
+    // Reject what a SegmentedIndex cannot do before spending time indexing
+    if (maxBufferedDocs > 0 && (compact || lengthType >= 0))
+      throw new IllegalArgumentException("-segments cannot be combined with -compact or -compactdocs: " +
+          "a SegmentedIndex keeps its postings and exact document lengths in its segments");
 
-
-    // Create an inverted index for the files in the given directory.
-    InvertedIndex index = new InvertedIndex(new File(dirName), docType, stem, feedback);
+    InvertedIndex index;
+    if (loadName != null) {
+      // Open the saved index, no documents need to be read
+      index = open(new File(loadName).toPath());
+      index.feedback = feedback;
+      System.out.println("Opened index " + loadName + " with " + index.docRefs.size() +
+          " documents and " + index.size() + " unique terms.");
+    } else {
+      if (dirName == null)
+        throw new IllegalArgumentException("No directory to index");
+      // Create an inverted index for the files in the given directory.
+      if (numShards > 0)
+        index = new ShardedIndex(new File(dirName), docType, stem, feedback, numShards, stopWords,
+            processes ? new ArrayList<String>() : null);
+      else if (maxBufferedDocs > 0)
+        index = new SegmentedIndex(new File(dirName), docType, stem, feedback,
+            maxBufferedDocs, SegmentedIndex.DEFAULT_MERGE_FACTOR, stopWords);
+      else
+        index = new InvertedIndex(new File(dirName), docType, stem, feedback, numThreads, stopWords,
+            positional);
+      if (stem)
+        System.out.println(Document.stemCache());
+    }
+    if (saveName != null) {
+      index.save(new File(saveName).toPath());
+      System.out.println("Saved index to " + saveName);
+    }
+    if (codec != null)
+      index.compress(codec);
+    if (lengthType >= 0)
+      index.compactDocuments(lengthType);
+    if (compact)
+      index.compactDictionary();
+    if (scorer != null)
+      index.setScorer(scorer);
+    if (cacheEntries > 0)
+      index.cache = new RetrievalCache(cacheEntries, RetrievalCache.DEFAULT_MAX_BYTES);
     // index.print();
     // Interactively process queries to this index.
     index.processQueries();
+    if (index instanceof ShardedIndex)
+      ((ShardedIndex) index).close();
   }
 
 
 }
-
-   
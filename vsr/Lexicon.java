@@ -0,0 +1,109 @@
+package ir.vsr;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A dictionary that assigns each distinct term a small integer id, in the
+ * order terms are first seen, so that later stages can work with ints
+ * instead of hashing and comparing the same strings again.  A term is
+ * resolved once, when a document is tokenized (see
+ * Document.termVector), and strings are only needed again at the edges,
+ * for example to print a vector.  Ids are only meaningful within the
+ * process and the lexicon that assigned them.
+ * <p>
+ * Safe for use by any number of threads at once: looking up a known term
+ * takes no lock, and only adding a new term is synchronized.  A lexicon
+ * only grows, holding on to every term it has seen for as long as it is
+ * reachable, so code that resolves terms over and over, such as for each
+ * query, should use a lexicon of its own that goes away with its vectors.
+ * The SHARED lexicon is used by default so that vectors built by
+ * different parts of a program, such as the examples and models of the
+ * classifiers, agree on ids; it lives as long as the JVM unless cleared.
+ */
+public class Lexicon {
+
+  /**
+   * The lexicon shared by default by all documents and vectors
+   */
+  public static final Lexicon SHARED = new Lexicon();
+
+  /**
+   * The id of each term
+   */
+  protected final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+  /**
+   * The term with each id.  Only the first size elements are used, and
+   * the array is replaced rather than changed when it grows.
+   */
+  protected volatile String[] terms = new String[1024];
+
+  /**
+   * The number of terms
+   */
+  protected volatile int size = 0;
+
+  /**
+   * Return the id of a term, assigning it the next id if it is new.
+   */
+  public int id(String term) {
+    Integer id = ids.get(term);
+    if (id != null)
+      return id;
+    return add(term);
+  }
+
+  /**
+   * Return the id of a term, or -1 if it has never been seen.
+   */
+  public int lookup(String term) {
+    Integer id = ids.get(term);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * Assign a new term the next id.  The term is stored before its id is
+   * published, so any thread that finds the id can also find the term.
+   */
+  protected synchronized int add(String term) {
+    Integer id = ids.get(term);
+    if (id != null)
+      return id;
+    int newId = size;
+    if (newId == terms.length)
+      terms = Arrays.copyOf(terms, 2 * newId);
+    terms[newId] = term;
+    size = newId + 1;
+    ids.put(term, newId);
+    return newId;
+  }
+
+  /**
+   * Return the term with the given id.
+   */
+  public String term(int id) {
+    if (id < 0 || id >= size)
+      throw new IndexOutOfBoundsException("No term with id " + id);
+    return terms[id];
+  }
+
+  /**
+   * Forget every term, so that ids are assigned from 0 again.  Vectors and
+   * tables keyed by the old ids become meaningless, so only call this when
+   * none are still in use and no other thread is using the lexicon, for
+   * example between experiments that each build their own examples.
+   */
+  public synchronized void clear() {
+    ids.clear();
+    terms = new String[1024];
+    size = 0;
+  }
+
+  /**
+   * Return the number of terms
+   */
+  public int size() {
+    return size;
+  }
+}
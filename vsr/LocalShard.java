@@ -0,0 +1,225 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * A shard of a ShardedIndex kept in an InvertedIndex in this JVM.  Its
+ * documents get local ids in the order of their global ids, so among
+ * equal scores the shard ranks them as the whole collection would.
+ * <p>
+ * Once the collection statistics are installed, the token table of the
+ * shard holds every token of the collection, those that do not occur in
+ * the shard with no postings, with the IDF of the collection.  A query
+ * token missing from the shard then still counts towards the length of the
+ * query.  The table is rebuilt in the order the tokens first occur in the
+ * collection, which is the order a single index adds them to its HashMap,
+ * so the table iterates in the same order as that of a single index and
+ * each document length is summed in the same order, to the same double.
+ */
+public class LocalShard extends IndexShard {
+
+  /**
+   * The index of the documents of the shard
+   */
+  protected final ShardIndex index;
+
+  /**
+   * The global id of each document, by local id
+   */
+  protected int[] globalIds = new int[0];
+
+  /**
+   * Where each token first occurs in the shard, as in
+   * TermStatistics.firstOccurrences, until the collection statistics are
+   * installed
+   */
+  protected Map<String, Long> firstOccurrences = new HashMap<String, Long>();
+
+  /**
+   * Create an empty shard for documents of the given type.
+   *
+   * @param docType   The type of documents to index (See docType in DocumentIterator)
+   * @param stem      Whether tokens should be stemmed with Porter stemmer.
+   * @param stopWords The stopwords to remove, or null for the default list.
+   */
+  public LocalShard(short docType, boolean stem, StopWordFilter stopWords) {
+    index = new ShardIndex(docType, stem, stopWords);
+  }
+
+  public void index(List<File> files, int[] docIds) {
+    int start = globalIds.length;
+    globalIds = Arrays.copyOf(globalIds, start + files.size());
+    for (int i = 0; i < files.size(); i++) {
+      FileDocument doc = newDocument(files.get(i));
+      HashMapVector vector = doc.hashMapVector();
+      // Note where each token new to the shard first occurs
+      for (int j = 0; j < vector.size(); j++) {
+        String token = vector.token(j);
+        if (!index.tokenHash.containsKey(token))
+          firstOccurrences.put(token, ((long) docIds[i] << 32) | j);
+      }
+      globalIds[start + i] = docIds[i];
+      index.addDocument(doc, vector);
+    }
+  }
+
+  /**
+   * Create the document for a file, of the type of the index.
+   */
+  protected FileDocument newDocument(File file) {
+    switch (index.docType) {
+      case DocumentIterator.TYPE_HTML:
+        return new HTMLFileDocument(file, index.stem, index.stopWords);
+      default:
+        return new TextFileDocument(file, index.stem, index.stopWords);
+    }
+  }
+
+  public TermStatistics termStatistics() {
+    int size = index.tokenHash.size();
+    String[] tokens = new String[size];
+    int[] numDocs = new int[size];
+    long[] first = new long[size];
+    int i = 0;
+    for (Map.Entry<String, TokenInfo> entry : index.tokenHash.entrySet()) {
+      tokens[i] = entry.getKey();
+      numDocs[i] = entry.getValue().numDocs;
+      first[i] = firstOccurrences.get(entry.getKey());
+      i++;
+    }
+    return new TermStatistics(tokens, numDocs, first);
+  }
+
+  public double[] setCollectionStatistics(String[] tokens, double[] idf) {
+    index.installIDF(tokens, idf);
+    firstOccurrences = null;
+    return index.docLengths.clone();
+  }
+
+  /**
+   * Return the best k documents with MaxScore pruning, which ranks them
+   * exactly as exhaustive retrieval does.  A shard may have been given no
+   * documents at all, when there are more shards than documents.
+   */
+  public Hits search(HashMapVector vector, int k) {
+    if (k <= 0 || globalIds.length == 0)
+      return new Hits(new int[0], new double[0]);
+    RetrievalHeap heap = index.search(vector, k);
+    int[] docIds = new int[heap.size()];
+    double[] scores = new double[heap.size()];
+    heap.drain(docIds, scores);
+    for (int i = 0; i < docIds.length; i++)
+      docIds[i] = globalIds[docIds[i]];
+    return new Hits(docIds, scores);
+  }
+
+  public void close() {
+  }
+
+  public String toString() {
+    return "LocalShard: " + globalIds.length + " documents, " + index.size() + " tokens";
+  }
+
+  /**
+   * The InvertedIndex of a shard, which takes its IDF factors from the
+   * collection once they are installed
+   */
+  protected static class ShardIndex extends InvertedIndex {
+    /**
+     * Whether the IDF factors of the collection have been installed
+     */
+    protected boolean collectionIDF = false;
+
+    protected ShardIndex(short docType, boolean stem, StopWordFilter stopWords) {
+      this.docType = docType;
+      this.stem = stem;
+      this.stopWords = stopWords;
+    }
+
+    /**
+     * Index a document whose vector is already made.
+     */
+    protected void addDocument(FileDocument doc, HashMapVector vector) {
+      lock.writeLock().lock();
+      try {
+        indexDocument(doc, vector);
+        statsStale = true;
+      }
+      finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+    /**
+     * Replace the token table with one holding every token of the
+     * collection, in the given order, with the given IDF factors, and
+     * compute the document lengths and pruning bounds from them.
+     */
+    protected void installIDF(String[] tokens, double[] idf) {
+      lock.writeLock().lock();
+      try {
+        Map<String, TokenInfo> collection = new HashMap<String, TokenInfo>();
+        for (int i = 0; i < tokens.length; i++) {
+          TokenInfo tokenInfo = tokenHash.get(tokens[i]);
+          if (tokenInfo == null)
+            tokenInfo = new TokenInfo();
+          tokenInfo.idf = idf[i];
+          collection.put(tokens[i], tokenInfo);
+        }
+        tokenHash = collection;
+        collectionIDF = true;
+        computeIDFandDocumentLengths();
+        computeMaxScores();
+        statsStale = false;
+      }
+      finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+    /**
+     * The IDF of the collection, once installed.
+     */
+    protected double computeIDF(TokenInfo tokenInfo, double N) {
+      return collectionIDF ? tokenInfo.idf : super.computeIDF(tokenInfo, N);
+    }
+
+    /**
+     * Offer the documents that could be among the best k for the query
+     * vector to a heap of that size, by MaxScore if it applies, and
+     * return the heap.
+     */
+    protected RetrievalHeap search(HashMapVector vector, int k) {
+      beginRetrieval();
+      try {
+        k = Math.min(k, docRefs.size());
+        MaxScoreEvaluator evaluator = new MaxScoreEvaluator();
+        if (evaluator.init(this, vector)) {
+          RetrievalHeap heap = new RetrievalHeap(k);
+          evaluator.evaluate(heap);
+          return heap;
+        }
+        ScoreAccumulator accumulator = getAccumulator();
+        try {
+          double queryLength = incorporateQuery(vector, accumulator);
+          RetrievalHeap heap = new RetrievalHeap(Math.min(k, accumulator.numTouched));
+          for (int i = 0; i < accumulator.numTouched; i++) {
+            int docId = accumulator.touched[i];
+            if (!deletedDocs.get(docId))
+              heap.offer(docId, getScore(queryLength, docId, accumulator));
+          }
+          return heap;
+        }
+        finally {
+          accumulator.reset();
+        }
+      }
+      finally {
+        endRetrieval();
+      }
+    }
+  }
+}
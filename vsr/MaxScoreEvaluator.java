@@ -0,0 +1,249 @@
+package ir.vsr;
+
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * Document-at-a-time top-k evaluation of a query vector against an
+ * InvertedIndex using the MaxScore dynamic pruning algorithm of Turtle and
+ * Flood.  Each query token has a cursor into its doc-id sorted postings and
+ * an upper bound on what it can add to the cosine similarity of any
+ * document, from the maxScore of its TokenInfo.  Once the k-th best score
+ * found so far exceeds the summed bounds of the lowest bound tokens, those
+ * tokens become non-essential: candidates are only drawn from the postings
+ * of the remaining essential tokens (typically the rare ones), and the
+ * long postings of common tokens are only probed, by skipping ahead, for
+ * candidates still able to make the top k.  Since every document that could
+ * enter the top k is fully scored, with the same arithmetic as
+ * InvertedIndex.retrieve, the result is exactly that of exhaustive retrieval.
+ */
+public class MaxScoreEvaluator {
+
+  /**
+   * Relative slack allowed for rounding when comparing upper bounds to the
+   * threshold, so a document is never skipped because of a bound computed
+   * a few ulps too low.
+   */
+  protected static final double BOUND_SLACK = 1e-9;
+
+  /**
+   * The index being searched
+   */
+  protected InvertedIndex index;
+
+  /**
+   * The number of query tokens that occur in the index
+   */
+  protected int numTerms = 0;
+
+  /**
+   * A cursor into the postings of each query token, in query order
+   */
+  protected PostingsCursor[] cursors;
+
+  /**
+   * The factor multiplying a document's count for each query token
+   * (query weight times IDF) to give its partial score
+   */
+  protected double[] scales;
+
+  /**
+   * The upper bound on the final score contributed by each query token
+   */
+  protected double[] bounds;
+
+  /**
+   * The document each token's cursor is on, or PostingsCursor.NO_MORE_DOCS
+   * (Integer.MAX_VALUE) once it has passed all its postings
+   */
+  protected int[] docs;
+
+  /**
+   * The length of the query vector
+   */
+  protected double queryLength = 0.0;
+
+  /**
+   * Set up cursors for the tokens of the query vector.
+   *
+   * @return false if the query has a negative token weight, for which the
+   *         bounds do not hold, in which case the evaluator must not be used.
+   */
+  protected boolean init(InvertedIndex index, HashMapVector vector) {
+    return init(index, index.tokenHash, vector);
+  }
+
+  /**
+   * Set up cursors for the tokens of the query vector over the given
+   * postings, which may be only part of the index (such as one segment of
+   * a SegmentedIndex).  IDF factors and upper bounds still come from the
+   * TokenInfo's in the tokenHash of the index.
+   *
+   * @return false if the query has a negative token weight or the index
+   *         does not score by plain cosine similarity, for which the bounds
+   *         do not hold, in which case the evaluator must not be used.
+   */
+  protected boolean init(InvertedIndex index, Map<String, TokenInfo> postings, HashMapVector vector) {
+    if (index.scorer.getClass() != CosineScorer.class)
+      return false;
+    this.index = index;
+    int size = vector.size();
+    cursors = new PostingsCursor[size];
+    scales = new double[size];
+    bounds = new double[size];
+    docs = new int[size];
+    // Iterate through the query in the same order as InvertedIndex.retrieve
+    // so each document's partial score is summed in the same order.
+    for (int i = 0; i < vector.size(); i++) {
+      TokenInfo tokenInfo = index.tokenHash.get(vector.token(i));
+      // Tokens with an IDF of 0 add nothing, as in InvertedIndex.incorporateToken
+      if (tokenInfo == null || tokenInfo.idf == 0.0) continue;
+      double count = vector.weight(i);
+      if (count < 0)
+        return false;
+      double weight = tokenInfo.idf * count;
+      queryLength = queryLength + weight * weight;
+      TokenInfo tokenPostings = postings == index.tokenHash ? tokenInfo : postings.get(vector.token(i));
+      // The token still counts towards the query length without postings here
+      if (tokenPostings == null) continue;
+      cursors[numTerms] = tokenPostings.cursor();
+      scales[numTerms] = weight * tokenInfo.idf;
+      bounds[numTerms] = weight * tokenInfo.maxScore;
+      numTerms++;
+    }
+    queryLength = Math.sqrt(queryLength);
+    // Bounds are on the final score, which is normalized by the query length
+    for (int t = 0; t < numTerms; t++)
+      bounds[t] = bounds[t] / queryLength;
+    for (int t = 0; t < numTerms; t++)
+      docs[t] = cursors[t].nextDoc();
+    return true;
+  }
+
+  /**
+   * Return the best k documents for the query given to init, in ranked order.
+   */
+  protected Retrieval[] retrieve(int k) {
+    RetrievalHeap heap = new RetrievalHeap(k);
+    evaluate(heap);
+    return heap.retrievals(index.docRefs);
+  }
+
+  /**
+   * Offer every document that could rank among the best in the heap to it.
+   * The heap may already hold documents from other postings of the same
+   * index, whose k-th best score lets more documents be skipped.
+   */
+  protected void evaluate(RetrievalHeap heap) {
+    // A heap with room for no documents has no threshold to compare with
+    if (numTerms == 0 || queryLength == 0.0 || heap.capacity() == 0)
+      return;
+    // Sort the tokens by increasing upper bound, and sum the bounds so that
+    // cumulativeBounds[i] bounds the score from the i+1 lowest bound tokens
+    Integer[] sorted = new Integer[numTerms];
+    for (int t = 0; t < numTerms; t++)
+      sorted[t] = t;
+    Arrays.sort(sorted, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return Double.compare(bounds[a], bounds[b]);
+      }
+    });
+    int[] byBound = new int[numTerms];
+    double[] cumulativeBounds = new double[numTerms];
+    double sum = 0.0;
+    for (int i = 0; i < numTerms; i++) {
+      byBound[i] = sorted[i];
+      sum += bounds[byBound[i]];
+      cumulativeBounds[i] = sum;
+    }
+    // Tokens byBound[0..numNonEssential-1] are non-essential: a document
+    // containing only them cannot beat the threshold.
+    int numNonEssential = 0;
+    while (true) {
+      double threshold = heap.isFull() ? heap.minScore() * (1 - BOUND_SLACK) : Double.NEGATIVE_INFINITY;
+      while (numNonEssential < numTerms && cumulativeBounds[numNonEssential] <= threshold)
+        numNonEssential++;
+      // No remaining document can make it into the top k
+      if (numNonEssential == numTerms)
+        break;
+      // The next candidate is the next document of any essential token
+      int candidate = PostingsCursor.NO_MORE_DOCS;
+      for (int i = numNonEssential; i < numTerms; i++) {
+        if (docs[byBound[i]] < candidate)
+          candidate = docs[byBound[i]];
+      }
+      if (candidate == PostingsCursor.NO_MORE_DOCS)
+        break;
+      if (index.deletedDocs.get(candidate)) {
+        // Deleted documents are never retrieved, so just move past it
+        nextEssential(numNonEssential, byBound, candidate);
+        continue;
+      }
+      double normalizer = queryLength * index.docLengths[candidate];
+      // Score the candidate with the essential tokens
+      double estimate = 0.0;
+      for (int i = numNonEssential; i < numTerms; i++) {
+        int t = byBound[i];
+        if (docs[t] == candidate)
+          estimate += scales[t] * cursors[t].count() / normalizer;
+      }
+      // Add in the non-essential tokens from highest to lowest bound, giving
+      // up as soon as what is left cannot lift it over the threshold
+      boolean competitive = true;
+      for (int i = numNonEssential - 1; i >= 0; i--) {
+        if (estimate + cumulativeBounds[i] <= threshold) {
+          competitive = false;
+          break;
+        }
+        int t = byBound[i];
+        if (docs[t] < candidate)
+          advance(t, candidate);
+        if (docs[t] == candidate)
+          estimate += scales[t] * cursors[t].count() / normalizer;
+      }
+      if (competitive)
+        heap.offer(candidate, score(candidate));
+      nextEssential(numNonEssential, byBound, candidate);
+    }
+  }
+
+  /**
+   * Move the cursors of the essential tokens on the candidate document to
+   * their next posting.
+   */
+  protected void nextEssential(int numNonEssential, int[] byBound, int candidate) {
+    for (int i = numNonEssential; i < numTerms; i++) {
+      if (docs[byBound[i]] == candidate)
+        next(byBound[i]);
+    }
+  }
+
+  /**
+   * Compute the final score of a document on which some cursors sit, summing
+   * token contributions in query order exactly as InvertedIndex.retrieve does.
+   */
+  protected double score(int docId) {
+    double score = 0.0;
+    for (int t = 0; t < numTerms; t++) {
+      if (docs[t] == docId)
+        score += scales[t] * cursors[t].count();
+    }
+    return score / (queryLength * index.docLengths[docId]);
+  }
+
+  /**
+   * Move the cursor of token t to its next posting.
+   */
+  protected void next(int t) {
+    docs[t] = cursors[t].nextDoc();
+  }
+
+  /**
+   * Move the cursor of token t to its first posting for a document at or
+   * after target, skipping blocks of compressed postings and galloping.
+   */
+  protected void advance(int t, int target) {
+    docs[t] = cursors[t].advance(target);
+  }
+}
@@ -0,0 +1,108 @@
+package ir.vsr;
+
+import java.io.*;
+
+/**
+ * Patched frame-of-reference (PFor) encoding of a block of values.  Every
+ * value of the block is packed into the same number of bits b, chosen so
+ * that the block is smallest; the few values too large for b bits are
+ * exceptions, whose low b bits are packed with the rest and whose high bits
+ * are patched in afterwards from a list of (position, high bits) pairs.
+ * A block is laid out as a byte holding b, a byte holding the number of
+ * exceptions, the packed values (low bit first) and then the exceptions,
+ * each a position byte followed by its high bits as a variable-byte integer.
+ * Blocks must hold at most 255 values.
+ */
+public class PForCodec extends PostingsCodec {
+
+  public String name() {
+    return "pfor";
+  }
+
+  public void encode(int[] values, int n, ByteArrayOutputStream out) {
+    int bits = bestBits(values, n);
+    int numExceptions = 0;
+    for (int i = 0; i < n; i++) {
+      if (bits < 32 && (values[i] >>> bits) != 0)
+        numExceptions++;
+    }
+    out.write(bits);
+    out.write(numExceptions);
+    // Pack the low bits of every value, low order bits first
+    long buffer = 0;
+    int buffered = 0;
+    long mask = (1L << bits) - 1;
+    for (int i = 0; i < n; i++) {
+      buffer |= (values[i] & mask) << buffered;
+      buffered += bits;
+      while (buffered >= 8) {
+        out.write((int) buffer & 0xFF);
+        buffer >>>= 8;
+        buffered -= 8;
+      }
+    }
+    if (buffered > 0)
+      out.write((int) buffer & 0xFF);
+    // Then the high bits of the exceptions
+    for (int i = 0; i < n && numExceptions > 0; i++) {
+      if (bits < 32 && (values[i] >>> bits) != 0) {
+        out.write(i);
+        writeVByte(values[i] >>> bits, out);
+      }
+    }
+  }
+
+  /**
+   * Return the number of bits per packed value that makes the encoding of
+   * the block smallest, counting the bytes taken by exceptions.
+   */
+  protected int bestBits(int[] values, int n) {
+    int bestBits = 32;
+    long bestSize = Long.MAX_VALUE;
+    for (int bits = 0; bits <= 32; bits++) {
+      long size = (n * (long) bits + 7) / 8;
+      if (bits < 32) {
+        for (int i = 0; i < n && size < bestSize; i++) {
+          int high = values[i] >>> bits;
+          if (high != 0)
+            size += 1 + vByteLength(high);
+        }
+      }
+      if (size < bestSize) {
+        bestSize = size;
+        bestBits = bits;
+      }
+    }
+    return bestBits;
+  }
+
+  public int decode(byte[] data, int offset, int[] values, int n) {
+    int bits = data[offset++] & 0xFF;
+    int numExceptions = data[offset++] & 0xFF;
+    // Unpack the low bits of every value
+    long buffer = 0;
+    int buffered = 0;
+    long mask = (1L << bits) - 1;
+    for (int i = 0; i < n; i++) {
+      while (buffered < bits) {
+        buffer |= (long) (data[offset++] & 0xFF) << buffered;
+        buffered += 8;
+      }
+      values[i] = (int) (buffer & mask);
+      buffer >>>= bits;
+      buffered -= bits;
+    }
+    // Patch in the high bits of the exceptions
+    for (int e = 0; e < numExceptions; e++) {
+      int i = data[offset++] & 0xFF;
+      int b = data[offset++];
+      int high = b & 0x7F;
+      for (int shift = 7; b < 0; shift += 7) {
+        b = data[offset++];
+        high |= (b & 0x7F) << shift;
+      }
+      values[i] |= high << bits;
+    }
+    return offset;
+  }
+}
@@ -0,0 +1,243 @@
+package ir.vsr;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import ir.utilities.*;
+
+/**
+ * Builds an InvertedIndex for a directory of documents on several cores at
+ * once using a fork-join pool.  The files of a DocumentIterator are split
+ * into ranges, each range is read, tokenized and indexed into a partial
+ * index with its own token map, and partial indices are merged back in file
+ * order, so every document gets the same id and every posting list the same
+ * order as when indexing sequentially.  The IDF factors and document vector
+ * lengths are then also computed in parallel.
+ */
+class ParallelIndexBuilder {
+
+  /**
+   * The maximum number of documents tokenized by a single task
+   */
+  static final int DOCS_PER_TASK = 8;
+
+  /**
+   * The index being built
+   */
+  protected InvertedIndex index;
+
+  /**
+   * The source of the documents to index
+   */
+  protected DocumentIterator docIter;
+
+  /**
+   * The pool whose threads do the work
+   */
+  protected ForkJoinPool pool;
+
+  /**
+   * Create a builder that fills the given empty index with the documents
+   * from docIter using numThreads threads.
+   */
+  ParallelIndexBuilder(InvertedIndex index, DocumentIterator docIter, int numThreads) {
+    this.index = index;
+    this.docIter = docIter;
+    this.pool = new ForkJoinPool(numThreads);
+  }
+
+  /**
+   * Index all the documents and compute IDF factors and document lengths.
+   */
+  void build() {
+    try {
+      PartialIndex partial = pool.invoke(new TokenizeTask(0, docIter.numberOfDocuments()));
+      // Install the merged partial index in the same order a sequential build
+      // would have added documents and tokens.
+      index.docRefs.addAll(partial.docRefs);
+      for (Map.Entry<String, TokenInfo> entry : partial.tokenHash.entrySet())
+        index.tokenHash.put(entry.getKey(), entry.getValue());
+      computeIDFandDocumentLengths();
+      index.computeMaxScores();
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Parallel version of InvertedIndex.computeIDFandDocumentLengths.  Sums each
+   * document length over tokens in the same order as the sequential version
+   * so the resulting lengths are identical.
+   */
+  protected void computeIDFandDocumentLengths() {
+    // Compute the IDF of every token in parallel
+    TokenInfo[] tokenInfos = index.tokenHash.values().toArray(new TokenInfo[0]);
+    pool.invoke(new IDFTask(tokenInfos, 0, tokenInfos.length, index.docRefs.size()));
+    // Sum the squared token weights of each document, splitting the
+    // documents into disjoint id ranges so each task owns its lengths.
+    // Tokens whose IDF is 0 add nothing but are kept, as in the sequential
+    // version, for documents added later.
+    double[] lengths = new double[index.docRefs.size()];
+    int grain = Math.max(64, lengths.length / (8 * pool.getParallelism()));
+    pool.invoke(new LengthTask(tokenInfos, lengths, 0, lengths.length, grain));
+    for (int docId = 0; docId < lengths.length; docId++) {
+      index.setDocumentLength(docId, Math.sqrt(lengths[docId]));
+    }
+  }
+
+  /**
+   * The documents and token postings for a contiguous range of files,
+   * with document ids relative to the start of the range.
+   */
+  static class PartialIndex {
+    /**
+     * The documents indexed, in file order
+     */
+    List<DocumentReference> docRefs = new ArrayList<DocumentReference>();
+    /**
+     * The postings of each token, in order of first occurrence
+     */
+    LinkedHashMap<String, TokenInfo> tokenHash = new LinkedHashMap<String, TokenInfo>();
+
+    /**
+     * Add a document and the tokens in its vector to this partial index,
+     * along with their positions if it is a PositionalVector.
+     */
+    void indexDocument(FileDocument doc, HashMapVector vector) {
+      int docId = docRefs.size();
+      docRefs.add(new DocumentReference(doc));
+      PositionalVector positions = vector instanceof PositionalVector ? (PositionalVector) vector : null;
+      for (int i = 0; i < vector.size(); i++) {
+        TokenInfo tokenInfo = tokenHash.get(vector.token(i));
+        if (tokenInfo == null) {
+          tokenInfo = new TokenInfo();
+          tokenHash.put(vector.token(i), tokenInfo);
+        }
+        if (positions != null)
+          tokenInfo.addOccurrence(docId, positions.positions(i), (int) vector.weight(i));
+        else
+          tokenInfo.addOccurrence(docId, (int) vector.weight(i));
+      }
+    }
+
+    /**
+     * Destructively append the partial index for the files that directly
+     * follow this one, shifting its document ids past this one's.
+     */
+    void append(PartialIndex other) {
+      int offset = docRefs.size();
+      docRefs.addAll(other.docRefs);
+      for (Map.Entry<String, TokenInfo> entry : other.tokenHash.entrySet()) {
+        TokenInfo otherInfo = entry.getValue();
+        TokenInfo tokenInfo = tokenHash.get(entry.getKey());
+        if (tokenInfo == null) {
+          // New token, so just renumber its postings in place and take them
+          for (int i = 0; i < otherInfo.numDocs; i++)
+            otherInfo.docIds[i] += offset;
+          tokenHash.put(entry.getKey(), otherInfo);
+        } else
+          tokenInfo.append(otherInfo, offset);
+      }
+    }
+  }
+
+  /**
+   * Reads, tokenizes and indexes the files in a range, splitting it in half
+   * until it is small enough.
+   */
+  @SuppressWarnings("serial")
+  class TokenizeTask extends RecursiveTask<PartialIndex> {
+    int start, end;
+
+    TokenizeTask(int start, int end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    protected PartialIndex compute() {
+      if (end - start <= DOCS_PER_TASK) {
+        PartialIndex partial = new PartialIndex();
+        for (int i = start; i < end; i++) {
+          FileDocument doc = docIter.getDocument(i);
+          partial.indexDocument(doc, index.positional ? doc.positionalVector() : doc.hashMapVector());
+        }
+        return partial;
+      }
+      int middle = (start + end) >>> 1;
+      TokenizeTask right = new TokenizeTask(middle, end);
+      right.fork();
+      PartialIndex partial = new TokenizeTask(start, middle).compute();
+      // Merging left then right keeps documents in file order
+      partial.append(right.join());
+      return partial;
+    }
+  }
+
+  /**
+   * Computes the IDF factor for a range of tokens.
+   */
+  @SuppressWarnings("serial")
+  static class IDFTask extends RecursiveAction {
+    TokenInfo[] tokenInfos;
+    int start, end;
+    double N;
+
+    IDFTask(TokenInfo[] tokenInfos, int start, int end, double N) {
+      this.tokenInfos = tokenInfos;
+      this.start = start;
+      this.end = end;
+      this.N = N;
+    }
+
+    protected void compute() {
+      if (end - start <= 1024) {
+        for (int i = start; i < end; i++) {
+          TokenInfo tokenInfo = tokenInfos[i];
+          tokenInfo.idf = Math.log(N / tokenInfo.numDocs);
+          tokenInfo.trimToSize();
+        }
+        return;
+      }
+      int middle = (start + end) >>> 1;
+      invokeAll(new IDFTask(tokenInfos, start, middle, N), new IDFTask(tokenInfos, middle, end, N));
+    }
+  }
+
+  /**
+   * Sums the squared token weights of the documents in a range of ids.
+   */
+  @SuppressWarnings("serial")
+  static class LengthTask extends RecursiveAction {
+    TokenInfo[] tokenInfos;
+    double[] lengths;
+    int start, end, grain;
+
+    LengthTask(TokenInfo[] tokenInfos, double[] lengths, int start, int end, int grain) {
+      this.tokenInfos = tokenInfos;
+      this.lengths = lengths;
+      this.start = start;
+      this.end = end;
+      this.grain = grain;
+    }
+
+    protected void compute() {
+      if (end - start <= grain) {
+        for (TokenInfo tokenInfo : tokenInfos) {
+          // Postings are sorted by doc id, so find the first one in range
+          int i = Arrays.binarySearch(tokenInfo.docIds, 0, tokenInfo.numDocs, start);
+          if (i < 0)
+            i = -i - 1;
+          for (; i < tokenInfo.numDocs && tokenInfo.docIds[i] < end; i++) {
+            double weight = tokenInfo.idf * tokenInfo.counts[i];
+            lengths[tokenInfo.docIds[i]] += weight * weight;
+          }
+        }
+        return;
+      }
+      int middle = (start + end) >>> 1;
+      invokeAll(new LengthTask(tokenInfos, lengths, start, middle, grain),
+          new LengthTask(tokenInfos, lengths, middle, end, grain));
+    }
+  }
+}
@@ -0,0 +1,265 @@
+package ir.vsr;
+
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * A phrase or proximity query evaluated against a positional
+ * InvertedIndex.  A document matches if it contains the tokens of the
+ * phrase in order, each following the one before it at the same distance
+ * as in the phrase plus at most slop more positions, so a slop of 0 asks
+ * for the exact phrase.  Since positions count removed stopwords, a phrase
+ * only matches where its stopwords were too.
+ * <p>
+ * Evaluation is in two steps.  First the postings of the tokens are
+ * intersected on document ids alone, rarest token first, each other cursor
+ * galloping ahead to the document the rarest one is on, so whole blocks of
+ * postings that cannot match are skipped.  Only then are positions decoded,
+ * for the documents in the intersection, token by token in phrase order
+ * and stopping at the first token that no longer continues any partial
+ * match, so most documents that fail are rejected after decoding the
+ * positions of just two tokens.  Matches are ranked by the index's scorer
+ * on the phrase's tokens taken as a bag of words.
+ */
+public class PhraseQuery {
+
+  /**
+   * The tokens of the phrase, in order
+   */
+  protected final String[] tokens;
+
+  /**
+   * The position of each token in the phrase, relative to the first
+   */
+  protected final int[] offsets;
+
+  /**
+   * The number of extra positions allowed between each token and the next
+   */
+  protected final int slop;
+
+  /**
+   * Create a phrase query from the tokens of a document and their positions.
+   *
+   * @param doc  The phrase, as a document that has not been read.
+   * @param slop The number of extra positions allowed between each token
+   *             and the next, 0 for an exact phrase.
+   */
+  public PhraseQuery(Document doc, int slop) {
+    if (slop < 0)
+      throw new IllegalArgumentException("Negative slop: " + slop);
+    List<String> tokenList = new ArrayList<String>();
+    List<Integer> positionList = new ArrayList<Integer>();
+    while (doc.hasMoreTokens()) {
+      tokenList.add(doc.nextToken());
+      positionList.add(doc.position());
+    }
+    tokens = tokenList.toArray(new String[0]);
+    offsets = new int[tokens.length];
+    for (int i = 0; i < tokens.length; i++)
+      offsets[i] = positionList.get(i) - positionList.get(0);
+    this.slop = slop;
+  }
+
+  /**
+   * Parse a query typed as a phrase in double quotes, optionally followed
+   * by ~N to allow N extra positions between its tokens.  Return null if
+   * the query is not of that form.
+   */
+  public static PhraseQuery parse(String query, boolean stem, StopWordFilter stopWords) {
+    query = query.trim();
+    int close = query.lastIndexOf('"');
+    if (!query.startsWith("\"") || close <= 0)
+      return null;
+    int slop = 0;
+    String rest = query.substring(close + 1).trim();
+    if (rest.startsWith("~")) {
+      try {
+        slop = Integer.parseInt(rest.substring(1).trim());
+      }
+      catch (NumberFormatException e) {
+        return null;
+      }
+      if (slop < 0)
+        return null;
+    } else if (!rest.isEmpty())
+      return null;
+    return new PhraseQuery(new TextStringDocument(query.substring(1, close), stem, stopWords), slop);
+  }
+
+  /**
+   * Return the tokens of the phrase as a bag of words, as used for ranking.
+   */
+  public HashMapVector vector() {
+    HashMapVector vector = new HashMapVector();
+    for (String token : tokens)
+      vector.increment(token);
+    return vector;
+  }
+
+  /**
+   * Return the undeleted documents of the index that match the phrase in
+   * ranked order.  The caller must hold the index's read lock.
+   */
+  protected Retrieval[] retrieve(InvertedIndex index) {
+    int n = tokens.length;
+    if (n == 0)
+      return new Retrieval[0];
+    TokenInfo[] tokenInfos = new TokenInfo[n];
+    PostingsCursor[] cursors = new PostingsCursor[n];
+    // The scale of each token, 0 for a repeated token so it is counted
+    // once, the squared length of the query vector and the number of
+    // tokens that are scored
+    Scorer scorer = index.scorer;
+    double[] scales = new double[n];
+    double queryLength = 0.0;
+    int numScored = 0;
+    HashMapVector vector = vector();
+    for (int i = 0; i < n; i++) {
+      TokenInfo tokenInfo = index.tokenHash.get(tokens[i]);
+      // A token that is not indexed matches no document
+      if (tokenInfo == null || tokenInfo.numDocs == 0)
+        return new Retrieval[0];
+      if (tokenInfo.positions == null)
+        throw new IllegalStateException("Positions of " + tokens[i] + " are not indexed");
+      tokenInfos[i] = tokenInfo;
+      cursors[i] = tokenInfo.cursor();
+      double weight = 0.0;
+      if (indexOf(tokens[i]) == i)
+        weight = scorer.queryWeight(tokenInfo, vector.getWeight(tokens[i]));
+      if (weight != 0.0) {
+        scales[i] = scorer.scale(tokenInfo, weight);
+        queryLength += weight * weight;
+        numScored++;
+      }
+    }
+    queryLength = Math.sqrt(queryLength);
+    // Intersect the postings in order of increasing document frequency
+    Integer[] order = new Integer[n];
+    for (int i = 0; i < n; i++)
+      order[i] = i;
+    final TokenInfo[] infos = tokenInfos;
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return infos[a].numDocs - infos[b].numDocs;
+      }
+    });
+    PostingsCursor lead = cursors[order[0]];
+    PositionMatcher matcher = new PositionMatcher();
+    List<Retrieval> retrievals = new ArrayList<Retrieval>();
+    int doc = lead.nextDoc();
+    while (doc != PostingsCursor.NO_MORE_DOCS) {
+      // Move every other cursor to the document, or past it if it is
+      // missing there, in which case the lead catches up to that cursor
+      int i = 1;
+      for (; i < n; i++) {
+        int other = cursors[order[i]].advance(doc);
+        if (other > doc) {
+          doc = lead.advance(other);
+          break;
+        }
+      }
+      if (i < n)
+        continue;
+      if (!index.deletedDocs.get(doc) && matcher.matches(tokenInfos, cursors)) {
+        double score = 0.0;
+        for (int j = 0; j < n; j++) {
+          if (scales[j] != 0.0)
+            score += scorer.score(scales[j], doc, cursors[j].count());
+        }
+        DocumentReference docRef = index.docRefs.get(doc);
+        if (score != 0.0)
+          score = scorer.finalScore(doc, score, queryLength, numScored, vector.size());
+        retrievals.add(new Retrieval(docRef, score));
+      }
+      doc = lead.nextDoc();
+    }
+    Retrieval[] ranked = retrievals.toArray(new Retrieval[0]);
+    Arrays.sort(ranked);
+    return ranked;
+  }
+
+  /**
+   * Return the index of the first occurrence of the token in the phrase.
+   */
+  protected int indexOf(String token) {
+    int i = 0;
+    while (!tokens[i].equals(token))
+      i++;
+    return i;
+  }
+
+  public String toString() {
+    StringBuilder phrase = new StringBuilder("\"");
+    for (int i = 0; i < tokens.length; i++) {
+      if (i > 0)
+        phrase.append(' ');
+      phrase.append(tokens[i]);
+    }
+    phrase.append('"');
+    if (slop > 0)
+      phrase.append('~').append(slop);
+    return phrase.toString();
+  }
+
+  /**
+   * Checks the positions of the tokens in the document all the cursors
+   * are on, reusing its buffers from one document to the next.
+   */
+  protected class PositionMatcher {
+    /**
+     * The decoded positions of the current token
+     */
+    int[] decoded = new int[16];
+
+    /**
+     * The positions where a partial match of the phrase ends at the
+     * previous token, in increasing order
+     */
+    int[] reachable = new int[16];
+
+    /**
+     * The positions where a partial match ends at the current token
+     */
+    int[] next = new int[16];
+
+    /**
+     * Return whether the phrase occurs in the current document.  Each
+     * token's positions are merged with the ends of the partial matches up
+     * to the token before it, keeping those that continue one.  Both lists
+     * are sorted, so the smallest partial match that a position is not too
+     * far past only moves forward and the merge is linear.
+     */
+    boolean matches(TokenInfo[] tokenInfos, PostingsCursor[] cursors) {
+      // A single token matches wherever it occurs
+      if (tokens.length == 1)
+        return true;
+      int numReachable = cursors[0].count();
+      reachable = tokenInfos[0].getPositions(cursors[0].index(), numReachable, reachable);
+      for (int i = 1; i < tokens.length; i++) {
+        int count = cursors[i].count();
+        decoded = tokenInfos[i].getPositions(cursors[i].index(), count, decoded);
+        if (next.length < count)
+          next = new int[decoded.length];
+        int gap = offsets[i] - offsets[i - 1];
+        int numNext = 0, j = 0;
+        for (int k = 0; k < count && j < numReachable; k++) {
+          int position = decoded[k];
+          // Skip the partial matches too far behind to be continued here
+          while (j < numReachable && reachable[j] + gap + slop < position)
+            j++;
+          if (j < numReachable && reachable[j] + gap <= position)
+            next[numNext++] = position;
+        }
+        if (numNext == 0)
+          return false;
+        int[] swap = reachable;
+        reachable = next;
+        next = swap;
+        numReachable = numNext;
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package ir.vsr;
+
+import java.util.*;
+
+/**
+ * The open-addressed hash table, probed linearly, that a SparseVector or
+ * TermVector uses to find the position of a key in its parallel arrays.
+ * The vector keeps its keys and a hash code for each; the table only
+ * holds positions, and the vector compares its key at each position probed,
+ * from the first slot for the hash code on, until it finds the key or an
+ * empty slot, where a new key goes.  Only the keys differ between vectors,
+ * so the probe sequence, the sizing and the rehashing are all here.
+ * The length of the table is a power of 2 at least twice the capacity of
+ * the vector, so it is never more than half full and a probe for a
+ * missing key soon reaches an empty slot.
+ */
+public class PositionTable {
+
+  /**
+   * The position of a key plus 1 in each slot, with 0 for an empty slot
+   */
+  protected int[] slots;
+
+  /**
+   * Create an empty table for a vector with the given capacity
+   */
+  public PositionTable(int capacity) {
+    slots = new int[tableSize(capacity)];
+  }
+
+  /**
+   * Return the first slot to probe for a key with the given hash code.
+   */
+  public int first(int hash) {
+    return spread(hash) & (slots.length - 1);
+  }
+
+  /**
+   * Return the slot to probe after the given one.
+   */
+  public int next(int slot) {
+    return (slot + 1) & (slots.length - 1);
+  }
+
+  /**
+   * Return the position held in a slot, or -1 if the slot is empty.
+   */
+  public int position(int slot) {
+    return slots[slot] - 1;
+  }
+
+  /**
+   * Put a position in an empty slot.
+   */
+  public void put(int slot, int position) {
+    slots[slot] = position + 1;
+  }
+
+  /**
+   * Make the table big enough for the given capacity and put back the
+   * positions of the first size keys, given their hash codes.
+   */
+  public void resize(int capacity, int[] hashes, int size) {
+    slots = new int[tableSize(capacity)];
+    for (int i = 0; i < size; i++) {
+      int slot = first(hashes[i]);
+      while (slots[slot] != 0)
+        slot = next(slot);
+      slots[slot] = i + 1;
+    }
+  }
+
+  /**
+   * Empty every slot
+   */
+  public void clear() {
+    Arrays.fill(slots, 0);
+  }
+
+  /**
+   * Return a copy of this table with its own slots
+   */
+  public PositionTable copy() {
+    PositionTable result = new PositionTable(0);
+    result.slots = slots.clone();
+    return result;
+  }
+
+  /**
+   * Return the table size for a capacity: the smallest power of 2 at
+   * least twice it.
+   */
+  protected static int tableSize(int capacity) {
+    return Integer.highestOneBit(Math.max(2 * capacity - 1, 1)) << 1;
+  }
+
+  /**
+   * Mix the high bits of a hash code into the low bits used for a slot,
+   * which also spreads out small consecutive ints such as term ids.
+   */
+  protected static int spread(int hash) {
+    int h = hash * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,54 @@
+package ir.vsr;
+
+import java.util.*;
+
+/**
+ * A HashMapVector of the occurrence counts of the tokens of a document
+ * that also keeps the positions where each token occurs, as produced by
+ * Document.positionalVector for a positional InvertedIndex.  The positions
+ * of the ith token are kept in increasing order and the weight of the
+ * token is their number.  Only addOccurrence keeps the two in step, so
+ * the weights should not be changed otherwise; a copy is an ordinary
+ * HashMapVector without the positions.
+ */
+public class PositionalVector extends HashMapVector {
+
+  /**
+   * The positions of each token, by the position of the token in the
+   * vector.  Only the first weight(i) positions of the ith token are used.
+   */
+  protected int[][] positions = new int[INITIAL_CAPACITY][];
+
+  /**
+   * Add an occurrence of the token at the given position, which must
+   * follow any other position already added for it.
+   */
+  public void addOccurrence(String token, int position) {
+    int count = (int) increment(token);
+    int i = find(token);
+    if (i >= positions.length)
+      positions = Arrays.copyOf(positions, Math.max(tokens.length, i + 1));
+    int[] tokenPositions = positions[i];
+    if (tokenPositions == null)
+      positions[i] = tokenPositions = new int[2];
+    else if (count > tokenPositions.length)
+      positions[i] = tokenPositions = Arrays.copyOf(tokenPositions, 2 * tokenPositions.length);
+    tokenPositions[count - 1] = position;
+  }
+
+  /**
+   * Return the positions of the ith token, of which only the first
+   * weight(i) are used.
+   */
+  public int[] positions(int i) {
+    return positions[i];
+  }
+
+  /**
+   * Clears the vector back to all zeros
+   */
+  public void clear() {
+    super.clear();
+    Arrays.fill(positions, null);
+  }
+}
@@ -0,0 +1,78 @@
+package ir.vsr;
+
+import java.io.*;
+
+/**
+ * An encoding of blocks of non-negative integers into bytes, used to
+ * compress the d-gaps and counts of posting lists in CompressedPostings.
+ * Values are treated as unsigned 32-bit integers, so any int round trips,
+ * but small values take the least space.
+ */
+public abstract class PostingsCodec {
+
+  /**
+   * The variable-byte codec
+   */
+  public static final PostingsCodec VBYTE = new VByteCodec();
+
+  /**
+   * The patched frame-of-reference codec
+   */
+  public static final PostingsCodec PFOR = new PForCodec();
+
+  /**
+   * Return the name of this codec
+   */
+  public abstract String name();
+
+  /**
+   * Append the encoding of the first n values to out.
+   */
+  public abstract void encode(int[] values, int n, ByteArrayOutputStream out);
+
+  /**
+   * Decode n values encoded by encode, starting at offset in data.
+   *
+   * @return The offset just past the encoded values.
+   */
+  public abstract int decode(byte[] data, int offset, int[] values, int n);
+
+  /**
+   * Return the codec with the given name ("vbyte" or "pfor").
+   */
+  public static PostingsCodec forName(String name) {
+    if (name.equalsIgnoreCase(VBYTE.name()))
+      return VBYTE;
+    if (name.equalsIgnoreCase(PFOR.name()))
+      return PFOR;
+    throw new IllegalArgumentException("Unknown postings codec: " + name);
+  }
+
+  /**
+   * Append a value as a variable-byte integer: 7 bits per byte, low order
+   * first, with the high bit set on every byte but the last.
+   */
+  protected static void writeVByte(int value, ByteArrayOutputStream out) {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  /**
+   * Return the number of bytes writeVByte uses for a value
+   */
+  protected static int vByteLength(int value) {
+    int length = 1;
+    while ((value & ~0x7F) != 0) {
+      value >>>= 7;
+      length++;
+    }
+    return length;
+  }
+
+  public String toString() {
+    return name();
+  }
+}
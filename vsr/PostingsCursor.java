@@ -0,0 +1,191 @@
+package ir.vsr;
+
+import java.util.*;
+
+/**
+ * Iterates through the postings of a token in order of document id,
+ * whether they are stored as int arrays in a TokenInfo or compressed in
+ * CompressedPostings, without creating an object per posting.  Compressed
+ * postings are decoded a block at a time into reusable arrays, and advance
+ * skips over whole blocks that end before its target.  A new cursor is
+ * positioned before the first posting.
+ */
+public class PostingsCursor {
+
+  /**
+   * The document id returned once the postings are exhausted
+   */
+  public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+  /**
+   * The compressed postings, or null when iterating over int arrays
+   */
+  protected CompressedPostings postings;
+
+  /**
+   * The document ids of the current block (all of them when uncompressed)
+   */
+  protected int[] docIds;
+
+  /**
+   * The counts of the current block (all of them when uncompressed)
+   */
+  protected int[] counts;
+
+  /**
+   * The position of the first posting in the current block
+   */
+  protected int start = 0;
+
+  /**
+   * The position after the last posting in the current block
+   */
+  protected int end;
+
+  /**
+   * The position of the cursor in the current block
+   */
+  protected int position = -1;
+
+  /**
+   * The current block of compressed postings
+   */
+  protected int block = -1;
+
+  /**
+   * The index among all the postings of the first posting of the current
+   * block, minus start
+   */
+  protected int base = 0;
+
+  /**
+   * The current document id
+   */
+  protected int doc = -1;
+
+  /**
+   * Create a cursor over postings stored as parallel int arrays.
+   */
+  public PostingsCursor(int[] docIds, int[] counts, int numDocs) {
+    this(docIds, counts, 0, numDocs);
+  }
+
+  /**
+   * Create a cursor over the postings from position start up to end of
+   * parallel int arrays shared with other tokens.
+   */
+  public PostingsCursor(int[] docIds, int[] counts, int start, int end) {
+    this.docIds = docIds;
+    this.counts = counts;
+    this.start = start;
+    this.end = end;
+    position = start - 1;
+    base = -start;
+  }
+
+  /**
+   * Create a cursor over compressed postings.
+   */
+  public PostingsCursor(CompressedPostings postings) {
+    this.postings = postings;
+    docIds = new int[CompressedPostings.BLOCK_SIZE];
+    counts = new int[CompressedPostings.BLOCK_SIZE];
+    end = 0;
+  }
+
+  /**
+   * Return the id of the current document, -1 before the first call to
+   * nextDoc or advance, or NO_MORE_DOCS after the last posting.
+   */
+  public int docId() {
+    return doc;
+  }
+
+  /**
+   * Return the number of occurrences in the current document
+   */
+  public int count() {
+    return counts[position];
+  }
+
+  /**
+   * Return the index of the current posting among all the postings of
+   * its token, counting from 0, as for TokenInfo.getPositions.
+   */
+  public int index() {
+    return base + position;
+  }
+
+  /**
+   * Move to the next posting and return its document id, or NO_MORE_DOCS
+   * if there is none.
+   */
+  public int nextDoc() {
+    if (++position < end)
+      return doc = docIds[position];
+    return nextBlock();
+  }
+
+  /**
+   * Decode the next block and move to its first posting.
+   */
+  protected int nextBlock() {
+    if (postings == null || block + 1 >= postings.numBlocks()) {
+      position = end;
+      return doc = NO_MORE_DOCS;
+    }
+    loadBlock(block + 1);
+    position = 0;
+    return doc = docIds[0];
+  }
+
+  /**
+   * Decode the given block of the compressed postings.
+   */
+  protected void loadBlock(int block) {
+    this.block = block;
+    base = block * CompressedPostings.BLOCK_SIZE;
+    end = postings.decodeBlock(block, docIds, counts);
+  }
+
+  /**
+   * Move to the first posting whose document id is at least target and
+   * return its id, or NO_MORE_DOCS if there is none.  Does not move if the
+   * cursor is already on such a posting.
+   */
+  public int advance(int target) {
+    if (doc >= target)
+      return doc;
+    if (postings != null && (block < 0 || target > postings.lastDocIds[block])) {
+      // Skip to the first block that ends at or after the target
+      int[] lastDocIds = postings.lastDocIds;
+      int next = Arrays.binarySearch(lastDocIds, block + 1, lastDocIds.length, target);
+      if (next < 0)
+        next = -next - 1;
+      if (next >= lastDocIds.length) {
+        position = end;
+        return doc = NO_MORE_DOCS;
+      }
+      loadBlock(next);
+      position = 0;
+    }
+    // Gallop ahead in the block, then binary search
+    int low = Math.max(position, start);
+    int step = 1;
+    int high = low + step;
+    while (high < end && docIds[high] < target) {
+      low = high;
+      step <<= 1;
+      high = low + step;
+    }
+    if (high > end)
+      high = end;
+    int i = Arrays.binarySearch(docIds, low, high, target);
+    position = i >= 0 ? i : -i - 1;
+    if (position < end)
+      return doc = docIds[position];
+    // Only possible for uncompressed postings, since the block was chosen
+    // to end at or after the target
+    return doc = NO_MORE_DOCS;
+  }
+}
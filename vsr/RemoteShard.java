@@ -0,0 +1,155 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * A shard of a ShardedIndex kept in a separate local process running a
+ * ShardServer, so each shard has a JVM heap of its own and indexes and
+ * searches on its own processor.  Requests are sent over the standard
+ * input of the process and replies read from its standard output, one
+ * request at a time.  The process is started with the class path of this
+ * JVM and the given JVM options, such as a maximum heap size.
+ */
+public class RemoteShard extends IndexShard {
+
+  /**
+   * The process serving the shard
+   */
+  protected final Process process;
+
+  /**
+   * The stream requests are written to
+   */
+  protected final DataOutputStream out;
+
+  /**
+   * The stream replies are read from
+   */
+  protected final DataInputStream in;
+
+  /**
+   * Start a process serving an empty shard for documents of the given type.
+   *
+   * @param docType    The type of documents to index (See docType in DocumentIterator)
+   * @param stem       Whether tokens should be stemmed with Porter stemmer.
+   * @param stopWords  The stopwords to remove, or null for the default list.
+   * @param jvmOptions Options for the JVM of the process, such as "-Xmx2g".
+   */
+  public RemoteShard(short docType, boolean stem, StopWordFilter stopWords, List<String> jvmOptions)
+      throws IOException {
+    List<String> command = new ArrayList<String>();
+    command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+    command.addAll(jvmOptions);
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(ShardServer.class.getName());
+    command.add(Short.toString(docType));
+    command.add(Boolean.toString(stem));
+    if (FileDocument.charset != null)
+      command.add(FileDocument.charset.name());
+    process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+    in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+    if (stopWords == null)
+      out.writeInt(-1);
+    else {
+      List<String> words = stopWords.words();
+      out.writeInt(words.size());
+      for (String word : words)
+        out.writeUTF(word);
+    }
+    out.flush();
+  }
+
+  public synchronized void index(List<File> files, int[] docIds) throws IOException {
+    out.writeByte(ShardServer.INDEX);
+    out.writeInt(files.size());
+    for (int i = 0; i < files.size(); i++) {
+      out.writeUTF(files.get(i).getPath());
+      out.writeInt(docIds[i]);
+    }
+    readStatus();
+  }
+
+  public synchronized TermStatistics termStatistics() throws IOException {
+    out.writeByte(ShardServer.TERM_STATISTICS);
+    readStatus();
+    int n = in.readInt();
+    String[] tokens = new String[n];
+    int[] numDocs = new int[n];
+    long[] first = new long[n];
+    for (int i = 0; i < n; i++) {
+      tokens[i] = in.readUTF();
+      numDocs[i] = in.readInt();
+      first[i] = in.readLong();
+    }
+    return new TermStatistics(tokens, numDocs, first);
+  }
+
+  public synchronized double[] setCollectionStatistics(String[] tokens, double[] idf) throws IOException {
+    out.writeByte(ShardServer.COLLECTION_STATISTICS);
+    out.writeInt(tokens.length);
+    for (int i = 0; i < tokens.length; i++) {
+      out.writeUTF(tokens[i]);
+      out.writeDouble(idf[i]);
+    }
+    readStatus();
+    double[] lengths = new double[in.readInt()];
+    for (int i = 0; i < lengths.length; i++)
+      lengths[i] = in.readDouble();
+    return lengths;
+  }
+
+  public synchronized Hits search(HashMapVector vector, int k) throws IOException {
+    out.writeByte(ShardServer.SEARCH);
+    out.writeInt(k);
+    out.writeInt(vector.size());
+    for (int i = 0; i < vector.size(); i++) {
+      out.writeUTF(vector.token(i));
+      out.writeDouble(vector.weight(i));
+    }
+    readStatus();
+    int n = in.readInt();
+    int[] docIds = new int[n];
+    double[] scores = new double[n];
+    for (int i = 0; i < n; i++) {
+      docIds[i] = in.readInt();
+      scores[i] = in.readDouble();
+    }
+    return new Hits(docIds, scores);
+  }
+
+  /**
+   * Send the request written so far and read the status of its reply,
+   * throwing an IOException with the message of a failure.
+   */
+  protected void readStatus() throws IOException {
+    out.flush();
+    byte status = in.readByte();
+    if (status == ShardServer.STATUS_ERROR)
+      throw new IOException("Shard failed: " + in.readUTF());
+  }
+
+  /**
+   * Tell the process to exit and wait for it.
+   */
+  public synchronized void close() throws IOException {
+    try {
+      out.writeByte(ShardServer.CLOSE);
+      out.close();
+    }
+    catch (IOException e) {
+      // The process is already gone
+    }
+    try {
+      process.waitFor();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      process.destroy();
+    }
+  }
+}
@@ -0,0 +1,281 @@
+package ir.vsr;
+
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * A cache of the ranked retrievals for recent queries, so that frequently
+ * repeated queries are not evaluated again.  Entries are keyed by the query
+ * vector in a canonical form (tokens in sorted order) together with the
+ * number of retrievals asked for.  The weights are divided by the largest
+ * one only when the scorer is scale invariant, as cosine similarity is;
+ * for other scorers, such as BM25, "q" and "q q" rank differently.  The cache holds at
+ * most maxEntries entries and roughly maxBytes bytes, evicting the least
+ * recently used entries first.  Subclasses can change the eviction policy
+ * by overriding get and put.
+ * <p>
+ * An InvertedIndex with a cache clears it whenever a document is added or
+ * deleted or its scorer is replaced, so it never returns results for an older version of the index.
+ * All methods are synchronized, so a cache can serve many threads.
+ */
+public class RetrievalCache {
+
+  /**
+   * The default maximum number of cached queries
+   */
+  public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+  /**
+   * The default maximum number of bytes taken by cached queries and results
+   */
+  public static final long DEFAULT_MAX_BYTES = 16L << 20;
+
+  /**
+   * The maximum number of cached queries
+   */
+  public final int maxEntries;
+
+  /**
+   * The maximum approximate number of bytes taken by cached queries and results
+   */
+  public final long maxBytes;
+
+  /**
+   * The cached retrievals, in order from least to most recently used
+   */
+  protected LinkedHashMap<Key, Retrieval[]> entries = new LinkedHashMap<Key, Retrieval[]>(16, 0.75f, true);
+
+  /**
+   * The approximate number of bytes taken by the cached entries
+   */
+  protected long bytes = 0;
+
+  /**
+   * The number of lookups that found an entry
+   */
+  protected long hits = 0;
+
+  /**
+   * The number of lookups that did not find an entry
+   */
+  protected long misses = 0;
+
+  /**
+   * The number of entries removed to make room for new ones
+   */
+  protected long evictions = 0;
+
+  /**
+   * The number of times the cache was cleared because the index changed
+   */
+  protected long invalidations = 0;
+
+  /**
+   * Create a cache with the default bounds.
+   */
+  public RetrievalCache() {
+    this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * Create a cache holding at most maxEntries queries and roughly maxBytes bytes.
+   */
+  public RetrievalCache(int maxEntries, long maxBytes) {
+    if (maxEntries < 1 || maxBytes < 1)
+      throw new IllegalArgumentException("Cache bounds must be positive");
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Return the key for a query vector and number of retrievals ranked by
+   * the given scorer.
+   */
+  public Key key(HashMapVector vector, int k, Scorer scorer) {
+    return new Key(vector, k, scorer.isScaleInvariant());
+  }
+
+  /**
+   * Return a copy of the cached retrievals for a key, or null if there are none.
+   */
+  public synchronized Retrieval[] get(Key key) {
+    Retrieval[] retrievals = entries.get(key);
+    if (retrievals == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    // Callers may reorder the array they are given
+    return retrievals.clone();
+  }
+
+  /**
+   * Cache the retrievals for a key, evicting the least recently used
+   * entries until the cache is within its bounds.  Results too large to
+   * ever fit are not cached.
+   */
+  public synchronized void put(Key key, Retrieval[] retrievals) {
+    long size = key.sizeInBytes() + sizeInBytes(retrievals);
+    if (size > maxBytes)
+      return;
+    Retrieval[] old = entries.put(key, retrievals.clone());
+    if (old != null)
+      bytes -= key.sizeInBytes() + sizeInBytes(old);
+    bytes += size;
+    Iterator<Map.Entry<Key, Retrieval[]>> iterator = entries.entrySet().iterator();
+    while (entries.size() > maxEntries || bytes > maxBytes) {
+      Map.Entry<Key, Retrieval[]> eldest = iterator.next();
+      bytes -= eldest.getKey().sizeInBytes() + sizeInBytes(eldest.getValue());
+      iterator.remove();
+      evictions++;
+    }
+  }
+
+  /**
+   * Remove every entry because the index has changed.
+   */
+  public synchronized void invalidate() {
+    if (!entries.isEmpty())
+      invalidations++;
+    entries.clear();
+    bytes = 0;
+  }
+
+  /**
+   * Return the number of cached queries
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Return the approximate number of bytes taken by the cached entries
+   */
+  public synchronized long sizeInBytes() {
+    return bytes;
+  }
+
+  /**
+   * Return the number of lookups that found an entry
+   */
+  public synchronized long hits() {
+    return hits;
+  }
+
+  /**
+   * Return the number of lookups that did not find an entry
+   */
+  public synchronized long misses() {
+    return misses;
+  }
+
+  /**
+   * Return the number of entries removed to make room for new ones
+   */
+  public synchronized long evictions() {
+    return evictions;
+  }
+
+  /**
+   * Return the number of times the cache was cleared because the index changed
+   */
+  public synchronized long invalidations() {
+    return invalidations;
+  }
+
+  /**
+   * Return the fraction of lookups that found an entry
+   */
+  public synchronized double hitRate() {
+    return hits + misses == 0 ? 0.0 : (double) hits / (hits + misses);
+  }
+
+  /**
+   * Return a summary of the size and statistics of the cache
+   */
+  public synchronized String toString() {
+    return "RetrievalCache: " + entries.size() + " entries, " + bytes + " bytes, " +
+        hits + " hits, " + misses + " misses (hit rate " + MoreMath.roundTo(hitRate(), 3) +
+        "), " + evictions + " evictions, " + invalidations + " invalidations";
+  }
+
+  /**
+   * Return the approximate number of bytes taken by an array of retrievals,
+   * counting the array and each Retrieval but not the shared DocumentReferences.
+   */
+  protected static long sizeInBytes(Retrieval[] retrievals) {
+    return 16 + retrievals.length * (8 + 24L);
+  }
+
+  /**
+   * A query vector in canonical form and a number of retrievals.
+   */
+  public static class Key {
+    /**
+     * The tokens with nonzero weight in the query, in sorted order
+     */
+    final String[] tokens;
+
+    /**
+     * The weight of each token, divided by the largest absolute weight if
+     * the scorer is scale invariant
+     */
+    final double[] weights;
+
+    /**
+     * The number of retrievals asked for
+     */
+    final int k;
+
+    /**
+     * The hash code, computed once
+     */
+    final int hash;
+
+    /**
+     * Make the key for a query vector and number of retrievals, dividing
+     * the weights by the largest one if normalize is true.
+     */
+    Key(HashMapVector vector, int k, boolean normalize) {
+      this.k = k;
+      List<String> sorted = new ArrayList<String>(vector.size());
+      double maxWeight = 0.0;
+      for (int i = 0; i < vector.size(); i++) {
+        double weight = vector.weight(i);
+        if (weight != 0.0) {
+          sorted.add(vector.token(i));
+          maxWeight = Math.max(maxWeight, Math.abs(weight));
+        }
+      }
+      Collections.sort(sorted);
+      tokens = sorted.toArray(new String[sorted.size()]);
+      weights = new double[tokens.length];
+      for (int i = 0; i < tokens.length; i++)
+        weights[i] = normalize ? vector.getWeight(tokens[i]) / maxWeight : vector.getWeight(tokens[i]);
+      hash = 31 * (31 * Arrays.hashCode(tokens) + Arrays.hashCode(weights)) + k;
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key))
+        return false;
+      Key key = (Key) obj;
+      return hash == key.hash && k == key.k && Arrays.equals(tokens, key.tokens) &&
+          Arrays.equals(weights, key.weights);
+    }
+
+    /**
+     * Return the approximate number of bytes taken by this key
+     */
+    long sizeInBytes() {
+      long size = 32 + 16 + 16 + 8L * tokens.length;
+      for (String token : tokens)
+        size += 48 + token.length();
+      return size;
+    }
+  }
+}
@@ -0,0 +1,188 @@
+package ir.vsr;
+
+import java.util.*;
+
+/**
+ * A bounded min-heap that keeps the k best scoring documents offered to it,
+ * for top-k retrieval without creating and sorting a Retrieval for every
+ * matching document.  The worst of the current best k sits at the root so
+ * each new candidate is compared to it in constant time and inserted in
+ * O(log k).  Documents are identified by their id in the index, and among
+ * equal scores the document with the lower id ranks higher, so the result
+ * does not depend on the order documents are offered in.
+ */
+public class RetrievalHeap {
+
+  /**
+   * The maximum number of documents kept
+   */
+  protected int k;
+
+  /**
+   * The number of documents currently in the heap
+   */
+  protected int size = 0;
+
+  /**
+   * The ids of the documents in the heap
+   */
+  protected int[] docIds;
+
+  /**
+   * The score of each document in the heap
+   */
+  protected double[] scores;
+
+  /**
+   * Create an empty heap for keeping the best k documents
+   */
+  public RetrievalHeap(int k) {
+    this.k = k;
+    docIds = new int[k];
+    scores = new double[k];
+  }
+
+  /**
+   * Return the maximum number of documents kept
+   */
+  public int capacity() {
+    return k;
+  }
+
+  /**
+   * Return the number of documents currently kept
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Return true if k documents are already kept, so a new document must
+   * beat minScore to get in.
+   */
+  public boolean isFull() {
+    return size == k;
+  }
+
+  /**
+   * Return the lowest score currently kept
+   */
+  public double minScore() {
+    return scores[0];
+  }
+
+  /**
+   * Return the id of the document with the lowest score currently kept
+   */
+  public int minDocId() {
+    return docIds[0];
+  }
+
+  /**
+   * Offer a document with the given score, keeping it if it is among the best k so far.
+   *
+   * @return true if the document was kept.
+   */
+  public boolean offer(int docId, double score) {
+    if (size < k) {
+      // Not full yet, so add at the bottom and sift up
+      docIds[size] = docId;
+      scores[size] = score;
+      siftUp(size++);
+      return true;
+    }
+    // Only replace the root if this document ranks above it
+    if (k == 0 || score < scores[0] || (score == scores[0] && docId > docIds[0]))
+      return false;
+    docIds[0] = docId;
+    scores[0] = score;
+    siftDown(0);
+    return true;
+  }
+
+  /**
+   * Empty the heap and return the documents it kept as Retrievals, ranked
+   * from best to worst.
+   *
+   * @param docRefs The table of indexed documents, indexed by document id.
+   */
+  public Retrieval[] retrievals(List<DocumentReference> docRefs) {
+    Retrieval[] retrievals = new Retrieval[size];
+    // Repeatedly remove the worst document, filling the array from the back
+    while (size > 0) {
+      retrievals[size - 1] = new Retrieval(docRefs.get(docIds[0]), scores[0]);
+      size--;
+      docIds[0] = docIds[size];
+      scores[0] = scores[size];
+      siftDown(0);
+    }
+    return retrievals;
+  }
+
+  /**
+   * Empty the heap into the given arrays, which must hold size() entries,
+   * ranked from best to worst, for a caller that maps the ids to documents
+   * itself.
+   */
+  public void drain(int[] docIds, double[] scores) {
+    while (size > 0) {
+      docIds[size - 1] = this.docIds[0];
+      scores[size - 1] = this.scores[0];
+      size--;
+      this.docIds[0] = this.docIds[size];
+      this.scores[0] = this.scores[size];
+      siftDown(0);
+    }
+  }
+
+  /**
+   * Return true if the entry at position i ranks below the one at position j
+   */
+  protected boolean worse(int i, int j) {
+    if (scores[i] != scores[j])
+      return scores[i] < scores[j];
+    return docIds[i] > docIds[j];
+  }
+
+  /**
+   * Move the entry at position i up until its parent is worse than it.
+   */
+  protected void siftUp(int i) {
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!worse(i, parent))
+        break;
+      swap(i, parent);
+      i = parent;
+    }
+  }
+
+  /**
+   * Move the entry at position i down until both its children are better than it.
+   */
+  protected void siftDown(int i) {
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size)
+        break;
+      if (child + 1 < size && worse(child + 1, child))
+        child++;
+      if (!worse(child, i))
+        break;
+      swap(i, child);
+      i = child;
+    }
+  }
+
+  /**
+   * Exchange the entries at positions i and j
+   */
+  protected void swap(int i, int j) {
+    int docId = docIds[i];
+    docIds[i] = docIds[j];
+    docIds[j] = docId;
+    double score = scores[i];
+    scores[i] = scores[j];
+    scores[j] = score;
+  }
+}
@@ -0,0 +1,92 @@
+package ir.vsr;
+
+import java.util.*;
+
+/**
+ * Accumulates the partial retrieval scores of documents for a query in
+ * primitive arrays indexed by document id, instead of a HashMap from
+ * DocumentReference's to DoubleValue's, so adding the contribution of a
+ * posting takes no hashing and creates no garbage.  The ids of the documents
+ * touched are recorded so that only they need to be visited to collect
+ * results and to reset the arrays, letting one accumulator be reused for
+ * every query run on a thread.
+ */
+public class ScoreAccumulator {
+
+  /**
+   * The partial score of each document, indexed by document id
+   */
+  public double[] scores;
+
+  /**
+   * The number of query tokens matched by each document, indexed by
+   * document id.  A document has been touched iff this is non-zero.
+   */
+  public int[] matches;
+
+  /**
+   * The ids of the documents touched, in the order they were first touched.
+   * Only the first numTouched elements are used.
+   */
+  public int[] touched;
+
+  /**
+   * The number of documents touched
+   */
+  public int numTouched = 0;
+
+  /**
+   * The number of distinct tokens in the current query
+   */
+  public int querySize = 0;
+
+  /**
+   * Create an accumulator for an index of the given number of documents
+   */
+  public ScoreAccumulator(int numDocs) {
+    scores = new double[numDocs];
+    matches = new int[numDocs];
+    touched = new int[numDocs];
+  }
+
+  /**
+   * Make sure the accumulator can hold scores for the given number of documents
+   */
+  public void ensureCapacity(int numDocs) {
+    if (scores.length < numDocs) {
+      scores = Arrays.copyOf(scores, numDocs);
+      matches = Arrays.copyOf(matches, numDocs);
+      touched = Arrays.copyOf(touched, numDocs);
+    }
+  }
+
+  /**
+   * Add the contribution of one query token to the score of a document.
+   */
+  public void add(int docId, double score) {
+    if (matches[docId]++ == 0)
+      touched[numTouched++] = docId;
+    scores[docId] += score;
+  }
+
+  /**
+   * Sort the ids of the touched documents into increasing order, so results
+   * collected from them are independent of the order of the query tokens.
+   */
+  public void sortTouched() {
+    Arrays.sort(touched, 0, numTouched);
+  }
+
+  /**
+   * Clear the scores of all documents touched so the accumulator can be reused.
+   */
+  public void reset() {
+    for (int i = 0; i < numTouched; i++) {
+      int docId = touched[i];
+      scores[docId] = 0.0;
+      matches[docId] = 0;
+    }
+    numTouched = 0;
+    querySize = 0;
+  }
+}
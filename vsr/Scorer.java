@@ -0,0 +1,96 @@
+package ir.vsr;
+
+/**
+ * Decides how an InvertedIndex scores documents for a query, so that
+ * different ranking functions share one evaluation loop.  Retrieval asks
+ * the scorer for the weight of each query token and a scale that folds
+ * in everything about the token, then adds score(scale, docId, count) to
+ * a document for each posting of the token, and finally turns the sum
+ * into the document's score with finalScore.  The per-posting step is the
+ * inner loop of retrieval, so anything it needs about documents, such as
+ * their lengths, is precomputed by init into primitive arrays indexed by
+ * document id.
+ * <p>
+ * init is called whenever the index recomputes its statistics, with the
+ * index's write lock held, so a scorer may only be used by one index.
+ */
+public abstract class Scorer {
+
+  /**
+   * Precompute whatever the scorer needs from the collection statistics of
+   * the index: its IDF factors, docLengths and docSizes.
+   */
+  public void init(InvertedIndex index) {
+  }
+
+  /**
+   * Return the weight of a token in the query, or 0 if it should be
+   * skipped.  The query length is the square root of the sum of the
+   * squares of the weights.
+   *
+   * @param tokenInfo The index entry of the token.
+   * @param count     The count of the token in the query.
+   */
+  public abstract double queryWeight(TokenInfo tokenInfo, double count);
+
+  /**
+   * Return the factor passed to score for every posting of a query token.
+   *
+   * @param tokenInfo The index entry of the token.
+   * @param weight    The weight of the token in the query.
+   */
+  public abstract double scale(TokenInfo tokenInfo, double weight);
+
+  /**
+   * Return what one posting of a query token adds to the score of its document.
+   *
+   * @param scale The scale of the token.
+   * @param docId The id of the document.
+   * @param count The number of times the token occurs in the document.
+   */
+  public abstract double score(double scale, int docId, int count);
+
+  /**
+   * Return the final score of a document from the sum of what its
+   * postings added.
+   *
+   * @param docId       The id of the document.
+   * @param score       The sum of the scores of its postings.
+   * @param queryLength The length of the query vector.
+   * @param matches     The number of query tokens it contains.
+   * @param querySize   The number of distinct tokens in the query.
+   */
+  public abstract double finalScore(int docId, double score, double queryLength, int matches, int querySize);
+
+  /**
+   * Return a new scorer of the same kind and with the same parameters, not
+   * yet initialized, to rank the documents of another index the same way.
+   * Throws UnsupportedOperationException unless the class overrides it.
+   */
+  public Scorer copy() {
+    throw new UnsupportedOperationException("Cannot copy a " + getClass().getName());
+  }
+
+  /**
+   * Return whether multiplying every query weight by the same positive
+   * factor leaves all scores unchanged, so that such queries can share a
+   * cached result.  Scorers are assumed not to be.
+   */
+  public boolean isScaleInvariant() {
+    return false;
+  }
+
+  /**
+   * Return a new scorer with the given name ("cosine", "bm25" or
+   * "coordination", which adds coordination to cosine).
+   */
+  public static Scorer forName(String name) {
+    if (name.equalsIgnoreCase("cosine"))
+      return new CosineScorer();
+    if (name.equalsIgnoreCase("bm25"))
+      return new BM25Scorer();
+    if (name.equalsIgnoreCase("coordination"))
+      return new CoordinationScorer(new CosineScorer());
+    throw new IllegalArgumentException("Unknown scorer: " + name);
+  }
+}
@@ -0,0 +1,699 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.nio.file.Path;
+
+import ir.utilities.*;
+
+/**
+ * An inverted index split into segments, for corpora that keep growing.
+ * Added documents go into a small in-memory buffer segment which, once it
+ * holds maxBufferedDocs documents, is flushed to the list of immutable
+ * segments, so indexing a document costs time in the size of the buffer
+ * rather than the size of the corpus.  A background thread merges runs of
+ * mergeFactor consecutive segments of the same size tier into one, LSM
+ * style, dropping the postings of deleted documents as it goes; merged
+ * segments are built without holding any lock and swapped in at the end,
+ * so merging never holds up retrievals for long.
+ *
+ * The tokenHash of a SegmentedIndex holds only the collection-wide IDF,
+ * maxScore and document count of each token, with no postings, and
+ * retrieval adds up the postings of every segment weighted by these,
+ * giving the same ranking as an InvertedIndex of the same documents.
+ * Like the IDF factors, document lengths are recomputed in the background
+ * after documents are added or deleted; the new statistics are computed
+ * while retrievals continue and then installed at once.
+ */
+public class SegmentedIndex extends InvertedIndex {
+
+  /**
+   * The default number of documents buffered in memory before a flush
+   */
+  public static final int DEFAULT_MAX_BUFFERED_DOCS = 1000;
+
+  /**
+   * The default number of segments in a tier that are merged together
+   */
+  public static final int DEFAULT_MERGE_FACTOR = 10;
+
+  /**
+   * The number of documents the buffer segment holds before it is flushed
+   */
+  public int maxBufferedDocs = DEFAULT_MAX_BUFFERED_DOCS;
+
+  /**
+   * The number of consecutive segments of the same size tier to merge
+   */
+  public int mergeFactor = DEFAULT_MERGE_FACTOR;
+
+  /**
+   * The flushed, immutable segments in order of document id.  Only changed
+   * while holding the write lock.
+   */
+  protected List<IndexSegment> segments = new ArrayList<IndexSegment>();
+
+  /**
+   * The segment that newly added documents go into
+   */
+  protected IndexSegment buffer = new IndexSegment(0);
+
+  /**
+   * The codec that flushed and merged segments are compressed with, or
+   * null to leave them uncompressed
+   */
+  protected volatile PostingsCodec codec = null;
+
+  /**
+   * The number of additions and deletions so far, used to tell whether
+   * statistics computed while retrievals went on are still current
+   */
+  protected long modCount = 0;
+
+  /**
+   * The single background thread that merges segments
+   */
+  protected ExecutorService merger = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "SegmentedIndex merger");
+      // Do not keep the JVM alive just to merge
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  /**
+   * Create a segmented index of the documents in a directory.
+   *
+   * @param dirFile         The directory of files to index, or null to start
+   *                        with an empty index and add documents later.
+   * @param docType         The type of documents to index (See docType in DocumentIterator)
+   * @param stem            Whether tokens should be stemmed with Porter stemmer.
+   * @param feedback        Whether relevance feedback should be used.
+   * @param maxBufferedDocs The number of documents to buffer before a flush.
+   * @param mergeFactor     The number of segments of a tier to merge together.
+   */
+  public SegmentedIndex(File dirFile, short docType, boolean stem, boolean feedback,
+                        int maxBufferedDocs, int mergeFactor) {
+    this(dirFile, docType, stem, feedback, maxBufferedDocs, mergeFactor, null);
+  }
+
+  /**
+   * Create a segmented index of the documents in a directory that removes
+   * its own list of stopwords.
+   *
+   * @param dirFile         The directory of files to index, or null to start
+   *                        with an empty index and add documents later.
+   * @param docType         The type of documents to index (See docType in DocumentIterator)
+   * @param stem            Whether tokens should be stemmed with Porter stemmer.
+   * @param feedback        Whether relevance feedback should be used.
+   * @param maxBufferedDocs The number of documents to buffer before a flush.
+   * @param mergeFactor     The number of segments of a tier to merge together.
+   * @param stopWords       The stopwords to remove, or null for the default list.
+   */
+  public SegmentedIndex(File dirFile, short docType, boolean stem, boolean feedback,
+                        int maxBufferedDocs, int mergeFactor, StopWordFilter stopWords) {
+    super();
+    this.dirFile = dirFile;
+    this.docType = docType;
+    this.stem = stem;
+    this.stopWords = stopWords;
+    this.feedback = feedback;
+    this.maxBufferedDocs = maxBufferedDocs;
+    this.mergeFactor = mergeFactor;
+    if (dirFile != null)
+      indexDocuments();
+  }
+
+  /**
+   * Create a segmented index of the documents in a directory with the
+   * default flush and merge settings.
+   */
+  public SegmentedIndex(File dirFile, short docType, boolean stem, boolean feedback) {
+    this(dirFile, docType, stem, feedback, DEFAULT_MAX_BUFFERED_DOCS, DEFAULT_MERGE_FACTOR);
+  }
+
+  /**
+   * Add a document to the buffer segment, flushing it if it is full.
+   * Called with the write lock held, except while first indexing dirFile.
+   */
+  protected void indexDocument(FileDocument doc, HashMapVector vector) {
+    int docId = docRefs.size();
+    docRefs.add(new DocumentReference(doc));
+    buffer.addDocument(docId, vector);
+    modCount++;
+    if (buffer.size() >= maxBufferedDocs)
+      flush();
+  }
+
+  /**
+   * Delete a document, which is dropped from its segment at the next merge.
+   */
+  public boolean deleteDocument(int docId) {
+    lock.writeLock().lock();
+    try {
+      if (!super.deleteDocument(docId))
+        return false;
+      modCount++;
+      return true;
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Turn the buffer into an immutable segment, start a new buffer and let
+   * the merger look for segments to merge.
+   */
+  public void flush() {
+    lock.writeLock().lock();
+    try {
+      if (buffer.size() == 0)
+        return;
+      buffer.trimToSize();
+      if (codec != null)
+        buffer.compress(codec);
+      segments.add(buffer);
+      buffer = new IndexSegment(docRefs.size());
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+    merger.execute(new Runnable() {
+      public void run() {
+        maybeMerge();
+      }
+    });
+  }
+
+  /**
+   * Return the size tier of a segment: 0 for up to maxBufferedDocs
+   * documents, and one more for each further factor of mergeFactor.
+   */
+  protected int tier(IndexSegment segment) {
+    int tier = 0;
+    long size = maxBufferedDocs;
+    while (segment.size() > size) {
+      size = size * mergeFactor;
+      tier++;
+    }
+    return tier;
+  }
+
+  /**
+   * Merge runs of mergeFactor consecutive segments in the same tier until
+   * there are none left.  Only run on the merger thread, so the segments
+   * being merged cannot be changed by anyone else meanwhile.
+   */
+  protected void maybeMerge() {
+    while (true) {
+      List<IndexSegment> toMerge = null;
+      BitSet deleted;
+      lock.readLock().lock();
+      try {
+        // Find the first run of mergeFactor segments in the same tier
+        int runStart = 0;
+        for (int i = 1; i <= segments.size() && toMerge == null; i++) {
+          if (i < segments.size() && tier(segments.get(i)) == tier(segments.get(runStart))) {
+            if (i - runStart + 1 == mergeFactor)
+              toMerge = new ArrayList<IndexSegment>(segments.subList(runStart, i + 1));
+          } else
+            runStart = i;
+        }
+        if (toMerge == null)
+          return;
+        deleted = (BitSet) deletedDocs.clone();
+      }
+      finally {
+        lock.readLock().unlock();
+      }
+      // Build the merged segment without holding up anyone else
+      IndexSegment merged = IndexSegment.merge(toMerge, deleted);
+      if (codec != null)
+        merged.compress(codec);
+      lock.writeLock().lock();
+      try {
+        int start = segments.indexOf(toMerge.get(0));
+        for (int i = 0; i < toMerge.size(); i++)
+          segments.remove(start);
+        segments.add(start, merged);
+      }
+      finally {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * Flush the buffer and merge all segments into one, waiting until done.
+   */
+  public void forceMerge() {
+    flush();
+    Future<?> done = merger.submit(new Runnable() {
+      public void run() {
+        List<IndexSegment> toMerge;
+        BitSet deleted;
+        lock.readLock().lock();
+        try {
+          if (segments.size() <= 1)
+            return;
+          toMerge = new ArrayList<IndexSegment>(segments);
+          deleted = (BitSet) deletedDocs.clone();
+        }
+        finally {
+          lock.readLock().unlock();
+        }
+        IndexSegment merged = IndexSegment.merge(toMerge, deleted);
+        if (codec != null)
+          merged.compress(codec);
+        lock.writeLock().lock();
+        try {
+          segments.subList(0, toMerge.size()).clear();
+          segments.add(0, merged);
+        }
+        finally {
+          lock.writeLock().unlock();
+        }
+      }
+    });
+    waitFor(done);
+  }
+
+  /**
+   * Compress the postings of every flushed segment with the given codec,
+   * and those of segments flushed or merged from now on, waiting until
+   * done.  The buffer segment stays uncompressed while it grows.
+   */
+  public void compress(final PostingsCodec codec) {
+    this.codec = codec;
+    // Rewrite the segments on the merger thread, so none is being merged
+    // meanwhile, building each compressed copy without holding a lock
+    waitFor(merger.submit(new Runnable() {
+      public void run() {
+        List<IndexSegment> toCompress;
+        BitSet deleted;
+        lock.readLock().lock();
+        try {
+          toCompress = new ArrayList<IndexSegment>(segments);
+          deleted = (BitSet) deletedDocs.clone();
+        }
+        finally {
+          lock.readLock().unlock();
+        }
+        for (IndexSegment segment : toCompress) {
+          IndexSegment compressed = IndexSegment.merge(Collections.singletonList(segment), deleted);
+          compressed.compress(codec);
+          lock.writeLock().lock();
+          try {
+            segments.set(segments.indexOf(segment), compressed);
+          }
+          finally {
+            lock.writeLock().unlock();
+          }
+        }
+      }
+    }));
+  }
+
+  /**
+   * Wait until all merges started so far are done.
+   */
+  public void waitForMerges() {
+    waitFor(merger.submit(new Runnable() {
+      public void run() {
+      }
+    }));
+  }
+
+  /**
+   * Wait for a task of the merger to finish.
+   */
+  protected void waitFor(Future<?> future) {
+    try {
+      future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Stop the background merger once any pending merges are done.
+   */
+  public void close() {
+    merger.shutdown();
+  }
+
+  /**
+   * Return the number of flushed segments
+   */
+  public int numSegments() {
+    return segments.size();
+  }
+
+  /**
+   * Return the flushed segments followed by the buffer, in order of document id.
+   */
+  protected List<IndexSegment> allSegments() {
+    List<IndexSegment> all = new ArrayList<IndexSegment>(segments);
+    all.add(buffer);
+    return all;
+  }
+
+  /**
+   * Compute collection-wide IDF factors and document lengths from all the
+   * segments and install them.  Used once dirFile has been indexed.
+   */
+  protected void computeIDFandDocumentLengths() {
+    installStatistics(computeStatistics());
+  }
+
+  /**
+   * Nothing to do, since computeStatistics also computes the maxScore bounds.
+   */
+  protected void computeMaxScores() {
+  }
+
+  /**
+   * Recompute statistics if documents were added or deleted.  They are
+   * computed holding only the read lock, so retrievals carry on with the old
+   * ones meanwhile, and installed under the write lock unless more documents
+   * were added or deleted in between, in which case they are computed again.
+   */
+  public void refreshStatistics() {
+    while (statsStale) {
+      long computedAt;
+      Statistics statistics;
+      lock.readLock().lock();
+      try {
+        computedAt = modCount;
+        statistics = computeStatistics();
+      }
+      finally {
+        lock.readLock().unlock();
+      }
+      lock.writeLock().lock();
+      try {
+        if (computedAt == modCount) {
+          installStatistics(statistics);
+          statsStale = false;
+        }
+      }
+      finally {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * Collection-wide statistics computed over all segments
+   */
+  protected static class Statistics {
+    /**
+     * The IDF, maxScore and number of undeleted documents of every token,
+     * with no postings
+     */
+    Map<String, TokenInfo> tokenHash;
+    /**
+     * The length of each document vector, indexed by document id
+     */
+    double[] lengths;
+    /**
+     * The number of tokens in each document, indexed by document id
+     */
+    int[] sizes;
+  }
+
+  /**
+   * Compute the IDF factor and maxScore bound of every token and the length
+   * of every document from the postings in all segments, without changing
+   * the index.
+   */
+  protected Statistics computeStatistics() {
+    List<IndexSegment> all = allSegments();
+    // Count the undeleted documents each token occurs in across segments
+    Map<String, TokenInfo> stats = new HashMap<String, TokenInfo>();
+    for (IndexSegment segment : all) {
+      for (Map.Entry<String, TokenInfo> entry : segment.tokenHash.entrySet()) {
+        TokenInfo stat = stats.get(entry.getKey());
+        if (stat == null) {
+          stat = new TokenInfo();
+          stats.put(entry.getKey(), stat);
+        }
+        stat.numDocs += deletedDocs.isEmpty() ? entry.getValue().numDocs : numLiveDocs(entry.getValue());
+      }
+    }
+    double N = docRefs.size() - deletedDocs.cardinality();
+    for (TokenInfo stat : stats.values()) {
+      stat.liveDocs = stat.numDocs;
+      stat.idf = computeIDF(stat, N);
+    }
+    // Sum the squared token weights of each document
+    double[] lengths = new double[docRefs.size()];
+    for (IndexSegment segment : all) {
+      for (Map.Entry<String, TokenInfo> entry : segment.tokenHash.entrySet()) {
+        double idf = stats.get(entry.getKey()).idf;
+        if (idf == 0.0)
+          continue;
+        TokenInfo tokenInfo = entry.getValue();
+        PostingsCursor cursor = tokenInfo.cursor();
+        for (int docId = cursor.nextDoc(); docId != PostingsCursor.NO_MORE_DOCS; docId = cursor.nextDoc()) {
+          double weight = idf * cursor.count();
+          lengths[docId] += weight * weight;
+        }
+      }
+    }
+    for (int docId = 0; docId < lengths.length; docId++)
+      lengths[docId] = Math.sqrt(lengths[docId]);
+    // Bound the score of each token over the undeleted documents, and
+    // count the tokens of each document
+    int[] sizes = new int[docRefs.size()];
+    for (IndexSegment segment : all) {
+      for (Map.Entry<String, TokenInfo> entry : segment.tokenHash.entrySet()) {
+        TokenInfo stat = stats.get(entry.getKey());
+        TokenInfo tokenInfo = entry.getValue();
+        PostingsCursor cursor = tokenInfo.cursor();
+        for (int docId = cursor.nextDoc(); docId != PostingsCursor.NO_MORE_DOCS; docId = cursor.nextDoc()) {
+          sizes[docId] += cursor.count();
+          if (deletedDocs.get(docId))
+            continue;
+          double score = stat.idf * cursor.count() / lengths[docId];
+          if (score > stat.maxScore)
+            stat.maxScore = score;
+        }
+      }
+    }
+    Statistics statistics = new Statistics();
+    statistics.tokenHash = stats;
+    statistics.lengths = lengths;
+    statistics.sizes = sizes;
+    return statistics;
+  }
+
+  /**
+   * The TokenInfo's of the index keep no postings, and their numDocs is
+   * already the number of undeleted documents the token occurs in.
+   */
+  protected int documentFrequency(TokenInfo tokenInfo) {
+    return tokenInfo.numDocs;
+  }
+
+  /**
+   * Make the given statistics the current ones.
+   */
+  protected void installStatistics(Statistics statistics) {
+    tokenHash = statistics.tokenHash;
+    docLengths = statistics.lengths;
+    docSizes = statistics.sizes;
+    for (int docId = 0; docId < docLengths.length; docId++)
+      setDocumentLength(docId, docLengths[docId]);
+    scorer.init(this);
+  }
+
+  /**
+   * Add the contribution of a query token to the scores of the documents
+   * in every segment that it occurs in.
+   */
+  public double incorporateToken(String token, double count, ScoreAccumulator accumulator) {
+    TokenInfo stat = tokenHash.get(token);
+    // If token is not in the index, or the scorer skips it, it adds
+    // nothing and its squared weight is 0
+    if (stat == null) return 0.0;
+    double weight = scorer.queryWeight(stat, count);
+    if (weight == 0.0) return 0.0;
+    double scale = scorer.scale(stat, weight);
+    // Segments are in order of document id, so documents are touched in
+    // the same order as in an unsegmented index
+    for (IndexSegment segment : allSegments()) {
+      TokenInfo tokenInfo = segment.tokenHash.get(token);
+      if (tokenInfo == null) continue;
+      PostingsCursor cursor = tokenInfo.cursor();
+      for (int docId = cursor.nextDoc(); docId != PostingsCursor.NO_MORE_DOCS; docId = cursor.nextDoc()) {
+        accumulator.add(docId, scorer.score(scale, docId, cursor.count()));
+      }
+    }
+    return weight * weight;
+  }
+
+  /**
+   * Add the contribution of a query token to the scores in a map from
+   * document references, for every segment that it occurs in.
+   */
+  public double incorporateToken(String token, double count,
+                                 Map<DocumentReference, DoubleValue> retrievalHash) {
+    TokenInfo stat = tokenHash.get(token);
+    if (stat == null) return 0.0;
+    double weight = scorer.queryWeight(stat, count);
+    if (weight == 0.0) return 0.0;
+    double scale = scorer.scale(stat, weight);
+    for (IndexSegment segment : allSegments()) {
+      TokenInfo tokenInfo = segment.tokenHash.get(token);
+      if (tokenInfo == null) continue;
+      PostingsCursor cursor = tokenInfo.cursor();
+      for (int docId = cursor.nextDoc(); docId != PostingsCursor.NO_MORE_DOCS; docId = cursor.nextDoc()) {
+        if (deletedDocs.get(docId))
+          continue;
+        DocumentReference docRef = docRefs.get(docId);
+        DoubleValue val = retrievalHash.get(docRef);
+        if (val == null) {
+          val = new DoubleValue(0.0);
+          retrievalHash.put(docRef, val);
+        }
+        val.value = val.value + scorer.score(scale, docId, cursor.count());
+      }
+    }
+    return weight * weight;
+  }
+
+  /**
+   * Retrieve the best k documents with MaxScore pruning, evaluating one
+   * segment after another into the same heap so the threshold reached in
+   * earlier segments also prunes later ones.
+   */
+  public Retrieval[] retrievePruned(HashMapVector vector, int k) {
+    if (k <= 0)
+      return new Retrieval[0];
+    beginRetrieval();
+    try {
+      // The heap needs no more room than there are documents
+      k = Math.min(k, docRefs.size());
+      RetrievalHeap heap = new RetrievalHeap(k);
+      for (IndexSegment segment : allSegments()) {
+        MaxScoreEvaluator evaluator = new MaxScoreEvaluator();
+        if (!evaluator.init(this, segment.tokenHash, vector))
+          return retrieve(vector, k);
+        evaluator.evaluate(heap);
+      }
+      return heap.retrievals(docRefs);
+    }
+    finally {
+      endRetrieval();
+    }
+  }
+
+  /**
+   * Retrieve the documents that match a Boolean query, matching it against
+   * the postings of one segment after another.  Segments are in order of
+   * document id, so the matches come out in the same order as from an
+   * unsegmented index and are ranked the same.
+   */
+  public Retrieval[] retrieve(BooleanQuery query) {
+    beginRetrieval();
+    try {
+      List<Retrieval> retrievals = new ArrayList<Retrieval>();
+      for (IndexSegment segment : allSegments())
+        query.addMatches(this, segment.tokenHash, segment.firstDocId, segment.endDocId, retrievals);
+      return BooleanQuery.rank(retrievals);
+    }
+    finally {
+      endRetrieval();
+    }
+  }
+
+  /**
+   * Return an ordinary InvertedIndex of the same documents, concatenating
+   * the postings of all segments (without those of deleted documents).
+   * It shares this index's DocumentReference's.
+   */
+  public InvertedIndex toInvertedIndex() {
+    beginRetrieval();
+    try {
+      IndexSegment merged = IndexSegment.merge(allSegments(), deletedDocs);
+      InvertedIndex index = new InvertedIndex();
+      index.dirFile = dirFile;
+      index.docType = docType;
+      index.stem = stem;
+      index.stopWords = stopWords;
+      index.docRefs.addAll(docRefs);
+      index.deletedDocs = (BitSet) deletedDocs.clone();
+      for (Map.Entry<String, TokenInfo> entry : merged.tokenHash.entrySet()) {
+        TokenInfo tokenInfo = entry.getValue();
+        TokenInfo stat = tokenHash.get(entry.getKey());
+        tokenInfo.idf = stat.idf;
+        tokenInfo.maxScore = stat.maxScore;
+        tokenInfo.liveDocs = stat.liveDocs;
+        index.tokenHash.put(entry.getKey(), tokenInfo);
+      }
+      index.docLengths = docLengths == null ? null : docLengths.clone();
+      index.docSizes = docSizes == null ? null : docSizes.clone();
+      if (index.docLengths != null)
+        index.scorer.init(index);
+      return index;
+    }
+    finally {
+      endRetrieval();
+    }
+  }
+
+  /**
+   * Save this index in the format of InvertedIndex.save, as a single
+   * segment, so it can be reopened with InvertedIndex.open.
+   */
+  public void save(Path path) throws IOException {
+    toInvertedIndex().save(path);
+  }
+
+  /**
+   * Print out the index by listing each token and the documents it occurs in.
+   */
+  public void print() {
+    toInvertedIndex().print();
+  }
+
+  /**
+   * The postings of a SegmentedIndex are kept in its segments, so there is
+   * no single token table to compact.
+   */
+  public void compactDictionary() {
+    throw new UnsupportedOperationException("Cannot compact the dictionary of a SegmentedIndex");
+  }
+
+  /**
+   * The statistics of a SegmentedIndex are computed from exact document
+   * lengths, which a DocumentTable might round.
+   */
+  public void compactDocuments(short lengthType) {
+    throw new UnsupportedOperationException("Cannot compact the documents of a SegmentedIndex");
+  }
+
+  /**
+   * Clear all documents and segments from the index
+   */
+  public void clear() {
+    lock.writeLock().lock();
+    try {
+      super.clear();
+      segments.clear();
+      buffer = new IndexSegment(0);
+      modCount++;
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+}
@@ -0,0 +1,214 @@
+package ir.vsr;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * Serves a LocalShard in its own process to a RemoteShard, which starts
+ * it and talks to it over its standard input and output.  Each request is
+ * a command byte followed by its arguments, and each reply is STATUS_OK
+ * followed by the result or STATUS_ERROR followed by a message, all in the
+ * format of DataOutputStream.  Anything the shard prints goes to standard
+ * error, which the RemoteShard passes on.
+ * <p>
+ * The arguments of the process are the document type, whether to stem,
+ * and optionally the name of the charset to decode files with.  The first
+ * thing sent is the number of stopwords followed by the stopwords, or -1
+ * for the default list.
+ */
+public class ShardServer {
+
+  /**
+   * Stop serving and exit
+   */
+  public static final byte CLOSE = 0;
+
+  /**
+   * Index documents: their number, then the path and global id of each
+   */
+  public static final byte INDEX = 1;
+
+  /**
+   * Return the TermStatistics of the shard: the number of tokens, then
+   * each token with its number of documents and first occurrence
+   */
+  public static final byte TERM_STATISTICS = 2;
+
+  /**
+   * Install the collection statistics: the number of tokens, then each
+   * token with its IDF; replies with the number of documents and the
+   * length of each
+   */
+  public static final byte COLLECTION_STATISTICS = 3;
+
+  /**
+   * Search: k, the size of the query vector, then each token with its
+   * weight; replies with the number of hits and the global id and score
+   * of each
+   */
+  public static final byte SEARCH = 4;
+
+  /**
+   * The reply to a request that succeeded
+   */
+  public static final byte STATUS_OK = 0;
+
+  /**
+   * The reply to a request that failed, followed by a message
+   */
+  public static final byte STATUS_ERROR = 1;
+
+  /**
+   * The shard served
+   */
+  protected final LocalShard shard;
+
+  /**
+   * The stream requests are read from
+   */
+  protected final DataInputStream in;
+
+  /**
+   * The stream replies are written to
+   */
+  protected final DataOutputStream out;
+
+  /**
+   * Create a server of the given shard over the given streams.
+   */
+  public ShardServer(LocalShard shard, DataInputStream in, DataOutputStream out) {
+    this.shard = shard;
+    this.in = in;
+    this.out = out;
+  }
+
+  /**
+   * Answer requests until told to close or the input ends.
+   */
+  public void serve() throws IOException {
+    while (true) {
+      int command = in.read();
+      if (command < 0 || command == CLOSE)
+        return;
+      try {
+        switch (command) {
+          case INDEX:
+            index();
+            break;
+          case TERM_STATISTICS:
+            termStatistics();
+            break;
+          case COLLECTION_STATISTICS:
+            collectionStatistics();
+            break;
+          case SEARCH:
+            search();
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown command: " + command);
+        }
+      }
+      catch (RuntimeException e) {
+        // Report the failure, the request having been read in full
+        e.printStackTrace();
+        out.writeByte(STATUS_ERROR);
+        out.writeUTF(String.valueOf(e));
+      }
+      out.flush();
+    }
+  }
+
+  /**
+   * Read and index a batch of documents.
+   */
+  protected void index() throws IOException {
+    int n = in.readInt();
+    List<File> files = new ArrayList<File>(n);
+    int[] docIds = new int[n];
+    for (int i = 0; i < n; i++) {
+      files.add(new File(in.readUTF()));
+      docIds[i] = in.readInt();
+    }
+    shard.index(files, docIds);
+    out.writeByte(STATUS_OK);
+  }
+
+  /**
+   * Write the statistics of the tokens of the shard.
+   */
+  protected void termStatistics() throws IOException {
+    IndexShard.TermStatistics statistics = shard.termStatistics();
+    out.writeByte(STATUS_OK);
+    out.writeInt(statistics.tokens.length);
+    for (int i = 0; i < statistics.tokens.length; i++) {
+      out.writeUTF(statistics.tokens[i]);
+      out.writeInt(statistics.numDocs[i]);
+      out.writeLong(statistics.firstOccurrences[i]);
+    }
+  }
+
+  /**
+   * Read and install the collection statistics and write the document
+   * lengths computed from them.
+   */
+  protected void collectionStatistics() throws IOException {
+    int n = in.readInt();
+    String[] tokens = new String[n];
+    double[] idf = new double[n];
+    for (int i = 0; i < n; i++) {
+      tokens[i] = in.readUTF();
+      idf[i] = in.readDouble();
+    }
+    double[] lengths = shard.setCollectionStatistics(tokens, idf);
+    out.writeByte(STATUS_OK);
+    out.writeInt(lengths.length);
+    for (double length : lengths)
+      out.writeDouble(length);
+  }
+
+  /**
+   * Read a query and write the best documents for it.
+   */
+  protected void search() throws IOException {
+    int k = in.readInt();
+    int size = in.readInt();
+    HashMapVector vector = new HashMapVector(size);
+    for (int i = 0; i < size; i++) {
+      String token = in.readUTF();
+      vector.increment(token, in.readDouble());
+    }
+    IndexShard.Hits hits = shard.search(vector, k);
+    out.writeByte(STATUS_OK);
+    out.writeInt(hits.docIds.length);
+    for (int i = 0; i < hits.docIds.length; i++) {
+      out.writeInt(hits.docIds[i]);
+      out.writeDouble(hits.scores[i]);
+    }
+  }
+
+  /**
+   * Serve a shard over standard input and output.
+   */
+  public static void main(String[] args) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+    // Keep anything printed out of the replies
+    System.setOut(System.err);
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+    short docType = Short.parseShort(args[0]);
+    boolean stem = Boolean.parseBoolean(args[1]);
+    if (args.length > 2)
+      FileDocument.charset = Charset.forName(args[2]);
+    StopWordFilter stopWords = null;
+    int numStopWords = in.readInt();
+    if (numStopWords >= 0) {
+      List<String> words = new ArrayList<String>(numStopWords);
+      for (int i = 0; i < numStopWords; i++)
+        words.add(in.readUTF());
+      stopWords = new StopWordFilter(words);
+    }
+    new ShardServer(new LocalShard(docType, stem, stopWords), in, out).serve();
+  }
+}
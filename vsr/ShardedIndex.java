@@ -0,0 +1,370 @@
+package ir.vsr;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+import ir.utilities.*;
+
+/**
+ * An InvertedIndex whose documents are split by a hash of their paths
+ * across a number of IndexShard's, each with an index of its own, either
+ * in this JVM (LocalShard) or in separate local processes (RemoteShard),
+ * so the collection is not limited to one heap and the shards index and
+ * search in parallel.  This index keeps only the document table, with the
+ * global id of each document its position in the table.
+ * <p>
+ * The shards first index their documents in parallel.  The IDF factors of
+ * the collection are then computed once here, from the number of documents
+ * each shard reports for each token, and sent to every shard, which
+ * computes the lengths of its documents with them.  Each query is scattered
+ * to all shards, each returns its best k documents scored as a single
+ * index of the collection would score them, and the lists are merged into
+ * the best k overall, with ties going to the lower global id as in a single
+ * index.  The ranking is the same as that of an InvertedIndex of the same
+ * directory, score for score.
+ * <p>
+ * Only cosine ranking of bags of words is supported, and documents cannot
+ * be added or deleted once the index is built.
+ */
+public class ShardedIndex extends InvertedIndex {
+
+  /**
+   * The shards of the collection
+   */
+  protected final IndexShard[] shards;
+
+  /**
+   * Runs the requests to the shards in parallel
+   */
+  protected final ExecutorService shardExecutor;
+
+  /**
+   * The number of distinct tokens in the collection
+   */
+  protected int numTokens = 0;
+
+  /**
+   * Create an index of the documents in a directory split across shards in
+   * this JVM.
+   *
+   * @param dirFile   The directory of files to index.
+   * @param docType   The type of documents to index (See docType in DocumentIterator)
+   * @param stem      Whether tokens should be stemmed with Porter stemmer.
+   * @param feedback  Whether relevance feedback should be used.
+   * @param numShards The number of shards.
+   * @param stopWords The stopwords to remove, or null for the default list.
+   */
+  public ShardedIndex(File dirFile, short docType, boolean stem, boolean feedback, int numShards,
+                      StopWordFilter stopWords) throws IOException {
+    this(dirFile, docType, stem, feedback, numShards, stopWords, null);
+  }
+
+  /**
+   * Create an index of the documents in a directory split across shards,
+   * each in a process of its own if jvmOptions is not null.
+   *
+   * @param dirFile    The directory of files to index.
+   * @param docType    The type of documents to index (See docType in DocumentIterator)
+   * @param stem       Whether tokens should be stemmed with Porter stemmer.
+   * @param feedback   Whether relevance feedback should be used.
+   * @param numShards  The number of shards.
+   * @param stopWords  The stopwords to remove, or null for the default list.
+   * @param jvmOptions The options for the JVM of each shard process, or
+   *                   null to keep the shards in this JVM.
+   */
+  public ShardedIndex(File dirFile, short docType, boolean stem, boolean feedback, int numShards,
+                      StopWordFilter stopWords, List<String> jvmOptions) throws IOException {
+    if (numShards < 1)
+      throw new IllegalArgumentException("Number of shards must be positive: " + numShards);
+    this.dirFile = dirFile;
+    this.docType = docType;
+    this.stem = stem;
+    this.stopWords = stopWords;
+    this.feedback = feedback;
+    docRefs = new DocumentTable(DocumentTable.DOUBLE_LENGTHS);
+    shards = new IndexShard[numShards];
+    shardExecutor = Executors.newFixedThreadPool(numShards, new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "shard-request");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    try {
+      for (int s = 0; s < numShards; s++)
+        shards[s] = jvmOptions == null ? new LocalShard(docType, stem, stopWords) :
+            new RemoteShard(docType, stem, stopWords, jvmOptions);
+      buildShards();
+    }
+    catch (IOException | RuntimeException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Assign the files of the directory to shards, index them, and give the
+   * shards the collection statistics.
+   */
+  protected void buildShards() throws IOException {
+    System.out.println("Indexing documents in " + dirFile + " into " + shards.length + " shards");
+    // List the files in the same order as a DocumentIterator, so the
+    // global ids are those a single index would give them
+    File[] files = dirFile.listFiles();
+    final List<List<File>> shardFiles = new ArrayList<List<File>>();
+    List<List<Integer>> shardIds = new ArrayList<List<Integer>>();
+    for (int s = 0; s < shards.length; s++) {
+      shardFiles.add(new ArrayList<File>());
+      shardIds.add(new ArrayList<Integer>());
+    }
+    for (int docId = 0; docId < files.length; docId++) {
+      docRefs.add(new DocumentReference(files[docId], 0.0));
+      int s = shardOf(files[docId]);
+      shardFiles.get(s).add(files[docId]);
+      shardIds.get(s).add(docId);
+    }
+    final int[][] ids = new int[shards.length][];
+    for (int s = 0; s < shards.length; s++) {
+      ids[s] = new int[shardIds.get(s).size()];
+      for (int i = 0; i < ids[s].length; i++)
+        ids[s][i] = shardIds.get(s).get(i);
+    }
+    // Index the shards in parallel
+    List<Callable<Void>> indexing = new ArrayList<Callable<Void>>();
+    for (int s = 0; s < shards.length; s++) {
+      final int shard = s;
+      indexing.add(new Callable<Void>() {
+        public Void call() throws IOException {
+          shards[shard].index(shardFiles.get(shard), ids[shard]);
+          return null;
+        }
+      });
+    }
+    invokeAll(indexing);
+    // Sum the document frequencies of each token across shards, noting
+    // where it first occurs in the collection
+    List<Callable<IndexShard.TermStatistics>> gathering = new ArrayList<Callable<IndexShard.TermStatistics>>();
+    for (final IndexShard shard : shards) {
+      gathering.add(new Callable<IndexShard.TermStatistics>() {
+        public IndexShard.TermStatistics call() throws IOException {
+          return shard.termStatistics();
+        }
+      });
+    }
+    Map<String, long[]> collection = new HashMap<String, long[]>();
+    for (IndexShard.TermStatistics statistics : invokeAll(gathering)) {
+      for (int i = 0; i < statistics.tokens.length; i++) {
+        long[] stat = collection.get(statistics.tokens[i]);
+        if (stat == null)
+          collection.put(statistics.tokens[i], new long[]{statistics.numDocs[i], statistics.firstOccurrences[i]});
+        else {
+          stat[0] += statistics.numDocs[i];
+          stat[1] = Math.min(stat[1], statistics.firstOccurrences[i]);
+        }
+      }
+    }
+    // Order the tokens by first occurrence and compute their IDF factors
+    // as InvertedIndex.computeIDF does
+    final String[] tokens = collection.keySet().toArray(new String[0]);
+    final Map<String, long[]> stats = collection;
+    Arrays.sort(tokens, new Comparator<String>() {
+      public int compare(String a, String b) {
+        return Long.compare(stats.get(a)[1], stats.get(b)[1]);
+      }
+    });
+    double N = files.length;
+    final double[] idf = new double[tokens.length];
+    for (int i = 0; i < tokens.length; i++) {
+      double numDocRefs = stats.get(tokens[i])[0];
+      idf[i] = Math.log(N / numDocRefs);
+    }
+    numTokens = tokens.length;
+    // Distribute them and collect the resulting document lengths
+    List<Callable<double[]>> installing = new ArrayList<Callable<double[]>>();
+    for (final IndexShard shard : shards) {
+      installing.add(new Callable<double[]>() {
+        public double[] call() throws IOException {
+          return shard.setCollectionStatistics(tokens, idf);
+        }
+      });
+    }
+    List<double[]> lengths = invokeAll(installing);
+    DocumentTable table = (DocumentTable) docRefs;
+    for (int s = 0; s < shards.length; s++) {
+      for (int i = 0; i < ids[s].length; i++)
+        table.setLength(ids[s][i], lengths.get(s)[i]);
+    }
+    System.out.println("Indexed " + docRefs.size() + " documents with " + size() + " unique terms.");
+  }
+
+  /**
+   * Return the shard a file belongs to, by the hash of its path.
+   */
+  protected int shardOf(File file) {
+    return Math.floorMod(file.getPath().hashCode(), shards.length);
+  }
+
+  /**
+   * Run the tasks on the shard executor and return their results in order,
+   * rethrowing the first failure.
+   */
+  protected <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+    List<T> results = new ArrayList<T>(tasks.size());
+    try {
+      for (Future<T> future : shardExecutor.invokeAll(tasks))
+        results.add(future.get());
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for the shards");
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      throw new RuntimeException(e.getCause());
+    }
+    return results;
+  }
+
+  /**
+   * Scatter the query vector to every shard for its best k documents and
+   * merge their lists into the best k of the collection.
+   */
+  protected Retrieval[] search(final HashMapVector vector, final int k) {
+    if (k <= 0)
+      return new Retrieval[0];
+    RetrievalCache.Key key = null;
+    if (cache != null) {
+      key = cache.key(vector, k, scorer);
+      Retrieval[] cached = cache.get(key);
+      if (cached != null)
+        return cached;
+    }
+    List<Callable<IndexShard.Hits>> requests = new ArrayList<Callable<IndexShard.Hits>>(shards.length);
+    for (final IndexShard shard : shards) {
+      requests.add(new Callable<IndexShard.Hits>() {
+        public IndexShard.Hits call() throws IOException {
+          return shard.search(vector, k);
+        }
+      });
+    }
+    List<IndexShard.Hits> results;
+    try {
+      results = invokeAll(requests);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    int numHits = 0;
+    for (IndexShard.Hits hits : results)
+      numHits += hits.docIds.length;
+    // Each list is ranked with ties broken by global id, so offering all
+    // of them to one heap gives the ranking of a single index
+    RetrievalHeap heap = new RetrievalHeap(Math.min(k, numHits));
+    for (IndexShard.Hits hits : results) {
+      for (int i = 0; i < hits.docIds.length; i++)
+        heap.offer(hits.docIds[i], hits.scores[i]);
+    }
+    Retrieval[] retrievals = heap.retrievals(docRefs);
+    if (key != null)
+      cache.put(key, retrievals);
+    return retrievals;
+  }
+
+  /**
+   * Rank every document matching the query vector.
+   */
+  public Retrieval[] retrieve(HashMapVector vector) {
+    return search(vector, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Return the best k documents for the query vector.
+   */
+  public Retrieval[] retrieve(HashMapVector vector, int k) {
+    return search(vector, k);
+  }
+
+  /**
+   * The shards always prune with MaxScore, so this is retrieve(vector, k).
+   */
+  public Retrieval[] retrievePruned(HashMapVector vector, int k) {
+    return search(vector, k);
+  }
+
+  /**
+   * Return the number of distinct tokens in the collection.
+   */
+  public int size() {
+    return numTokens;
+  }
+
+  /**
+   * Stop the shard processes, if any, and the threads sending requests to
+   * the shards.
+   */
+  public void close() {
+    for (IndexShard shard : shards) {
+      if (shard == null)
+        continue;
+      try {
+        shard.close();
+      }
+      catch (IOException e) {
+        System.err.println("Could not close shard: " + e);
+      }
+    }
+    shardExecutor.shutdown();
+  }
+
+  public Retrieval[] retrieve(PhraseQuery query) {
+    throw new UnsupportedOperationException("Phrase queries are not supported by a ShardedIndex");
+  }
+
+  public Retrieval[] retrieve(BooleanQuery query) {
+    throw new UnsupportedOperationException("Boolean queries are not supported by a ShardedIndex");
+  }
+
+  public int addDocument(FileDocument doc) {
+    throw new UnsupportedOperationException("Cannot add documents to a ShardedIndex");
+  }
+
+  public boolean deleteDocument(int docId) {
+    throw new UnsupportedOperationException("Cannot delete documents from a ShardedIndex");
+  }
+
+  /**
+   * The shards are scored by cosine similarity, which the collection
+   * statistics they are given are for.
+   */
+  public void setScorer(Scorer scorer) {
+    if (scorer.getClass() != CosineScorer.class)
+      throw new UnsupportedOperationException("A ShardedIndex only ranks by cosine similarity");
+  }
+
+  public IndexSnapshot snapshot() {
+    throw new UnsupportedOperationException("Cannot snapshot a ShardedIndex");
+  }
+
+  public void compress(PostingsCodec codec) {
+    throw new UnsupportedOperationException("Cannot compress the postings of a ShardedIndex");
+  }
+
+  public void compactDictionary() {
+    throw new UnsupportedOperationException("Cannot compact the dictionary of a ShardedIndex");
+  }
+
+  public void save(Path path) throws IOException {
+    throw new UnsupportedOperationException("Cannot save a ShardedIndex");
+  }
+
+  /**
+   * Print out the shards of the index.
+   */
+  public void print() {
+    for (IndexShard shard : shards)
+      System.out.println(shard);
+  }
+}
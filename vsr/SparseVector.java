@@ -0,0 +1,478 @@
+package ir.vsr;
+
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * A sparse vector of weights keyed by token, stored without a Weight or a
+ * map entry per token.  The tokens and their weights are kept in parallel
+ * arrays in the order tokens were added, so iterating over a vector is a
+ * plain array loop:
+ * <pre>
+ *   for (int i = 0; i &lt; vector.size(); i++)
+ *     ... vector.token(i) ... vector.weight(i) ...
+ * </pre>
+ * A PositionTable, an open-addressed hash table of positions probed
+ * linearly, finds the weight of a given token; the hash code of each token
+ * is kept alongside it so that a probe only calls equals on a likely
+ * match.  Scaling, adding and subtracting update the weight array in
+ * place, and copy clones the arrays instead of rebuilding the table.
+ * Tokens whose weight falls to 0 stay in the vector with weight 0, as in
+ * a HashMapVector.
+ * <p>
+ * Unlike the HashMap a HashMapVector once kept its Weights in, the vector
+ * iterates, prints and converts to a string in the order tokens were
+ * added rather than in hash order, and setting the value of an entry of
+ * entrySet copies the weight of the given Weight into the vector rather
+ * than putting that Weight object in it.
+ */
+public class SparseVector {
+
+  /**
+   * The initial number of tokens a vector has room for
+   */
+  public static final int INITIAL_CAPACITY = 8;
+
+  /**
+   * The tokens in the order they were added
+   */
+  protected String[] tokens;
+
+  /**
+   * The hash code of each token in tokens
+   */
+  protected int[] hashes;
+
+  /**
+   * The weight of each token in tokens
+   */
+  protected double[] weights;
+
+  /**
+   * The number of tokens
+   */
+  protected int size = 0;
+
+  /**
+   * The position in tokens of each token, by hash code
+   */
+  protected PositionTable table;
+
+  /**
+   * Create an empty vector
+   */
+  public SparseVector() {
+    this(INITIAL_CAPACITY);
+  }
+
+  /**
+   * Create an empty vector with room for the given number of tokens
+   */
+  public SparseVector(int capacity) {
+    capacity = Math.max(capacity, 1);
+    tokens = new String[capacity];
+    hashes = new int[capacity];
+    weights = new double[capacity];
+    table = new PositionTable(capacity);
+  }
+
+  /**
+   * Returns the number of tokens in the vector.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Return the ith token, in the order tokens were added
+   */
+  public String token(int i) {
+    return tokens[i];
+  }
+
+  /**
+   * Return the weight of the ith token
+   */
+  public double weight(int i) {
+    return weights[i];
+  }
+
+  /**
+   * Clears the vector back to all zeros
+   */
+  public void clear() {
+    table.clear();
+    Arrays.fill(tokens, 0, size, null);
+    size = 0;
+  }
+
+  /**
+   * Return the weight of the given token in the vector
+   */
+  public double getWeight(String token) {
+    int i = find(token);
+    return i < 0 ? 0.0 : weights[i];
+  }
+
+  /**
+   * Return whether the given token is in the vector
+   */
+  public boolean contains(String token) {
+    return find(token) >= 0;
+  }
+
+  /**
+   * Increment the weight for the given token in the vector by the given amount.
+   */
+  public double increment(String token, double amount) {
+    int hash = token.hashCode();
+    int slot = table.first(hash);
+    // Probe until finding the token or an empty slot
+    for (int i = table.position(slot); i >= 0; i = table.position(slot)) {
+      if (hashes[i] == hash && tokens[i].equals(token))
+        return weights[i] += amount;
+      slot = table.next(slot);
+    }
+    if (size == tokens.length) {
+      grow();
+      return increment(token, amount);
+    }
+    tokens[size] = token;
+    hashes[size] = hash;
+    weights[size] = amount;
+    table.put(slot, size++);
+    return amount;
+  }
+
+  /**
+   * Increment the weight for the given token in the vector by 1.
+   */
+  public double increment(String token) {
+    return increment(token, 1.0);
+  }
+
+  /**
+   * Increment the weight for the given token in the vector by the given int
+   */
+  public double increment(String token, int amount) {
+    return increment(token, (double) amount);
+  }
+
+  /**
+   * Destructively add the given vector to the current vector
+   */
+  public void add(SparseVector vector) {
+    addScaled(vector, 1.0);
+  }
+
+  /**
+   * Destructively add a scaled version of the given vector to the current vector
+   */
+  public void addScaled(SparseVector vector, double scalingFactor) {
+    ensureCapacity(size + vector.size);
+    for (int i = 0; i < vector.size; i++)
+      addHashed(vector.tokens[i], vector.hashes[i], scalingFactor * vector.weights[i]);
+  }
+
+  /**
+   * Destructively subtract the given vector from the current vector
+   */
+  public void subtract(SparseVector vector) {
+    addScaled(vector, -1.0);
+  }
+
+  /**
+   * Destructively multiply the vector by a constant
+   */
+  public void multiply(double factor) {
+    for (int i = 0; i < size; i++)
+      weights[i] *= factor;
+  }
+
+  /**
+   * Produce a copy of this vector with its own arrays
+   */
+  public SparseVector copy() {
+    SparseVector result = new SparseVector(0);
+    copyInto(result);
+    return result;
+  }
+
+  /**
+   * Make the given vector a copy of this one.
+   */
+  protected void copyInto(SparseVector result) {
+    result.tokens = tokens.clone();
+    result.hashes = hashes.clone();
+    result.weights = weights.clone();
+    result.table = table.copy();
+    result.size = size;
+  }
+
+  /**
+   * Returns the maximum weight of any token in the vector.
+   */
+  public double maxWeight() {
+    double maxWeight = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < size; i++) {
+      if (weights[i] > maxWeight)
+        maxWeight = weights[i];
+    }
+    return maxWeight;
+  }
+
+  /**
+   * Returns the Set of map entries of the tokens and their weights, in the
+   * order tokens were added.  The entries are made as the set is iterated,
+   * and both setting the value of an entry and setting the value of its
+   * Weight set the weight in the vector.  Looping over size() with
+   * token(i) and weight(i) avoids making them.
+   */
+  public Set<Map.Entry<String, Weight>> entrySet() {
+    return new AbstractSet<Map.Entry<String, Weight>>() {
+      public int size() {
+        return size;
+      }
+
+      public Iterator<Map.Entry<String, Weight>> iterator() {
+        return new Iterator<Map.Entry<String, Weight>>() {
+          int i = 0;
+
+          public boolean hasNext() {
+            return i < size;
+          }
+
+          public Map.Entry<String, Weight> next() {
+            if (i >= size)
+              throw new NoSuchElementException();
+            return new Entry(i++);
+          }
+
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * Print out the vector showing the tokens and their weights
+   */
+  public void print() {
+    for (int i = 0; i < size; i++)
+      System.out.println(tokens[i] + ":" + weights[i]);
+  }
+
+  /**
+   * Return String of the vector showing the tokens and their weights
+   */
+  public String toString() {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < size; i++)
+      result.append(tokens[i]).append(": ").append(weights[i]).append(' ');
+    return result.toString();
+  }
+
+  /**
+   * Return the dot product of this vector with another, looking up the
+   * tokens of the smaller one in the larger one.
+   */
+  public double dot(SparseVector otherVector) {
+    SparseVector smaller = this, larger = otherVector;
+    if (otherVector.size < size) {
+      smaller = otherVector;
+      larger = this;
+    }
+    double dotProd = 0;
+    for (int i = 0; i < smaller.size; i++) {
+      int j = larger.find(smaller.tokens[i], smaller.hashes[i]);
+      if (j >= 0)
+        dotProd += smaller.weights[i] * larger.weights[j];
+    }
+    return dotProd;
+  }
+
+  /**
+   * Computes cosine of angle to otherVector.
+   */
+  public double cosineTo(SparseVector otherVector) {
+    return cosineTo(otherVector, otherVector.length());
+  }
+
+  /**
+   * Computes cosine of angle to otherVector when also given otherVector's Euclidian length
+   * (Allows saving computation if length already known.)
+   */
+  public double cosineTo(SparseVector otherVector, double length) {
+    // cosine is dot product over product of lengths
+    return dot(otherVector) / (length() * length);
+  }
+
+  /**
+   * Compute Euclidian length (sqrt of sum of squares) of vector
+   */
+  public double length() {
+    double sum = 0;
+    for (int i = 0; i < size; i++)
+      sum += weights[i] * weights[i];
+    return Math.sqrt(sum);
+  }
+
+  /**
+   * Return the position of the given token, or -1 if it is not in the vector.
+   */
+  protected int find(String token) {
+    return find(token, token.hashCode());
+  }
+
+  /**
+   * Return the position of the given token with the given hash code, or -1
+   * if it is not in the vector.
+   */
+  protected int find(String token, int hash) {
+    int slot = table.first(hash);
+    for (int i = table.position(slot); i >= 0; i = table.position(slot)) {
+      if (hashes[i] == hash && tokens[i].equals(token))
+        return i;
+      slot = table.next(slot);
+    }
+    return -1;
+  }
+
+  /**
+   * Increment the weight of a token whose hash code is known, when there is
+   * room for it.
+   */
+  protected void addHashed(String token, int hash, double amount) {
+    int slot = table.first(hash);
+    for (int i = table.position(slot); i >= 0; i = table.position(slot)) {
+      if (hashes[i] == hash && tokens[i].equals(token)) {
+        weights[i] += amount;
+        return;
+      }
+      slot = table.next(slot);
+    }
+    tokens[size] = token;
+    hashes[size] = hash;
+    weights[size] = amount;
+    table.put(slot, size++);
+  }
+
+  /**
+   * Make room for at least the given number of tokens.
+   */
+  protected void ensureCapacity(int capacity) {
+    if (capacity > tokens.length)
+      resize(capacity);
+  }
+
+  /**
+   * Make room for half again as many tokens.
+   */
+  protected void grow() {
+    resize(tokens.length + (tokens.length >> 1) + 1);
+  }
+
+  /**
+   * Reallocate the arrays for the given capacity and rehash the tokens.
+   */
+  protected void resize(int capacity) {
+    tokens = Arrays.copyOf(tokens, capacity);
+    hashes = Arrays.copyOf(hashes, capacity);
+    weights = Arrays.copyOf(weights, capacity);
+    table.resize(capacity, hashes, size);
+  }
+
+  /**
+   * An entry of entrySet, for the token at a position
+   */
+  protected class Entry implements Map.Entry<String, Weight> {
+    /**
+     * The position of the token
+     */
+    final int i;
+
+    Entry(int i) {
+      this.i = i;
+    }
+
+    public String getKey() {
+      return tokens[i];
+    }
+
+    /**
+     * Return a Weight that reads and writes the weight of the token in the vector.
+     */
+    public Weight getValue() {
+      return new EntryWeight(i);
+    }
+
+    /**
+     * Set the weight of the token in the vector to that of the given
+     * Weight, returning a Weight with the old one.
+     */
+    public Weight setValue(Weight value) {
+      Weight old = new Weight();
+      old.setValue(weights[i]);
+      weights[i] = value.getValue();
+      return old;
+    }
+
+    public String toString() {
+      return tokens[i] + "=" + weights[i];
+    }
+  }
+
+  /**
+   * The Weight of an entry of entrySet, which reads and writes the weight
+   * of its token in the vector.
+   */
+  protected class EntryWeight extends Weight {
+    /**
+     * The position of the token
+     */
+    final int i;
+
+    EntryWeight(int i) {
+      this.i = i;
+    }
+
+    public double increment() {
+      return ++weights[i];
+    }
+
+    public double increment(int n) {
+      return weights[i] += n;
+    }
+
+    public double increment(double n) {
+      return weights[i] += n;
+    }
+
+    public double decrement() {
+      return --weights[i];
+    }
+
+    public double decrement(int n) {
+      return weights[i] -= n;
+    }
+
+    public double decrement(double n) {
+      return weights[i] -= n;
+    }
+
+    public double getValue() {
+      return weights[i];
+    }
+
+    public double setValue(int value) {
+      return weights[i] = value;
+    }
+
+    public double setValue(double value) {
+      return weights[i] = value;
+    }
+  }
+}
@@ -0,0 +1,371 @@
+package ir.vsr;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A read-only sorted dictionary mapping each of a set of terms to a term id,
+ * its position in sorted order, stored front-coded in a single byte array
+ * instead of as one String object per term.  Terms are sorted by their
+ * UTF-8 bytes and split into blocks of BLOCK_SIZE.  The first term of each
+ * block is stored whole; each following term is stored as the length of the
+ * prefix it shares with the term before it and the rest of its bytes.
+ * Since neighbouring terms in sorted order tend to share long prefixes,
+ * the dictionary usually takes only a few bytes per term.
+ * <p>
+ * A lookup binary searches the first terms of the blocks and then decodes
+ * a single block, so it takes O(|term| log n) time.  Terms can also be
+ * iterated in sorted order, and the terms with a given prefix form a
+ * contiguous range of ids.  Safe for use by any number of threads.
+ */
+public class TermDictionary implements Iterable<String> {
+
+  /**
+   * The number of terms in a block
+   */
+  public static final int BLOCK_SIZE = 16;
+
+  /**
+   * Compares byte arrays as unsigned bytes, the order of the dictionary
+   */
+  public static final Comparator<byte[]> BYTE_ORDER = new Comparator<byte[]>() {
+    public int compare(byte[] a, byte[] b) {
+      return compareBytes(a, 0, a.length, b);
+    }
+  };
+
+  /**
+   * The front-coded blocks of terms
+   */
+  protected byte[] data;
+
+  /**
+   * The offset in data where each block starts
+   */
+  protected int[] blockOffsets;
+
+  /**
+   * The number of terms
+   */
+  protected int size;
+
+  /**
+   * The length in bytes of the longest term
+   */
+  protected int maxTermLength;
+
+  /**
+   * Build a dictionary of the given terms, which must be distinct and
+   * sorted in BYTE_ORDER.
+   *
+   * @param terms The UTF-8 bytes of each term.
+   */
+  public TermDictionary(List<byte[]> terms) {
+    size = terms.size();
+    blockOffsets = new int[(size + BLOCK_SIZE - 1) / BLOCK_SIZE];
+    ByteArrayOutputStream out = new ByteArrayOutputStream(size * 4 + 16);
+    byte[] previous = null;
+    for (int id = 0; id < size; id++) {
+      byte[] term = terms.get(id);
+      if (previous != null && BYTE_ORDER.compare(previous, term) >= 0)
+        throw new IllegalArgumentException("Terms must be distinct and sorted");
+      maxTermLength = Math.max(maxTermLength, term.length);
+      if (id % BLOCK_SIZE == 0) {
+        // The first term of a block is stored whole
+        blockOffsets[id / BLOCK_SIZE] = out.size();
+        PostingsCodec.writeVByte(term.length, out);
+        out.write(term, 0, term.length);
+      } else {
+        int prefix = 0;
+        int limit = Math.min(previous.length, term.length);
+        while (prefix < limit && previous[prefix] == term[prefix])
+          prefix++;
+        PostingsCodec.writeVByte(prefix, out);
+        PostingsCodec.writeVByte(term.length - prefix, out);
+        out.write(term, prefix, term.length - prefix);
+      }
+      previous = term;
+    }
+    data = out.toByteArray();
+  }
+
+  /**
+   * Build a dictionary of the given terms in any order.
+   */
+  public static TermDictionary build(Collection<String> terms) {
+    return new TermDictionary(sortedBytes(terms));
+  }
+
+  /**
+   * Return the UTF-8 bytes of the given terms, sorted in BYTE_ORDER.
+   */
+  public static List<byte[]> sortedBytes(Collection<String> terms) {
+    List<byte[]> bytes = new ArrayList<byte[]>(terms.size());
+    for (String term : terms)
+      bytes.add(term.getBytes(StandardCharsets.UTF_8));
+    Collections.sort(bytes, BYTE_ORDER);
+    return bytes;
+  }
+
+  /**
+   * Return the number of terms
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Return the id of a term, or -1 if it is not in the dictionary.
+   */
+  public int id(String term) {
+    int id = search(term.getBytes(StandardCharsets.UTF_8));
+    return id >= 0 ? id : -1;
+  }
+
+  /**
+   * Return the term with the given id.
+   */
+  public String term(int id) {
+    if (id < 0 || id >= size)
+      throw new IndexOutOfBoundsException("No term with id " + id);
+    return new String(decode(id), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Return the id of the first term not before the given UTF-8 bytes in
+   * sorted order, or size() if there is none.
+   */
+  public int lowerBound(byte[] key) {
+    int id = search(key);
+    return id >= 0 ? id : -id - 1;
+  }
+
+  /**
+   * Search for a term given as UTF-8 bytes.  As in Arrays.binarySearch,
+   * return its id if it is in the dictionary, or else (-(insertion point) - 1)
+   * where the insertion point is the id of the first term after it.
+   */
+  protected int search(byte[] key) {
+    // Find the last block whose first term is before the key
+    int low = 0, high = blockOffsets.length - 1, block = -1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int offset = blockOffsets[middle];
+      int length = readVByte(offset);
+      offset += vByteLength(length);
+      int comparison = compareBytes(data, offset, offset + length, key);
+      if (comparison == 0)
+        return middle * BLOCK_SIZE;
+      if (comparison < 0) {
+        block = middle;
+        low = middle + 1;
+      } else
+        high = middle - 1;
+    }
+    if (block < 0)
+      return -1;
+    // Scan the rest of the block without decoding the terms, keeping track
+    // of the length of the prefix the current term shares with the key.
+    // The current term is always before the key.
+    int offset = blockOffsets[block];
+    int length = readVByte(offset);
+    offset += vByteLength(length);
+    int matched = 0;
+    while (matched < length && matched < key.length && data[offset + matched] == key[matched])
+      matched++;
+    offset += length;
+    int id = block * BLOCK_SIZE + 1;
+    int end = Math.min(size, block * BLOCK_SIZE + BLOCK_SIZE);
+    for (; id < end; id++) {
+      int prefix = readVByte(offset);
+      offset += vByteLength(prefix);
+      int suffix = readVByte(offset);
+      offset += vByteLength(suffix);
+      if (prefix < matched) {
+        // This term has a larger byte than the last one where that one
+        // agreed with the key, so it is after the key
+        return -id - 1;
+      }
+      if (prefix == matched) {
+        // Compare the rest of this term with the rest of the key
+        int i = 0;
+        while (i < suffix && matched + i < key.length && data[offset + i] == key[matched + i])
+          i++;
+        if (i == suffix) {
+          if (matched + i == key.length)
+            return id;
+          // This term is a prefix of the key, so it is before it
+        } else if (matched + i == key.length || (data[offset + i] & 0xFF) > (key[matched + i] & 0xFF))
+          return -id - 1;
+        matched += i;
+      }
+      // Otherwise this term agrees with the last one beyond where that one
+      // differs from the key, so it is still before the key
+      offset += suffix;
+    }
+    return -end - 1;
+  }
+
+  /**
+   * Return the variable-byte integer starting at the given offset in data.
+   */
+  protected int readVByte(int offset) {
+    int b = data[offset++];
+    int value = b & 0x7F;
+    for (int shift = 7; b < 0; shift += 7) {
+      b = data[offset++];
+      value |= (b & 0x7F) << shift;
+    }
+    return value;
+  }
+
+  /**
+   * Return the number of bytes in the variable-byte encoding of a value.
+   */
+  protected static int vByteLength(int value) {
+    return PostingsCodec.vByteLength(value);
+  }
+
+  /**
+   * Return the ids of the terms beginning with the given prefix as a pair
+   * {first, end}, the first id and one past the last, which are equal if
+   * there are no such terms.
+   */
+  public int[] prefixRange(String prefix) {
+    byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+    int first = lowerBound(key);
+    // The end is the first term not before the smallest key longer than
+    // every term with the prefix: the prefix with its last byte below 0xFF
+    // incremented and everything after it dropped.
+    int last = key.length - 1;
+    while (last >= 0 && key[last] == (byte) 0xFF)
+      last--;
+    if (last < 0)
+      return new int[]{first, size};
+    byte[] bound = Arrays.copyOf(key, last + 1);
+    bound[last]++;
+    return new int[]{first, lowerBound(bound)};
+  }
+
+  /**
+   * Return the terms with ids from first up to end, in sorted order.
+   */
+  public Iterator<String> iterator(final int first, final int end) {
+    return new Iterator<String>() {
+      int id = first;
+      BlockReader reader = null;
+
+      public boolean hasNext() {
+        return id < end;
+      }
+
+      public String next() {
+        if (id >= end)
+          throw new NoSuchElementException();
+        if (reader == null || id % BLOCK_SIZE == 0) {
+          // Start at the beginning of the block and skip to the id
+          reader = new BlockReader(id / BLOCK_SIZE);
+          for (int skip = id % BLOCK_SIZE; skip > 0; skip--)
+            reader.next();
+        }
+        reader.next();
+        id++;
+        return new String(reader.term, 0, reader.length, StandardCharsets.UTF_8);
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Return all the terms in sorted order.
+   */
+  public Iterator<String> iterator() {
+    return iterator(0, size);
+  }
+
+  /**
+   * Return the approximate number of bytes of memory used
+   */
+  public long sizeInBytes() {
+    return data.length + 4L * blockOffsets.length + 32;
+  }
+
+  /**
+   * Return the UTF-8 bytes of the term with the given id.
+   */
+  protected byte[] decode(int id) {
+    BlockReader reader = new BlockReader(id / BLOCK_SIZE);
+    for (int i = id % BLOCK_SIZE; i >= 0; i--)
+      reader.next();
+    return Arrays.copyOf(reader.term, reader.length);
+  }
+
+  /**
+   * Compare bytes from start up to end of a with all of b as unsigned bytes.
+   */
+  protected static int compareBytes(byte[] a, int start, int end, byte[] b) {
+    int length = end - start;
+    int limit = Math.min(length, b.length);
+    for (int i = 0; i < limit; i++) {
+      int difference = (a[start + i] & 0xFF) - (b[i] & 0xFF);
+      if (difference != 0)
+        return difference;
+    }
+    return length - b.length;
+  }
+
+  /**
+   * Decodes the terms of a block one at a time into a reusable buffer.
+   */
+  protected class BlockReader {
+    /**
+     * The bytes of the current term; only the first length are used
+     */
+    byte[] term = new byte[maxTermLength];
+
+    /**
+     * The length of the current term
+     */
+    int length = 0;
+
+    /**
+     * The offset in data of the next term
+     */
+    int offset;
+
+    /**
+     * Whether the next term is the first of the block
+     */
+    boolean first = true;
+
+    BlockReader(int block) {
+      offset = blockOffsets[block];
+    }
+
+    /**
+     * Decode the next term of the block.
+     */
+    void next() {
+      int prefix = first ? 0 : readVByte();
+      int suffix = readVByte();
+      System.arraycopy(data, offset, term, prefix, suffix);
+      offset += suffix;
+      length = prefix + suffix;
+      first = false;
+    }
+
+    int readVByte() {
+      int b = data[offset++];
+      int value = b & 0x7F;
+      for (int shift = 7; b < 0; shift += 7) {
+        b = data[offset++];
+        value |= (b & 0x7F) << shift;
+      }
+      return value;
+    }
+  }
+}
@@ -0,0 +1,286 @@
+package ir.vsr;
+
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * A sparse term vector keyed by the int ids a Lexicon assigns to terms.
+ * The ids and weights are kept in parallel primitive arrays in the order
+ * terms were added, so iterating over a vector is a plain array loop:
+ * <pre>
+ *   for (int i = 0; i &lt; vector.size(); i++)
+ *     ... vector.id(i) ... vector.weight(i) ...
+ * </pre>
+ * A PositionTable, probed as in a SparseVector with the id as the hash
+ * code, finds the weight of a given id without boxing it or creating an
+ * entry object.
+ * Terms whose weight falls to 0 stay in the vector with weight 0.
+ */
+public class TermVector {
+
+  /**
+   * The initial number of terms a vector has room for
+   */
+  public static final int INITIAL_CAPACITY = 8;
+
+  /**
+   * The term ids in the order they were added
+   */
+  protected int[] ids;
+
+  /**
+   * The weight of each term in ids
+   */
+  protected double[] weights;
+
+  /**
+   * The number of terms
+   */
+  protected int size = 0;
+
+  /**
+   * The position in ids of each term, by id
+   */
+  protected PositionTable table;
+
+  /**
+   * Create an empty vector
+   */
+  public TermVector() {
+    this(INITIAL_CAPACITY);
+  }
+
+  /**
+   * Create an empty vector with room for the given number of terms
+   */
+  public TermVector(int capacity) {
+    capacity = Math.max(capacity, 1);
+    ids = new int[capacity];
+    weights = new double[capacity];
+    table = new PositionTable(capacity);
+  }
+
+  /**
+   * Make a vector from a HashMapVector, resolving its tokens in the lexicon.
+   */
+  public TermVector(HashMapVector vector, Lexicon lexicon) {
+    this(vector.size());
+    for (int i = 0; i < vector.size(); i++)
+      increment(lexicon.id(vector.token(i)), vector.weight(i));
+  }
+
+  /**
+   * Return the number of terms in the vector
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Return the id of the ith term
+   */
+  public int id(int i) {
+    return ids[i];
+  }
+
+  /**
+   * Return the weight of the ith term
+   */
+  public double weight(int i) {
+    return weights[i];
+  }
+
+  /**
+   * Return the weight of the term with the given id, 0 if it is not in the vector
+   */
+  public double getWeight(int id) {
+    int i = find(id);
+    return i < 0 ? 0.0 : weights[i];
+  }
+
+  /**
+   * Increment the weight of the term with the given id by the given amount,
+   * returning the new weight.
+   */
+  public double increment(int id, double amount) {
+    int slot = table.first(id);
+    // Probe until finding the term or an empty slot
+    for (int i = table.position(slot); i >= 0; i = table.position(slot)) {
+      if (ids[i] == id)
+        return weights[i] += amount;
+      slot = table.next(slot);
+    }
+    if (size == ids.length) {
+      grow();
+      return increment(id, amount);
+    }
+    ids[size] = id;
+    weights[size] = amount;
+    table.put(slot, size++);
+    return amount;
+  }
+
+  /**
+   * Increment the weight of the term with the given id by 1.
+   */
+  public double increment(int id) {
+    return increment(id, 1.0);
+  }
+
+  /**
+   * Destructively add the given vector to this vector
+   */
+  public void add(TermVector vector) {
+    addScaled(vector, 1.0);
+  }
+
+  /**
+   * Destructively add a scaled version of the given vector to this vector
+   */
+  public void addScaled(TermVector vector, double scalingFactor) {
+    ensureCapacity(size + vector.size);
+    for (int i = 0; i < vector.size; i++)
+      increment(vector.ids[i], scalingFactor * vector.weights[i]);
+  }
+
+  /**
+   * Destructively subtract the given vector from this vector
+   */
+  public void subtract(TermVector vector) {
+    addScaled(vector, -1.0);
+  }
+
+  /**
+   * Destructively multiply the vector by a constant
+   */
+  public void multiply(double factor) {
+    for (int i = 0; i < size; i++)
+      weights[i] *= factor;
+  }
+
+  /**
+   * Return a copy of this vector
+   */
+  public TermVector copy() {
+    TermVector result = new TermVector(0);
+    result.ids = ids.clone();
+    result.weights = weights.clone();
+    result.table = table.copy();
+    result.size = size;
+    return result;
+  }
+
+  /**
+   * Clear the vector back to all zeros
+   */
+  public void clear() {
+    table.clear();
+    size = 0;
+  }
+
+  /**
+   * Returns the maximum weight of any term in the vector.
+   */
+  public double maxWeight() {
+    double maxWeight = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < size; i++) {
+      if (weights[i] > maxWeight)
+        maxWeight = weights[i];
+    }
+    return maxWeight;
+  }
+
+  /**
+   * Compute Euclidian length (sqrt of sum of squares) of vector
+   */
+  public double length() {
+    double sum = 0;
+    for (int i = 0; i < size; i++)
+      sum += weights[i] * weights[i];
+    return Math.sqrt(sum);
+  }
+
+  /**
+   * Return the dot product of this vector with another, looking up the
+   * terms of the smaller one in the larger one.
+   */
+  public double dot(TermVector otherVector) {
+    TermVector smaller = this, larger = otherVector;
+    if (otherVector.size < size) {
+      smaller = otherVector;
+      larger = this;
+    }
+    double dotProd = 0;
+    for (int i = 0; i < smaller.size; i++)
+      dotProd += smaller.weights[i] * larger.getWeight(smaller.ids[i]);
+    return dotProd;
+  }
+
+  /**
+   * Computes cosine of angle to otherVector.
+   */
+  public double cosineTo(TermVector otherVector) {
+    return dot(otherVector) / (length() * otherVector.length());
+  }
+
+  /**
+   * Return a HashMapVector with the same weights, turning ids back into
+   * tokens with the lexicon.
+   */
+  public HashMapVector toHashMapVector(Lexicon lexicon) {
+    HashMapVector vector = new HashMapVector();
+    for (int i = 0; i < size; i++)
+      vector.increment(lexicon.term(ids[i]), weights[i]);
+    return vector;
+  }
+
+  /**
+   * Return String of the vector showing the terms and their weights
+   */
+  public String toString(Lexicon lexicon) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < size; i++)
+      result.append(lexicon.term(ids[i])).append(": ").append(weights[i]).append(' ');
+    return result.toString();
+  }
+
+  /**
+   * Return the position of the term with the given id, or -1 if it is not
+   * in the vector.
+   */
+  protected int find(int id) {
+    int slot = table.first(id);
+    for (int i = table.position(slot); i >= 0; i = table.position(slot)) {
+      if (ids[i] == id)
+        return i;
+      slot = table.next(slot);
+    }
+    return -1;
+  }
+
+  /**
+   * Make room for at least the given number of terms.
+   */
+  protected void ensureCapacity(int capacity) {
+    if (capacity > ids.length)
+      resize(capacity);
+  }
+
+  /**
+   * Make room for half again as many terms.
+   */
+  protected void grow() {
+    resize(ids.length + (ids.length >> 1) + 1);
+  }
+
+  /**
+   * Reallocate the arrays for the given capacity and rehash the terms.
+   */
+  protected void resize(int capacity) {
+    ids = Arrays.copyOf(ids, capacity);
+    weights = Arrays.copyOf(weights, capacity);
+    // The ids are their own hash codes
+    table.resize(capacity, ids, size);
+  }
+}
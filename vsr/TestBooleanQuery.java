@@ -0,0 +1,105 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Checks that a SegmentedIndex answers Boolean queries as an InvertedIndex
+ * of the same documents does: exactly the same documents, with the same
+ * score at each rank up to rounding, since a SegmentedIndex sums the
+ * lengths of documents in another order once some are deleted.  Random
+ * queries of every shape are made from the indexed tokens and run on both
+ * indexes, with a small buffer so that the documents are spread over
+ * several segments, and with some documents deleted from both.
+ */
+public class TestBooleanQuery {
+
+  /**
+   * The shapes of the queries to run, as formats of four random tokens
+   */
+  static final String[] SHAPES = {"%1$s", "%1$s %2$s", "%1$s AND %2$s", "%1$s OR %2$s",
+      "%1$s NOT %2$s", "NOT %1$s", "(%1$s OR %2$s) AND %3$s", "%1$s %2$s OR %3$s NOT %4$s",
+      "NOT (%1$s OR %2$s)", "(%1$s OR %2$s) (%3$s OR NOT %4$s)"};
+
+  /**
+   * Compare the Boolean query results of a SegmentedIndex and an
+   * InvertedIndex of a directory, printing any that differ.  Exits with
+   * status 1 if any do.
+   * <p>
+   * Command format: "TestBooleanQuery [-html] [-stem] [-queries N] DIR"
+   */
+  public static void main(String[] args) throws IOException {
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    int numQueries = 1000;
+    String dirName = null;
+    for (int i = 0; i < args.length; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-queries"))
+        numQueries = Integer.parseInt(args[++i]);
+      else if (i == args.length - 1 && !flag.startsWith("-"))
+        dirName = flag;
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    if (dirName == null)
+      throw new IllegalArgumentException("No directory to index");
+    File dir = new File(dirName);
+    InvertedIndex plain = new InvertedIndex(dir, docType, stem, false);
+    SegmentedIndex segmented = new SegmentedIndex(dir, docType, stem, false, 16, 4);
+    // Delete every seventh document from both
+    for (int docId = 0; docId < plain.docRefs.size(); docId += 7) {
+      File file = plain.docRefs.get(docId).file;
+      plain.deleteDocument(docId);
+      for (int segId = 0; segId < segmented.docRefs.size(); segId++) {
+        if (segmented.docRefs.get(segId).file.equals(file))
+          segmented.deleteDocument(segId);
+      }
+    }
+    System.out.println("Segments: " + segmented.numSegments());
+    List<String> tokens = new ArrayList<String>(plain.tokenHash.keySet());
+    Collections.sort(tokens);
+    Random random = new Random(1);
+    int mismatches = 0;
+    for (int q = 0; q < numQueries; q++) {
+      Object[] terms = new Object[4];
+      for (int i = 0; i < terms.length; i++)
+        terms[i] = tokens.get(random.nextInt(tokens.size()));
+      String query = String.format(SHAPES[q % SHAPES.length], terms);
+      Retrieval[] expected = plain.retrieveBoolean(query);
+      Retrieval[] actual = segmented.retrieveBoolean(query);
+      if (!sameRetrievals(expected, actual)) {
+        System.out.println("Mismatch for " + query + ": " + expected.length + " retrievals from an " +
+            "InvertedIndex, " + actual.length + " from a SegmentedIndex");
+        mismatches++;
+      }
+    }
+    segmented.close();
+    System.out.println(numQueries + " queries, " + mismatches + " mismatches");
+    if (mismatches > 0)
+      System.exit(1);
+  }
+
+  /**
+   * Return whether two rankings have the same files with the same score,
+   * up to rounding, at each rank.  Files whose scores only differ by
+   * rounding may swap ranks.
+   */
+  static boolean sameRetrievals(Retrieval[] expected, Retrieval[] actual) {
+    if (expected.length != actual.length)
+      return false;
+    Set<File> expectedFiles = new HashSet<File>();
+    Set<File> actualFiles = new HashSet<File>();
+    for (int i = 0; i < expected.length; i++) {
+      if (Math.abs(expected[i].score - actual[i].score) > 1e-9)
+        return false;
+      expectedFiles.add(expected[i].docRef.file);
+      actualFiles.add(actual[i].docRef.file);
+    }
+    return expectedFiles.equals(actualFiles);
+  }
+}
@@ -0,0 +1,92 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Checks that top-k retrieval with MaxScore pruning ranks documents
+ * exactly as exhaustive retrieval does, for every k from 0 up to more
+ * than the number of documents, on an InvertedIndex and on a
+ * SegmentedIndex of the same directory with some documents deleted.
+ */
+public class TestRetrievePruned {
+
+  /**
+   * The numbers of documents to retrieve
+   */
+  static final int[] KS = {0, 1, 2, 5, 10, 100, Integer.MAX_VALUE};
+
+  /**
+   * Compare pruned and exhaustive top-k retrieval for random queries,
+   * printing any that differ.  Exits with status 1 if any do.
+   * <p>
+   * Command format: "TestRetrievePruned [-html] [-stem] [-queries N] DIR"
+   */
+  public static void main(String[] args) throws IOException {
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    int numQueries = 500;
+    String dirName = null;
+    for (int i = 0; i < args.length; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-queries"))
+        numQueries = Integer.parseInt(args[++i]);
+      else if (i == args.length - 1 && !flag.startsWith("-"))
+        dirName = flag;
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    if (dirName == null)
+      throw new IllegalArgumentException("No directory to index");
+    File dir = new File(dirName);
+    InvertedIndex plain = new InvertedIndex(dir, docType, stem, false);
+    SegmentedIndex segmented = new SegmentedIndex(dir, docType, stem, false, 16, 4);
+    // Delete every eleventh document from the segmented index
+    for (int docId = 0; docId < segmented.docRefs.size(); docId += 11)
+      segmented.deleteDocument(docId);
+    List<String> tokens = new ArrayList<String>(plain.tokenHash.keySet());
+    Collections.sort(tokens);
+    Random random = new Random(1);
+    int mismatches = 0;
+    for (int q = 0; q < numQueries; q++) {
+      StringBuilder query = new StringBuilder();
+      for (int i = random.nextInt(5); i >= 0; i--)
+        query.append(tokens.get(random.nextInt(tokens.size()))).append(' ');
+      HashMapVector vector = new TextStringDocument(query.toString(), stem).hashMapVector();
+      for (int k : KS) {
+        for (InvertedIndex index : new InvertedIndex[]{plain, segmented}) {
+          Retrieval[] expected = index.retrieve(vector, k);
+          Retrieval[] actual = index.retrievePruned(vector, k);
+          if (!sameRetrievals(expected, actual)) {
+            System.out.println("Mismatch for " + query + "with k=" + k + " on " +
+                index.getClass().getSimpleName() + ": " + expected.length + " exhaustive, " +
+                actual.length + " pruned");
+            mismatches++;
+          }
+        }
+      }
+    }
+    segmented.close();
+    System.out.println(numQueries + " queries, " + mismatches + " mismatches");
+    if (mismatches > 0)
+      System.exit(1);
+  }
+
+  /**
+   * Return whether two rankings have the same documents in the same order
+   * with the same scores.
+   */
+  static boolean sameRetrievals(Retrieval[] expected, Retrieval[] actual) {
+    if (expected.length != actual.length)
+      return false;
+    for (int i = 0; i < expected.length; i++) {
+      if (expected[i].docRef != actual[i].docRef || expected[i].score != actual[i].score)
+        return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,146 @@
+package ir.vsr;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Checks that a ShardedIndex ranks documents exactly as an InvertedIndex
+ * of the same directory does, score for score, for several numbers of
+ * shards and for several k.  One of the cases puts the first few documents
+ * of the directory into more shards than there are documents, so some
+ * shards have none.
+ */
+public class TestShardedIndex {
+
+  /**
+   * The numbers of shards to split the whole directory into
+   */
+  static final int[] NUM_SHARDS = {1, 3, 8};
+
+  /**
+   * The numbers of documents to retrieve, besides all of them
+   */
+  static final int[] KS = {1, 10, 100};
+
+  /**
+   * Compare the rankings of ShardedIndex's and an InvertedIndex for random
+   * queries, printing any that differ.  Exits with status 1 if any do.
+   * <p>
+   * Command format: "TestShardedIndex [-html] [-stem] [-processes] [-queries N] DIR"
+   */
+  public static void main(String[] args) throws IOException {
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    List<String> jvmOptions = null;
+    int numQueries = 200;
+    String dirName = null;
+    for (int i = 0; i < args.length; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-processes"))
+        jvmOptions = new ArrayList<String>();
+      else if (flag.equals("-queries"))
+        numQueries = Integer.parseInt(args[++i]);
+      else if (i == args.length - 1 && !flag.startsWith("-"))
+        dirName = flag;
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    if (dirName == null)
+      throw new IllegalArgumentException("No directory to index");
+    File dir = new File(dirName);
+    int mismatches = 0;
+    for (int numShards : NUM_SHARDS)
+      mismatches += compare(dir, docType, stem, numShards, jvmOptions, numQueries);
+    // Copy the first three documents to a directory of their own, to
+    // split across more shards than there are documents
+    File[] files = dir.listFiles();
+    Arrays.sort(files);
+    Path small = Files.createTempDirectory("shards");
+    for (int i = 0; i < Math.min(3, files.length); i++)
+      Files.copy(files[i].toPath(), small.resolve(files[i].getName()));
+    try {
+      mismatches += compare(small.toFile(), docType, stem, 8, jvmOptions, numQueries);
+    }
+    finally {
+      for (File file : small.toFile().listFiles())
+        file.delete();
+      Files.delete(small);
+    }
+    System.out.println(mismatches + " mismatches");
+    if (mismatches > 0)
+      System.exit(1);
+  }
+
+  /**
+   * Compare a ShardedIndex of a directory with the given number of shards
+   * to an InvertedIndex of it and return the number of queries they rank
+   * differently.
+   */
+  static int compare(File dir, short docType, boolean stem, int numShards, List<String> jvmOptions,
+                     int numQueries) throws IOException {
+    InvertedIndex plain = new InvertedIndex(dir, docType, stem, false);
+    ShardedIndex sharded = new ShardedIndex(dir, docType, stem, false, numShards, null, jvmOptions);
+    int mismatches = 0;
+    try {
+      List<String> tokens = new ArrayList<String>(plain.tokenHash.keySet());
+      Collections.sort(tokens);
+      Random random = new Random(1);
+      for (int q = 0; q < numQueries; q++) {
+        StringBuilder query = new StringBuilder();
+        for (int i = random.nextInt(4); i >= 0; i--)
+          query.append(tokens.get(random.nextInt(tokens.size()))).append(' ');
+        HashMapVector vector = vector(query.toString(), stem);
+        if (!sameRetrievals(plain.retrieve(vector), sharded.retrieve(vector))) {
+          System.out.println("Mismatch for " + query + "in " + numShards + " shards of " + dir);
+          mismatches++;
+        }
+        for (int k : KS) {
+          Retrieval[] expected = plain.retrieve(vector, k);
+          Retrieval[] actual = sharded.retrieve(vector, k);
+          if (!sameRetrievals(expected, actual)) {
+            System.out.println("Mismatch for " + query + "with k=" + k + " in " + numShards +
+                " shards of " + dir + ": " + expected.length + " from an InvertedIndex, " +
+                actual.length + " from a ShardedIndex");
+            mismatches++;
+          }
+        }
+      }
+      // Retrieving no documents must not reach the shards
+      if (sharded.retrieve(vector(tokens.get(0), stem), 0).length != 0) {
+        System.out.println("Documents retrieved with k=0 from " + numShards + " shards of " + dir);
+        mismatches++;
+      }
+    }
+    finally {
+      sharded.close();
+    }
+    System.out.println(numShards + " shards of " + dir + ": " + mismatches + " mismatches");
+    return mismatches;
+  }
+
+  /**
+   * Return the vector of a query string.
+   */
+  static HashMapVector vector(String query, boolean stem) {
+    return new TextStringDocument(query, stem).hashMapVector();
+  }
+
+  /**
+   * Return whether two rankings have the same files in the same order with
+   * the same scores.
+   */
+  static boolean sameRetrievals(Retrieval[] expected, Retrieval[] actual) {
+    if (expected.length != actual.length)
+      return false;
+    for (int i = 0; i < expected.length; i++) {
+      if (!expected[i].docRef.file.equals(actual[i].docRef.file) || expected[i].score != actual[i].score)
+        return false;
+    }
+    return true;
+  }
+}
@@ -3,6 +3,8 @@ package ir.vsr;
 import java.io.*;
 import java.util.*;
 
+import ir.utilities.*;
+
 /**
  * A normal ASCII text file Document
  *
@@ -12,32 +14,26 @@ import java.util.*;
 public class TextFileDocument extends FileDocument {
 
   /**
-   * StringTokenizer delim for tokenizing only alphabetic strings.
+   * Delimiters for tokenizing only alphabetic strings.
    */
-  public static final String tokenizerDelim = " \t\n\r\f\'\"\\1234567890!@#$%^&*()_+-={}|[]:;<,>.?/`~";
+  public static final String tokenizerDelim = CharTokenizer.DELIMITERS;
 
   /**
-   * The tokenizer for lines read from this document.
+   * Create a new text document for the given file.
    */
-  protected StringTokenizer tokenizer = null;
+  public TextFileDocument(File file, boolean stem) {
+    this(file, stem, null);
+  }
 
   /**
-   * Create a new text document for the given file.
+   * Create a new text document for the given file that removes the given
+   * stopwords, or the default ones if stopWords is null.
    */
-  public TextFileDocument(File file, boolean stem) {
-    super(file, stem);  // Create a FileDocument
-    try {
-      // create a StringTokenizer for the first line in the file
-      String line = reader.readLine();
-      if (line != null) {
-        this.tokenizer = new StringTokenizer(line, tokenizerDelim);
-      }
-      prepareNextToken();  // Prepare the first token
-    }
-    catch (IOException e) {
-      System.out.println("\nCould not read TextFileDocument: " + file);
-      System.exit(1);
-    }
+  public TextFileDocument(File file, boolean stem, StopWordFilter stopWords) {
+    super(file, stem, stopWords);  // Create a FileDocument
+    // Scan the decoded characters of the file rather than lines
+    scanner = newScanner();
+    prepareNextToken();  // Prepare the first token
   }
 
   /**
@@ -51,30 +47,24 @@ public class TextFileDocument extends FileDocument {
    * Return the next purely alpha-character token in the document, or null if none left.
    */
   protected String getNextCandidateToken() {
-    if (tokenizer == null)
-      return null;
-    String candidateToken = null;
+    return nextCandidate() ? scanner.tokenString() : null;
+  }
+
+  /**
+   * Scan the next candidate token from the file, closing it at the end.
+   */
+  protected boolean nextCandidate() {
     try {
-      // Loop until you find a line in the file with a token
-      while (!tokenizer.hasMoreTokens()) {
-        // Read a line from the file
-        String line = reader.readLine();
-        if (line == null) {
-          // End of file, no more tokens, return null
-          reader.close();
-          return null;
-        } else
-          // Create a tokenizer for this file line
-          tokenizer = new StringTokenizer(line, tokenizerDelim);
-      }
-      // Get the next token in the current line
-      candidateToken = tokenizer.nextToken();
+      if (scanner.next())
+        return true;
+      // End of file, no more tokens
+      close();
     }
     catch (IOException e) {
       System.out.println("\nCould not read from TextFileDocument: " + file);
       System.exit(1);
     }
-    return candidateToken;
+    return false;
   }
 
   /**
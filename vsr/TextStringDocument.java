@@ -3,6 +3,8 @@ package ir.vsr;
 import java.io.*;
 import java.util.*;
 
+import ir.utilities.*;
+
 /**
  * A simple document represented by a String
  *
@@ -11,21 +13,24 @@ import java.util.*;
 public class TextStringDocument extends Document {
 
   /**
-   * StringTokenizer delim for tokenizing only alphabetic strings.
+   * Delimiters for tokenizing only alphabetic strings.
    */
-  public static final String tokenizerDelim = " \t\n\r\f\'\"\\1234567890!@#$%^&*()_+-={}|[]:;<,>.?/`~";
+  public static final String tokenizerDelim = CharTokenizer.DELIMITERS;
 
   /**
-   * The tokenizer for this document.
+   * Create a simple Document for this string
    */
-  protected StringTokenizer tokenizer = null;
+  public TextStringDocument(String string, boolean stem) {
+    this(string, stem, null);
+  }
 
   /**
-   * Create a simple Document for this string
+   * Create a simple Document for this string that removes the given
+   * stopwords, or the default ones if stopWords is null.
    */
-  public TextStringDocument(String string, boolean stem) {
-    super(stem);
-    this.tokenizer = new StringTokenizer(string, tokenizerDelim);
+  public TextStringDocument(String string, boolean stem, StopWordFilter stopWords) {
+    super(stem, stopWords);
+    scanner = new CharTokenizer(string);
     prepareNextToken();
   }
 
@@ -33,9 +38,7 @@ public class TextStringDocument extends Document {
    * Get the next token from this string
    */
   protected String getNextCandidateToken() {
-    if (tokenizer == null || !tokenizer.hasMoreTokens())
-      return null;
-    return tokenizer.nextToken();
+    return nextCandidate() ? scanner.tokenString() : null;
   }
 
   /**
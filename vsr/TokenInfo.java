@@ -4,12 +4,25 @@ import java.util.*;
 
 /**
  * A lightweight object for storing information about a token (a.k.a word, term)
- * in an inverted index.
+ * in an inverted index.  The postings for the token are kept in parallel
+ * growable int arrays of document ids and occurrence counts rather than as
+ * a list of TokenOccurrence objects, where a document id is the position of
+ * the document in the docRefs table of the InvertedIndex.  The postings
+ * can also be compressed to save memory, in which case they are read
+ * through a PostingsCursor.  In a positional index, the positions of the
+ * token in each document are kept alongside the postings, delta-encoded,
+ * so that phrase queries can check them for just the documents they need.
  *
  * @author Ray Mooney
  */
 
 public class TokenInfo {
+  /**
+   * The initial capacity of the posting arrays.  Most tokens occur in
+   * very few documents so start small.
+   */
+  public static final int INITIAL_CAPACITY = 2;
+
   /**
    * The IDF (inverse document frequency) factor for this token
    * which indicates how much to weight an occurence. Tokens that
@@ -19,16 +32,303 @@ public class TokenInfo {
   public double idf;
 
   /**
-   * A list of TokenOccurences giving documents where this
-   * token occurs
+   * The largest contribution this token makes to the length-normalized
+   * vector of any document it occurs in: the maximum of IDF * count / |D|
+   * over its postings.  An upper bound used to skip documents that cannot
+   * make the top retrievals.
+   */
+  public double maxScore;
+
+  /**
+   * The ids of the documents where this token occurs, in the order they
+   * were indexed (i.e. increasing).  Only the first numDocs elements are used.
+   * Null while the postings are compressed.
+   */
+  public int[] docIds;
+
+  /**
+   * The number of times this token occurs in each document in docIds.
+   * Only the first numDocs elements are used.  Null while the postings are
+   * compressed.
+   */
+  public int[] counts;
+
+  /**
+   * The number of documents in which this token occurs
+   */
+  public int numDocs;
+
+  /**
+   * The number of undeleted documents in which this token occurs, as
+   * counted when the index last computed its statistics
+   */
+  public int liveDocs;
+
+  /**
+   * The postings of this token when compressed, in which case docIds and
+   * counts are null, or else null
+   */
+  public CompressedPostings compressed = null;
+
+  /**
+   * The positions of this token in each of its documents, or null if
+   * positions are not stored.  The positions of a posting are encoded as
+   * variable-byte d-gaps (the first as is), one posting after another in
+   * document order, and are never compressed further.  Only the first
+   * positionsLength bytes are used.
+   */
+  public byte[] positions = null;
+
+  /**
+   * The offset in positions where the positions of each posting start,
+   * or null if positions are not stored.  Only the first numDocs elements
+   * are used.
+   */
+  public int[] positionOffsets = null;
+
+  /**
+   * The number of bytes used in positions
    */
-  public List<TokenOccurrence> occList;
+  public int positionsLength = 0;
 
   /**
    * Create an initially empty data structure
    */
   public TokenInfo() {
-    occList = new ArrayList<TokenOccurrence>();
+    docIds = new int[INITIAL_CAPACITY];
+    counts = new int[INITIAL_CAPACITY];
+    numDocs = 0;
+    liveDocs = 0;
     idf = 0.0;
+    maxScore = 0.0;
+  }
+
+  /**
+   * Create a token info using the given posting arrays, without copying them.
+   */
+  protected TokenInfo(int[] docIds, int[] counts, int numDocs) {
+    this.docIds = docIds;
+    this.counts = counts;
+    this.numDocs = numDocs;
+  }
+
+  /**
+   * Create a copy of the given token info.  Uncompressed postings are
+   * copied, trimmed to size; compressed postings are never modified once
+   * built, so they are shared.
+   */
+  public TokenInfo(TokenInfo tokenInfo) {
+    idf = tokenInfo.idf;
+    maxScore = tokenInfo.maxScore;
+    numDocs = tokenInfo.numDocs;
+    liveDocs = tokenInfo.liveDocs;
+    compressed = tokenInfo.compressed;
+    if (compressed == null) {
+      docIds = Arrays.copyOf(tokenInfo.docIds, numDocs);
+      counts = Arrays.copyOf(tokenInfo.counts, numDocs);
+    }
+    if (tokenInfo.positions != null) {
+      positions = Arrays.copyOf(tokenInfo.positions, tokenInfo.positionsLength);
+      positionOffsets = Arrays.copyOf(tokenInfo.positionOffsets, numDocs);
+      positionsLength = tokenInfo.positionsLength;
+    }
+  }
+
+  /**
+   * Add an occurrence of this token in the document with the given id.
+   *
+   * @param docId The id of the document where it occurs.
+   * @param count The number of times it occurs in the document.
+   */
+  public void addOccurrence(int docId, int count) {
+    // Postings can only grow uncompressed
+    if (compressed != null)
+      decompress();
+    if (numDocs == docIds.length) {
+      // Grow the posting arrays by half again their size
+      int capacity = docIds.length + (docIds.length >> 1) + 1;
+      docIds = Arrays.copyOf(docIds, capacity);
+      counts = Arrays.copyOf(counts, capacity);
+    }
+    docIds[numDocs] = docId;
+    counts[numDocs] = count;
+    numDocs++;
+  }
+
+  /**
+   * Add an occurrence of this token in the document with the given id,
+   * along with the positions where it occurs there.  Every posting of a
+   * token must be added with its positions or none may be.
+   *
+   * @param docId         The id of the document where it occurs.
+   * @param docPositions  The positions where it occurs, in increasing order.
+   * @param count         The number of times it occurs in the document,
+   *                      which is the number of positions used.
+   */
+  public void addOccurrence(int docId, int[] docPositions, int count) {
+    if (positions == null) {
+      if (numDocs > 0)
+        throw new IllegalStateException("Cannot add positions to postings without them");
+      positions = new byte[4 * INITIAL_CAPACITY];
+      positionOffsets = new int[INITIAL_CAPACITY];
+    }
+    if (numDocs == positionOffsets.length)
+      positionOffsets = Arrays.copyOf(positionOffsets, numDocs + (numDocs >> 1) + 1);
+    positionOffsets[numDocs] = positionsLength;
+    int previous = 0;
+    for (int i = 0; i < count; i++) {
+      writePosition(docPositions[i] - previous);
+      previous = docPositions[i];
+    }
+    addOccurrence(docId, count);
+  }
+
+  /**
+   * Append a position d-gap to positions as a variable-byte integer.
+   */
+  protected void writePosition(int gap) {
+    if (positionsLength + 5 > positions.length)
+      positions = Arrays.copyOf(positions, Math.max(positionsLength + 5, 2 * positions.length));
+    while ((gap & ~0x7F) != 0) {
+      positions[positionsLength++] = (byte) ((gap & 0x7F) | 0x80);
+      gap >>>= 7;
+    }
+    positions[positionsLength++] = (byte) gap;
+  }
+
+  /**
+   * Decode the positions of the posting with the given index (as given by
+   * PostingsCursor.index) into buffer, which is replaced by a larger array
+   * if it has room for fewer than count.
+   *
+   * @param index  The index of the posting among the postings of this token.
+   * @param count  The count of the posting, which is the number of positions.
+   * @param buffer An array to decode into, reused across calls.
+   * @return The array the positions were decoded into.
+   */
+  public int[] getPositions(int index, int count, int[] buffer) {
+    if (positions == null)
+      throw new IllegalStateException("Token positions are not stored");
+    if (buffer.length < count)
+      buffer = new int[Math.max(count, 2 * buffer.length)];
+    PostingsCodec.VBYTE.decode(positions, positionOffsets[index], buffer, count);
+    for (int i = 1; i < count; i++)
+      buffer[i] += buffer[i - 1];
+    return buffer;
+  }
+
+  /**
+   * Append the postings of another token info, which must not be
+   * compressed, with the ids of its documents shifted by offset so they
+   * follow all of those here.  Its positions are copied as they are,
+   * without decoding them.
+   */
+  public void append(TokenInfo other, int offset) {
+    if (compressed != null)
+      decompress();
+    int total = numDocs + other.numDocs;
+    if (total > docIds.length) {
+      docIds = Arrays.copyOf(docIds, total);
+      counts = Arrays.copyOf(counts, total);
+    }
+    for (int i = 0; i < other.numDocs; i++) {
+      docIds[numDocs + i] = other.docIds[i] + offset;
+      counts[numDocs + i] = other.counts[i];
+    }
+    if (other.positions != null) {
+      if (positions == null) {
+        positions = new byte[other.positionsLength];
+        positionOffsets = new int[total];
+      }
+      if (total > positionOffsets.length)
+        positionOffsets = Arrays.copyOf(positionOffsets, total);
+      if (positionsLength + other.positionsLength > positions.length)
+        positions = Arrays.copyOf(positions, positionsLength + other.positionsLength);
+      for (int i = 0; i < other.numDocs; i++)
+        positionOffsets[numDocs + i] = other.positionOffsets[i] + positionsLength;
+      System.arraycopy(other.positions, 0, positions, positionsLength, other.positionsLength);
+      positionsLength += other.positionsLength;
+    }
+    numDocs = total;
+  }
+
+  /**
+   * Return the number of documents in which this token occurs
+   */
+  public int size() {
+    return numDocs;
+  }
+
+  /**
+   * Release any unused capacity in the posting arrays once indexing is done.
+   */
+  public void trimToSize() {
+    if (compressed == null && docIds.length != numDocs) {
+      docIds = Arrays.copyOf(docIds, numDocs);
+      counts = Arrays.copyOf(counts, numDocs);
+    }
+    if (positions != null) {
+      if (positions.length != positionsLength)
+        positions = Arrays.copyOf(positions, positionsLength);
+      if (positionOffsets.length != numDocs)
+        positionOffsets = Arrays.copyOf(positionOffsets, numDocs);
+    }
+  }
+
+  /**
+   * Return a cursor over the postings of this token, compressed or not
+   */
+  public PostingsCursor cursor() {
+    if (compressed != null)
+      return compressed.cursor();
+    return new PostingsCursor(docIds, counts, numDocs);
+  }
+
+  /**
+   * Compress the postings of this token with the given codec, releasing
+   * the int arrays.
+   */
+  public void compress(PostingsCodec codec) {
+    if (compressed != null) {
+      if (compressed.codec == codec)
+        return;
+      decompress();
+    }
+    compressed = new CompressedPostings(codec, docIds, counts, numDocs);
+    docIds = null;
+    counts = null;
+  }
+
+  /**
+   * Decode compressed postings back into int arrays.
+   */
+  public void decompress() {
+    if (compressed == null)
+      return;
+    int[] newDocIds = new int[numDocs];
+    int[] newCounts = new int[numDocs];
+    PostingsCursor cursor = compressed.cursor();
+    for (int i = 0; i < numDocs; i++) {
+      newDocIds[i] = cursor.nextDoc();
+      newCounts[i] = cursor.count();
+    }
+    docIds = newDocIds;
+    counts = newCounts;
+    compressed = null;
+  }
+
+  /**
+   * Create a TokenOccurrence for the ith posting of this token, resolving its
+   * document id with the given table of document references.
+   */
+  public TokenOccurrence getOccurrence(int i, List<DocumentReference> docRefs) {
+    if (compressed != null) {
+      // Walk a cursor to the ith posting
+      PostingsCursor cursor = compressed.cursor();
+      for (int j = 0; j <= i; j++)
+        cursor.nextDoc();
+      return new TokenOccurrence(docRefs.get(cursor.docId()), cursor.count());
+    }
+    return new TokenOccurrence(docRefs.get(docIds[i]), counts[i]);
   }
 }
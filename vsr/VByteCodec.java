@@ -0,0 +1,34 @@
+package ir.vsr;
+
+import java.io.*;
+
+/**
+ * Variable-byte encoding: each value takes as many bytes as it has
+ * significant groups of 7 bits, so d-gaps under 128 take a single byte.
+ * Simple and fast to decode, but never uses less than a byte per value.
+ */
+public class VByteCodec extends PostingsCodec {
+
+  public String name() {
+    return "vbyte";
+  }
+
+  public void encode(int[] values, int n, ByteArrayOutputStream out) {
+    for (int i = 0; i < n; i++)
+      writeVByte(values[i], out);
+  }
+
+  public int decode(byte[] data, int offset, int[] values, int n) {
+    for (int i = 0; i < n; i++) {
+      int b = data[offset++];
+      int value = b & 0x7F;
+      // Keep adding 7 bit groups while the continuation bit is set
+      for (int shift = 7; b < 0; shift += 7) {
+        b = data[offset++];
+        value |= (b & 0x7F) << shift;
+      }
+      values[i] = value;
+    }
+    return offset;
+  }
+}